@@ -1,22 +1,32 @@
 package edu.stanford.slac.core_build_system.api.v1.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import edu.stanford.slac.ad.eed.baselib.api.v1.dto.ApiResultResponse;
 import edu.stanford.slac.core_build_system.api.v1.dto.ComponentBranchBuildDTO;
 import edu.stanford.slac.core_build_system.api.v1.dto.ComponentBranchBuildSummaryDTO;
 import edu.stanford.slac.core_build_system.api.v1.dto.LogEntryDTO;
+import edu.stanford.slac.core_build_system.service.BuildLogTailService;
 import edu.stanford.slac.core_build_system.service.ComponentBuildService;
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.media.Schema;
 import jakarta.validation.constraints.NotEmpty;
 import lombok.AllArgsConstructor;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @RestController()
 @RequestMapping("/v1/build")
@@ -24,6 +34,8 @@ import java.util.stream.Collectors;
 @Schema(description = "Api set for the component management")
 public class BuildController {
     ComponentBuildService componentBuildService;
+    BuildLogTailService buildLogTailService;
+    ObjectMapper objectMapper;
 
     @PostMapping(
             path = "/component/{componentName}/branch/{branchName}",
@@ -31,20 +43,22 @@ public class BuildController {
     )
     @Operation(
             summary = "Start a new build",
-            description = "Start a new build for a component/branch and return the IDs of the started builds. Custom build variables can be submitted as headers with the prefix ADBS_"
+            description = "Start a new build for a component/branch and return the IDs of the started builds. Custom build variables can be submitted as headers with the prefix ADBS_. A build of a commit already built with the same image and variables is completed from the cache, unless the header X-CBS-Cache-Bypass is true"
     )
     @ResponseStatus(HttpStatus.CREATED)
     public ApiResultResponse<List<String>> createNewBuild(
             @PathVariable @NotEmpty String componentName,
             @PathVariable @NotEmpty String branchName,
-            @RequestHeader HashMap<String, String> headers
+            @RequestHeader HashMap<String, String> headers,
+            @Parameter(description = "Execute the build also when its result is in the cache")
+            @RequestHeader(name = "X-CBS-Cache-Bypass", required = false, defaultValue = "false") boolean bypassCache
             ) {
         // fetch all the header that has ADBS_ as prefix and create a new map
         Map<String, String> buildVariables = headers.entrySet().stream()
                 .filter(entry -> entry.getKey().startsWith("ADBS_"))
                 .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
         return ApiResultResponse.of(
-                componentBuildService.startBuild(componentName, branchName, buildVariables)
+                componentBuildService.startBuild(componentName, branchName, buildVariables, bypassCache)
         );
     }
 
@@ -77,7 +91,7 @@ public class BuildController {
             @PathVariable @NotEmpty String buildId
     ) throws Exception {
 
-        return ApiResultResponse.of(componentBuildService.findBuildById(buildId));
+        return ApiResultResponse.of(componentBuildService.findBuildWithQueuePosition(buildId));
     }
 
     @DeleteMapping(
@@ -100,14 +114,67 @@ public class BuildController {
             produces = {MediaType.APPLICATION_JSON_VALUE}
     )
     @Operation(
-            summary = "Log for a build"
+            summary = "Log for a build",
+            description = "Return the log lines after the line number 'afterLine', at most 'limit' lines. Without parameters the whole log is returned"
     )
     @ResponseStatus(HttpStatus.OK)
     public ApiResultResponse<List<LogEntryDTO>> findLogByBuildId(
-            @PathVariable @NotEmpty String buildId
+            @PathVariable @NotEmpty String buildId,
+            @RequestParam(required = false) Long afterLine,
+            @RequestParam(required = false) Integer limit
     ) {
         return ApiResultResponse.of(
-                componentBuildService.findLogForBuild(buildId)
+                componentBuildService.findLogForBuild(buildId, afterLine, limit)
         );
     }
+
+    @GetMapping(
+            path = "/{buildId}/log/stream",
+            produces = {MediaType.APPLICATION_NDJSON_VALUE, MediaType.TEXT_PLAIN_VALUE}
+    )
+    @Operation(
+            summary = "Stream the log for a build",
+            description = "Stream the log lines after the line number 'afterLine' as newline delimited json, or as plain text when only text/plain is accepted"
+    )
+    public ResponseEntity<StreamingResponseBody> streamLogByBuildId(
+            @PathVariable @NotEmpty String buildId,
+            @RequestParam(required = false) Long afterLine,
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept
+    ) {
+        boolean plainText = accept != null
+                && accept.contains(MediaType.TEXT_PLAIN_VALUE)
+                && !accept.contains(MediaType.APPLICATION_NDJSON_VALUE);
+        StreamingResponseBody responseBody = outputStream -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+            try (Stream<LogEntryDTO> logStream = componentBuildService.streamLogForBuild(buildId, afterLine)) {
+                Iterator<LogEntryDTO> logLines = logStream.iterator();
+                while (logLines.hasNext()) {
+                    LogEntryDTO logLine = logLines.next();
+                    writer.write(plainText ? Objects.requireNonNullElse(logLine.log(), "") : objectMapper.writeValueAsString(logLine));
+                    writer.write('\n');
+                }
+            }
+            writer.flush();
+        };
+        return ResponseEntity
+                .ok()
+                .contentType(plainText ? MediaType.TEXT_PLAIN : MediaType.APPLICATION_NDJSON)
+                .body(responseBody);
+    }
+
+    @GetMapping(
+            path = "/{buildId}/log/tail",
+            produces = {MediaType.TEXT_EVENT_STREAM_VALUE}
+    )
+    @Operation(
+            summary = "Tail the log for a build",
+            description = "Send as server-sent events the log lines after the line number 'afterLine', or after the 'Last-Event-ID' on reconnection, and then the new lines until the build is terminated"
+    )
+    public SseEmitter tailLogByBuildId(
+            @PathVariable @NotEmpty String buildId,
+            @RequestParam(required = false) Long afterLine,
+            @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId
+    ) {
+        return buildLogTailService.tail(buildId, lastEventId != null ? lastEventId : afterLine);
+    }
 }
@@ -9,5 +9,7 @@ public record BuildInfoDTO (
     @Schema(description = "The name of the builder")
     String builderName,
     @Schema(description = "The path where the soruce code are stored")
-    String scratchLocation
+    String scratchLocation,
+    @Schema(description = "The path of the read-only source code shared with the other os builds of the same trigger")
+    String sharedLocation
 ){}
@@ -0,0 +1,20 @@
+package edu.stanford.slac.core_build_system.api.v1.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Builder;
+
+import java.util.List;
+
+@Builder(toBuilder = true)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonIgnoreProperties(ignoreUnknown = true)
+@Schema(description = "Select the changed paths that trigger a build when a branch is pushed, the globs are relative to the repository root and '**' matches across directories")
+public record BuildPathFilterDTO(
+        @Schema(description = "The globs of the paths that need a build, empty for all the paths")
+        List<String> include,
+        @Schema(description = "The globs of the paths that never need a build")
+        List<String> exclude
+) {
+}
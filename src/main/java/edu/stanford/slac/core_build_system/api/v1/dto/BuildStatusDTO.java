@@ -2,6 +2,8 @@ package edu.stanford.slac.core_build_system.api.v1.dto;
 
 public enum BuildStatusDTO {
     PENDING,
+    PREPARING,
+    QUEUED,
     IN_PROGRESS,
     SUCCESS,
     FAILED,
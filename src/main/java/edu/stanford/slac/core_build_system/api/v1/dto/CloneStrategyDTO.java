@@ -0,0 +1,21 @@
+package edu.stanford.slac.core_build_system.api.v1.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.PositiveOrZero;
+import lombok.Builder;
+
+@Builder(toBuilder = true)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonIgnoreProperties(ignoreUnknown = true)
+@Schema(description = "Define how the repository of a component is cloned for a build, a build can force the full clone with the ADBS_FULL_CLONE=true variable")
+public record CloneStrategyDTO(
+        @Schema(description = "The number of commits of history to fetch, null or zero for the full history")
+        @PositiveOrZero Integer depth,
+        @Schema(description = "Fetch only the branch that is built")
+        boolean singleBranch,
+        @Schema(description = "Do not fetch the tags")
+        boolean noTags
+) {
+}
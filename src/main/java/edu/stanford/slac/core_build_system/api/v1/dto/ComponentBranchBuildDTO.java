@@ -11,6 +11,7 @@ import io.swagger.v3.oas.annotations.media.Schema;
 import lombok.Builder;
 import lombok.ToString;
 
+import java.time.Instant;
 import java.time.LocalDateTime;
 import java.util.Map;
 
@@ -31,14 +32,38 @@ public record ComponentBranchBuildDTO(
         BuildOS buildOs,
         @Schema(description = "The URL of the image that is used to perform this build")
         String buildImageUrl,
+        @Schema(description = "The identifier of the source checkout shared with the other os builds of the same trigger")
+        String sharedCheckoutId,
+        @Schema(description = "The commit at the head of the branch when the build was started")
+        String commitSha,
+        @Schema(description = "The key of the build result, computed from the commit, the os, the image and the variables")
+        String cacheKey,
+        @Schema(description = "The identifier of the build that produced the result, when the build has been completed from the cache")
+        String cachedFromBuildId,
+        @Schema(description = "The resources requested for the builder pod")
+        ResourceProfileDTO resourceProfile,
+        @Schema(description = "The resources used by the builder pod")
+        ResourceUsageDTO resourceUsage,
         @Schema(description = "The status of the build")
         BuildStatusDTO buildStatus,
+        @Schema(description = "The instant before which the pending build is not started, waiting for newer triggers of the same branch")
+        Instant notBefore,
+        @Schema(description = "The priority of the build in the queue, the higher the sooner the build is started")
+        Integer priority,
+        @Schema(description = "The position of the pending build in the queue, 1 for the next build to start")
+        Integer queuePosition,
+        @Schema(description = "The fencing token of the lock held on the build by a dispatcher worker")
+        Long lockToken,
         @Schema(description = "The custom variables that are used to perform this build")
         Map<String,String> buildCustomVariables,
         @JsonDeserialize(using = LocalDateTimeDeserializer.class)
         @JsonSerialize(using = LocalDateTimeSerializer.class)
         @Schema(description = "The date and time when the build was started")
         LocalDateTime lastProcessTime,
+        @Schema(description = "The error that prevented the download of the sources")
+        String preparationError,
+        @Schema(description = "The kubernetes timestamp of the last log line stored for the build")
+        String logCursor,
         @JsonDeserialize(using = LocalDateTimeDeserializer.class)
         @JsonSerialize(using = LocalDateTimeSerializer.class)
         @Schema(description = "The date and time when the activity was created")
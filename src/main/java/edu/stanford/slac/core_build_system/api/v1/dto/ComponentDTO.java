@@ -38,6 +38,12 @@ public record ComponentDTO(
         String testingCriteria,
         @Schema(description = "The build command of the component")
         String buildInstructions,
+        @Schema(description = "The strategy used to clone the repository for the builds, absent for the full clone")
+        CloneStrategyDTO cloneStrategy,
+        @Schema(description = "The resources of the builder pods, absent to use the ones of the build image")
+        ResourceProfileDTO resourceProfile,
+        @Schema(description = "The changed paths that trigger a build when a branch is pushed, absent to build on every push")
+        BuildPathFilterDTO buildPathFilter,
         Set<String> approvalIdentity,
         @Schema(description = "The list of unique identifier of the components that this component depends on.")
         Set<ComponentDependencyDTO> dependOn,
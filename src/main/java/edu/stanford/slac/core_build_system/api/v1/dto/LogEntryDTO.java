@@ -24,6 +24,8 @@ public record LogEntryDTO(
         String id,
         @Schema(description = "The unique identifier of the build")
         String buildId,
+        @Schema(description = "The number of the line within the build log, starting from zero")
+        Long lineNumber,
         @Schema(description = "The timestamp of the log entry")
         @JsonDeserialize(using = LocalDateTimeDeserializer.class)
         @JsonSerialize(using = LocalDateTimeSerializer.class)
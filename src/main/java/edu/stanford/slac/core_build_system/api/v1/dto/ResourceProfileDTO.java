@@ -0,0 +1,35 @@
+package edu.stanford.slac.core_build_system.api.v1.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.Pattern;
+import lombok.Builder;
+
+import java.util.Map;
+
+@Builder(toBuilder = true)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonIgnoreProperties(ignoreUnknown = true)
+@Schema(description = "The resources of the builder pod, a build can override them with the ADBS_CPU_REQUEST, ADBS_CPU_LIMIT, ADBS_MEMORY_REQUEST, ADBS_MEMORY_LIMIT, ADBS_EPHEMERAL_STORAGE_REQUEST, ADBS_EPHEMERAL_STORAGE_LIMIT and ADBS_NODE_SELECTOR (label=value,...) variables")
+public record ResourceProfileDTO(
+        @Schema(description = "The cpu reserved for the build, for example 500m or 2")
+        @Pattern(regexp = QUANTITY_PATTERN) String cpuRequest,
+        @Schema(description = "The maximum cpu the build can use")
+        @Pattern(regexp = QUANTITY_PATTERN) String cpuLimit,
+        @Schema(description = "The memory reserved for the build, for example 512Mi or 4Gi")
+        @Pattern(regexp = QUANTITY_PATTERN) String memoryRequest,
+        @Schema(description = "The maximum memory the build can use before being killed")
+        @Pattern(regexp = QUANTITY_PATTERN) String memoryLimit,
+        @Schema(description = "The local disk reserved for the build outside the scratch volume")
+        @Pattern(regexp = QUANTITY_PATTERN) String ephemeralStorageRequest,
+        @Schema(description = "The maximum local disk the build can use outside the scratch volume")
+        @Pattern(regexp = QUANTITY_PATTERN) String ephemeralStorageLimit,
+        @Schema(description = "The labels of the nodes where the build can run")
+        Map<String, String> nodeSelector
+) {
+    /**
+     * The kubernetes quantity notation
+     */
+    public static final String QUANTITY_PATTERN = "^([0-9]+(\\.[0-9]*)?|\\.[0-9]+)(Ki|Mi|Gi|Ti|Pi|Ei|m|k|M|G|T|P|E)?$";
+}
@@ -0,0 +1,22 @@
+package edu.stanford.slac.core_build_system.api.v1.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.Builder;
+
+@Builder(toBuilder = true)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonIgnoreProperties(ignoreUnknown = true)
+@Schema(description = "The resources used by the builder pod, sampled while the build runs")
+public record ResourceUsageDTO(
+        @Schema(description = "The highest cpu usage sampled, in millicores")
+        Long peakCpuMillis,
+        @Schema(description = "The highest memory usage sampled, in bytes")
+        Long peakMemoryBytes,
+        @Schema(description = "The number of samples taken")
+        int samples,
+        @Schema(description = "The builder has been killed because it exceeded its memory limit")
+        boolean oomKilled
+) {
+}
@@ -35,6 +35,12 @@ public record UpdateComponentDTO(
         @Schema(description = "The list of os that the component need to be build on")
         @Valid List<BuildOSDTO> buildOs,
         @Schema(description = "The instruction for build the component")
-        String buildInstructions
+        String buildInstructions,
+        @Schema(description = "The strategy used to clone the repository for the builds, absent for the full clone")
+        @Valid CloneStrategyDTO cloneStrategy,
+        @Schema(description = "The resources of the builder pods, absent to use the ones of the build image")
+        @Valid ResourceProfileDTO resourceProfile,
+        @Schema(description = "The changed paths that trigger a build when a branch is pushed, absent to build on every push")
+        @Valid BuildPathFilterDTO buildPathFilter
 ) {
 }
@@ -3,8 +3,10 @@ package edu.stanford.slac.core_build_system.api.v1.mapper;
 import edu.stanford.slac.core_build_system.api.v1.dto.BuildStatusDTO;
 import edu.stanford.slac.core_build_system.api.v1.dto.ComponentBranchBuildDTO;
 import edu.stanford.slac.core_build_system.api.v1.dto.ComponentBranchBuildSummaryDTO;
+import edu.stanford.slac.core_build_system.api.v1.dto.ResourceProfileDTO;
 import edu.stanford.slac.core_build_system.model.BuildStatus;
 import edu.stanford.slac.core_build_system.model.ComponentBranchBuild;
+import edu.stanford.slac.core_build_system.model.ResourceProfile;
 import org.mapstruct.Mapper;
 import org.mapstruct.ReportingPolicy;
 
@@ -16,4 +18,6 @@ public abstract class ComponentBranchBuildMapper {
     abstract public ComponentBranchBuildDTO toDTO(ComponentBranchBuild componentBranchBuild);
     abstract public ComponentBranchBuildSummaryDTO toSummaryDTO(ComponentBranchBuild componentBranchBuild);
     abstract public BuildStatus toModel(BuildStatusDTO status);
+    abstract public BuildStatusDTO toDTO(BuildStatus status);
+    abstract public ResourceProfile toModel(ResourceProfileDTO resourceProfile);
 }
@@ -23,6 +23,26 @@ public class CoreBuildProperties {
     private String buildVolumeClaimName;
     private Long builderUserId;
     private Long builderGroupId;
+
+    /**
+     * The cpu reserved for a builder pod when neither the build image nor the component define it
+     */
+    private String builderCpuRequest = "1";
+
+    /**
+     * The maximum cpu of a builder pod when neither the build image nor the component define it
+     */
+    private String builderCpuLimit = "1";
+
+    /**
+     * The memory reserved for a builder pod when neither the build image nor the component define it
+     */
+    private String builderMemoryRequest = "1Gi";
+
+    /**
+     * The maximum memory of a builder pod when neither the build image nor the component define it
+     */
+    private String builderMemoryLimit = "1Gi";
     private String artifactRootDirectory;
 
     private String k8sBuildNamespace;
@@ -32,4 +52,251 @@ public class CoreBuildProperties {
      * of the microservice after the deployment. Thi si used as hostname for the event webhook
      */
     private String hostNamePrefix;
+
+    /**
+     * The number of dispatcher workers that concurrently claim and advance builds
+     */
+    private int dispatcherWorkers = 4;
+
+    /**
+     * The delay in milliseconds between two dispatcher ticks when all workers found the queue empty
+     */
+    private long dispatcherIdleDelayMs = 2000;
+
+    /**
+     * The delay in milliseconds between two polls of the builds while the dispatcher is woken up by the change stream
+     */
+    private long dispatcherFallbackDelayMs = 15000;
+
+    /**
+     * Wake up the dispatcher from the change stream of the builds, and invalidate the component cache from the one of
+     * the components, it requires a mongo replica set
+     */
+    private boolean buildChangeStreamEnabled = true;
+
+    /**
+     * The maximum number of entries of the component cache, a component is cached by identifier, name and url
+     */
+    private long componentCacheMaxSize = 1000;
+
+    /**
+     * The time in milliseconds after which a cached component is read again from the database
+     */
+    private long componentCacheTtlMs = 60 * 1000;
+
+    /**
+     * The minimum time in milliseconds between two processing of the same not pending build
+     */
+    private long dispatcherReprocessDelayMs = 2000;
+
+    /**
+     * The time in milliseconds after which the lock of a build taken by a dispatcher worker is considered expired
+     * if it has not been renewed
+     */
+    private long buildLockTimeoutMs = 60 * 1000;
+
+    /**
+     * The interval in milliseconds between two renewals of the locks held by the dispatcher workers, it need to be
+     * well below the lock timeout
+     */
+    private long buildLockHeartbeatMs = 15 * 1000;
+
+    /**
+     * The number of threads that concurrently download the sources of the builds
+     */
+    private int sourcePrepareWorkers = 4;
+
+    /**
+     * The number of builds that can wait for a source preparation thread, the others stay pending
+     */
+    private int sourcePrepareQueueCapacity = 100;
+
+    /**
+     * The number of log lines stored in a compressed log chunk
+     */
+    private int logBatchMaxLines = 2000;
+
+    /**
+     * The approximate size in bytes of the log lines that seal a log chunk before it reaches the maximum lines
+     */
+    private long logBatchMaxBytes = 1024 * 1024;
+
+    /**
+     * The maximum time in milliseconds a log line stay buffered before being stored
+     */
+    private long logBatchMaxDelayMs = 1000;
+
+    /**
+     * The maximum time in milliseconds between two reads of the new lines of a tailed build log
+     */
+    private long logTailPollIntervalMs = 1000;
+
+    /**
+     * The time in milliseconds after which a log tail connection is closed, the client can reconnect
+     * sending the last received event id
+     */
+    private long logTailTimeoutMs = 30 * 60 * 1000;
+
+    /**
+     * The directory where the bare mirrors of the component repositories are kept, empty to clone
+     * every build directly from the git server
+     */
+    private String gitMirrorRootDirectory;
+
+    /**
+     * The maximum total size in bytes of the git mirrors, the least recently used ones are evicted above it
+     */
+    private long gitMirrorMaxSizeBytes = 10L * 1024 * 1024 * 1024;
+
+    /**
+     * The time in milliseconds after which a git mirror not used by any build is evicted
+     */
+    private long gitMirrorMaxAgeMs = 7L * 24 * 60 * 60 * 1000;
+
+    /**
+     * The maximum time in milliseconds a build waits for the lock of a git mirror in use by another build
+     */
+    private long gitMirrorLockTimeoutMs = 10 * 60 * 1000;
+
+    /**
+     * The time in milliseconds after which the scratch directory of a terminated build is deleted
+     */
+    private long scratchGcMaxAgeMs = 24L * 60 * 60 * 1000;
+
+    /**
+     * The maximum number of scratch directories of terminated builds that are kept, the oldest are deleted
+     */
+    private int scratchGcMaxCount = 200;
+
+    /**
+     * The maximum total size in bytes of the scratch directories, above it the oldest directories of the
+     * terminated builds are deleted
+     */
+    private long scratchGcMaxSizeBytes = 100L * 1024 * 1024 * 1024;
+
+    /**
+     * The number of low priority threads that measure and delete the scratch directories
+     */
+    private int scratchGcWorkers = 2;
+
+    /**
+     * The time in milliseconds between two samples of the resources used by the builder pods
+     */
+    private long resourceSampleIntervalMs = 15 * 1000;
+
+    /**
+     * Size the builder pods from the resources used by the previous builds of the same component and os
+     */
+    private boolean autosizeEnabled = true;
+
+    /**
+     * The number of previous builds used to size the builder pod
+     */
+    private int autosizeHistorySize = 20;
+
+    /**
+     * The minimum number of previous builds with a resource usage needed to size the builder pod
+     */
+    private int autosizeMinSamples = 3;
+
+    /**
+     * The fraction added to the observed usage, 0.2 reserve 20% more than the usage
+     */
+    private double autosizeHeadroom = 0.2;
+
+    /**
+     * The lowest cpu, in millicores, assigned by the autosizer
+     */
+    private long autosizeMinCpuMillis = 100;
+
+    /**
+     * The highest cpu, in millicores, assigned by the autosizer
+     */
+    private long autosizeMaxCpuMillis = 8000;
+
+    /**
+     * The lowest memory, in bytes, assigned by the autosizer
+     */
+    private long autosizeMinMemoryBytes = 256L * 1024 * 1024;
+
+    /**
+     * The highest memory, in bytes, assigned by the autosizer
+     */
+    private long autosizeMaxMemoryBytes = 16L * 1024 * 1024 * 1024;
+
+    /**
+     * Complete a build from the result of a previous successful build of the same commit, os, image and variables
+     */
+    private boolean buildCacheEnabled = true;
+
+    /**
+     * The time in milliseconds the builds triggered by a repository event wait for newer events of the same
+     * branch, which supersede them
+     */
+    private long triggerQuietWindowMs = 10 * 1000;
+
+    /**
+     * The regular expression of the branches whose builds are started before the builds of the other branches
+     */
+    private String priorityBranchPattern = "main|master|release.*";
+
+    /**
+     * The maximum number of builds started at the same time, 0 for no limit
+     */
+    private int maxConcurrentBuilds = 0;
+
+    /**
+     * The maximum number of builds of the same component started at the same time, 0 for no limit
+     */
+    private int maxConcurrentBuildsPerComponent = 8;
+
+    /**
+     * The maximum number of builds of the components of the same organization started at the same time, 0 for no limit
+     */
+    private int maxConcurrentBuildsPerOrganization = 0;
+
+    /**
+     * The maximum number of pending builds read to choose the next build to start
+     */
+    private int schedulerQueueScanLimit = 1000;
+
+    /**
+     * Create the builder pods only when they fit in the resource quotas of the build namespace
+     */
+    private boolean admissionEnabled = true;
+
+    /**
+     * The maximum number of builder pods waiting to be scheduled, above it the builds wait, 0 for no limit
+     */
+    private int admissionMaxPendingPods = 10;
+
+    /**
+     * The time in milliseconds between two reads of the resource quotas of the build namespace
+     */
+    private long admissionRefreshIntervalMs = 5 * 1000;
+
+    /**
+     * The number of workers that process the webhook deliveries stored in the inbox
+     */
+    private int webhookWorkers = 2;
+
+    /**
+     * The delay in milliseconds between two polls of the webhook inbox
+     */
+    private long webhookInboxPollMs = 1000;
+
+    /**
+     * The time in milliseconds after which the lock of a webhook delivery taken by a worker is considered expired
+     */
+    private long webhookLockTimeoutMs = 5 * 60 * 1000;
+
+    /**
+     * The maximum number of processing attempts of a webhook delivery
+     */
+    private int webhookMaxAttempts = 5;
+
+    /**
+     * The delay in milliseconds before the first retry of a failed webhook delivery, doubled at each attempt
+     */
+    private long webhookRetryDelayMs = 5 * 1000;
 }
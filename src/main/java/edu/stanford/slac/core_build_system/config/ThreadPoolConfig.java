@@ -1,6 +1,7 @@
 package edu.stanford.slac.core_build_system.config;
 
 
+import lombok.RequiredArgsConstructor;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -12,11 +13,17 @@ import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 @Configuration
 @EnableScheduling
 @Profile("!test")
+@RequiredArgsConstructor
 public class ThreadPoolConfig {
+    private final CoreBuildProperties coreBuildProperties;
+
     @Bean
     public ThreadPoolTaskScheduler taskScheduler() {
         ThreadPoolTaskScheduler taskScheduler = new ThreadPoolTaskScheduler();
-        taskScheduler.setPoolSize(10);  // Set the pool size to the desired number of concurrent threads
+        // keep room for the scheduled ticks, as the lease heartbeat, beside the dispatcher and the inbox workers
+        taskScheduler.setPoolSize(
+                Math.max(10, coreBuildProperties.getDispatcherWorkers() + Math.max(1, coreBuildProperties.getWebhookWorkers()) + 2)
+        );
         taskScheduler.setThreadNamePrefix("processing-task-");
         taskScheduler.setWaitForTasksToCompleteOnShutdown(true);  // Wait for tasks to complete on shutdown
         taskScheduler.setAwaitTerminationSeconds(30);  // Maximum wait time in seconds
@@ -0,0 +1,19 @@
+package edu.stanford.slac.core_build_system.exception;
+
+import edu.stanford.slac.ad.eed.baselib.exception.ControllerLogicException;
+import lombok.Builder;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+import static edu.stanford.slac.ad.eed.baselib.exception.Utility.getAllMethodInCall;
+
+@ResponseStatus(value = HttpStatus.CONFLICT, reason = "component repository already used")
+public class ComponentRepositoryAlreadyUsed extends ControllerLogicException {
+    @Builder(builderMethodName = "byRepository")
+    public ComponentRepositoryAlreadyUsed(Integer errorCode, String repository) {
+        super(errorCode,
+                String.format("The repository '%s' is already used by another component", repository),
+                getAllMethodInCall()
+        );
+    }
+}
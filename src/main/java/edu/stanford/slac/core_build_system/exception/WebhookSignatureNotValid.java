@@ -0,0 +1,19 @@
+package edu.stanford.slac.core_build_system.exception;
+
+import edu.stanford.slac.ad.eed.baselib.exception.ControllerLogicException;
+import lombok.Builder;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+import static edu.stanford.slac.ad.eed.baselib.exception.Utility.getAllMethodInCall;
+
+@ResponseStatus(value = HttpStatus.UNAUTHORIZED, reason = "webhook signature not valid")
+public class WebhookSignatureNotValid extends ControllerLogicException {
+    @Builder(builderMethodName = "byRepository")
+    public WebhookSignatureNotValid(Integer errorCode, String repository) {
+        super(errorCode,
+                String.format("The signature of the event of the repository '%s' is not valid", repository),
+                getAllMethodInCall()
+        );
+    }
+}
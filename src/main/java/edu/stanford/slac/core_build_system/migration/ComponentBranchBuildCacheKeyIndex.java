@@ -0,0 +1,47 @@
+package edu.stanford.slac.core_build_system.migration;
+
+import edu.stanford.slac.ad.eed.base_mongodb_lib.utility.MongoDDLOps;
+import edu.stanford.slac.core_build_system.model.ComponentBranchBuild;
+import io.mongock.api.annotations.ChangeUnit;
+import io.mongock.api.annotations.Execution;
+import io.mongock.api.annotations.RollbackExecution;
+import lombok.AllArgsConstructor;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+
+/**
+ * Index the builds by their cache key, used to find the successful build of the same commit, os, image and variables
+ */
+@AllArgsConstructor
+@ChangeUnit(id = "component-branch-build-cache-key-index", order = "6", author = "bisegni")
+public class ComponentBranchBuildCacheKeyIndex {
+    private final MongoTemplate mongoTemplate;
+
+    @Execution
+    public void changeSet() {
+        MongoDDLOps.createIndex(
+                ComponentBranchBuild.class,
+                mongoTemplate,
+                new Index().on(
+                                "cacheKey",
+                                Sort.Direction.ASC
+                        )
+                        .on(
+                                "buildStatus",
+                                Sort.Direction.ASC
+                        )
+                        .on(
+                                "_id",
+                                Sort.Direction.DESC
+                        )
+                        .sparse()
+                        .named("cacheKey-buildStatus-id")
+        );
+    }
+
+    @RollbackExecution
+    public void rollback() {
+
+    }
+}
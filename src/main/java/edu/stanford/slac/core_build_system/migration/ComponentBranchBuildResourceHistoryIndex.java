@@ -0,0 +1,47 @@
+package edu.stanford.slac.core_build_system.migration;
+
+import edu.stanford.slac.ad.eed.base_mongodb_lib.utility.MongoDDLOps;
+import edu.stanford.slac.core_build_system.model.ComponentBranchBuild;
+import io.mongock.api.annotations.ChangeUnit;
+import io.mongock.api.annotations.Execution;
+import io.mongock.api.annotations.RollbackExecution;
+import lombok.AllArgsConstructor;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+
+/**
+ * Index the builds by component and os from the most recent, the identifier grows with the creation time,
+ * used to size the builder pods from the history
+ */
+@AllArgsConstructor
+@ChangeUnit(id = "component-branch-build-resource-history-index", order = "5", author = "bisegni")
+public class ComponentBranchBuildResourceHistoryIndex {
+    private final MongoTemplate mongoTemplate;
+
+    @Execution
+    public void changeSet() {
+        MongoDDLOps.createIndex(
+                ComponentBranchBuild.class,
+                mongoTemplate,
+                new Index().on(
+                                "componentId",
+                                Sort.Direction.ASC
+                        )
+                        .on(
+                                "buildOs",
+                                Sort.Direction.ASC
+                        )
+                        .on(
+                                "_id",
+                                Sort.Direction.DESC
+                        )
+                        .named("componentId-buildOs-id")
+        );
+    }
+
+    @RollbackExecution
+    public void rollback() {
+
+    }
+}
@@ -0,0 +1,73 @@
+package edu.stanford.slac.core_build_system.migration;
+
+import edu.stanford.slac.ad.eed.base_mongodb_lib.utility.MongoDDLOps;
+import edu.stanford.slac.core_build_system.model.ComponentBranchBuild;
+import io.mongock.api.annotations.ChangeUnit;
+import io.mongock.api.annotations.Execution;
+import io.mongock.api.annotations.RollbackExecution;
+import lombok.AllArgsConstructor;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+
+/**
+ * Index the builds for the dispatcher, the pending builds by priority and age, the started builds by component
+ * and the running builds by their last processing
+ */
+@AllArgsConstructor
+@ChangeUnit(id = "component-branch-build-scheduling-index", order = "7", author = "bisegni")
+public class ComponentBranchBuildSchedulingIndex {
+    private final MongoTemplate mongoTemplate;
+
+    @Execution
+    public void changeSet() {
+        MongoDDLOps.createIndex(
+                ComponentBranchBuild.class,
+                mongoTemplate,
+                new Index().on(
+                                "buildStatus",
+                                Sort.Direction.ASC
+                        )
+                        .on(
+                                "priority",
+                                Sort.Direction.DESC
+                        )
+                        .on(
+                                "_id",
+                                Sort.Direction.ASC
+                        )
+                        .named("buildStatus-priority-id")
+        );
+        MongoDDLOps.createIndex(
+                ComponentBranchBuild.class,
+                mongoTemplate,
+                new Index().on(
+                                "buildStatus",
+                                Sort.Direction.ASC
+                        )
+                        .on(
+                                "componentId",
+                                Sort.Direction.ASC
+                        )
+                        .named("buildStatus-componentId")
+        );
+        MongoDDLOps.createIndex(
+                ComponentBranchBuild.class,
+                mongoTemplate,
+                new Index().on(
+                                "buildStatus",
+                                Sort.Direction.ASC
+                        )
+                        .on(
+                                "lastProcessTime",
+                                Sort.Direction.ASC
+                        )
+                        .named("buildStatus-lastProcessTime")
+        );
+    }
+
+    @RollbackExecution
+    public void rollback() {
+
+    }
+}
@@ -0,0 +1,85 @@
+package edu.stanford.slac.core_build_system.migration;
+
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Updates;
+import edu.stanford.slac.ad.eed.base_mongodb_lib.utility.MongoDDLOps;
+import edu.stanford.slac.core_build_system.model.Component;
+import io.mongock.api.annotations.ChangeUnit;
+import io.mongock.api.annotations.Execution;
+import io.mongock.api.annotations.RollbackExecution;
+import lombok.AllArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.bson.Document;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static edu.stanford.slac.core_build_system.utility.RepositoryUrlUtility.normalizedRepoKey;
+
+/**
+ * Backfill the repository key of the components and index it with the url, used to route the repository events
+ */
+@Log4j2
+@AllArgsConstructor
+@ChangeUnit(id = "component-normalized-repo-key-index", order = "8", author = "bisegni")
+public class ComponentNormalizedRepoKeyIndex {
+    private final MongoTemplate mongoTemplate;
+
+    @Execution
+    public void changeSet() {
+        var collection = mongoTemplate.getCollection(mongoTemplate.getCollectionName(Component.class));
+        Set<String> usedKeys = new HashSet<>();
+        try (
+                MongoCursor<Document> cursor = collection
+                        .find()
+                        .projection(Projections.include("url"))
+                        .sort(new Document("_id", 1))
+                        .iterator()
+        ) {
+            while (cursor.hasNext()) {
+                Document component = cursor.next();
+                String key = normalizedRepoKey(component.getString("url"));
+                if (key != null && !usedKeys.add(key)) {
+                    // the oldest component keeps the key, the events were already routed to the first one found
+                    log.warn("Component {} uses the repository {} of another component, its key is not set", component.get("_id"), key);
+                    key = null;
+                }
+                collection.updateOne(
+                        Filters.eq("_id", component.get("_id")),
+                        key == null ? Updates.unset("normalizedRepoKey") : Updates.set("normalizedRepoKey", key)
+                );
+            }
+        }
+
+        MongoDDLOps.createIndex(
+                Component.class,
+                mongoTemplate,
+                new Index().on(
+                                "normalizedRepoKey",
+                                Sort.Direction.ASC
+                        )
+                        .named("normalized-repo-key")
+                        .unique()
+                        .sparse()
+        );
+        MongoDDLOps.createIndex(
+                Component.class,
+                mongoTemplate,
+                new Index().on(
+                                "url",
+                                Sort.Direction.ASC
+                        )
+                        .named("url")
+        );
+    }
+
+    @RollbackExecution
+    public void rollback() {
+
+    }
+}
@@ -0,0 +1,111 @@
+package edu.stanford.slac.core_build_system.migration;
+
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+import edu.stanford.slac.ad.eed.base_mongodb_lib.utility.MongoDDLOps;
+import edu.stanford.slac.core_build_system.model.LogChunk;
+import edu.stanford.slac.core_build_system.model.LogEntry;
+import edu.stanford.slac.core_build_system.utility.LogChunkCodec;
+import io.mongock.api.annotations.ChangeUnit;
+import io.mongock.api.annotations.Execution;
+import io.mongock.api.annotations.RollbackExecution;
+import lombok.AllArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Create the index of the log chunks and convert the log stored one document per line to chunks
+ */
+@Log4j2
+@AllArgsConstructor
+@ChangeUnit(id = "log-chunk-index-and-conversion", order = "4", author = "bisegni")
+public class LogChunkIndexAndConversion {
+    private static final String LEGACY_LOG_COLLECTION = "logEntry";
+    private static final int LINES_PER_CHUNK = 2000;
+    private final MongoTemplate mongoTemplate;
+
+    @Execution
+    public void changeSet() throws IOException {
+        MongoDDLOps.createIndex(
+                LogChunk.class,
+                mongoTemplate,
+                new Index().on(
+                                "buildId",
+                                Sort.Direction.ASC
+                        )
+                        .on(
+                                "chunkSeq",
+                                Sort.Direction.ASC
+                        )
+                        .named("build-chunk")
+                        .unique()
+        );
+
+        if (!mongoTemplate.collectionExists(LEGACY_LOG_COLLECTION)) return;
+        List<ObjectId> buildIds = mongoTemplate.getCollection(LEGACY_LOG_COLLECTION)
+                .distinct("buildId", ObjectId.class)
+                .into(new ArrayList<>());
+        for (ObjectId buildId : buildIds) {
+            convertBuildLog(buildId);
+        }
+        mongoTemplate.dropCollection(LEGACY_LOG_COLLECTION);
+    }
+
+    @RollbackExecution
+    public void rollback() {
+
+    }
+
+    /**
+     * Convert the lines of a build to chunks, the chunks of a previous interrupted conversion are replaced
+     *
+     * @param buildId the identifier of the build
+     */
+    private void convertBuildLog(ObjectId buildId) throws IOException {
+        mongoTemplate.remove(new Query(Criteria.where("buildId").is(buildId.toString())), LogChunk.class);
+        int chunkSeq = 0;
+        long firstLine = 0;
+        List<LogEntry> lines = new ArrayList<>(LINES_PER_CHUNK);
+        try (
+                MongoCursor<Document> cursor = mongoTemplate.getCollection(LEGACY_LOG_COLLECTION)
+                        .find(Filters.eq("buildId", buildId))
+                        .sort(Sorts.ascending("timestamp", "_id"))
+                        .batchSize(LINES_PER_CHUNK)
+                        .iterator()
+        ) {
+            while (cursor.hasNext()) {
+                Document line = cursor.next();
+                Date timestamp = line.getDate("timestamp");
+                lines.add(
+                        LogEntry.builder()
+                                .timestamp(timestamp == null ? null : LocalDateTime.ofInstant(timestamp.toInstant(), ZoneId.systemDefault()))
+                                .log(line.getString("log"))
+                                .build()
+                );
+                if (lines.size() == LINES_PER_CHUNK) {
+                    mongoTemplate.insert(LogChunkCodec.encode(buildId.toString(), chunkSeq++, firstLine, lines));
+                    firstLine += lines.size();
+                    lines.clear();
+                }
+            }
+        }
+        if (!lines.isEmpty()) {
+            mongoTemplate.insert(LogChunkCodec.encode(buildId.toString(), chunkSeq, firstLine, lines));
+        }
+        log.info("Converted {} log lines of build {} to chunks", firstLine + lines.size(), buildId);
+    }
+}
@@ -0,0 +1,66 @@
+package edu.stanford.slac.core_build_system.migration;
+
+import edu.stanford.slac.ad.eed.base_mongodb_lib.utility.MongoDDLOps;
+import edu.stanford.slac.core_build_system.model.WebhookDelivery;
+import io.mongock.api.annotations.ChangeUnit;
+import io.mongock.api.annotations.Execution;
+import io.mongock.api.annotations.RollbackExecution;
+import lombok.AllArgsConstructor;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+
+import java.time.Duration;
+
+/**
+ * Index the webhook inbox, the deliveries by their unique identifier, the pending ones by age and the completed
+ * ones for their removal after the retention
+ */
+@AllArgsConstructor
+@ChangeUnit(id = "webhook-delivery-index", order = "9", author = "bisegni")
+public class WebhookDeliveryIndex {
+    private static final Duration COMPLETED_RETENTION = Duration.ofDays(7);
+    private final MongoTemplate mongoTemplate;
+
+    @Execution
+    public void changeSet() {
+        MongoDDLOps.createIndex(
+                WebhookDelivery.class,
+                mongoTemplate,
+                new Index().on(
+                                "deliveryId",
+                                Sort.Direction.ASC
+                        )
+                        .named("deliveryId")
+                        .unique()
+        );
+        MongoDDLOps.createIndex(
+                WebhookDelivery.class,
+                mongoTemplate,
+                new Index().on(
+                                "status",
+                                Sort.Direction.ASC
+                        )
+                        .on(
+                                "_id",
+                                Sort.Direction.ASC
+                        )
+                        .named("status-id")
+        );
+        MongoDDLOps.createIndex(
+                WebhookDelivery.class,
+                mongoTemplate,
+                new Index().on(
+                                "completedDate",
+                                Sort.Direction.ASC
+                        )
+                        .named("completedDate")
+                        .expire(COMPLETED_RETENTION)
+        );
+    }
+
+    @RollbackExecution
+    public void rollback() {
+
+    }
+}
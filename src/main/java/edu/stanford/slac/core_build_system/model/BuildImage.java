@@ -16,4 +16,8 @@ public class BuildImage {
     private String id;
     private BuildOS os;
     private String dockerImageUrl;
+    /**
+     * The resources of the builder pods that use this image, null for the default resources
+     */
+    private ResourceProfile resourceProfile;
 }
@@ -8,4 +8,8 @@ import lombok.Data;
 public class BuildInfo {
     private String builderName;
     private String scratchLocation;
+    /**
+     * The read-only source checkout shared with the other os builds, null if the sources are only in the scratch location
+     */
+    private String sharedLocation;
 }
@@ -0,0 +1,79 @@
+package edu.stanford.slac.core_build_system.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Select the changes of the repository of a component that need a build when a branch is pushed
+ * <p>
+ * The patterns are globs matched against the paths relative to the root of the repository, a double star matches
+ * across the directories, so "src/**" matches all the files under src and "**.md" all the markdown files.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@EqualsAndHashCode
+public class BuildPathFilter {
+    /**
+     * The paths that need a build, empty for all the paths
+     */
+    @Builder.Default
+    private List<String> include = new ArrayList<>();
+    /**
+     * The paths that never need a build, like the documentation
+     */
+    @Builder.Default
+    private List<String> exclude = new ArrayList<>();
+
+    /**
+     * Check if at least one of the changed paths need a build
+     *
+     * @param changedPaths the paths added, modified or removed by the push
+     * @return true if a changed path is included and not excluded
+     */
+    public boolean isBuildNeeded(Collection<String> changedPaths) {
+        List<PathMatcher> includeMatchers = matchers(include);
+        List<PathMatcher> excludeMatchers = matchers(exclude);
+        for (String changedPath : changedPaths) {
+            Path path = Path.of(changedPath);
+            boolean included = includeMatchers.isEmpty() || includeMatchers.stream().anyMatch(matcher -> matcher.matches(path));
+            if (included && excludeMatchers.stream().noneMatch(matcher -> matcher.matches(path))) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Check that all the patterns are valid globs
+     *
+     * @return true if all the patterns can be compiled
+     */
+    public boolean isValid() {
+        try {
+            matchers(include);
+            matchers(exclude);
+            return true;
+        } catch (IllegalArgumentException e) {
+            // the PatternSyntaxException of a malformed glob is an IllegalArgumentException
+            return false;
+        }
+    }
+
+    private static List<PathMatcher> matchers(List<String> patterns) {
+        if (patterns == null) return List.of();
+        return patterns.stream()
+                .filter(pattern -> pattern != null && !pattern.isBlank())
+                .map(pattern -> FileSystems.getDefault().getPathMatcher("glob:" + pattern.trim()))
+                .toList();
+    }
+}
@@ -2,6 +2,8 @@ package edu.stanford.slac.core_build_system.model;
 
 public enum BuildStatus {
     PENDING,
+    PREPARING,
+    QUEUED,
     IN_PROGRESS,
     SUCCESS,
     FAILED,
@@ -0,0 +1,39 @@
+package edu.stanford.slac.core_build_system.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+
+/**
+ * Define how the repository of a component is cloned for a build
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@EqualsAndHashCode
+public class CloneStrategy {
+    /**
+     * The number of commits of history to fetch, null or zero to fetch the full history
+     */
+    private Integer depth;
+    /**
+     * Fetch only the branch that is built
+     */
+    private boolean singleBranch;
+    /**
+     * Do not fetch the tags
+     */
+    private boolean noTags;
+
+    /**
+     * Check if the strategy fetch the full history of the repository
+     *
+     * @return true if the history is not truncated
+     */
+    public boolean isFullHistory() {
+        return depth == null || depth <= 0;
+    }
+}
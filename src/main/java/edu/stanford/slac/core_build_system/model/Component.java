@@ -28,10 +28,26 @@ public class Component {
     private List<Branch> branches = new java.util.ArrayList<>();
     private String organization;
     private String url;
+    /**
+     * The owner/repository key of the url, null if the url is not the one of a hosted repository
+     */
+    private String normalizedRepoKey;
     private String approvalRule;
     private List<String> approvalIdentity;
     private String testingCriteria;
     private String buildInstructions;
+    /**
+     * The strategy used to clone the repository for the builds, null to clone the full repository
+     */
+    private CloneStrategy cloneStrategy;
+    /**
+     * The resources of the builder pods, they override the ones of the build image
+     */
+    private ResourceProfile resourceProfile;
+    /**
+     * The changed paths that trigger a build when a branch is pushed, null to build on every push
+     */
+    private BuildPathFilter buildPathFilter;
     @Builder.Default
     private Set<ComponentDependency> dependOn = new java.util.HashSet<>();
     @Builder.Default
@@ -9,6 +9,7 @@ import org.springframework.data.annotation.*;
 import org.springframework.data.mongodb.core.mapping.Field;
 import org.springframework.data.mongodb.core.mapping.FieldType;
 
+import java.time.Instant;
 import java.time.LocalDateTime;
 import java.util.Map;
 
@@ -54,18 +55,97 @@ public class ComponentBranchBuild {
      */
     private Map<String,String> buildCustomVariables;
 
+    /**
+     * The identifier of the source checkout shared with the other os builds of the same trigger
+     */
+    @Field(targetType = FieldType.OBJECT_ID)
+    private String sharedCheckoutId;
+
+    /**
+     * The commit at the head of the branch when the build was started
+     */
+    private String commitSha;
+
+    /**
+     * The key of the build result, computed from the commit, the os, the image and the variables
+     */
+    private String cacheKey;
+
+    /**
+     * The identifier of the build that produced the result, when this build has been completed from the cache
+     */
+    @Field(targetType = FieldType.OBJECT_ID)
+    private String cachedFromBuildId;
+
+    /**
+     * The resources requested for the builder pod, resolved from the build image, the component and the variables
+     */
+    private ResourceProfile resourceProfile;
+
+    /**
+     * The resources used by the builder pod
+     */
+    private ResourceUsage resourceUsage;
+
     /**
      * The status of the build
      */
     @Builder.Default
     private BuildStatus buildStatus = BuildStatus.PENDING;
 
+    /**
+     * The instant before which a pending build is not processed, so the following triggers of the same branch
+     * can supersede it before any pod is created
+     */
+    private Instant notBefore;
+
+    /**
+     * The priority of the build in the queue, the higher the sooner the build is started
+     */
+    private int priority;
+
+    /**
+     * The fencing token of the lock held by a dispatcher worker, it is increased at every lock so a worker that
+     * has lost its lock cannot update the build anymore
+     */
+    private Long lockToken;
+
     /**
      * The date and time when the build was started
      */
     @Builder.Default
     private LocalDateTime lastProcessTime = LocalDateTime.now();
 
+    /**
+     * The host that is downloading the sources of the build
+     */
+    private String preparedBy;
+
+    /**
+     * The last time the host that is downloading the sources has confirmed to be alive
+     */
+    private Instant preparationUpdateTime;
+
+    /**
+     * The error that prevented the download of the sources
+     */
+    private String preparationError;
+
+    /**
+     * The timestamp, as reported by kubernetes, of the last log line stored for this build
+     */
+    private String logCursor;
+
+    /**
+     * The host that is following the log of the builder pod
+     */
+    private String logFollowedBy;
+
+    /**
+     * The last time the log follower has updated the cursor or confirmed to be alive
+     */
+    private Instant logFollowerUpdateTime;
+
     /**
      * The date and time when the activity was created.
      * This field is automatically populated with the creation date and time, using @CreatedDate annotation.
@@ -19,6 +19,14 @@ public class K8SPodBuilder {
     private String builderName;
     private String dockerImage;
     private String mountLocation;
+    /**
+     * The paths, relative to the mount location, that are mounted read-only over the build volume
+     */
+    private List<String> readOnlySubPaths;
+    /**
+     * The resources of the pod, the missing values use the default resources
+     */
+    private ResourceProfile resourceProfile;
     private Map<String,String> label;
     private Map<String,String> envVars;
 }
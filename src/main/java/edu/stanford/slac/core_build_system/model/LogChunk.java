@@ -0,0 +1,62 @@
+package edu.stanford.slac.core_build_system.model;
+
+import lombok.*;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Field;
+import org.springframework.data.mongodb.core.mapping.FieldType;
+
+import java.time.LocalDateTime;
+
+/**
+ * A contiguous block of lines of a build log stored compressed in a single document
+ */
+@Data
+@Builder(toBuilder = true)
+@ToString(exclude = "data")
+@AllArgsConstructor
+@NoArgsConstructor
+public class LogChunk {
+    @Id
+    private String id;
+    /**
+     * The identifier of the build that owns the log
+     */
+    @Field(targetType = FieldType.OBJECT_ID)
+    private String buildId;
+    /**
+     * The sequence of the chunk within the build log, starting from zero
+     */
+    private int chunkSeq;
+    /**
+     * The number, within the build log, of the first line of the chunk
+     */
+    private long firstLine;
+    /**
+     * The number, within the build log, of the last line of the chunk
+     */
+    private long lastLine;
+    /**
+     * The number of lines in the chunk
+     */
+    private int lineCount;
+    /**
+     * The timestamp of the first line of the chunk
+     */
+    private LocalDateTime firstTimestamp;
+    /**
+     * The timestamp of the last line of the chunk
+     */
+    private LocalDateTime lastTimestamp;
+    /**
+     * The log cursor of the last line read when the chunk was stored, null if no line had a cursor
+     */
+    private String logCursor;
+    /**
+     * The size in bytes of the uncompressed lines
+     */
+    private int rawSize;
+    /**
+     * The lines encoded and compressed with {@link edu.stanford.slac.core_build_system.utility.LogChunkCodec}
+     */
+    private byte[] data;
+}
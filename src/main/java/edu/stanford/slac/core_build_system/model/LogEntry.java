@@ -7,6 +7,9 @@ import org.springframework.data.mongodb.core.mapping.FieldType;
 
 import java.time.LocalDateTime;
 
+/**
+ * A line of a build log, it is stored within a {@link LogChunk}
+ */
 @Data
 @Builder
 @ToString
@@ -17,6 +20,7 @@ public class LogEntry {
     private String id;
     @Field(targetType = FieldType.OBJECT_ID)
     private String buildId;
+    private Long lineNumber;
     private LocalDateTime timestamp;
     private String log;
 }
@@ -0,0 +1,117 @@
+package edu.stanford.slac.core_build_system.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.NoArgsConstructor;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The resources requested by the builder pod, the quantities use the kubernetes notation (for example 500m or 2Gi)
+ */
+@Data
+@Builder(toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
+@EqualsAndHashCode
+public class ResourceProfile {
+    public static final String CPU_REQUEST_VARIABLE = "ADBS_CPU_REQUEST";
+    public static final String CPU_LIMIT_VARIABLE = "ADBS_CPU_LIMIT";
+    public static final String MEMORY_REQUEST_VARIABLE = "ADBS_MEMORY_REQUEST";
+    public static final String MEMORY_LIMIT_VARIABLE = "ADBS_MEMORY_LIMIT";
+    public static final String EPHEMERAL_STORAGE_REQUEST_VARIABLE = "ADBS_EPHEMERAL_STORAGE_REQUEST";
+    public static final String EPHEMERAL_STORAGE_LIMIT_VARIABLE = "ADBS_EPHEMERAL_STORAGE_LIMIT";
+    public static final String NODE_SELECTOR_VARIABLE = "ADBS_NODE_SELECTOR";
+    /**
+     * The cpu reserved for the build, used by the scheduler to place the pod
+     */
+    private String cpuRequest;
+    /**
+     * The maximum cpu the build can use
+     */
+    private String cpuLimit;
+    /**
+     * The memory reserved for the build, used by the scheduler to place the pod
+     */
+    private String memoryRequest;
+    /**
+     * The maximum memory the build can use before being killed
+     */
+    private String memoryLimit;
+    /**
+     * The local disk reserved for the build outside the scratch volume
+     */
+    private String ephemeralStorageRequest;
+    /**
+     * The maximum local disk the build can use outside the scratch volume before being evicted
+     */
+    private String ephemeralStorageLimit;
+    /**
+     * The labels of the nodes where the build can run
+     */
+    private Map<String, String> nodeSelector;
+
+    /**
+     * Return a new profile where the values set in the other profile replace the ones of this profile
+     *
+     * @param other The overriding profile, can be null
+     * @return the merged profile
+     */
+    public ResourceProfile merge(ResourceProfile other) {
+        if (other == null) return toBuilder().build();
+        Map<String, String> mergedNodeSelector = null;
+        if (nodeSelector != null || other.getNodeSelector() != null) {
+            mergedNodeSelector = new HashMap<>();
+            if (nodeSelector != null) mergedNodeSelector.putAll(nodeSelector);
+            if (other.getNodeSelector() != null) mergedNodeSelector.putAll(other.getNodeSelector());
+        }
+        return ResourceProfile.builder()
+                .cpuRequest(other.getCpuRequest() != null ? other.getCpuRequest() : cpuRequest)
+                .cpuLimit(other.getCpuLimit() != null ? other.getCpuLimit() : cpuLimit)
+                .memoryRequest(other.getMemoryRequest() != null ? other.getMemoryRequest() : memoryRequest)
+                .memoryLimit(other.getMemoryLimit() != null ? other.getMemoryLimit() : memoryLimit)
+                .ephemeralStorageRequest(other.getEphemeralStorageRequest() != null ? other.getEphemeralStorageRequest() : ephemeralStorageRequest)
+                .ephemeralStorageLimit(other.getEphemeralStorageLimit() != null ? other.getEphemeralStorageLimit() : ephemeralStorageLimit)
+                .nodeSelector(mergedNodeSelector)
+                .build();
+    }
+
+    /**
+     * Read the profile overrides from the build variables
+     * <p>
+     * The node selector is a comma separated list of label=value pairs.
+     *
+     * @param buildVariables The variables of the build, can be null
+     * @return the profile with the values found in the variables
+     */
+    public static ResourceProfile fromBuildVariables(Map<String, String> buildVariables) {
+        if (buildVariables == null) return new ResourceProfile();
+        Map<String, String> nodeSelector = null;
+        String nodeSelectorValue = blankToNull(buildVariables.get(NODE_SELECTOR_VARIABLE));
+        if (nodeSelectorValue != null) {
+            nodeSelector = new HashMap<>();
+            for (String selector : nodeSelectorValue.split(",")) {
+                String[] labelValue = selector.split("=", 2);
+                if (labelValue.length == 2 && !labelValue[0].isBlank()) {
+                    nodeSelector.put(labelValue[0].trim(), labelValue[1].trim());
+                }
+            }
+        }
+        return ResourceProfile.builder()
+                .cpuRequest(blankToNull(buildVariables.get(CPU_REQUEST_VARIABLE)))
+                .cpuLimit(blankToNull(buildVariables.get(CPU_LIMIT_VARIABLE)))
+                .memoryRequest(blankToNull(buildVariables.get(MEMORY_REQUEST_VARIABLE)))
+                .memoryLimit(blankToNull(buildVariables.get(MEMORY_LIMIT_VARIABLE)))
+                .ephemeralStorageRequest(blankToNull(buildVariables.get(EPHEMERAL_STORAGE_REQUEST_VARIABLE)))
+                .ephemeralStorageLimit(blankToNull(buildVariables.get(EPHEMERAL_STORAGE_LIMIT_VARIABLE)))
+                .nodeSelector(nodeSelector)
+                .build();
+    }
+
+    private static String blankToNull(String value) {
+        return value == null || value.isBlank() ? null : value.trim();
+    }
+}
@@ -0,0 +1,32 @@
+package edu.stanford.slac.core_build_system.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * The resources used by a builder pod, sampled while the build runs
+ */
+@Data
+@Builder(toBuilder = true)
+@NoArgsConstructor
+@AllArgsConstructor
+public class ResourceUsage {
+    /**
+     * The highest cpu usage sampled, in millicores
+     */
+    private Long peakCpuMillis;
+    /**
+     * The highest memory usage sampled, in bytes
+     */
+    private Long peakMemoryBytes;
+    /**
+     * The number of samples taken
+     */
+    private int samples;
+    /**
+     * The builder has been killed because it exceeded its memory limit
+     */
+    private boolean oomKilled;
+}
@@ -0,0 +1,53 @@
+package edu.stanford.slac.core_build_system.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.CreatedDate;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Field;
+import org.springframework.data.mongodb.core.mapping.FieldType;
+
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The source checkout shared by all the os builds started by the same trigger
+ * <p>
+ * The checkout is pinned to the commit found by the first build that downloads it, and it is
+ * deleted when all the builds that reference it are terminated.
+ */
+@Data
+@Builder(toBuilder = true)
+@AllArgsConstructor
+@NoArgsConstructor
+public class SharedCheckout {
+    @Id
+    private String id;
+    /**
+     * The identifier of the component
+     */
+    @Field(targetType = FieldType.OBJECT_ID)
+    private String componentId;
+    /**
+     * The name of the branch
+     */
+    private String branchName;
+    /**
+     * The commit of the checkout, null until the first build has downloaded the sources
+     */
+    private String commitSha;
+    /**
+     * The location of the checkout relative to the build file system root
+     */
+    private String location;
+    /**
+     * The builds that still use the checkout
+     */
+    @Builder.Default
+    private Set<String> buildIds = new HashSet<>();
+    @CreatedDate
+    private LocalDateTime createdDate;
+}
@@ -0,0 +1,77 @@
+package edu.stanford.slac.core_build_system.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.CreatedDate;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Field;
+import org.springframework.data.mongodb.core.mapping.FieldType;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+
+/**
+ * A webhook delivery received from github and stored in the inbox
+ * <p>
+ * The delivery is acknowledged as soon as it is stored, then it is processed by the inbox workers. The unique
+ * delivery identifier makes the redeliveries of the same event a no-op.
+ */
+@Data
+@Builder(toBuilder = true)
+@AllArgsConstructor
+@NoArgsConstructor
+public class WebhookDelivery {
+    @Id
+    private String id;
+    /**
+     * The identifier of the delivery, the X-GitHub-Delivery header or the hash of the payload when it is missing
+     */
+    private String deliveryId;
+    /**
+     * The type of the event, the X-GitHub-Event header
+     */
+    private String event;
+    /**
+     * The raw payload of the event, its signature has been verified when it was received
+     */
+    private byte[] payload;
+    /**
+     * The identifier of the component of the repository that sent the event
+     */
+    @Field(targetType = FieldType.OBJECT_ID)
+    private String componentId;
+    /**
+     * The status of the delivery
+     */
+    @Builder.Default
+    private WebhookDeliveryStatus status = WebhookDeliveryStatus.PENDING;
+    /**
+     * The number of failed processing attempts
+     */
+    @Builder.Default
+    private int attempts = 0;
+    /**
+     * The instant before which the delivery is not retried
+     */
+    private Instant notBefore;
+    /**
+     * The error of the last failed processing attempt
+     */
+    private String lastError;
+    /**
+     * The instant when the delivery has been locked by an inbox worker
+     */
+    private Instant lockTime;
+    /**
+     * The host of the inbox worker that locked the delivery
+     */
+    private String lockedBy;
+    /**
+     * The instant when the delivery has been processed or has failed, the delivery is removed after the retention
+     */
+    private Instant completedDate;
+    @CreatedDate
+    private LocalDateTime createdDate;
+}
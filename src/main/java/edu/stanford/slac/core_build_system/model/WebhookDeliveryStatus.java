@@ -0,0 +1,19 @@
+package edu.stanford.slac.core_build_system.model;
+
+/**
+ * The status of a webhook delivery in the inbox
+ */
+public enum WebhookDeliveryStatus {
+    /**
+     * The delivery is waiting to be processed, or to be retried after an error
+     */
+    PENDING,
+    /**
+     * The delivery has been processed
+     */
+    PROCESSED,
+    /**
+     * The processing of the delivery has failed too many times
+     */
+    FAILED
+}
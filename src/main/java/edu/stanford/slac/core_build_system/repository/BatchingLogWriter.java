@@ -0,0 +1,211 @@
+package edu.stanford.slac.core_build_system.repository;
+
+import edu.stanford.slac.core_build_system.model.LogChunk;
+import edu.stanford.slac.core_build_system.model.LogEntry;
+import edu.stanford.slac.core_build_system.utility.LogChunkCodec;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Buffer the log lines of a build and store them as compressed {@link LogChunk}
+ * <p>
+ * The lines are accumulated in the open chunk, that is sealed and stored when it reaches the maximum
+ * number of lines or bytes. The open chunk is also stored, and replaced by the following flushes,
+ * when the oldest not stored line is older than the maximum delay, when the writer is flushed explicitly
+ * and when the writer is closed. The store is executed by the thread that add the line, so a slow database
+ * slows down the reader of the log instead of letting the buffer grow.
+ */
+@Log4j2
+public class BatchingLogWriter implements AutoCloseable {
+    /**
+     * The approximate size of the fields of a line other than the text
+     */
+    private static final int ENTRY_OVERHEAD_BYTES = 16;
+    private final LogChunkRepository logChunkRepository;
+    private final String buildId;
+    private final int maxLines;
+    private final long maxBytes;
+    private final long maxDelayNanos;
+    private final ScheduledFuture<?> staleFlush;
+    private List<LogEntry> openChunkLines;
+    private String openChunkId = null;
+    private int chunkSeq = 0;
+    private long firstLine = 0;
+    private long bufferedBytes = 0;
+    private boolean dirty = false;
+    private long oldestDirtyNanos = 0;
+    private long writtenLines = 0;
+    private String logCursor = null;
+    private String storedLogCursor = null;
+    private boolean closed = false;
+
+    /**
+     * Create a new writer that append the lines after the last stored chunk of the build
+     *
+     * @param logChunkRepository the repository used to store the chunks
+     * @param buildId            the identifier of the build
+     * @param maxLines           the number of lines of a chunk
+     * @param maxBytes           the number of bytes that seal a chunk before it reaches the maximum lines
+     * @param maxDelay           the maximum time a line stay buffered without being stored
+     * @param flushScheduler     the scheduler used to store the stale lines, null to store them only on add
+     */
+    public BatchingLogWriter(
+            LogChunkRepository logChunkRepository,
+            String buildId,
+            int maxLines,
+            long maxBytes,
+            Duration maxDelay,
+            ScheduledExecutorService flushScheduler) {
+        this.logChunkRepository = logChunkRepository;
+        this.buildId = buildId;
+        this.maxLines = Math.max(1, maxLines);
+        this.maxBytes = Math.max(1, maxBytes);
+        this.maxDelayNanos = maxDelay.toNanos();
+        this.openChunkLines = new ArrayList<>(this.maxLines);
+        Optional<LogChunk> lastChunk = logChunkRepository.findFirstByBuildIdOrderByChunkSeqDesc(buildId);
+        lastChunk.ifPresent(
+                chunk -> {
+                    chunkSeq = chunk.getChunkSeq() + 1;
+                    firstLine = chunk.getFirstLine() + chunk.getLineCount();
+                    writtenLines = firstLine;
+                    logCursor = chunk.getLogCursor();
+                    storedLogCursor = logCursor;
+                }
+        );
+        ScheduledFuture<?> scheduledFlush = null;
+        if (flushScheduler != null && maxDelayNanos > 0) {
+            try {
+                scheduledFlush = flushScheduler.scheduleWithFixedDelay(
+                        this::flushIfStale,
+                        maxDelayNanos,
+                        maxDelayNanos,
+                        TimeUnit.NANOSECONDS
+                );
+            } catch (RejectedExecutionException e) {
+                log.warn("[{}] Stale log flush not scheduled, lines will be stored only by size", buildId, e);
+            }
+        }
+        this.staleFlush = scheduledFlush;
+    }
+
+    /**
+     * Add a line to the open chunk, storing it if a limit has been reached
+     *
+     * @param logEntry the line to add
+     */
+    public synchronized void add(LogEntry logEntry) {
+        add(logEntry, null);
+    }
+
+    /**
+     * Add a line to the open chunk, storing it if a limit has been reached
+     * <p>
+     * The cursor is stored in the same document of the line, so a reader that resume from the stored cursor never
+     * stores the line again
+     *
+     * @param logEntry  the line to add
+     * @param logCursor the position of the line in the source of the log, null if not known
+     */
+    public synchronized void add(LogEntry logEntry, String logCursor) {
+        if (closed) {
+            throw new IllegalStateException("The log writer is closed");
+        }
+        if (!dirty) {
+            dirty = true;
+            oldestDirtyNanos = System.nanoTime();
+        }
+        openChunkLines.add(logEntry);
+        if (logCursor != null) {
+            this.logCursor = logCursor;
+        }
+        bufferedBytes += ENTRY_OVERHEAD_BYTES + (logEntry.getLog() == null ? 0 : logEntry.getLog().length());
+        if (isFull() || isStale()) {
+            flush();
+        }
+    }
+
+    /**
+     * Store the open chunk, sealing it if it is full
+     */
+    public synchronized void flush() {
+        if (!dirty) return;
+        LogChunk chunk;
+        try {
+            chunk = LogChunkCodec.encode(buildId, chunkSeq, firstLine, openChunkLines);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        // the open chunk document is replaced until the chunk is sealed
+        openChunkId = logChunkRepository.save(chunk.toBuilder().id(openChunkId).logCursor(logCursor).build()).getId();
+        writtenLines = firstLine + openChunkLines.size();
+        storedLogCursor = logCursor;
+        dirty = false;
+        if (isFull()) {
+            chunkSeq++;
+            firstLine += openChunkLines.size();
+            openChunkLines = new ArrayList<>(maxLines);
+            openChunkId = null;
+            bufferedBytes = 0;
+        }
+    }
+
+    /**
+     * Return the number of lines of the build log that are stored
+     *
+     * @return the number of stored lines
+     */
+    public synchronized long getWrittenLines() {
+        return writtenLines;
+    }
+
+    /**
+     * Return the cursor of the last stored line that has one
+     *
+     * @return the stored cursor, null if no stored line has a cursor
+     */
+    public synchronized String getStoredLogCursor() {
+        return storedLogCursor;
+    }
+
+    /**
+     * Store the open chunk and stop the stale flush
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        if (staleFlush != null) {
+            staleFlush.cancel(false);
+        }
+        flush();
+    }
+
+    private synchronized void flushIfStale() {
+        try {
+            if (!closed && isStale()) {
+                flush();
+            }
+        } catch (Exception e) {
+            // keep the lines, the next add or the close will retry
+            log.error("[{}] Error storing stale log lines", buildId, e);
+        }
+    }
+
+    private boolean isFull() {
+        return openChunkLines.size() >= maxLines || bufferedBytes >= maxBytes;
+    }
+
+    private boolean isStale() {
+        return dirty && System.nanoTime() - oldestDirtyNanos >= maxDelayNanos;
+    }
+}
@@ -0,0 +1,217 @@
+package edu.stanford.slac.core_build_system.repository;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import edu.stanford.slac.core_build_system.config.CoreBuildProperties;
+import edu.stanford.slac.core_build_system.model.Component;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.bson.Document;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Repository;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static edu.stanford.slac.core_build_system.utility.RepositoryUrlUtility.normalizedRepoKey;
+
+/**
+ * Read-through cache of the components in front of the {@link ComponentRepository}
+ * <p>
+ * The components are looked up by identifier, name and url on every build processing and every repository event,
+ * while they change rarely. The cache is bounded in size and time, it is invalidated when a component is written by
+ * this instance and, through the change stream of the components, when it is written by another instance. While the
+ * change stream is not available the entries still expire after the configured time.
+ * <p>
+ * The repository events are routed through a map of the repository keys to the component identifiers, so a
+ * component is found by the urls of an event without a query whatever the number of components.
+ * <p>
+ * The cached components are shared, the callers must not modify them; the components to update are read from the
+ * {@link ComponentRepository}.
+ */
+@Log4j2
+@Repository
+public class CachedComponentRepository {
+    private static final Duration RECONNECT_DELAY = Duration.ofSeconds(5);
+    private static final String BY_ID = "id:";
+    private static final String BY_NAME = "name:";
+    private static final String BY_URL = "url:";
+    private final CoreBuildProperties coreBuildProperties;
+    private final ComponentRepository componentRepository;
+    private final MongoTemplate mongoTemplate;
+    private final Cache<String, Component> components;
+    private final AtomicLong generation = new AtomicLong();
+    private volatile RepositoryKeys repositoryKeys;
+    private volatile MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor;
+    private volatile boolean running = false;
+
+    public CachedComponentRepository(
+            CoreBuildProperties coreBuildProperties,
+            ComponentRepository componentRepository,
+            MongoTemplate mongoTemplate,
+            MeterRegistry meterRegistry) {
+        this.coreBuildProperties = coreBuildProperties;
+        this.componentRepository = componentRepository;
+        this.mongoTemplate = mongoTemplate;
+        components = Caffeine.newBuilder()
+                .maximumSize(coreBuildProperties.getComponentCacheMaxSize())
+                .expireAfterWrite(Duration.ofMillis(coreBuildProperties.getComponentCacheTtlMs()))
+                .recordStats()
+                .build();
+        // cache.gets with result hit and miss give the hit rate
+        CaffeineCacheMetrics.monitor(meterRegistry, components, "components");
+    }
+
+    /**
+     * Start listening the changes of the components written by the other instances
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!coreBuildProperties.isBuildChangeStreamEnabled() || running) return;
+        running = true;
+        Thread.ofPlatform().name("component-change-stream").daemon().start(this::listen);
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        closeCursor();
+    }
+
+    /**
+     * Find a component by its unique identifier
+     *
+     * @param id The unique identifier of the component
+     * @return The component
+     */
+    public Optional<Component> findById(String id) {
+        if (id == null) return Optional.empty();
+        return Optional.ofNullable(components.get(BY_ID + id, key -> componentRepository.findById(id).orElse(null)));
+    }
+
+    /**
+     * Find a component by its name
+     *
+     * @param name The name of the component
+     * @return The component
+     */
+    public Optional<Component> findByName(String name) {
+        if (name == null) return Optional.empty();
+        return Optional.ofNullable(components.get(BY_NAME + name, key -> componentRepository.findByName(name).orElse(null)));
+    }
+
+    /**
+     * Find the component that has one of the urls
+     *
+     * @param urls The urls of the component repository
+     * @return The component
+     */
+    public Optional<Component> findByUrlIn(List<String> urls) {
+        Map<String, String> componentIdByKey = repositoryKeys().componentIdByKey();
+        for (String url : urls) {
+            String key = normalizedRepoKey(url);
+            String componentId = key == null ? null : componentIdByKey.get(key);
+            if (componentId != null) return findById(componentId);
+        }
+        // the urls that are not of a hosted repository, like a local path, are matched exactly
+        for (String url : urls) {
+            Component component = components.getIfPresent(BY_URL + url);
+            if (component != null) return Optional.of(component);
+        }
+        Optional<Component> component = componentRepository.findByUrlIn(urls);
+        component.filter(found -> found.getUrl() != null).ifPresent(found -> components.put(BY_URL + found.getUrl(), found));
+        return component;
+    }
+
+    /**
+     * Invalidate the cache after a component has been written
+     * <p>
+     * A component is cached under several keys, the writes are rare so all the entries are dropped.
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+        repositoryKeys = null;
+        components.invalidateAll();
+    }
+
+    /**
+     * Return the map of the repository keys, loading it if it has been invalidated or it is expired
+     *
+     * @return the repository keys
+     */
+    private RepositoryKeys repositoryKeys() {
+        RepositoryKeys keys = repositoryKeys;
+        if (keys != null && keys.isFresh(coreBuildProperties.getComponentCacheTtlMs())) return keys;
+        synchronized (this) {
+            keys = repositoryKeys;
+            if (keys != null && keys.isFresh(coreBuildProperties.getComponentCacheTtlMs())) return keys;
+            long loadedGeneration = generation.get();
+            Query query = new Query(Criteria.where("normalizedRepoKey").exists(true));
+            query.fields().include("id", "normalizedRepoKey");
+            Map<String, String> componentIdByKey = new HashMap<>();
+            mongoTemplate.find(query, Component.class)
+                    .forEach(component -> componentIdByKey.put(component.getNormalizedRepoKey(), component.getId()));
+            keys = new RepositoryKeys(Map.copyOf(componentIdByKey), Instant.now());
+            // a component written during the load invalidates the map again
+            if (loadedGeneration == generation.get()) repositoryKeys = keys;
+            return keys;
+        }
+    }
+
+    private void listen() {
+        boolean available = true;
+        while (running) {
+            try {
+                cursor = mongoTemplate.getCollection(mongoTemplate.getCollectionName(Component.class)).watch().cursor();
+                // the changes done while the stream was closed are lost
+                invalidate();
+                available = true;
+                while (running) {
+                    cursor.next();
+                    invalidate();
+                }
+            } catch (Exception e) {
+                if (!running) break;
+                if (available) log.warn("Change stream of the components not available, the cache relies on the expiration: {}", e.getMessage());
+                available = false;
+                closeCursor();
+                try {
+                    Thread.sleep(RECONNECT_DELAY);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        closeCursor();
+    }
+
+    private void closeCursor() {
+        MongoChangeStreamCursor<ChangeStreamDocument<Document>> currentCursor = cursor;
+        cursor = null;
+        if (currentCursor == null) return;
+        try {
+            currentCursor.close();
+        } catch (Exception e) {
+            log.debug("Error closing the change stream of the components: {}", e.getMessage());
+        }
+    }
+
+    private record RepositoryKeys(Map<String, String> componentIdByKey, Instant loadedAt) {
+        boolean isFresh(long ttlMs) {
+            return loadedAt.plusMillis(ttlMs).isAfter(Instant.now());
+        }
+    }
+}
@@ -1,11 +1,17 @@
 package edu.stanford.slac.core_build_system.repository;
 
 
+import edu.stanford.slac.core_build_system.model.BuildStatus;
 import edu.stanford.slac.core_build_system.model.ComponentBranchBuild;
 import org.springframework.data.mongodb.repository.MongoRepository;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 public interface ComponentBranchBuildRepository extends MongoRepository<ComponentBranchBuild, String>, ComponentBranchBuildRepositoryCustom {
     List<ComponentBranchBuild> findByComponentIdAndBranchName(String componentName, String branchName);
+    long countByBuildStatusIn(Collection<BuildStatus> buildStatus);
+    Optional<ComponentBranchBuild> findFirstByCacheKeyAndBuildStatusOrderByIdDesc(String cacheKey, BuildStatus buildStatus);
+    List<ComponentBranchBuild> findAllByIdInAndBuildStatusIn(Collection<String> ids, Collection<BuildStatus> buildStatus);
 }
@@ -1,11 +1,15 @@
 package edu.stanford.slac.core_build_system.repository;
 
 import edu.stanford.slac.core_build_system.model.BuildInfo;
+import edu.stanford.slac.core_build_system.model.BuildOS;
 import edu.stanford.slac.core_build_system.model.BuildStatus;
 import edu.stanford.slac.core_build_system.model.ComponentBranchBuild;
 
 import java.net.UnknownHostException;
 import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 public interface ComponentBranchBuildRepositoryCustom {
@@ -19,21 +23,186 @@ public interface ComponentBranchBuildRepositoryCustom {
     boolean updateBuildInfo(String id, BuildInfo buildInfo);
 
     /**
-     * Find and lock the next document that is not locked or the lock has expired
+     * Update the status of the build if it is still locked with the given fencing token
+     * @param id The identifier of the document
+     * @param lockToken The fencing token received with the lock
+     * @param buildInfo The new status of the build
+     * @return True if the status was updated, false if the lock has been lost
+     */
+    boolean updateBuildInfo(String id, long lockToken, BuildInfo buildInfo);
+
+    /**
+     * Find and lock the next document that is not locked or the lock has expired, the locked document has a new
+     * fencing token and the lock need to be renewed before the timeout
      * @param lockTimeout The time when the lock will expire
      * @return The document that was locked
      */
     Optional<ComponentBranchBuild> findAndLockNextDocument(Instant lockTimeout) throws UnknownHostException;
+
+    /**
+     * Find and lock the next document that is not locked or the lock has expired, skipping the
+     * not pending builds that have been processed after the given instant
+     * @param lockTimeout The time when the lock will expire
+     * @param processedBefore The instant before which a not pending build need to have been processed to be selected
+     * @return The document that was locked
+     */
+    Optional<ComponentBranchBuild> findAndLockNextDocument(Instant lockTimeout, Instant processedBefore) throws UnknownHostException;
+
+    /**
+     * Find and lock the next document that is not locked or the lock has expired, among the builds in the
+     * given status
+     * @param lockTimeout The time when the lock will expire
+     * @param processedBefore The instant before which a not pending build need to have been processed to be selected
+     * @param buildStatus The status of the builds that can be selected, null for all
+     * @return The document that was locked
+     */
+    Optional<ComponentBranchBuild> findAndLockNextDocument(Instant lockTimeout, Instant processedBefore, Collection<BuildStatus> buildStatus) throws UnknownHostException;
+
+    /**
+     * Find the pending builds waiting to be started, the highest priority first and then the oldest
+     * @param lockTimeout The time when the lock will expire
+     * @param limit The maximum number of builds
+     * @return The pending builds not locked and not held by the trigger quiet window
+     */
+    List<ComponentBranchBuild> findQueuedBuilds(Instant lockTimeout, int limit);
+
+    /**
+     * Lock a pending build to start it
+     * @param id The identifier of the document
+     * @param lockTimeout The time when the lock will expire
+     * @return The build if it is still pending and has been locked
+     */
+    Optional<ComponentBranchBuild> lockQueuedBuild(String id, Instant lockTimeout) throws UnknownHostException;
+
+    /**
+     * Renew the lock of a build, so it does not expire while the build is processed
+     * @param id The identifier of the document
+     * @param lockToken The fencing token received with the lock
+     * @return True if the lock has been renewed, false if it has been lost
+     */
+    boolean renewLock(String id, long lockToken);
+
+    /**
+     * Count, for each component, the builds that have been started and are not yet terminated
+     * @param lockTimeout The time when the lock will expire
+     * @return The number of started builds by component identifier
+     */
+    Map<String, Long> countStartedBuildsByComponent(Instant lockTimeout);
+    /**
+     * Cancel a pending build that has not yet been claimed by the dispatcher, so no pod is created for it
+     * @param id The identifier of the document
+     * @return True if the build has been cancelled, false if it is not pending or is being processed
+     */
+    boolean cancelPending(String id);
+    /**
+     * Request the stop of a build that is not yet terminated, only the status is updated so the concurrent updates
+     * of the dispatcher and of the log follower are not overwritten
+     * @param id The identifier of the document
+     * @return True if the stop has been requested, false if the build is already terminated or being stopped
+     */
+    boolean requestStop(String id);
+    /**
+     * Read only the status of a build
+     * @param id The identifier of the document
+     * @return The status of the build, empty if the build does not exist
+     */
+    Optional<BuildStatus> findBuildStatus(String id);
+    /**
+     * Remove the cache key from the builds completed from the cache of a build, so they are not used anymore as
+     * cache hits once the build that produced the result is deleted
+     * @param originBuildId The identifier of the build that produced the result
+     * @return The number of builds updated
+     */
+    long clearCacheOrigin(String originBuildId);
+
+    /**
+     * Take the ownership of the source preparation of a build
+     * @param id The identifier of the document
+     * @param host The host that want to prepare the sources
+     * @param staleBefore The instant before which the preparation of another host is considered dead
+     * @return The build if the ownership has been taken
+     */
+    Optional<ComponentBranchBuild> claimPreparation(String id, String host, Instant staleBefore);
+
+    /**
+     * Update the source preparation of a build owned by the host
+     * @param id The identifier of the document
+     * @param host The host that is preparing the sources
+     * @param buildInfo The location of the prepared sources, null if not yet ready
+     * @param preparationError The error of a failed preparation, null if not failed
+     * @return True if the host still own the preparation
+     */
+    boolean updatePreparation(String id, String host, BuildInfo buildInfo, String preparationError);
+
+    /**
+     * Make a running build the first to be processed by the dispatcher
+     * @param id The identifier of the document
+     * @return True if the build was updated, false otherwise
+     */
+    boolean expediteProcessing(String id);
+
+    /**
+     * Record a sample of the resources used by the builder pod, keeping the peak values
+     *
+     * @param id          the id of the build
+     * @param cpuMillis   the cpu usage in millicores
+     * @param memoryBytes the memory usage in bytes
+     * @return true if the build has been updated
+     */
+    boolean recordResourceUsage(String id, long cpuMillis, long memoryBytes);
+
+    /**
+     * Record that the builder pod has been killed for exceeding its memory limit
+     *
+     * @param id the id of the build
+     * @return true if the build has been updated
+     */
+    boolean markOomKilled(String id);
+
+    /**
+     * Find the most recent terminated builds of a component on an os that have a resource usage
+     *
+     * @param componentId the id of the component
+     * @param buildOs     the os of the builds
+     * @param limit       the maximum number of builds
+     * @return the builds, the most recent first
+     */
+    List<ComponentBranchBuild> findRecentResourceUsage(String componentId, BuildOS buildOs, int limit);
+
+    /**
+     * Take the ownership of the log following of a build
+     * @param id The identifier of the document
+     * @param host The host that want to follow the log
+     * @param staleBefore The instant before which the follower of another host is considered dead
+     * @return The build if the ownership has been taken, empty otherwise
+     */
+    Optional<ComponentBranchBuild> claimLogFollower(String id, String host, Instant staleBefore);
+
+    /**
+     * Update the log cursor of a build followed by a host
+     * @param id The identifier of the document
+     * @param host The host that is following the log
+     * @param logCursor The new cursor, null to only confirm that the follower is alive
+     * @return True if the cursor was updated, false otherwise
+     */
+    boolean updateLogCursor(String id, String host, String logCursor);
+
     /**
      * Release the lock on the document
      * @param buildId The identifier of the document
      * @return True if the lock was released, false otherwise
      */
     boolean releaseLock(String buildId) throws UnknownHostException;
+
     /**
-     * Release the lock on the document
+     * Release the lock on the document if it is still held with the given fencing token
+     * <p>
+     * A stop requested while the lock was held is kept, unless the new status terminates the build, and so is an
+     * expedited processing
      * @param buildId The identifier of the document
-     * @return True if the lock was released, false otherwise
+     * @param lockToken The fencing token received with the lock
+     * @param newStatus The new status of the build
+     * @return True if the lock was released, false if it has been lost
      */
-    boolean releaseLock(String buildId, BuildStatus newStatus) throws UnknownHostException;
+    boolean releaseLock(String buildId, long lockToken, BuildStatus newStatus);
 }
\ No newline at end of file
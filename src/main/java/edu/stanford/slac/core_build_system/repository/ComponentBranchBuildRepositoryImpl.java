@@ -1,12 +1,15 @@
 package edu.stanford.slac.core_build_system.repository;
 import com.mongodb.client.result.UpdateResult;
 import edu.stanford.slac.core_build_system.model.BuildInfo;
+import edu.stanford.slac.core_build_system.model.BuildOS;
 import edu.stanford.slac.core_build_system.model.BuildStatus;
 import edu.stanford.slac.core_build_system.model.ComponentBranchBuild;
+import org.bson.Document;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.mongodb.core.query.Update;
@@ -15,10 +18,15 @@ import org.springframework.stereotype.Repository;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.time.Instant;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 @Repository
 public class ComponentBranchBuildRepositoryImpl implements ComponentBranchBuildRepositoryCustom {
+    private static final List<BuildStatus> TERMINAL_STATUS = List.of(BuildStatus.SUCCESS, BuildStatus.FAILED, BuildStatus.STOPPED);
     @Autowired
     private MongoTemplate mongoTemplate;
 
@@ -32,25 +40,333 @@ public class ComponentBranchBuildRepositoryImpl implements ComponentBranchBuildR
         return mongoTemplate.updateFirst(query, update, ComponentBranchBuild.class).getModifiedCount() > 0;
     }
 
+    @Override
+    public boolean updateBuildInfo(String id, long lockToken, BuildInfo buildInfo) {
+        Update update = new Update().set("buildInfo", buildInfo);
+        return mongoTemplate.updateFirst(new Query(leaseCriteria(id, lockToken)), update, ComponentBranchBuild.class).getMatchedCount() > 0;
+    }
+
     @Override
     public Optional<ComponentBranchBuild> findAndLockNextDocument(Instant lockTimeout) throws UnknownHostException {
-        // Find an unlocked or expired lock document and atomically lock it
+        return findAndLockNextDocument(lockTimeout, null);
+    }
+
+    @Override
+    public Optional<ComponentBranchBuild> findAndLockNextDocument(Instant lockTimeout, Instant processedBefore) throws UnknownHostException {
+        return findAndLockNextDocument(lockTimeout, processedBefore, null);
+    }
+
+    @Override
+    public Optional<ComponentBranchBuild> findAndLockNextDocument(Instant lockTimeout, Instant processedBefore, Collection<BuildStatus> buildStatus) throws UnknownHostException {
+        // Find an unlocked or expired lock document and atomically lock it, the lock of a running build is renewed
+        // by its owner so an expired one means the owner is dead whatever the status of the build
+        Criteria lockCriteria = new Criteria().andOperator(
+                Criteria.where("buildStatus").nin(BuildStatus.SUCCESS, BuildStatus.FAILED, BuildStatus.STOPPED),
+                new Criteria().orOperator(
+                        Criteria.where("lockTime").exists(false),
+                        Criteria.where("lockTime").lt(lockTimeout)
+                )
+        );
+        // the builds held by the trigger quiet window are not yet eligible
+        lockCriteria = new Criteria().andOperator(
+                lockCriteria,
+                new Criteria().orOperator(
+                        Criteria.where("notBefore").exists(false),
+                        Criteria.where("notBefore").lte(Instant.now())
+                )
+        );
+        if (buildStatus != null) {
+            lockCriteria = new Criteria().andOperator(
+                    lockCriteria,
+                    Criteria.where("buildStatus").in(buildStatus)
+            );
+        }
+        if (processedBefore != null) {
+            // pending builds are always eligible, the others only when they are not been processed too recently
+            lockCriteria = new Criteria().andOperator(
+                    lockCriteria,
+                    new Criteria().orOperator(
+                            Criteria.where("buildStatus").is(BuildStatus.PENDING),
+                            Criteria.where("lastProcessTime").lt(processedBefore)
+                    )
+            );
+        }
+        Query query = new Query(lockCriteria).with(Sort.by(Sort.Order.asc("lastProcessTime"))).limit(1);
+
+        return Optional.ofNullable(mongoTemplate.findAndModify(query, lockUpdate(), FindAndModifyOptions.options().returnNew(true), ComponentBranchBuild.class));
+    }
+
+    @Override
+    public List<ComponentBranchBuild> findQueuedBuilds(Instant lockTimeout, int limit) {
         Query query = new Query(
+                new Criteria().andOperator(
+                        queuedCriteria(lockTimeout),
+                        new Criteria().orOperator(
+                                Criteria.where("notBefore").exists(false),
+                                Criteria.where("notBefore").lte(Instant.now())
+                        )
+                )
+        ).with(Sort.by(Sort.Order.desc("priority"), Sort.Order.asc("id"))).limit(limit);
+        return mongoTemplate.find(query, ComponentBranchBuild.class);
+    }
+
+    @Override
+    public Optional<ComponentBranchBuild> lockQueuedBuild(String id, Instant lockTimeout) throws UnknownHostException {
+        Query query = new Query(
+                new Criteria().andOperator(
+                        Criteria.where("id").is(id),
+                        queuedCriteria(lockTimeout)
+                )
+        );
+        return Optional.ofNullable(mongoTemplate.findAndModify(query, lockUpdate(), FindAndModifyOptions.options().returnNew(true), ComponentBranchBuild.class));
+    }
+
+    @Override
+    public boolean renewLock(String id, long lockToken) {
+        Update update = new Update().set("lockTime", Instant.now());
+        return mongoTemplate.updateFirst(new Query(leaseCriteria(id, lockToken)), update, ComponentBranchBuild.class).getMatchedCount() > 0;
+    }
+
+    /**
+     * Build the update that lock a build, with a new fencing token
+     * <p>
+     * The token is increased in the same update that takes the lock, and it is kept when the lock is released, so
+     * it never goes back for the same build
+     *
+     * @return the update
+     */
+    private Update lockUpdate() throws UnknownHostException {
+        return new Update()
+                .set("lockTime", Instant.now())
+                .set("lockedBy", InetAddress.getLocalHost().getHostName())
+                .inc("lockToken", 1L);
+    }
+
+    /**
+     * The build still locked with the given fencing token
+     *
+     * @param id        The identifier of the build
+     * @param lockToken The fencing token received with the lock
+     * @return the criteria
+     */
+    private static Criteria leaseCriteria(String id, long lockToken) {
+        return new Criteria().andOperator(
+                Criteria.where("id").is(id),
+                Criteria.where("lockToken").is(lockToken),
+                Criteria.where("lockTime").exists(true)
+        );
+    }
+
+    @Override
+    public Map<String, Long> countStartedBuildsByComponent(Instant lockTimeout) {
+        // a pending build locked by the dispatcher is being started
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(
+                        new Criteria().orOperator(
+                                Criteria.where("buildStatus").in(BuildStatus.PREPARING, BuildStatus.QUEUED, BuildStatus.IN_PROGRESS, BuildStatus.STOP_REQUESTED),
+                                new Criteria().andOperator(
+                                        Criteria.where("buildStatus").is(BuildStatus.PENDING),
+                                        Criteria.where("lockTime").gte(lockTimeout)
+                                )
+                        )
+                ),
+                Aggregation.group("componentId").count().as("count")
+        );
+        Map<String, Long> startedBuilds = new HashMap<>();
+        for (Document group : mongoTemplate.aggregate(aggregation, ComponentBranchBuild.class, Document.class)) {
+            if (group.get("_id") == null) continue;
+            startedBuilds.put(group.get("_id").toString(), ((Number) group.get("count")).longValue());
+        }
+        return startedBuilds;
+    }
+
+    /**
+     * The pending builds not locked, or whose lock is expired
+     *
+     * @param lockTimeout The time when the lock will expire
+     * @return the criteria
+     */
+    private static Criteria queuedCriteria(Instant lockTimeout) {
+        return new Criteria().andOperator(
+                Criteria.where("buildStatus").is(BuildStatus.PENDING),
                 new Criteria().orOperator(
-                        new Criteria().andOperator(
-                                Criteria.where("lockTime").lt(lockTimeout),
-                                Criteria.where("buildStatus").nin(BuildStatus.IN_PROGRESS)
-                        ),
-                        new Criteria().andOperator(
-                                Criteria.where("lockTime").exists(false),
-                                Criteria.where("buildStatus").nin(BuildStatus.SUCCESS, BuildStatus.FAILED, BuildStatus.STOPPED)
+                        Criteria.where("lockTime").exists(false),
+                        Criteria.where("lockTime").lt(lockTimeout)
+                )
+        );
+    }
+
+    @Override
+    public boolean expediteProcessing(String id) {
+        Query query = new Query(
+                new Criteria().andOperator(
+                        Criteria.where("id").is(id),
+                        Criteria.where("buildStatus").in(BuildStatus.PREPARING, BuildStatus.QUEUED, BuildStatus.IN_PROGRESS, BuildStatus.STOP_REQUESTED)
+                )
+        );
+        Update update = new Update().set("lastProcessTime", Instant.EPOCH);
+        return mongoTemplate.updateFirst(query, update, ComponentBranchBuild.class).getModifiedCount() > 0;
+    }
+
+    @Override
+    public boolean recordResourceUsage(String id, long cpuMillis, long memoryBytes) {
+        Query query = new Query(
+                new Criteria().andOperator(
+                        Criteria.where("id").is(id),
+                        Criteria.where("buildStatus").in(BuildStatus.IN_PROGRESS, BuildStatus.STOP_REQUESTED)
+                )
+        );
+        Update update = new Update()
+                .max("resourceUsage.peakCpuMillis", cpuMillis)
+                .max("resourceUsage.peakMemoryBytes", memoryBytes)
+                .inc("resourceUsage.samples", 1);
+        return mongoTemplate.updateFirst(query, update, ComponentBranchBuild.class).getModifiedCount() > 0;
+    }
+
+    @Override
+    public boolean markOomKilled(String id) {
+        Query query = new Query(
+                Criteria.where("id").is(id)
+        );
+        Update update = new Update().set("resourceUsage.oomKilled", true);
+        return mongoTemplate.updateFirst(query, update, ComponentBranchBuild.class).getModifiedCount() > 0;
+    }
+
+    @Override
+    public List<ComponentBranchBuild> findRecentResourceUsage(String componentId, BuildOS buildOs, int limit) {
+        Query query = new Query(
+                new Criteria().andOperator(
+                        Criteria.where("componentId").is(componentId),
+                        Criteria.where("buildOs").is(buildOs),
+                        Criteria.where("buildStatus").in(BuildStatus.SUCCESS, BuildStatus.FAILED),
+                        new Criteria().orOperator(
+                                Criteria.where("resourceUsage.samples").gt(0),
+                                Criteria.where("resourceUsage.oomKilled").is(true)
+                        )
+                )
+        ).with(Sort.by(Sort.Order.desc("id"))).limit(limit);
+        return mongoTemplate.find(query, ComponentBranchBuild.class);
+    }
+
+    @Override
+    public boolean cancelPending(String id) {
+        // a locked build is being processed by the dispatcher, it is stopped through the stop request
+        Query query = new Query(
+                new Criteria().andOperator(
+                        Criteria.where("id").is(id),
+                        Criteria.where("buildStatus").is(BuildStatus.PENDING),
+                        Criteria.where("lockTime").exists(false)
+                )
+        );
+        Update update = new Update()
+                .set("buildStatus", BuildStatus.STOPPED)
+                .set("lastProcessTime", Instant.now());
+        return mongoTemplate.updateFirst(query, update, ComponentBranchBuild.class).getModifiedCount() > 0;
+    }
+
+    @Override
+    public boolean requestStop(String id) {
+        Query query = new Query(
+                new Criteria().andOperator(
+                        Criteria.where("id").is(id),
+                        Criteria.where("buildStatus").in(BuildStatus.PENDING, BuildStatus.PREPARING, BuildStatus.QUEUED, BuildStatus.IN_PROGRESS)
+                )
+        );
+        Update update = new Update().set("buildStatus", BuildStatus.STOP_REQUESTED);
+        return mongoTemplate.updateFirst(query, update, ComponentBranchBuild.class).getModifiedCount() > 0;
+    }
+
+    @Override
+    public Optional<BuildStatus> findBuildStatus(String id) {
+        Query query = new Query(
+                Criteria.where("id").is(id)
+        );
+        query.fields().include("buildStatus");
+        return Optional.ofNullable(mongoTemplate.findOne(query, ComponentBranchBuild.class))
+                .map(ComponentBranchBuild::getBuildStatus);
+    }
+
+    @Override
+    public long clearCacheOrigin(String originBuildId) {
+        Query query = new Query(
+                Criteria.where("cachedFromBuildId").is(originBuildId)
+        );
+        Update update = new Update()
+                .unset("cacheKey")
+                .unset("cachedFromBuildId");
+        return mongoTemplate.updateMulti(query, update, ComponentBranchBuild.class).getModifiedCount();
+    }
+
+    @Override
+    public Optional<ComponentBranchBuild> claimPreparation(String id, String host, Instant staleBefore) {
+        Query query = new Query(
+                new Criteria().andOperator(
+                        Criteria.where("id").is(id),
+                        new Criteria().orOperator(
+                                Criteria.where("preparedBy").exists(false),
+                                Criteria.where("preparedBy").is(host),
+                                Criteria.where("preparationUpdateTime").lt(staleBefore)
                         )
                 )
+        );
+        Update update = new Update()
+                .set("preparedBy", host)
+                .set("preparationUpdateTime", Instant.now())
+                .unset("preparationError");
+        return Optional.ofNullable(mongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true), ComponentBranchBuild.class));
+    }
 
-        ).with(Sort.by(Sort.Order.asc("lastProcessTime"))).limit(1);
+    @Override
+    public boolean updatePreparation(String id, String host, BuildInfo buildInfo, String preparationError) {
+        Query query = new Query(
+                new Criteria().andOperator(
+                        Criteria.where("id").is(id),
+                        Criteria.where("preparedBy").is(host)
+                )
+        );
+        Update update = new Update().set("preparationUpdateTime", Instant.now());
+        if (buildInfo != null) {
+            update.set("buildInfo", buildInfo);
+        }
+        if (preparationError != null) {
+            update.set("preparationError", preparationError);
+        }
+        if (buildInfo != null || preparationError != null) {
+            // the preparation is completed, process the build as soon as possible
+            update.set("lastProcessTime", Instant.EPOCH);
+        }
+        return mongoTemplate.updateFirst(query, update, ComponentBranchBuild.class).getMatchedCount() > 0;
+    }
 
-        Update update = new Update().set("lockTime", Instant.now()).set("lockedBy", InetAddress.getLocalHost().getHostName());
-        return Optional.ofNullable(mongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true),ComponentBranchBuild.class));
+    @Override
+    public Optional<ComponentBranchBuild> claimLogFollower(String id, String host, Instant staleBefore) {
+        Query query = new Query(
+                new Criteria().andOperator(
+                        Criteria.where("id").is(id),
+                        new Criteria().orOperator(
+                                Criteria.where("logFollowedBy").exists(false),
+                                Criteria.where("logFollowedBy").is(host),
+                                Criteria.where("logFollowerUpdateTime").lt(staleBefore)
+                        )
+                )
+        );
+        Update update = new Update().set("logFollowedBy", host).set("logFollowerUpdateTime", Instant.now());
+        return Optional.ofNullable(mongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true), ComponentBranchBuild.class));
+    }
+
+    @Override
+    public boolean updateLogCursor(String id, String host, String logCursor) {
+        Query query = new Query(
+                new Criteria().andOperator(
+                        Criteria.where("id").is(id),
+                        Criteria.where("logFollowedBy").is(host)
+                )
+        );
+        Update update = new Update().set("logFollowerUpdateTime", Instant.now());
+        if (logCursor != null) {
+            update.set("logCursor", logCursor);
+        }
+        return mongoTemplate.updateFirst(query, update, ComponentBranchBuild.class).getModifiedCount() > 0;
     }
 
     @Override
@@ -69,18 +385,34 @@ public class ComponentBranchBuildRepositoryImpl implements ComponentBranchBuildR
     }
 
     @Override
-    public boolean releaseLock(String buildId, BuildStatus buildStatus) throws UnknownHostException {
-        Query query = new Query(
-                new Criteria().orOperator(
-                        Criteria.where("id").is(buildId)
+    public boolean releaseLock(String buildId, long lockToken, BuildStatus buildStatus) {
+        if (TERMINAL_STATUS.contains(buildStatus)) {
+            Update terminalUpdate = new Update()
+                    .set("buildStatus", buildStatus)
+                    .set("lastProcessTime", Instant.now());
+            mongoTemplate.updateFirst(new Query(leaseCriteria(buildId, lockToken)), terminalUpdate, ComponentBranchBuild.class);
+        } else {
+            // a stop requested while the lock was held is kept, so the build is stopped by the next worker
+            Query notStoppingQuery = new Query(
+                    new Criteria().andOperator(
+                            leaseCriteria(buildId, lockToken),
+                            Criteria.where("buildStatus").ne(BuildStatus.STOP_REQUESTED)
+                    )
+            );
+            mongoTemplate.updateFirst(notStoppingQuery, new Update().set("buildStatus", buildStatus), ComponentBranchBuild.class);
+        }
+        // a build expedited while the lock was held is processed again as soon as possible
+        Query notExpeditedQuery = new Query(
+                new Criteria().andOperator(
+                        leaseCriteria(buildId, lockToken),
+                        Criteria.where("lastProcessTime").gt(Instant.EPOCH)
                 )
         );
+        mongoTemplate.updateFirst(notExpeditedQuery, new Update().set("lastProcessTime", Instant.now()), ComponentBranchBuild.class);
         Update u = new Update()
                 .unset("lockTime")
-                .unset("lockedBy")
-                .set("lastProcessTime", Instant.now())
-                .set("buildStatus", buildStatus);
-        UpdateResult ur = mongoTemplate.updateFirst(query, u, ComponentBranchBuild.class);
+                .unset("lockedBy");
+        UpdateResult ur = mongoTemplate.updateFirst(new Query(leaseCriteria(buildId, lockToken)), u, ComponentBranchBuild.class);
         return ur.getModifiedCount() > 0;
     }
 }
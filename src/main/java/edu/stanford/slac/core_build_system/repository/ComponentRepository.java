@@ -2,7 +2,6 @@ package edu.stanford.slac.core_build_system.repository;
 
 
 import edu.stanford.slac.core_build_system.model.Component;
-import org.checkerframework.checker.units.qual.C;
 import org.springframework.data.mongodb.repository.MongoRepository;
 
 import java.util.List;
@@ -14,4 +13,6 @@ public interface ComponentRepository extends MongoRepository<Component, String>
     boolean existsByName(String name);
     boolean existsByNameAndIdIsNot(String name, String id);
     Optional<Component> findByUrlIn(List<String> url);
+    boolean existsByNormalizedRepoKey(String normalizedRepoKey);
+    boolean existsByNormalizedRepoKeyAndIdIsNot(String normalizedRepoKey, String id);
 }
@@ -0,0 +1,300 @@
+package edu.stanford.slac.core_build_system.repository;
+
+import edu.stanford.slac.core_build_system.config.CoreBuildProperties;
+import edu.stanford.slac.core_build_system.config.GitHubClient;
+import edu.stanford.slac.core_build_system.model.CloneStrategy;
+import edu.stanford.slac.core_build_system.model.Component;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.eclipse.jgit.api.CloneCommand;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.util.FileUtils;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Repository;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+import static java.util.Collections.singletonList;
+
+/**
+ * Keep a local bare mirror of the component repositories
+ * <p>
+ * The first build of a component clones its repository as a bare mirror, the next ones only fetch the new
+ * objects into the mirror and create the scratch checkout with a local clone, so the remote server transfer
+ * only what has changed since the last build. Each mirror is guarded by a lock within the process and by a
+ * file lock between processes sharing the mirror directory. The mirrors not used for a while, or the least
+ * recently used ones when the total size is over the quota, are evicted.
+ */
+@Log4j2
+@Repository
+@RequiredArgsConstructor
+public class GitMirrorRepository {
+    private static final String LOCK_FILE_NAME = "cbs-mirror.lock";
+    private static final String LAST_USE_FILE_NAME = "cbs-mirror.last-use";
+    private final CoreBuildProperties coreBuildProperties;
+    private final GitHubClient.GHInstancer ghInstancer;
+    private final Map<String, ReentrantLock> mirrorLocks = new ConcurrentHashMap<>();
+
+    /**
+     * Check if the mirror cache is enabled
+     *
+     * @return true if the mirror root directory is configured
+     */
+    public boolean isEnabled() {
+        return coreBuildProperties.getGitMirrorRootDirectory() != null
+                && !coreBuildProperties.getGitMirrorRootDirectory().isBlank();
+    }
+
+    /**
+     * Update the mirror of the component and clone the branch from it
+     * <p>
+     * The origin of the cloned repository is the component url, so the build see the same remote it
+     * would have with a direct clone.
+     *
+     * @param component     the component
+     * @param branchName    the branch to clone
+     * @param clonePath     the directory where the repository is cloned
+     * @param cloneStrategy the strategy of the clone, null for a full clone
+     * @return the path of the cloned repository
+     * @throws Exception if the mirror cannot be updated or the clone fails
+     */
+    public String downLoadRepository(Component component, String branchName, String clonePath, CloneStrategy cloneStrategy) throws Exception {
+        Path mirrorPath = mirrorPath(component);
+        return withMirrorLock(
+                mirrorPath,
+                () -> {
+                    updateMirror(component, mirrorPath);
+                    try (Git git = localCloneCommand(mirrorPath, branchName, new File(clonePath), cloneStrategy).call()) {
+                        StoredConfig config = git.getRepository().getConfig();
+                        config.setString(ConfigConstants.CONFIG_REMOTE_SECTION, Constants.DEFAULT_REMOTE_NAME, ConfigConstants.CONFIG_KEY_URL, component.getUrl());
+                        config.save();
+                        return git.getRepository().getDirectory().getParent();
+                    }
+                }
+        );
+    }
+
+    /**
+     * Evict the mirrors not used within the max age and then the least recently used ones until
+     * the total size is within the quota
+     * <p>
+     * A mirror in use is skipped and considered again at the next eviction.
+     */
+    @Scheduled(
+            initialDelayString = "${edu.stanford.slac.core-build-system.git-mirror-eviction-interval-ms:3600000}",
+            fixedDelayString = "${edu.stanford.slac.core-build-system.git-mirror-eviction-interval-ms:3600000}"
+    )
+    public void evict() {
+        if (!isEnabled()) return;
+        Path mirrorRoot = Path.of(coreBuildProperties.getGitMirrorRootDirectory());
+        if (Files.notExists(mirrorRoot)) return;
+        List<MirrorUsage> mirrors = new ArrayList<>();
+        try (Stream<Path> mirrorPaths = Files.list(mirrorRoot)) {
+            for (Path mirrorPath : mirrorPaths.filter(Files::isDirectory).toList()) {
+                try {
+                    mirrors.add(new MirrorUsage(mirrorPath, lastUse(mirrorPath), sizeOf(mirrorPath)));
+                } catch (IOException | UncheckedIOException e) {
+                    // the mirror is changing under a fetch, it is in use anyway
+                    log.debug("Skip git mirror {} from eviction: {}", mirrorPath, e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            log.error("Error reading the git mirror directory {}", mirrorRoot, e);
+            return;
+        }
+        mirrors.sort(Comparator.comparing(MirrorUsage::lastUse));
+        long totalSize = mirrors.stream().mapToLong(MirrorUsage::size).sum();
+        Instant expiration = Instant.now().minus(Duration.ofMillis(coreBuildProperties.getGitMirrorMaxAgeMs()));
+        for (MirrorUsage mirror : mirrors) {
+            boolean expired = mirror.lastUse().isBefore(expiration);
+            boolean overQuota = totalSize > coreBuildProperties.getGitMirrorMaxSizeBytes();
+            if (!expired && !overQuota) continue;
+            if (deleteMirror(mirror.path())) {
+                totalSize -= mirror.size();
+                log.info("Evicted git mirror {} of {} bytes last used at {}", mirror.path(), mirror.size(), mirror.lastUse());
+            }
+        }
+    }
+
+    /**
+     * Clone the mirror for the first time or fetch the new objects into it
+     * <p>
+     * A mirror that cannot be fetched is considered corrupted and is cloned again.
+     *
+     * @param component  the component
+     * @param mirrorPath the path of the mirror
+     */
+    private void updateMirror(Component component, Path mirrorPath) throws Exception {
+        if (Files.exists(mirrorPath.resolve(Constants.HEAD))) {
+            try (Git git = Git.open(mirrorPath.toFile())) {
+                // the component url could have been changed
+                StoredConfig config = git.getRepository().getConfig();
+                config.setString(ConfigConstants.CONFIG_REMOTE_SECTION, Constants.DEFAULT_REMOTE_NAME, ConfigConstants.CONFIG_KEY_URL, component.getUrl());
+                config.save();
+                git.fetch()
+                        .setRemote(Constants.DEFAULT_REMOTE_NAME)
+                        .setRemoveDeletedRefs(true)
+                        .setCredentialsProvider(ghInstancer.gitCredentialsProvider())
+                        .call();
+                log.info("Fetched git mirror {} of {}", mirrorPath, component.getName());
+                touch(mirrorPath);
+                return;
+            } catch (Exception e) {
+                log.warn("Error fetching the git mirror {} of {}, cloning it again", mirrorPath, component.getName(), e);
+                FileUtils.delete(mirrorPath.toFile(), FileUtils.RECURSIVE | FileUtils.SKIP_MISSING);
+            }
+        }
+        try (Git ignored = Git.cloneRepository()
+                .setURI(component.getUrl())
+                .setMirror(true)
+                .setDirectory(mirrorPath.toFile())
+                .setCredentialsProvider(ghInstancer.gitCredentialsProvider())
+                .call()) {
+            log.info("Created git mirror {} of {}", mirrorPath, component.getName());
+        }
+        touch(mirrorPath);
+    }
+
+    /**
+     * Create the command that clone a branch from the local mirror
+     *
+     * @param mirrorPath     the path of the mirror
+     * @param branchName     the branch to clone
+     * @param cloneDirectory the directory where the repository is cloned
+     * @param cloneStrategy  the strategy of the clone, null for a full clone
+     * @return the clone command
+     */
+    private CloneCommand localCloneCommand(Path mirrorPath, String branchName, File cloneDirectory, CloneStrategy cloneStrategy) {
+        CloneCommand cloneCommand = Git.cloneRepository()
+                .setURI(mirrorPath.toUri().toString())
+                .setBranch(branchName)
+                .setDirectory(cloneDirectory);
+        if (cloneStrategy == null) return cloneCommand;
+        if (!cloneStrategy.isFullHistory()) {
+            cloneCommand.setDepth(cloneStrategy.getDepth());
+        }
+        if (cloneStrategy.isSingleBranch()) {
+            cloneCommand
+                    .setCloneAllBranches(false)
+                    .setBranchesToClone(singletonList(Constants.R_HEADS + branchName));
+        }
+        if (cloneStrategy.isNoTags()) {
+            cloneCommand.setNoTags();
+        }
+        return cloneCommand;
+    }
+
+    /**
+     * Execute an operation holding the lock of the mirror, within this process and between the processes
+     * that share the mirror directory
+     *
+     * @param mirrorPath the path of the mirror
+     * @param operation  the operation to execute
+     * @return the result of the operation
+     */
+    private <T> T withMirrorLock(Path mirrorPath, MirrorOperation<T> operation) throws Exception {
+        ReentrantLock lock = mirrorLocks.computeIfAbsent(mirrorPath.getFileName().toString(), name -> new ReentrantLock());
+        if (!lock.tryLock(coreBuildProperties.getGitMirrorLockTimeoutMs(), TimeUnit.MILLISECONDS)) {
+            throw new IOException("Timeout waiting the lock of the git mirror %s".formatted(mirrorPath));
+        }
+        try {
+            Files.createDirectories(mirrorPath.getParent());
+            try (FileChannel lockChannel = FileChannel.open(lockFile(mirrorPath), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileLock ignored = lockChannel.lock()) {
+                return operation.execute();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Delete a mirror if it is not in use
+     *
+     * @param mirrorPath the path of the mirror
+     * @return true if the mirror has been deleted
+     */
+    private boolean deleteMirror(Path mirrorPath) {
+        ReentrantLock lock = mirrorLocks.computeIfAbsent(mirrorPath.getFileName().toString(), name -> new ReentrantLock());
+        if (!lock.tryLock()) return false;
+        try (FileChannel lockChannel = FileChannel.open(lockFile(mirrorPath), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             FileLock fileLock = lockChannel.tryLock()) {
+            if (fileLock == null) return false;
+            FileUtils.delete(mirrorPath.toFile(), FileUtils.RECURSIVE | FileUtils.SKIP_MISSING);
+            return true;
+        } catch (IOException e) {
+            log.error("Error evicting the git mirror {}", mirrorPath, e);
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Return the path of the mirror of a component
+     *
+     * @param component the component
+     * @return the path of the mirror
+     */
+    private Path mirrorPath(Component component) {
+        return Path.of(
+                coreBuildProperties.getGitMirrorRootDirectory(),
+                "%s.git".formatted(component.getName().replaceAll("[^A-Za-z0-9._-]", "_"))
+        );
+    }
+
+    /**
+     * The lock file is beside the mirror, so it survives the deletion of a corrupted mirror
+     */
+    private static Path lockFile(Path mirrorPath) {
+        return mirrorPath.resolveSibling("%s.%s".formatted(mirrorPath.getFileName(), LOCK_FILE_NAME));
+    }
+
+    private static void touch(Path mirrorPath) throws IOException {
+        Path lastUseFile = mirrorPath.resolve(LAST_USE_FILE_NAME);
+        if (Files.notExists(lastUseFile)) {
+            Files.createFile(lastUseFile);
+        }
+        Files.setLastModifiedTime(lastUseFile, FileTime.from(Instant.now()));
+    }
+
+    private static Instant lastUse(Path mirrorPath) throws IOException {
+        Path lastUseFile = mirrorPath.resolve(LAST_USE_FILE_NAME);
+        return Files.getLastModifiedTime(Files.exists(lastUseFile) ? lastUseFile : mirrorPath).toInstant();
+    }
+
+    private static long sizeOf(Path path) throws IOException {
+        try (Stream<Path> files = Files.walk(path)) {
+            return files.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+        }
+    }
+
+    @FunctionalInterface
+    private interface MirrorOperation<T> {
+        T execute() throws Exception;
+    }
+
+    private record MirrorUsage(Path path, Instant lastUse, long size) {
+    }
+}
@@ -1,5 +1,6 @@
 package edu.stanford.slac.core_build_system.repository;
 
+import edu.stanford.slac.core_build_system.model.CloneStrategy;
 import edu.stanford.slac.core_build_system.model.Component;
 import edu.stanford.slac.core_build_system.model.NewBranch;
 import edu.stanford.slac.core_build_system.model.PullRequest;
@@ -15,7 +16,32 @@ public interface GitServerRepository {
 
     void createNewPR(Component component, PullRequest pullRequest) throws Exception;
 
-    String downLoadRepository(Component component, String branchName, String clonePath) throws Exception;
+    /**
+     * Clone the branch of the component repository using the clone strategy of the component
+     */
+    default String downLoadRepository(Component component, String branchName, String clonePath) throws Exception {
+        return downLoadRepository(component, branchName, clonePath, component.getCloneStrategy());
+    }
+
+    /**
+     * Clone the branch of the component repository
+     *
+     * @param component     the component
+     * @param branchName    the branch to clone
+     * @param clonePath     the directory where the repository is cloned
+     * @param cloneStrategy the strategy of the clone, null for a full clone
+     * @return the path of the cloned repository
+     */
+    String downLoadRepository(Component component, String branchName, String clonePath, CloneStrategy cloneStrategy) throws Exception;
+
+    /**
+     * Resolve the commit at the head of a branch of the component repository, without cloning it
+     *
+     * @param component  the component
+     * @param branchName the branch
+     * @return the commit sha, null if the branch does not exist
+     */
+    String resolveBranchHead(Component component, String branchName) throws Exception;
 
     void enableEvent(Component component, String uriToCall) throws Exception;
 
@@ -3,18 +3,24 @@ package edu.stanford.slac.core_build_system.repository;
 import edu.stanford.slac.ad.eed.baselib.exception.ControllerLogicException;
 import edu.stanford.slac.core_build_system.config.CoreBuildProperties;
 import edu.stanford.slac.core_build_system.config.GitHubClient;
+import edu.stanford.slac.core_build_system.model.CloneStrategy;
 import edu.stanford.slac.core_build_system.model.Component;
 import edu.stanford.slac.core_build_system.model.NewBranch;
 import edu.stanford.slac.core_build_system.model.PullRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.log4j.Log4j2;
+import org.eclipse.jgit.api.CloneCommand;
 import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.util.FileUtils;
 import org.kohsuke.github.*;
 import org.springframework.stereotype.Repository;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -93,15 +99,66 @@ public class GithubServerRepository implements GitServerRepository {
      * @throws Exception if there is an error
      */
     @Override
-    public String downLoadRepository(Component component, String branchName, String clonePath) throws Exception {
-        try (Git git = Git.cloneRepository()
+    public String downLoadRepository(Component component, String branchName, String clonePath, CloneStrategy cloneStrategy) throws Exception {
+        File cloneDirectory = new File(clonePath);
+        if (cloneStrategy != null) {
+            try (Git git = cloneCommand(component, branchName, cloneDirectory, cloneStrategy).call()) {
+                return git.getRepository().getDirectory().getParent();
+            } catch (Exception e) {
+                // the server could not support the shallow clone, restart from an empty directory with the full clone
+                log.warn("Clone of {} with strategy {} failed, falling back to full clone", component.getName(), cloneStrategy, e);
+                FileUtils.delete(cloneDirectory, FileUtils.RECURSIVE | FileUtils.SKIP_MISSING);
+                FileUtils.mkdirs(cloneDirectory, true);
+            }
+        }
+        try (Git git = cloneCommand(component, branchName, cloneDirectory, null).call()) {
+           return git.getRepository().getDirectory().getParent();
+        }
+    }
+
+    @Override
+    public String resolveBranchHead(Component component, String branchName) throws Exception {
+        Collection<Ref> heads = Git.lsRemoteRepository()
+                .setRemote(component.getUrl())
+                .setHeads(true)
+                .setTags(false)
+                .setCredentialsProvider(ghInstancer.gitCredentialsProvider())
+                .call();
+        return heads.stream()
+                .filter(ref -> ref.getName().equals(Constants.R_HEADS + branchName))
+                .map(ref -> ref.getObjectId().name())
+                .findFirst()
+                .orElse(null);
+    }
+
+    /**
+     * Create the clone command for the strategy
+     *
+     * @param component      the component
+     * @param branchName     the branch to clone
+     * @param cloneDirectory the directory where the repository is cloned
+     * @param cloneStrategy  the strategy of the clone, null for a full clone
+     * @return the clone command
+     */
+    private CloneCommand cloneCommand(Component component, String branchName, File cloneDirectory, CloneStrategy cloneStrategy) {
+        CloneCommand cloneCommand = Git.cloneRepository()
                 .setURI(component.getUrl())
                 .setBranch(branchName)
-                .setDirectory(new File(clonePath))
-                .setCredentialsProvider(ghInstancer.gitCredentialsProvider())
-                .call()) {
-           return git.getRepository().getDirectory().getParent();
+                .setDirectory(cloneDirectory)
+                .setCredentialsProvider(ghInstancer.gitCredentialsProvider());
+        if (cloneStrategy == null) return cloneCommand;
+        if (!cloneStrategy.isFullHistory()) {
+            cloneCommand.setDepth(cloneStrategy.getDepth());
+        }
+        if (cloneStrategy.isSingleBranch()) {
+            cloneCommand
+                    .setCloneAllBranches(false)
+                    .setBranchesToClone(singletonList(Constants.R_HEADS + branchName));
+        }
+        if (cloneStrategy.isNoTags()) {
+            cloneCommand.setNoTags();
         }
+        return cloneCommand;
     }
     @Override
     public void enableEvent(Component component, String uriToCall) throws Exception {
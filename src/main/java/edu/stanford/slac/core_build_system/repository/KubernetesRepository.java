@@ -2,9 +2,15 @@ package edu.stanford.slac.core_build_system.repository;
 
 import edu.stanford.slac.core_build_system.config.CoreBuildProperties;
 import edu.stanford.slac.core_build_system.model.K8SPodBuilder;
+import edu.stanford.slac.core_build_system.model.ResourceProfile;
 import io.fabric8.kubernetes.api.model.*;
+import io.fabric8.kubernetes.api.model.metrics.v1beta1.ContainerMetrics;
+import io.fabric8.kubernetes.api.model.metrics.v1beta1.PodMetrics;
 import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.dsl.LogWatch;
 import io.fabric8.kubernetes.client.dsl.PodResource;
+import io.fabric8.kubernetes.client.informers.ResourceEventHandler;
+import io.fabric8.kubernetes.client.informers.SharedIndexInformer;
 import io.fabric8.kubernetes.client.utils.Serialization;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.log4j.Log4j2;
@@ -15,6 +21,7 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -23,6 +30,10 @@ import java.util.Map;
 @Repository
 @RequiredArgsConstructor
 public class KubernetesRepository {
+    /**
+     * The label that bind a builder pod to the identifier of its build
+     */
+    public static final String BUILD_ID_LABEL = "cbs-build-d";
     private final CoreBuildProperties coreBuildProperties;
     private final KubernetesClient client;
 
@@ -64,6 +75,7 @@ public class KubernetesRepository {
      */
     public Pod spinUpBuildPod(K8SPodBuilder podBuilder) {
         Pod result = null;
+        ResourceProfile resourceProfile = defaultResourceProfile().merge(podBuilder.getResourceProfile());
         Pod newPod = new PodBuilder()
                 .withNewMetadata()
                 .withNamespace(podBuilder.getNamespace())
@@ -77,12 +89,7 @@ public class KubernetesRepository {
                 .withName("data-volume")
                 .withMountPath(podBuilder.getMountLocation())
                 .endVolumeMount()
-                .withNewResources()
-                .addToRequests("memory", new Quantity("1Gi"))
-                .addToRequests("cpu", new Quantity("1"))
-                .addToLimits("memory", new Quantity("1Gi"))
-                .addToLimits("cpu", new Quantity("1"))
-                .endResources()
+                .withResources(toResourceRequirements(resourceProfile))
                 .endContainer()
                 .addNewVolume()
                 .withName("data-volume")
@@ -107,6 +114,22 @@ public class KubernetesRepository {
             }
             newPod.getSpec().getContainers().getFirst().setSecurityContext(securityContextBuilder.build());
         }
+        if (podBuilder.getReadOnlySubPaths() != null) {
+            // mounted over the writable volume, so the builder cannot change the shared sources
+            podBuilder.getReadOnlySubPaths().forEach(
+                    subPath -> newPod.getSpec().getContainers().getFirst().getVolumeMounts().add(
+                            new VolumeMountBuilder()
+                                    .withName("data-volume")
+                                    .withMountPath("%s/%s".formatted(podBuilder.getMountLocation(), subPath))
+                                    .withSubPath(subPath)
+                                    .withReadOnly(true)
+                                    .build()
+                    )
+            );
+        }
+        if (resourceProfile.getNodeSelector() != null && !resourceProfile.getNodeSelector().isEmpty()) {
+            newPod.getSpec().setNodeSelector(resourceProfile.getNodeSelector());
+        }
         if (podBuilder.getBuildCommand() != null) {
             newPod.getSpec().getContainers().getFirst().setCommand(podBuilder.getBuildCommand());
         }
@@ -125,6 +148,84 @@ public class KubernetesRepository {
 
     }
 
+    /**
+     * Read the current resource usage of the pods of a namespace from the metrics server
+     *
+     * @param namespace the namespace
+     * @return the usage of each pod, by pod name
+     */
+    public Map<String, PodResourceUsage> getPodResourceUsage(String namespace) {
+        Map<String, PodResourceUsage> result = new HashMap<>();
+        for (PodMetrics podMetrics : client.top().pods().metrics(namespace).getItems()) {
+            long cpuMillis = 0;
+            long memoryBytes = 0;
+            for (ContainerMetrics containerMetrics : podMetrics.getContainers()) {
+                Quantity cpu = containerMetrics.getUsage().get("cpu");
+                Quantity memory = containerMetrics.getUsage().get("memory");
+                if (cpu != null) cpuMillis += Quantity.getAmountInBytes(cpu).movePointRight(3).longValue();
+                if (memory != null) memoryBytes += Quantity.getAmountInBytes(memory).longValue();
+            }
+            result.put(podMetrics.getMetadata().getName(), new PodResourceUsage(cpuMillis, memoryBytes));
+        }
+        return result;
+    }
+
+    /**
+     * The resources used by the builder pods when the build does not define them
+     *
+     * @return the default resource profile
+     */
+    public ResourceProfile defaultResourceProfile() {
+        return ResourceProfile.builder()
+                .cpuRequest(coreBuildProperties.getBuilderCpuRequest())
+                .cpuLimit(coreBuildProperties.getBuilderCpuLimit())
+                .memoryRequest(coreBuildProperties.getBuilderMemoryRequest())
+                .memoryLimit(coreBuildProperties.getBuilderMemoryLimit())
+                .build();
+    }
+
+    /**
+     * Compute the requests and the limits of a builder container
+     *
+     * @param resourceProfile The profile of the build, null for the default resources
+     * @return the container resources
+     */
+    public ResourceRequirements builderResourceRequirements(ResourceProfile resourceProfile) {
+        return toResourceRequirements(defaultResourceProfile().merge(resourceProfile));
+    }
+
+    /**
+     * Read the resource quotas of a namespace
+     *
+     * @param namespace the namespace
+     * @return the quotas with their hard limits and their current usage
+     */
+    public List<ResourceQuota> getResourceQuotas(String namespace) {
+        return client.resourceQuotas().inNamespace(namespace).list().getItems();
+    }
+
+    /**
+     * Convert the profile to the requests and the limits of the container
+     *
+     * @param resourceProfile The profile
+     * @return the container resources
+     */
+    private static ResourceRequirements toResourceRequirements(ResourceProfile resourceProfile) {
+        Map<String, Quantity> requests = new HashMap<>();
+        Map<String, Quantity> limits = new HashMap<>();
+        putQuantity(requests, "cpu", resourceProfile.getCpuRequest());
+        putQuantity(limits, "cpu", resourceProfile.getCpuLimit());
+        putQuantity(requests, "memory", resourceProfile.getMemoryRequest());
+        putQuantity(limits, "memory", resourceProfile.getMemoryLimit());
+        putQuantity(requests, "ephemeral-storage", resourceProfile.getEphemeralStorageRequest());
+        putQuantity(limits, "ephemeral-storage", resourceProfile.getEphemeralStorageLimit());
+        return new ResourceRequirementsBuilder().withRequests(requests).withLimits(limits).build();
+    }
+
+    private static void putQuantity(Map<String, Quantity> quantities, String resource, String value) {
+        if (value != null && !value.isBlank()) quantities.put(resource, new Quantity(value));
+    }
+
     /**
      * Get the pod
      *
@@ -134,6 +235,36 @@ public class KubernetesRepository {
         return client.pods().inNamespace(namespace).withName(podName);
     }
 
+    /**
+     * Follow the log of a pod, each line is prefixed by its RFC3339 timestamp
+     *
+     * @param namespace the namespace
+     * @param podName   the pod name
+     * @param sinceTime the RFC3339 time from which the log is returned, null to get the full log
+     * @return the log watch to close when done
+     */
+    public LogWatch watchLog(String namespace, String podName, String sinceTime) {
+        PodResource pod = client.pods().inNamespace(namespace).withName(podName);
+        if (sinceTime == null) {
+            return pod.usingTimestamps().watchLog();
+        }
+        return pod.usingTimestamps().sinceTime(sinceTime).watchLog();
+    }
+
+    /**
+     * Create an informer, not yet started, on the pods of a namespace that have a label
+     *
+     * @param namespace the namespace
+     * @param label     the label that the pods need to have
+     * @param handler   the handler that receive the pod events
+     * @return the informer to start
+     */
+    public SharedIndexInformer<Pod> podInformer(String namespace, String label, ResourceEventHandler<Pod> handler) {
+        SharedIndexInformer<Pod> informer = client.pods().inNamespace(namespace).withLabel(label).runnableInformer(0);
+        informer.addEventHandler(handler);
+        return informer;
+    }
+
     /**
      * Delete the pod
      *
@@ -192,4 +323,13 @@ public class KubernetesRepository {
         var result = client.resource(pvc).create();
         log.info("PVC created: {}", result.getMetadata().getName());
     }
+
+    /**
+     * The resources used by a pod
+     *
+     * @param cpuMillis   the cpu usage in millicores
+     * @param memoryBytes the memory usage in bytes
+     */
+    public record PodResourceUsage(long cpuMillis, long memoryBytes) {
+    }
 }
@@ -0,0 +1,16 @@
+package edu.stanford.slac.core_build_system.repository;
+
+
+import edu.stanford.slac.core_build_system.model.LogChunk;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+public interface LogChunkRepository extends MongoRepository<LogChunk, String> {
+    List<LogChunk> findByBuildIdOrderByChunkSeqAsc(String buildId);
+    Optional<LogChunk> findFirstByBuildIdOrderByChunkSeqDesc(String buildId);
+    Stream<LogChunk> streamByBuildIdAndLastLineGreaterThanEqualOrderByChunkSeqAsc(String buildId, long line);
+    void deleteAllByBuildId(String buildId);
+}
@@ -0,0 +1,7 @@
+package edu.stanford.slac.core_build_system.repository;
+
+import edu.stanford.slac.core_build_system.model.SharedCheckout;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+public interface SharedCheckoutRepository extends MongoRepository<SharedCheckout, String>, SharedCheckoutRepositoryCustom {
+}
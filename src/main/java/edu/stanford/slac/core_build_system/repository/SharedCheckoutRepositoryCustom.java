@@ -0,0 +1,31 @@
+package edu.stanford.slac.core_build_system.repository;
+
+import edu.stanford.slac.core_build_system.model.SharedCheckout;
+
+import java.util.Optional;
+
+public interface SharedCheckoutRepositoryCustom {
+    /**
+     * Pin the checkout to a commit if no other build has already done it
+     * @param id The identifier of the checkout
+     * @param commitSha The commit found by the calling build
+     * @param location The location of the checkout
+     * @return The checkout with the pinned commit, that could be the one of another build
+     */
+    Optional<SharedCheckout> pinCommit(String id, String commitSha, String location);
+
+    /**
+     * Remove a build from the ones that use the checkout
+     * @param id The identifier of the checkout
+     * @param buildId The identifier of the build
+     * @return The checkout after the removal
+     */
+    Optional<SharedCheckout> removeBuild(String id, String buildId);
+
+    /**
+     * Delete the checkout if no build use it anymore
+     * @param id The identifier of the checkout
+     * @return True if the checkout has been deleted
+     */
+    boolean deleteIfUnused(String id);
+}
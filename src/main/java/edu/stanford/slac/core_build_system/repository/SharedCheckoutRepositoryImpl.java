@@ -0,0 +1,69 @@
+package edu.stanford.slac.core_build_system.repository;
+
+import edu.stanford.slac.core_build_system.model.SharedCheckout;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public class SharedCheckoutRepositoryImpl implements SharedCheckoutRepositoryCustom {
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Override
+    public Optional<SharedCheckout> pinCommit(String id, String commitSha, String location) {
+        Query query = new Query(
+                Criteria.where("id").is(id).and("commitSha").is(null)
+        );
+        Update update = new Update()
+                .set("commitSha", commitSha)
+                .set("location", location);
+        SharedCheckout pinned = mongoTemplate.findAndModify(
+                query,
+                update,
+                FindAndModifyOptions.options().returnNew(true),
+                SharedCheckout.class
+        );
+        if (pinned != null) return Optional.of(pinned);
+        // the commit pinned when the build was started, the first download set the location
+        pinned = mongoTemplate.findAndModify(
+                new Query(Criteria.where("id").is(id).and("location").is(null)),
+                new Update().set("location", location),
+                FindAndModifyOptions.options().returnNew(true),
+                SharedCheckout.class
+        );
+        if (pinned != null) return Optional.of(pinned);
+        // another build has already pinned the commit
+        return Optional.ofNullable(mongoTemplate.findById(id, SharedCheckout.class));
+    }
+
+    @Override
+    public Optional<SharedCheckout> removeBuild(String id, String buildId) {
+        Query query = new Query(
+                Criteria.where("id").is(id)
+        );
+        Update update = new Update().pull("buildIds", buildId);
+        return Optional.ofNullable(
+                mongoTemplate.findAndModify(
+                        query,
+                        update,
+                        FindAndModifyOptions.options().returnNew(true),
+                        SharedCheckout.class
+                )
+        );
+    }
+
+    @Override
+    public boolean deleteIfUnused(String id) {
+        Query query = new Query(
+                Criteria.where("id").is(id).and("buildIds").size(0)
+        );
+        return mongoTemplate.remove(query, SharedCheckout.class).getDeletedCount() > 0;
+    }
+}
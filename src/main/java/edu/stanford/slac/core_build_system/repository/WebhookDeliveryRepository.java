@@ -0,0 +1,12 @@
+package edu.stanford.slac.core_build_system.repository;
+
+import edu.stanford.slac.core_build_system.model.WebhookDelivery;
+import edu.stanford.slac.core_build_system.model.WebhookDeliveryStatus;
+import org.springframework.data.mongodb.repository.MongoRepository;
+
+import java.util.Optional;
+
+public interface WebhookDeliveryRepository extends MongoRepository<WebhookDelivery, String>, WebhookDeliveryRepositoryCustom {
+    Optional<WebhookDelivery> findByDeliveryId(String deliveryId);
+    long countByStatus(WebhookDeliveryStatus status);
+}
@@ -0,0 +1,32 @@
+package edu.stanford.slac.core_build_system.repository;
+
+import edu.stanford.slac.core_build_system.model.WebhookDelivery;
+
+import java.net.UnknownHostException;
+import java.time.Instant;
+import java.util.Optional;
+
+public interface WebhookDeliveryRepositoryCustom {
+    /**
+     * Find and lock the oldest pending delivery that is not locked or whose lock has expired
+     * @param lockTimeout The instant before which a lock is considered expired
+     * @return The delivery that was locked
+     */
+    Optional<WebhookDelivery> findAndLockNextDelivery(Instant lockTimeout) throws UnknownHostException;
+
+    /**
+     * Mark the delivery as processed and release its lock
+     * @param id The identifier of the delivery
+     * @return True if the delivery was updated
+     */
+    boolean markProcessed(String id);
+
+    /**
+     * Record a failed processing attempt and release the lock of the delivery
+     * @param id The identifier of the delivery
+     * @param error The error of the attempt
+     * @param retryAt The instant of the next attempt, null when the delivery is not retried anymore
+     * @return True if the delivery was updated
+     */
+    boolean markFailed(String id, String error, Instant retryAt);
+}
@@ -0,0 +1,71 @@
+package edu.stanford.slac.core_build_system.repository;
+
+import edu.stanford.slac.core_build_system.model.WebhookDelivery;
+import edu.stanford.slac.core_build_system.model.WebhookDeliveryStatus;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Repository;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Instant;
+import java.util.Optional;
+
+@Repository
+public class WebhookDeliveryRepositoryImpl implements WebhookDeliveryRepositoryCustom {
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Override
+    public Optional<WebhookDelivery> findAndLockNextDelivery(Instant lockTimeout) throws UnknownHostException {
+        Query query = new Query(
+                new Criteria().andOperator(
+                        Criteria.where("status").is(WebhookDeliveryStatus.PENDING),
+                        new Criteria().orOperator(
+                                Criteria.where("lockTime").exists(false),
+                                Criteria.where("lockTime").lt(lockTimeout)
+                        ),
+                        // the failed deliveries wait for their retry
+                        new Criteria().orOperator(
+                                Criteria.where("notBefore").exists(false),
+                                Criteria.where("notBefore").lte(Instant.now())
+                        )
+                )
+        ).with(Sort.by(Sort.Order.asc("id"))).limit(1);
+        Update update = new Update()
+                .set("lockTime", Instant.now())
+                .set("lockedBy", InetAddress.getLocalHost().getHostName());
+        return Optional.ofNullable(mongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true), WebhookDelivery.class));
+    }
+
+    @Override
+    public boolean markProcessed(String id) {
+        Update update = new Update()
+                .set("status", WebhookDeliveryStatus.PROCESSED)
+                .set("completedDate", Instant.now())
+                .unset("lockTime")
+                .unset("lockedBy");
+        return mongoTemplate.updateFirst(new Query(Criteria.where("id").is(id)), update, WebhookDelivery.class).getModifiedCount() > 0;
+    }
+
+    @Override
+    public boolean markFailed(String id, String error, Instant retryAt) {
+        Update update = new Update()
+                .inc("attempts", 1)
+                .set("lastError", error)
+                .unset("lockTime")
+                .unset("lockedBy");
+        if (retryAt != null) {
+            update.set("notBefore", retryAt);
+        } else {
+            update.set("status", WebhookDeliveryStatus.FAILED)
+                    .set("completedDate", Instant.now());
+        }
+        return mongoTemplate.updateFirst(new Query(Criteria.where("id").is(id)), update, WebhookDelivery.class).getModifiedCount() > 0;
+    }
+}
@@ -0,0 +1,9 @@
+package edu.stanford.slac.core_build_system.service;
+
+/**
+ * Published when new lines of a build log have been stored
+ *
+ * @param buildId the identifier of the build
+ */
+public record BuildLogAppendedEvent(String buildId) {
+}
@@ -0,0 +1,255 @@
+package edu.stanford.slac.core_build_system.service;
+
+import edu.stanford.slac.core_build_system.api.v1.dto.BuildStatusDTO;
+import edu.stanford.slac.core_build_system.api.v1.dto.LogEntryDTO;
+import edu.stanford.slac.core_build_system.config.CoreBuildProperties;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+
+/**
+ * Push the lines of a build log to the subscribed clients as server-sent events
+ * <p>
+ * All the subscribers of a build share a single tail that read the new stored lines, so the number of
+ * clients does not change the load on the database or on the kubernetes log stream, that is opened
+ * only once by the log follower. A new subscriber first receive the lines after its offset and then the
+ * live ones. The tail is woken up when this host store new lines and otherwise polls, so it works also
+ * when the log is followed by another host.
+ */
+@Log4j2
+@Service
+public class BuildLogTailService {
+    private static final Set<BuildStatusDTO> TERMINAL_STATUS = EnumSet.of(
+            BuildStatusDTO.SUCCESS,
+            BuildStatusDTO.FAILED,
+            BuildStatusDTO.STOPPED
+    );
+    private final CoreBuildProperties coreBuildProperties;
+    private final ComponentBuildService componentBuildService;
+    private final Map<String, LogTail> logTails = new ConcurrentHashMap<>();
+    private volatile boolean running = true;
+
+    public BuildLogTailService(
+            CoreBuildProperties coreBuildProperties,
+            ComponentBuildService componentBuildService,
+            MeterRegistry meterRegistry) {
+        this.coreBuildProperties = coreBuildProperties;
+        this.componentBuildService = componentBuildService;
+        Gauge.builder("cbs.log.tail.subscribers", logTails, tails -> tails.values().stream().mapToInt(tail -> tail.subscribers.size()).sum())
+                .description("Number of clients tailing a build log")
+                .register(meterRegistry);
+        Gauge.builder("cbs.log.tail.builds", logTails, Map::size)
+                .description("Number of build logs that are tailed")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Subscribe to the log of a build
+     * <p>
+     * The event 'log' carries a line, with the line number as event id, the event 'end' carries the final
+     * status of the build and is sent when the build is terminated and all its lines have been sent.
+     *
+     * @param buildId   the identifier of the build
+     * @param afterLine the number of the last line already received, null to receive the whole log
+     * @return the emitter of the events
+     */
+    public SseEmitter tail(String buildId, Long afterLine) {
+        // fail fast if the build does not exist
+        componentBuildService.findBuildStatusById(buildId);
+        SseEmitter emitter = new SseEmitter(coreBuildProperties.getLogTailTimeoutMs());
+        Subscriber subscriber = new Subscriber(emitter, afterLine == null ? -1 : afterLine);
+        emitter.onCompletion(() -> subscriber.closed = true);
+        emitter.onTimeout(() -> subscriber.closed = true);
+        emitter.onError(e -> subscriber.closed = true);
+        logTails.compute(
+                buildId,
+                (id, logTail) -> {
+                    if (logTail == null) {
+                        logTail = new LogTail(buildId);
+                        Thread.ofVirtual().name("log-tail-" + buildId).start(logTail::run);
+                    }
+                    logTail.subscribers.add(subscriber);
+                    logTail.wakeUp();
+                    return logTail;
+                }
+        );
+        log.debug("[{}] New log tail subscriber after line {}", buildId, afterLine);
+        return emitter;
+    }
+
+    /**
+     * Wake up the tail of a build when new lines have been stored
+     *
+     * @param event the event that notify the new lines
+     */
+    @EventListener
+    public void onLogAppended(BuildLogAppendedEvent event) {
+        LogTail logTail = logTails.get(event.buildId());
+        if (logTail != null) {
+            logTail.wakeUp();
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        logTails.values().forEach(LogTail::wakeUp);
+    }
+
+    /**
+     * A client subscribed to a build log
+     */
+    private static class Subscriber {
+        private final SseEmitter emitter;
+        private volatile long sentLine;
+        private volatile boolean closed = false;
+
+        Subscriber(SseEmitter emitter, long sentLine) {
+            this.emitter = emitter;
+            this.sentLine = sentLine;
+        }
+    }
+
+    /**
+     * The shared reader of the new lines of a build log
+     */
+    private class LogTail {
+        private final String buildId;
+        private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+        private final Object monitor = new Object();
+        private boolean woken = false;
+
+        LogTail(String buildId) {
+            this.buildId = buildId;
+        }
+
+        void wakeUp() {
+            synchronized (monitor) {
+                woken = true;
+                monitor.notifyAll();
+            }
+        }
+
+        void run() {
+            try {
+                while (running) {
+                    subscribers.removeIf(subscriber -> subscriber.closed);
+                    if (subscribers.isEmpty() && release()) break;
+                    // the status is read before the lines, so a terminated build has all its lines stored
+                    boolean terminated = TERMINAL_STATUS.contains(componentBuildService.findBuildStatusById(buildId));
+                    boolean sent = sendNewLines();
+                    if (terminated && !sent) {
+                        complete();
+                        continue;
+                    }
+                    waitForLines();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                log.error("[{}] Error tailing log", buildId, e);
+                subscribers.forEach(subscriber -> subscriber.emitter.completeWithError(e));
+                subscribers.clear();
+            } finally {
+                logTails.remove(buildId, this);
+            }
+        }
+
+        /**
+         * Read once the lines after the oldest line sent to a subscriber and send them to who has not received them
+         *
+         * @return true if at least a line has been sent
+         */
+        private boolean sendNewLines() {
+            long oldestSentLine = subscribers.stream().mapToLong(subscriber -> subscriber.sentLine).min().orElse(Long.MAX_VALUE);
+            if (oldestSentLine == Long.MAX_VALUE) return false;
+            boolean sent = false;
+            try (Stream<LogEntryDTO> logStream = componentBuildService.streamLogForBuild(buildId, oldestSentLine < 0 ? null : oldestSentLine)) {
+                Iterator<LogEntryDTO> logLines = logStream.iterator();
+                while (running && logLines.hasNext() && !subscribers.isEmpty()) {
+                    LogEntryDTO logLine = logLines.next();
+                    for (Subscriber subscriber : subscribers) {
+                        if (subscriber.closed || subscriber.sentLine >= logLine.lineNumber()) continue;
+                        try {
+                            subscriber.emitter.send(
+                                    SseEmitter.event()
+                                            .id(String.valueOf(logLine.lineNumber()))
+                                            .name("log")
+                                            .data(logLine, MediaType.APPLICATION_JSON)
+                            );
+                            subscriber.sentLine = logLine.lineNumber();
+                            sent = true;
+                        } catch (Exception e) {
+                            log.debug("[{}] Log tail subscriber disconnected: {}", buildId, e.getMessage());
+                            subscriber.closed = true;
+                            subscribers.remove(subscriber);
+                        }
+                    }
+                }
+            }
+            return sent;
+        }
+
+        /**
+         * Send the final status to the subscribers and close them
+         */
+        private void complete() {
+            BuildStatusDTO buildStatus = componentBuildService.findBuildStatusById(buildId);
+            for (Subscriber subscriber : subscribers) {
+                try {
+                    subscriber.emitter.send(SseEmitter.event().name("end").data(buildStatus.name()));
+                    subscriber.emitter.complete();
+                } catch (Exception e) {
+                    log.debug("[{}] Log tail subscriber disconnected: {}", buildId, e.getMessage());
+                }
+                subscriber.closed = true;
+            }
+        }
+
+        /**
+         * Remove the tail if there are no more subscribers, atomically with the subscription
+         *
+         * @return true if the tail has been removed
+         */
+        private boolean release() {
+            boolean[] released = {false};
+            logTails.compute(
+                    buildId,
+                    (id, logTail) -> {
+                        if (logTail != this) {
+                            // already removed
+                            released[0] = true;
+                            return logTail;
+                        }
+                        if (!subscribers.isEmpty()) return logTail;
+                        released[0] = true;
+                        return null;
+                    }
+            );
+            return released[0];
+        }
+
+        private void waitForLines() throws InterruptedException {
+            synchronized (monitor) {
+                if (!woken) {
+                    monitor.wait(coreBuildProperties.getLogTailPollIntervalMs());
+                }
+                woken = false;
+            }
+        }
+    }
+}
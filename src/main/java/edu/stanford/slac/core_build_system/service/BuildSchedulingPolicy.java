@@ -0,0 +1,243 @@
+package edu.stanford.slac.core_build_system.service;
+
+import edu.stanford.slac.core_build_system.config.CoreBuildProperties;
+import edu.stanford.slac.core_build_system.model.ComponentBranchBuild;
+import edu.stanford.slac.core_build_system.repository.CachedComponentRepository;
+import edu.stanford.slac.core_build_system.repository.ComponentBranchBuildRepository;
+import lombok.AllArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.*;
+
+import static edu.stanford.slac.ad.eed.baselib.exception.Utility.wrapCatch;
+
+/**
+ * Decide which pending build is started next
+ * <p>
+ * The builds are ordered by priority class, the builds of the main and release branches before the others and,
+ * within the same branch class, the builds requested by a user before the ones triggered by a repository event.
+ * Within a priority the builds are shared among the organizations and then among the components: each pending
+ * build counts the builds already started by its organization, and component, plus the ones that precede it in
+ * the queue, so a component that submits many builds gets one slot at time in turn with the others. A build is
+ * started only if its component, its organization and the whole system are below their maximum number of
+ * concurrent builds.
+ */
+@Log4j2
+@Service
+@AllArgsConstructor
+public class BuildSchedulingPolicy {
+    /**
+     * The priority added to the builds of the main and release branches
+     */
+    public static final int MAIN_BRANCH_PRIORITY = 200;
+    /**
+     * The priority added to the builds requested by a user
+     */
+    public static final int MANUAL_PRIORITY = 100;
+    private static final String NO_ORGANIZATION = "";
+    private final CoreBuildProperties coreBuildProperties;
+    private final CachedComponentRepository cachedComponentRepository;
+    private final ComponentBranchBuildRepository componentBranchBuildRepository;
+
+    /**
+     * Compute the priority of a new build
+     *
+     * @param branchName The name of the branch
+     * @param manual     true if the build is requested by a user, false if triggered by a repository event
+     * @return the priority, the higher the sooner the build is started
+     */
+    public int priorityOf(String branchName, boolean manual) {
+        int priority = manual ? MANUAL_PRIORITY : 0;
+        if (branchName != null && branchName.matches(coreBuildProperties.getPriorityBranchPattern())) {
+            priority += MAIN_BRANCH_PRIORITY;
+        }
+        return priority;
+    }
+
+    /**
+     * Lock the next pending build that can be started
+     *
+     * @param lockTimeout The time when the lock will expire
+     * @return the locked build, empty if no pending build can be started
+     */
+    public Optional<ComponentBranchBuild> claimNextQueuedBuild(Instant lockTimeout) {
+        Optional<QueueState> state = load(lockTimeout);
+        if (state.isEmpty()) return Optional.empty();
+        for (ComponentBranchBuild candidate : startableBuilds(state.get())) {
+            Optional<ComponentBranchBuild> lockedBuild = wrapCatch(
+                    () -> componentBranchBuildRepository.lockQueuedBuild(candidate.getId(), lockTimeout),
+                    -1
+            );
+            if (lockedBuild.isEmpty()) continue;
+            // another dispatcher worker can have started a build of the same component meanwhile, only the started
+            // builds, now including the locked one, are counted again
+            if (isOverCapacity(state.get().withStartedByComponent(countStartedBuilds(lockTimeout)), lockedBuild.get())) {
+                log.debug("[{}] Build not started, the maximum number of concurrent builds is reached", candidate.getId());
+                wrapCatch(() -> componentBranchBuildRepository.releaseLock(candidate.getId(), lockedBuild.get().getLockToken(), lockedBuild.get().getBuildStatus()), -2);
+                continue;
+            }
+            return lockedBuild;
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Return the position of a pending build in the queue
+     *
+     * @param buildId The identifier of the build
+     * @return the position, 1 for the next build to start, empty if the build is not queued
+     */
+    public Optional<Integer> queuePosition(String buildId) {
+        List<ComponentBranchBuild> queue = load(lockTimeout()).map(QueueState::orderedBuilds).orElse(List.of());
+        for (int i = 0; i < queue.size(); i++) {
+            if (queue.get(i).getId().equals(buildId)) return Optional.of(i + 1);
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Select, in order, the pending builds that can be started without exceeding the maximum concurrent builds
+     *
+     * @param state The state of the queue
+     * @return the builds that can be started
+     */
+    private List<ComponentBranchBuild> startableBuilds(QueueState state) {
+        Map<String, Long> startedByComponent = new HashMap<>(state.startedByComponent());
+        Map<String, Long> startedByOrganization = state.startedByOrganization();
+        long started = startedByComponent.values().stream().mapToLong(Long::longValue).sum();
+        List<ComponentBranchBuild> startableBuilds = new ArrayList<>();
+        for (ComponentBranchBuild build : state.orderedBuilds()) {
+            if (isFull(coreBuildProperties.getMaxConcurrentBuilds(), started)) break;
+            String organization = state.organizationOf(build.getComponentId());
+            if (isFull(coreBuildProperties.getMaxConcurrentBuildsPerComponent(), startedByComponent.getOrDefault(build.getComponentId(), 0L))) continue;
+            if (isFull(coreBuildProperties.getMaxConcurrentBuildsPerOrganization(), startedByOrganization.getOrDefault(organization, 0L))) continue;
+            startableBuilds.add(build);
+            started++;
+            startedByComponent.merge(build.getComponentId(), 1L, Long::sum);
+            startedByOrganization.merge(organization, 1L, Long::sum);
+        }
+        return startableBuilds;
+    }
+
+    /**
+     * Check if a locked build exceed the maximum concurrent builds, it is counted between the started builds
+     *
+     * @param state The state of the queue
+     * @param build The locked build
+     * @return true if the build cannot be started
+     */
+    private boolean isOverCapacity(QueueState state, ComponentBranchBuild build) {
+        long started = state.startedByComponent().values().stream().mapToLong(Long::longValue).sum();
+        return isFull(coreBuildProperties.getMaxConcurrentBuilds(), started - 1)
+                || isFull(coreBuildProperties.getMaxConcurrentBuildsPerComponent(), state.startedByComponent().getOrDefault(build.getComponentId(), 1L) - 1)
+                || isFull(coreBuildProperties.getMaxConcurrentBuildsPerOrganization(), state.startedByOrganization().getOrDefault(state.organizationOf(build.getComponentId()), 1L) - 1);
+    }
+
+    /**
+     * Check if a limit is reached, a limit lower than one means no limit
+     */
+    private static boolean isFull(int maxConcurrentBuilds, long startedBuilds) {
+        return maxConcurrentBuilds > 0 && startedBuilds >= maxConcurrentBuilds;
+    }
+
+    private Instant lockTimeout() {
+        return Instant.now().minusMillis(coreBuildProperties.getBuildLockTimeoutMs());
+    }
+
+    /**
+     * Read the pending builds and the builds started by each component and organization
+     *
+     * @param lockTimeout The time when the lock will expire
+     * @return the state of the queue, empty if there are no pending builds
+     */
+    private Optional<QueueState> load(Instant lockTimeout) {
+        List<ComponentBranchBuild> queuedBuilds = wrapCatch(
+                () -> componentBranchBuildRepository.findQueuedBuilds(lockTimeout, coreBuildProperties.getSchedulerQueueScanLimit()),
+                -1
+        );
+        // the dispatcher workers are woken up by every change of the builds, most of the times there is nothing to start
+        if (queuedBuilds.isEmpty()) return Optional.empty();
+        Map<String, Long> startedByComponent = countStartedBuilds(lockTimeout);
+        Set<String> componentIds = new HashSet<>(startedByComponent.keySet());
+        queuedBuilds.forEach(build -> componentIds.add(build.getComponentId()));
+        Map<String, String> organizationByComponent = new HashMap<>();
+        for (String componentId : componentIds) {
+            if (componentId == null) continue;
+            wrapCatch(
+                    () -> cachedComponentRepository.findById(componentId),
+                    -1
+            ).ifPresent(
+                    component -> organizationByComponent.put(
+                            componentId,
+                            Objects.requireNonNullElse(component.getOrganization(), NO_ORGANIZATION)
+                    )
+            );
+        }
+        return Optional.of(new QueueState(queuedBuilds, startedByComponent, organizationByComponent));
+    }
+
+    private Map<String, Long> countStartedBuilds(Instant lockTimeout) {
+        return wrapCatch(
+                () -> componentBranchBuildRepository.countStartedBuildsByComponent(lockTimeout),
+                -1
+        );
+    }
+
+    /**
+     * The pending builds and the builds already started
+     *
+     * @param queuedBuilds            The pending builds, the highest priority first and then the oldest
+     * @param startedByComponent      The number of started builds by component
+     * @param organizationByComponent The organization of the components
+     */
+    private record QueueState(
+            List<ComponentBranchBuild> queuedBuilds,
+            Map<String, Long> startedByComponent,
+            Map<String, String> organizationByComponent) {
+
+        private QueueState withStartedByComponent(Map<String, Long> startedByComponent) {
+            return new QueueState(queuedBuilds, startedByComponent, organizationByComponent);
+        }
+
+        private String organizationOf(String componentId) {
+            return organizationByComponent.getOrDefault(componentId, NO_ORGANIZATION);
+        }
+
+        private Map<String, Long> startedByOrganization() {
+            Map<String, Long> startedByOrganization = new HashMap<>();
+            startedByComponent.forEach((componentId, count) -> startedByOrganization.merge(organizationOf(componentId), count, Long::sum));
+            return startedByOrganization;
+        }
+
+        /**
+         * Order the pending builds by priority and then by the share of their organization and component
+         *
+         * @return the pending builds in the order they are started
+         */
+        private List<ComponentBranchBuild> orderedBuilds() {
+            Map<String, Long> componentShare = new HashMap<>(startedByComponent);
+            Map<String, Long> organizationShare = startedByOrganization();
+            List<RankedBuild> rankedBuilds = new ArrayList<>(queuedBuilds.size());
+            for (ComponentBranchBuild build : queuedBuilds) {
+                // the share before this build, including the builds of the same component that precede it
+                long component = componentShare.merge(build.getComponentId(), 1L, Long::sum) - 1;
+                long organization = organizationShare.merge(organizationOf(build.getComponentId()), 1L, Long::sum) - 1;
+                rankedBuilds.add(new RankedBuild(build, organization, component));
+            }
+            return rankedBuilds.stream()
+                    .sorted(
+                            Comparator.comparingInt((RankedBuild ranked) -> ranked.build().getPriority()).reversed()
+                                    .thenComparingLong(RankedBuild::organizationShare)
+                                    .thenComparingLong(RankedBuild::componentShare)
+                                    .thenComparing(ranked -> ranked.build().getId())
+                    )
+                    .map(RankedBuild::build)
+                    .toList();
+        }
+    }
+
+    private record RankedBuild(ComponentBranchBuild build, long organizationShare, long componentShare) {
+    }
+}
@@ -1,24 +1,34 @@
 package edu.stanford.slac.core_build_system.service;
 
+import edu.stanford.slac.ad.eed.baselib.exception.ControllerLogicException;
 import edu.stanford.slac.core_build_system.api.v1.dto.BuildStatusDTO;
 import edu.stanford.slac.core_build_system.api.v1.dto.ComponentBranchBuildDTO;
 import edu.stanford.slac.core_build_system.api.v1.dto.ComponentBranchBuildSummaryDTO;
 import edu.stanford.slac.core_build_system.api.v1.dto.LogEntryDTO;
+import edu.stanford.slac.core_build_system.api.v1.dto.ResourceProfileDTO;
 import edu.stanford.slac.core_build_system.api.v1.mapper.ComponentBranchBuildMapper;
 import edu.stanford.slac.core_build_system.api.v1.mapper.LogEntryMapper;
 import edu.stanford.slac.core_build_system.config.CoreBuildProperties;
 import edu.stanford.slac.core_build_system.exception.*;
 import edu.stanford.slac.core_build_system.model.*;
 import edu.stanford.slac.core_build_system.repository.*;
+import edu.stanford.slac.core_build_system.task.BuildWakeUpEvent;
+import edu.stanford.slac.core_build_system.utility.LogChunkCodec;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.AllArgsConstructor;
 import lombok.extern.log4j.Log4j2;
+import org.bson.types.ObjectId;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Instant;
-import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static edu.stanford.slac.ad.eed.baselib.exception.Utility.assertion;
 import static edu.stanford.slac.ad.eed.baselib.exception.Utility.wrapCatch;
@@ -28,15 +38,24 @@ import static edu.stanford.slac.core_build_system.utility.RetryableOperationUtil
 @Service
 @AllArgsConstructor
 public class ComponentBuildService {
+    private static final String BUILD_CACHE_METRIC = "cbs.build.cache";
+    private static final String SUPERSEDED_BUILD_METRIC = "cbs.build.trigger.superseded";
+    private static final List<BuildStatus> ACTIVE_STATUS = List.of(BuildStatus.PENDING, BuildStatus.PREPARING, BuildStatus.QUEUED, BuildStatus.IN_PROGRESS, BuildStatus.STOP_REQUESTED);
+    private static final List<BuildStatus> STARTED_STATUS = List.of(BuildStatus.PREPARING, BuildStatus.QUEUED, BuildStatus.IN_PROGRESS, BuildStatus.STOP_REQUESTED);
     private final BuildImageRepository buildImageRepository;
     private final LogEntryMapper logEntryMapper;
-    private final LogEntryRepository logEntryRepository;
+    private final LogChunkRepository logChunkRepository;
     private final KubernetesRepository kubernetesRepository;
     private final CoreBuildProperties coreBuildProperties;
     private final GitServerRepository gitServerRepository;
-    private final ComponentRepository componentRepository;
+    private final CachedComponentRepository cachedComponentRepository;
     private final ComponentBranchBuildRepository componentBranchBuildRepository;
     private final ComponentBranchBuildMapper componentBranchBuildMapper;
+    private final SharedCheckoutService sharedCheckoutService;
+    private final ResourceAutosizer resourceAutosizer;
+    private final BuildSchedulingPolicy buildSchedulingPolicy;
+    private final MeterRegistry meterRegistry;
+    private final ApplicationEventPublisher applicationEventPublisher;
 
     /**
      * Start a new build for a component/branch
@@ -47,9 +66,62 @@ public class ComponentBuildService {
      */
     @Transactional
     public List<String> startBuild(String componentName, String branchName, Map<String, String> buildVariables) {
+        return startBuild(componentName, branchName, buildVariables, false);
+    }
+
+    /**
+     * Start a new build for a component/branch
+     * <p>
+     * An os build of a commit already built with the same image and variables is not executed again, it is
+     * stored as succeeded and references the build that produced the result.
+     *
+     * @param componentName  The name of the component
+     * @param branchName     The name of the branch
+     * @param buildVariables The custom variables of the build
+     * @param bypassCache    Execute the builds also when the result is in the cache
+     */
+    @Transactional
+    public List<String> startBuild(String componentName, String branchName, Map<String, String> buildVariables, boolean bypassCache) {
+        return startBuild(componentName, branchName, buildVariables, bypassCache, true, null);
+    }
+
+    /**
+     * Start a new build for a component/branch on behalf of a repository event
+     * <p>
+     * The builds wait for the trigger quiet window before being processed, a new event of the same branch
+     * received meanwhile cancels them before any pod is created, so a burst of pushes is built only once at
+     * its last commit.
+     *
+     * @param componentName  The name of the component
+     * @param branchName     The name of the branch
+     * @param buildVariables The custom variables of the build
+     */
+    @Transactional
+    public List<String> triggerBuild(String componentName, String branchName, Map<String, String> buildVariables) {
+        return startBuild(
+                componentName,
+                branchName,
+                buildVariables,
+                false,
+                false,
+                Instant.now().plusMillis(coreBuildProperties.getTriggerQuietWindowMs())
+        );
+    }
+
+    /**
+     * Start a new build for a component/branch
+     *
+     * @param componentName  The name of the component
+     * @param branchName     The name of the branch
+     * @param buildVariables The custom variables of the build
+     * @param bypassCache    Execute the builds also when the result is in the cache
+     * @param manual         true if the build is requested by a user, false if triggered by a repository event
+     * @param notBefore      The instant before which the builds are not processed, null to process them immediately
+     */
+    private List<String> startBuild(String componentName, String branchName, Map<String, String> buildVariables, boolean bypassCache, boolean manual, Instant notBefore) {
         List<String> buildIds = new ArrayList<>();
         Component comp = wrapCatch(
-                () -> componentRepository.findByName(componentName)
+                () -> cachedComponentRepository.findByName(componentName)
                         .orElseThrow(
                                 () ->
                                         ComponentNotFoundByName.byName()
@@ -94,39 +166,98 @@ public class ComponentBuildService {
 
         // check if there are other running builds
         log.info("[StartBuild {}/{}] check if there are other running builds", componentName, branchName);
+        // the terminated builds keep their status, they are the history used by the build cache
         var currentBuild = wrapCatch(
                 () -> componentBranchBuildRepository.findByComponentIdAndBranchName(
                         comp.getId(),
                         branchName
                 ),
                 -5
-        );
+        ).stream().filter(build -> ACTIVE_STATUS.contains(build.getBuildStatus())).toList();
         
         if(!currentBuild.isEmpty()) {
             log.info("[StartBuild {}/{}] there are other running builds to stop", componentName, branchName);
             for (var build : currentBuild) {
+                if (build.getBuildStatus() == BuildStatus.PENDING && cancelPendingBuild(build)) {
+                    log.info("[StartBuild {}/{}] pending build {} superseded before any pod is created", componentName, branchName, build.getId());
+                    continue;
+                }
                 log.info("[StartBuild {}/{}] stopping build {}", componentName, branchName, build.getId());
-                build.setBuildStatus(BuildStatus.STOP_REQUESTED);
-               var updatedBuild = wrapCatch(
-                        ()->componentBranchBuildRepository.save(build),
+                // the running build is updated by the dispatcher and the log follower, only its status is changed
+                boolean stopRequested = wrapCatch(
+                        () -> componentBranchBuildRepository.requestStop(build.getId()),
                         -6
                 );
-               log.info("[StartBuild {}/{}] build {} stop requested", componentName, branchName, updatedBuild.getId());
+                if (stopRequested) {
+                    log.info("[StartBuild {}/{}] build {} stop requested", componentName, branchName, build.getId());
+                } else {
+                    log.info("[StartBuild {}/{}] build {} already terminated or being stopped", componentName, branchName, build.getId());
+                }
             }
         }
 
-        // fetch image and create hashmap with build Os and image url
-        Map<BuildOS, String> osBuildImageUrl = buildImageRepository.findAll().stream()
+        // the build variables can override the resources of the image and of the component
+        ResourceProfile variablesResourceProfile = ResourceProfile.fromBuildVariables(buildVariables);
+        assertion(
+                ControllerLogicException.builder()
+                        .errorCode(-8)
+                        .errorMessage("The resources in the build variables are not valid kubernetes quantities")
+                        .errorDomain("ComponentBuildService::startBuild")
+                        .build(),
+                () -> isValidResourceProfile(variablesResourceProfile)
+        );
+
+        // fetch image and create hashmap with build Os and image
+        Map<BuildOS, BuildImage> osBuildImage = buildImageRepository.findAll().stream()
                 .filter(bi -> comp.getBuildOs().contains(bi.getOs()))
                 .collect(
                         Collectors.toMap(
                                 BuildImage::getOs,
-                                BuildImage::getDockerImageUrl
+                                bi -> bi
                         )
                 );
 
-        for (var entry : osBuildImageUrl.entrySet()) {
-            log.info("[StartBuild {}/{}] using image {}", componentName, branchName, entry.getValue());
+        // the commit is resolved now, so the cache key and the built sources refer to the same commit
+        String commitSha = coreBuildProperties.isBuildCacheEnabled() ? resolveBranchHead(comp, branchName) : null;
+
+        int priority = buildSchedulingPolicy.priorityOf(branchName, manual);
+
+        // all the os builds use the same source checkout
+        String sharedCheckoutId = new ObjectId().toString();
+        List<String> checkoutBuildIds = new ArrayList<>();
+        for (var entry : osBuildImage.entrySet()) {
+            log.info("[StartBuild {}/{}] using image {}", componentName, branchName, entry.getValue().getDockerImageUrl());
+            String cacheKey = commitSha == null ? null : cacheKey(commitSha, entry.getKey(), entry.getValue().getDockerImageUrl(), comp.getBuildInstructions(), buildVariables);
+            Optional<ComponentBranchBuild> cachedBuild = findCachedBuild(cacheKey, bypassCache);
+            if (cachedBuild.isPresent()) {
+                var savedBuild = wrapCatch(
+                        () -> componentBranchBuildRepository.save(
+                                ComponentBranchBuild.builder()
+                                        .componentId(comp.getId())
+                                        .branchName(branchName)
+                                        .buildOs(entry.getKey())
+                                        .buildImageUrl(entry.getValue().getDockerImageUrl())
+                                        .buildCustomVariables(buildVariables)
+                                        .commitSha(commitSha)
+                                        .cacheKey(cacheKey)
+                                        .cachedFromBuildId(
+                                                Optional.ofNullable(cachedBuild.get().getCachedFromBuildId()).orElse(cachedBuild.get().getId())
+                                        )
+                                        .buildStatus(BuildStatus.SUCCESS)
+                                        .build()
+                        ),
+                        -7
+                );
+                log.info("[StartBuild {}/{}] build {} completed from the cache of build {}", componentName, branchName, savedBuild.getId(), savedBuild.getCachedFromBuildId());
+                buildIds.add(savedBuild.getId());
+                continue;
+            }
+            // the history of the component is more specific than the image, the explicit settings win over both
+            ResourceProfile resourceProfile = Optional.ofNullable(entry.getValue().getResourceProfile())
+                    .orElseGet(ResourceProfile::new)
+                    .merge(resourceAutosizer.recommend(comp.getId(), entry.getKey()).orElse(null))
+                    .merge(comp.getResourceProfile())
+                    .merge(variablesResourceProfile);
             // save the build
             var savedBuild = wrapCatch(
                     () -> componentBranchBuildRepository.save(
@@ -134,18 +265,143 @@ public class ComponentBuildService {
                                     .componentId(comp.getId())
                                     .branchName(branchName)
                                     .buildOs(entry.getKey())
-                                    .buildImageUrl(entry.getValue())
+                                    .buildImageUrl(entry.getValue().getDockerImageUrl())
                                     .buildCustomVariables(buildVariables)
+                                    .sharedCheckoutId(sharedCheckoutId)
+                                    .resourceProfile(resourceProfile)
+                                    .commitSha(commitSha)
+                                    .cacheKey(cacheKey)
+                                    .notBefore(notBefore)
+                                    .priority(priority)
                                     .build()
                     ),
                     -7
             );
             log.info("[StartBuild {}/{}] build submitted with id: {}", componentName, branchName, savedBuild.getId());
             buildIds.add(savedBuild.getId());
+            checkoutBuildIds.add(savedBuild.getId());
+        }
+        if (!checkoutBuildIds.isEmpty()) {
+            sharedCheckoutService.register(sharedCheckoutId, comp.getId(), branchName, commitSha, checkoutBuildIds);
+            if (notBefore == null) {
+                // start the download of the sources without waiting for the next dispatcher tick
+                applicationEventPublisher.publishEvent(new BuildWakeUpEvent(null, "new build"));
+            }
         }
         return buildIds;
     }
 
+    /**
+     * Cancel a pending build superseded by a new trigger, if the dispatcher has not yet claimed it
+     *
+     * @param build The pending build
+     * @return true if the build has been cancelled, false if it need to be stopped
+     */
+    private boolean cancelPendingBuild(ComponentBranchBuild build) {
+        boolean cancelled = wrapCatch(
+                () -> componentBranchBuildRepository.cancelPending(build.getId()),
+                -6
+        );
+        if (!cancelled) return false;
+        meterRegistry.counter(SUPERSEDED_BUILD_METRIC).increment();
+        // the cancelled build does not use anymore the shared checkout
+        if (build.getSharedCheckoutId() != null) {
+            sharedCheckoutService.release(build.getSharedCheckoutId(), build.getId());
+        }
+        return true;
+    }
+
+    /**
+     * Resolve the commit at the head of the branch, the build is not cached if it cannot be resolved
+     *
+     * @param comp       The component
+     * @param branchName The name of the branch
+     * @return the commit sha, null if it cannot be resolved
+     */
+    private String resolveBranchHead(Component comp, String branchName) {
+        try {
+            return gitServerRepository.resolveBranchHead(comp, branchName);
+        } catch (Exception e) {
+            log.warn("[StartBuild {}/{}] cannot resolve the branch head, the build cache is not used: {}", comp.getName(), branchName, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Find the successful build of a cache key and count the cache lookup
+     *
+     * @param cacheKey    The cache key, null if the commit is unknown
+     * @param bypassCache true if the cache is bypassed
+     * @return the successful build with the same key
+     */
+    private Optional<ComponentBranchBuild> findCachedBuild(String cacheKey, boolean bypassCache) {
+        if (cacheKey == null) return Optional.empty();
+        if (bypassCache) {
+            meterRegistry.counter(BUILD_CACHE_METRIC, "result", "bypass").increment();
+            return Optional.empty();
+        }
+        Optional<ComponentBranchBuild> cachedBuild = wrapCatch(
+                () -> componentBranchBuildRepository.findFirstByCacheKeyAndBuildStatusOrderByIdDesc(cacheKey, BuildStatus.SUCCESS)
+                        // a cache hit is valid only while the build that produced the result, and its log, exist
+                        .filter(
+                                build -> build.getCachedFromBuildId() == null
+                                        || componentBranchBuildRepository.existsById(build.getCachedFromBuildId())
+                        ),
+                -9
+        );
+        meterRegistry.counter(BUILD_CACHE_METRIC, "result", cachedBuild.isPresent() ? "hit" : "miss").increment();
+        return cachedBuild;
+    }
+
+    /**
+     * Compute the key of a build result, the sha256 of the commit, the os, the image, the build command and the
+     * sorted variables
+     *
+     * @param commitSha         The commit
+     * @param buildOs           The os
+     * @param imageUrl          The image of the builder
+     * @param buildInstructions The build command of the component, null if not defined
+     * @param buildVariables    The custom variables of the build
+     * @return the hex encoded key
+     */
+    static String cacheKey(String commitSha, BuildOS buildOs, String imageUrl, String buildInstructions, Map<String, String> buildVariables) {
+        // the build command is given to the builder as it is, so any change of it gives another result
+        StringBuilder keySource = new StringBuilder()
+                .append(commitSha).append('\n')
+                .append(buildOs).append('\n')
+                .append(imageUrl).append('\n')
+                .append(Objects.requireNonNullElse(buildInstructions, "")).append('\n');
+        if (buildVariables != null) {
+            new TreeMap<>(buildVariables).forEach((name, value) -> keySource.append(name).append('=').append(value).append('\n'));
+        }
+        try {
+            return HexFormat.of().formatHex(
+                    MessageDigest.getInstance("SHA-256").digest(keySource.toString().getBytes(StandardCharsets.UTF_8))
+            );
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Check that the quantities of a resource profile use the kubernetes notation
+     *
+     * @param resourceProfile The profile
+     * @return true if all the quantities are valid
+     */
+    private static boolean isValidResourceProfile(ResourceProfile resourceProfile) {
+        return Stream.of(
+                        resourceProfile.getCpuRequest(),
+                        resourceProfile.getCpuLimit(),
+                        resourceProfile.getMemoryRequest(),
+                        resourceProfile.getMemoryLimit(),
+                        resourceProfile.getEphemeralStorageRequest(),
+                        resourceProfile.getEphemeralStorageLimit()
+                )
+                .filter(Objects::nonNull)
+                .allMatch(quantity -> quantity.matches(ResourceProfileDTO.QUANTITY_PATTERN));
+    }
+
     /**
      * Delete a build
      *
@@ -161,15 +417,27 @@ public class ComponentBuildService {
                         ),
                 -1
         );
+        // the builds completed from the cache of this one cannot serve its log and result anymore
+        long cacheHits = wrapCatch(
+                () -> componentBranchBuildRepository.clearCacheOrigin(buildId),
+                -4
+        );
+        if (cacheHits > 0) {
+            log.info("Removed the cache reference of {} builds completed from build {}", cacheHits, buildId);
+        }
         /// delete the log entries
         log.info("Deleting log entries for build {}", buildId);
         wrapCatch(
                 () -> retry(() -> {
-                    logEntryRepository.deleteAllByBuildId(buildId);
+                    logChunkRepository.deleteAllByBuildId(buildId);
                     return null;
                 }, 3), // Retry up to 3 times
                 -1
         );
+        // a deleted build does not use anymore the shared checkout
+        if (cbb.getSharedCheckoutId() != null) {
+            sharedCheckoutService.release(cbb.getSharedCheckoutId(), buildId);
+        }
         // delete the build
         log.info("Deleting build {}", buildId);
         wrapCatch(
@@ -180,6 +448,11 @@ public class ComponentBuildService {
                 -3
         );
 
+        // the builds completed from the cache, or stopped before the pod creation, have no pod
+        if (cbb.getBuildInfo() == null || cbb.getBuildInfo().getBuilderName() == null) {
+            log.info("No pod to delete for build {}", buildId);
+            return;
+        }
         // delete pod associated with the build
         log.info("Deleting pod for build {}", buildId);
         wrapCatch(
@@ -195,17 +468,19 @@ public class ComponentBuildService {
     }
 
     /**
-     * Update the builder name
+     * Update the builder name of a build locked by the caller
      *
-     * @param id          The identifier of the build
-     * @param builderName The new name of the builder
-     * @return true if the update was successful
+     * @param id        The identifier of the build
+     * @param lockToken The fencing token of the lock held on the build
+     * @param buildInfo The new information about the builder
+     * @return true if the update was successful, false if the lock has been lost
      */
-    public boolean updateBuildInfo(String id, BuildInfo buildInfo) {
+    public boolean updateBuildInfo(String id, long lockToken, BuildInfo buildInfo) {
         // update the builder name
         return wrapCatch(
                 () -> componentBranchBuildRepository.updateBuildInfo(
                         id,
+                        lockToken,
                         buildInfo
                 ),
                 -1
@@ -239,15 +514,188 @@ public class ComponentBuildService {
      * @return The next build to process
      */
     public Optional<ComponentBranchBuildDTO> getNextBuildToProcess() {
+        Instant lockTimeout = Instant.now().minusMillis(coreBuildProperties.getBuildLockTimeoutMs());
+        // the started builds are advanced first, the pending ones are started following the scheduling policy
+        Optional<ComponentBranchBuild> startedBuild = wrapCatch(
+                () -> componentBranchBuildRepository.findAndLockNextDocument(
+                        lockTimeout,
+                        Instant.now().minusMillis(coreBuildProperties.getDispatcherReprocessDelayMs()),
+                        STARTED_STATUS
+                ),
+                -1
+        );
+        if (startedBuild.isPresent()) return startedBuild.map(componentBranchBuildMapper::toDTO);
+        return buildSchedulingPolicy.claimNextQueuedBuild(lockTimeout).map(componentBranchBuildMapper::toDTO);
+    }
+
+    /**
+     * Count the builds that are waiting to be processed or are still running
+     *
+     * @return The number of builds not in a terminal state
+     */
+    public long countBuildsToProcess() {
+        return wrapCatch(
+                () -> componentBranchBuildRepository.countByBuildStatusIn(ACTIVE_STATUS),
+                -1
+        );
+    }
+
+    /**
+     * Count the builds with prepared sources that are waiting for the cluster capacity
+     *
+     * @return The number of queued builds
+     */
+    public long countQueuedBuilds() {
         return wrapCatch(
-                () -> componentBranchBuildRepository.findAndLockNextDocument(Instant.now().minus(1, ChronoUnit.MINUTES)),
+                () -> componentBranchBuildRepository.countByBuildStatusIn(List.of(BuildStatus.QUEUED)),
+                -1
+        );
+    }
+
+    /**
+     * Filter the builds that are not in a terminal state
+     *
+     * @param buildIds The identifiers of the builds
+     * @return The identifiers of the builds that exist and are not terminated
+     */
+    public Set<String> findActiveBuildIds(Collection<String> buildIds) {
+        if (buildIds.isEmpty()) return Collections.emptySet();
+        return wrapCatch(
+                () -> componentBranchBuildRepository.findAllByIdInAndBuildStatusIn(buildIds, ACTIVE_STATUS)
+                        .stream()
+                        .map(ComponentBranchBuild::getId)
+                        .collect(Collectors.toSet()),
+                -1
+        );
+    }
+
+    /**
+     * Make a running build eligible to be processed immediately
+     *
+     * @param id The identifier of the build
+     * @return true if the build has been updated
+     */
+    public boolean expediteProcessing(String id) {
+        return wrapCatch(
+                () -> componentBranchBuildRepository.expediteProcessing(id),
+                -1
+        );
+    }
+
+    /**
+     * Record a sample of the resources used by the builder pod of a running build
+     *
+     * @param id          The identifier of the build
+     * @param cpuMillis   The cpu usage in millicores
+     * @param memoryBytes The memory usage in bytes
+     * @return true if the build has been updated
+     */
+    public boolean recordResourceUsage(String id, long cpuMillis, long memoryBytes) {
+        return wrapCatch(
+                () -> componentBranchBuildRepository.recordResourceUsage(id, cpuMillis, memoryBytes),
+                -1
+        );
+    }
+
+    /**
+     * Record that the builder pod of a build has been killed for exceeding its memory limit
+     *
+     * @param id The identifier of the build
+     * @return true if the build has been updated
+     */
+    public boolean markOomKilled(String id) {
+        return wrapCatch(
+                () -> componentBranchBuildRepository.markOomKilled(id),
+                -1
+        );
+    }
+
+    /**
+     * Take the ownership of the source preparation of a build
+     *
+     * @param id          The identifier of the build
+     * @param host        The host that want to prepare the sources
+     * @param staleBefore The instant before which the preparation of another host is considered dead
+     * @return the build if the ownership has been taken
+     */
+    public Optional<ComponentBranchBuildDTO> claimPreparation(String id, String host, Instant staleBefore) {
+        return wrapCatch(
+                () -> componentBranchBuildRepository.claimPreparation(id, host, staleBefore),
+                -1
+        ).map(componentBranchBuildMapper::toDTO);
+    }
+
+    /**
+     * Update the source preparation of a build
+     *
+     * @param id               The identifier of the build
+     * @param host             The host that is preparing the sources
+     * @param buildInfo        The location of the prepared sources, null if not yet ready
+     * @param preparationError The error of a failed preparation, null if not failed
+     * @return true if the host still own the preparation
+     */
+    public boolean updatePreparation(String id, String host, BuildInfo buildInfo, String preparationError) {
+        return wrapCatch(
+                () -> componentBranchBuildRepository.updatePreparation(id, host, buildInfo, preparationError),
+                -1
+        );
+    }
+
+    /**
+     * Take the ownership of the log following of a build
+     *
+     * @param id          The identifier of the build
+     * @param host        The host that want to follow the log
+     * @param staleBefore The instant before which the follower of another host is considered dead
+     * @return the build if the ownership has been taken
+     */
+    public Optional<ComponentBranchBuildDTO> claimLogFollower(String id, String host, Instant staleBefore) {
+        return wrapCatch(
+                () -> componentBranchBuildRepository.claimLogFollower(id, host, staleBefore),
                 -1
         ).map(componentBranchBuildMapper::toDTO);
     }
 
-    public Boolean releaseLock(String id, BuildStatusDTO newStatus) {
+    /**
+     * Update the log cursor of a build
+     *
+     * @param id        The identifier of the build
+     * @param host      The host that is following the log
+     * @param logCursor The new cursor, null to only confirm that the follower is alive
+     * @return true if the cursor has been updated
+     */
+    public boolean updateLogCursor(String id, String host, String logCursor) {
+        return wrapCatch(
+                () -> componentBranchBuildRepository.updateLogCursor(id, host, logCursor),
+                -1
+        );
+    }
+
+    /**
+     * Renew the lock held on a build
+     *
+     * @param id        The identifier of the build
+     * @param lockToken The fencing token of the lock held on the build
+     * @return true if the lock has been renewed, false if it has been lost
+     */
+    public boolean renewLock(String id, long lockToken) {
+        return wrapCatch(
+                () -> componentBranchBuildRepository.renewLock(id, lockToken),
+                -1
+        );
+    }
+
+    /**
+     * Release the lock held on a build, setting its new status
+     *
+     * @param id        The identifier of the build
+     * @param lockToken The fencing token of the lock held on the build
+     * @param newStatus The new status of the build
+     * @return true if the lock has been released, false if it has been lost
+     */
+    public Boolean releaseLock(String id, long lockToken, BuildStatusDTO newStatus) {
         return wrapCatch(
-                () -> componentBranchBuildRepository.releaseLock(id, componentBranchBuildMapper.toModel(newStatus)),
+                () -> componentBranchBuildRepository.releaseLock(id, lockToken, componentBranchBuildMapper.toModel(newStatus)),
                 -1
         );
     }
@@ -269,6 +717,39 @@ public class ComponentBuildService {
         );
     }
 
+    /**
+     * Find a build by its identifier, with its position in the queue when it is pending
+     * <p>
+     * The position is computed from the whole queue, so it is returned only to the users that ask for the build
+     *
+     * @param buildId The identifier of the build
+     * @return The build
+     */
+    public ComponentBranchBuildDTO findBuildWithQueuePosition(String buildId) {
+        ComponentBranchBuildDTO build = findBuildById(buildId);
+        if (build.buildStatus() != BuildStatusDTO.PENDING) return build;
+        return build.toBuilder()
+                .queuePosition(buildSchedulingPolicy.queuePosition(buildId).orElse(null))
+                .build();
+    }
+
+    /**
+     * Find the status of a build, without reading the whole build
+     *
+     * @param buildId The identifier of the build
+     * @return The status of the build
+     */
+    public BuildStatusDTO findBuildStatusById(String buildId) {
+        return wrapCatch(
+                () -> componentBranchBuildRepository.findBuildStatus(buildId)
+                        .map(componentBranchBuildMapper::toDTO)
+                        .orElseThrow(
+                                () -> BuildNotFound.byId().id(buildId).errorCode(-1).build()
+                        ),
+                -2
+        );
+    }
+
     /**
      * Get the log for a build
      *
@@ -276,13 +757,63 @@ public class ComponentBuildService {
      * @return The log for the build
      */
     public List<LogEntryDTO> findLogForBuild(String buildId) {
-        var foundLogs = wrapCatch(
-                () -> logEntryRepository.findByBuildId(buildId),
+        return findLogForBuild(buildId, null, null);
+    }
+
+    /**
+     * Get a page of the log for a build
+     *
+     * @param buildId   The identifier of the build
+     * @param afterLine The number of the last line already read, null to start from the first line
+     * @param limit     The maximum number of lines to return, null to return all the remaining lines
+     * @return The lines of the page
+     */
+    public List<LogEntryDTO> findLogForBuild(String buildId, Long afterLine, Integer limit) {
+        assertion(
+                ControllerLogicException.builder()
+                        .errorCode(-1)
+                        .errorMessage("The limit must be greater than zero")
+                        .errorDomain("ComponentBuildService::findLogForBuild")
+                        .build(),
+                () -> limit == null || limit > 0
+        );
+        try (Stream<LogEntryDTO> logStream = streamLogForBuild(buildId, afterLine)) {
+            return (limit == null ? logStream : logStream.limit(limit)).toList();
+        }
+    }
+
+    /**
+     * Stream the log for a build
+     * <p>
+     * The log chunks are read with a database cursor and decoded one at time, so the memory used does not
+     * depend on the size of the log. The returned stream need to be closed to release the cursor.
+     *
+     * @param buildId   The identifier of the build
+     * @param afterLine The number of the last line already read, null to start from the first line
+     * @return The stream of the lines
+     */
+    public Stream<LogEntryDTO> streamLogForBuild(String buildId, Long afterLine) {
+        long firstLine = afterLine == null ? 0 : afterLine + 1;
+        // a build completed from the cache has the log of the build that produced the result
+        String logBuildId = wrapCatch(
+                () -> componentBranchBuildRepository.findById(buildId)
+                        .map(ComponentBranchBuild::getCachedFromBuildId)
+                        .orElse(buildId),
                 -1
         );
-        return foundLogs.stream()
-                .map(logEntryMapper::fromModel)
-                .toList();
+        Stream<LogChunk> foundChunks = wrapCatch(
+                () -> logChunkRepository.streamByBuildIdAndLastLineGreaterThanEqualOrderByChunkSeqAsc(logBuildId, firstLine),
+                -2
+        );
+        return foundChunks
+                .flatMap(
+                        logChunk -> wrapCatch(
+                                () -> LogChunkCodec.decode(logChunk),
+                                -3
+                        ).stream()
+                )
+                .filter(logEntry -> logEntry.getLineNumber() >= firstLine)
+                .map(logEntryMapper::fromModel);
     }
 
     /**
@@ -293,7 +824,7 @@ public class ComponentBuildService {
      */
     public List<ComponentBranchBuildSummaryDTO> findAllByComponentNameBranchName(String componentName, String branchName) {
         Component component = wrapCatch(
-                () -> componentRepository.findByName(componentName)
+                () -> cachedComponentRepository.findByName(componentName)
                         .orElseThrow(
                                 () -> ComponentNotFoundByName.byName().name(componentName).errorCode(-1).build()
                         ),
@@ -8,7 +8,9 @@ import edu.stanford.slac.core_build_system.exception.BranchNotFound;
 import edu.stanford.slac.core_build_system.exception.ComponentAlreadyExists;
 import edu.stanford.slac.core_build_system.exception.ComponentNotFound;
 import edu.stanford.slac.core_build_system.exception.ComponentNotFoundByUrl;
+import edu.stanford.slac.core_build_system.exception.ComponentRepositoryAlreadyUsed;
 import edu.stanford.slac.core_build_system.model.*;
+import edu.stanford.slac.core_build_system.repository.CachedComponentRepository;
 import edu.stanford.slac.core_build_system.repository.CommandTemplateRepository;
 import edu.stanford.slac.core_build_system.repository.ComponentBranchBuildRepository;
 import edu.stanford.slac.core_build_system.repository.ComponentRepository;
@@ -26,6 +28,7 @@ import java.io.ByteArrayInputStream;
 import java.util.*;
 
 import static edu.stanford.slac.ad.eed.baselib.exception.Utility.*;
+import static edu.stanford.slac.core_build_system.utility.RepositoryUrlUtility.normalizedRepoKey;
 
 @Log4j2
 @Service
@@ -35,6 +38,7 @@ public class ComponentService {
     private final CoreBuildProperties coreBuildProperties;
     private final ComponentMapper componentMapper;
     private final ComponentRepository componentRepository;
+    private final CachedComponentRepository cachedComponentRepository;
     private final ComponentBranchBuildRepository componentBranchBuildRepository;
     private final CommandTemplateRepository commandTemplateRepository;
     private final EngineFactory engineFactory;
@@ -57,6 +61,19 @@ public class ComponentService {
                         componentToSave.getName()
                 )
         );
+        // the events of the repository are routed by its key, so it can belong to one component only
+        componentToSave.setNormalizedRepoKey(normalizedRepoKey(componentToSave.getUrl()));
+        assertion(
+                ComponentRepositoryAlreadyUsed.byRepository()
+                        .errorCode(-1)
+                        .repository(componentToSave.getNormalizedRepoKey())
+                        .build(),
+                () -> componentToSave.getNormalizedRepoKey() == null || !componentRepository.existsByNormalizedRepoKey(
+                        componentToSave.getNormalizedRepoKey()
+                )
+        );
+        // the filter is applied to the push events, an invalid glob need to be rejected now
+        validateBuildPathFilter(componentToSave.getBuildPathFilter(), "ComponentService::create");
         // check dependency
         validateDependencies(Optional.empty(), componentToSave.getDependOn());
 
@@ -65,6 +82,7 @@ public class ComponentService {
                 () -> componentRepository.save(componentToSave),
                 -1
         );
+        cachedComponentRepository.invalidate();
         return savedComponent.getId();
     }
 
@@ -75,7 +93,7 @@ public class ComponentService {
      * @return The details of the component
      */
     ComponentDTO findComponentByProjectUrl(List<String> projectUrls) {
-        return componentRepository
+        return cachedComponentRepository
                 .findByUrlIn(projectUrls)
                 .map(componentMapper::toDTO)
                 .orElseThrow(() -> ComponentNotFoundByUrl.byUrl().errorCode(-1).url(projectUrls.toString()).build());
@@ -89,7 +107,7 @@ public class ComponentService {
      */
     public ComponentDTO findById(String id) {
         return wrapCatch(
-                () -> componentRepository.findById(id),
+                () -> cachedComponentRepository.findById(id),
                 -1
         )
                 .map(componentMapper::toDTO)
@@ -133,6 +151,19 @@ public class ComponentService {
                         componentUpdated.getId()
                 )
         );
+        componentUpdated.setNormalizedRepoKey(normalizedRepoKey(componentUpdated.getUrl()));
+        assertion(
+                ComponentRepositoryAlreadyUsed.byRepository()
+                        .errorCode(-1)
+                        .repository(componentUpdated.getNormalizedRepoKey())
+                        .build(),
+                () -> componentUpdated.getNormalizedRepoKey() == null || !componentRepository.existsByNormalizedRepoKeyAndIdIsNot(
+                        componentUpdated.getNormalizedRepoKey(),
+                        componentUpdated.getId()
+                )
+        );
+
+        validateBuildPathFilter(componentUpdated.getBuildPathFilter(), "ComponentService::updateById");
 
         // check for depend on itself
         validateDependencies(Optional.of(id), componentUpdated.getDependOn());
@@ -142,6 +173,7 @@ public class ComponentService {
                 () -> componentRepository.save(componentUpdated),
                 -1
         );
+        cachedComponentRepository.invalidate();
     }
 
     @Transactional
@@ -170,6 +202,7 @@ public class ComponentService {
                 },
                 -3
         );
+        cachedComponentRepository.invalidate();
     }
 
     /**
@@ -224,6 +257,7 @@ public class ComponentService {
                 () -> componentRepository.save(comp),
                 -3
         );
+        cachedComponentRepository.invalidate();
         return true;
     }
 
@@ -270,6 +304,7 @@ public class ComponentService {
                 () -> componentRepository.save(comp),
                 -3
         );
+        cachedComponentRepository.invalidate();
         return true;
     }
 
@@ -303,6 +338,7 @@ public class ComponentService {
                 () -> componentRepository.save(comp),
                 -4
         );
+        cachedComponentRepository.invalidate();
     }
 
     /**
@@ -384,6 +420,23 @@ public class ComponentService {
         return engineFactory.getEngineNames();
     }
 
+    /**
+     * Validate the globs of the filter of the pushed paths
+     *
+     * @param buildPathFilter The filter, null if all the paths need a build
+     * @param errorDomain     The operation that is validating the filter
+     */
+    private void validateBuildPathFilter(BuildPathFilter buildPathFilter, String errorDomain) {
+        assertion(
+                ControllerLogicException.builder()
+                        .errorCode(-3)
+                        .errorMessage("The path filter contains patterns that are not valid globs")
+                        .errorDomain(errorDomain)
+                        .build(),
+                () -> buildPathFilter == null || buildPathFilter.isValid()
+        );
+    }
+
     /**
      * Validate the dependencies
      *
@@ -1,22 +1,35 @@
 package edu.stanford.slac.core_build_system.service;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.stanford.slac.core_build_system.api.v1.dto.BuildPathFilterDTO;
 import edu.stanford.slac.core_build_system.api.v1.dto.ComponentDTO;
-import edu.stanford.slac.core_build_system.api.v1.dto.GitHubPullRequestWebhookDTO;
-import edu.stanford.slac.core_build_system.api.v1.dto.GitHubPushWebhookDTO;
+import edu.stanford.slac.core_build_system.exception.ComponentNotFoundByUrl;
+import edu.stanford.slac.core_build_system.exception.WebhookSignatureNotValid;
+import edu.stanford.slac.core_build_system.model.BuildPathFilter;
+import edu.stanford.slac.core_build_system.model.WebhookDelivery;
+import edu.stanford.slac.core_build_system.repository.WebhookDeliveryRepository;
+import edu.stanford.slac.core_build_system.task.WebhookReceivedEvent;
+import edu.stanford.slac.core_build_system.utility.GithubEventParser;
+import edu.stanford.slac.core_build_system.utility.GithubEventParser.EventFields;
+import edu.stanford.slac.core_build_system.utility.GithubEventParser.RepositoryUrls;
 import lombok.AllArgsConstructor;
 import lombok.extern.log4j.Log4j2;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Stream;
 
 import static edu.stanford.slac.ad.eed.baselib.exception.Utility.wrapCatch;
 
@@ -24,94 +37,165 @@ import static edu.stanford.slac.ad.eed.baselib.exception.Utility.wrapCatch;
 @Service
 @AllArgsConstructor
 public class GithubEventService {
-    ObjectMapper objectMapper;
+    public static final String PUSH_EVENT = "push";
+    public static final String PULL_REQUEST_EVENT = "pull_request";
+    private static final String SIGNATURE_PREFIX = "sha256=";
+    private static final String BRANCH_REF_PREFIX = "refs/heads/";
+    private static final int MAX_LISTED_COMMITS = 2048;
     ComponentService componentService;
     ComponentBuildService componentBuildService;
+    WebhookDeliveryRepository webhookDeliveryRepository;
+    ApplicationEventPublisher applicationEventPublisher;
+
     /**
-     * Manage the push event from github
+     * Receive an event from github and store it in the inbox
+     * <p>
+     * The signature is verified over the raw payload before anything else is done with it, only the urls of the
+     * repository are read to find the secret of the component. The event is processed by the inbox workers and a
+     * redelivery of an event already in the inbox is ignored.
      *
+     * @param deliveryId        the identifier of the delivery, null to use the hash of the payload
+     * @param event             the type of the event
      * @param receivedSignature the signature received from the webhook
-     * @param payload           the payload received from the webhook
-     * @throws JsonProcessingException
+     * @param payload           the raw payload received from the webhook
+     * @return true if the event has been stored, false if it is ignored, it is a redelivery or the repository is not
+     * of a component
+     * @throws IOException if the payload is not valid
      */
-    public void managePushEvent(String receivedSignature, String payload) throws JsonProcessingException {
-        ComponentDTO componentDTO = null;
-        GitHubPushWebhookDTO githubPushEventPayload = objectMapper.readValue(payload, GitHubPushWebhookDTO.class);
-        try {
-            componentDTO = wrapCatch(
-                    () -> componentService.findComponentByProjectUrl(
-                            List.of(
-                                    githubPushEventPayload.repository().gitUrl(),
-                                    githubPushEventPayload.repository().sshUrl(),
-                                    githubPushEventPayload.repository().cloneUrl()
-                            )
-                    ),
-                    -1
-            );
-        } catch (Throwable e) {
-            log.error(
-                    "[GH push event for {}] Error finding component {}",
-                    githubPushEventPayload.repository().gitUrl(),
-                    e.getMessage()
-            );
+    public boolean receiveEvent(String deliveryId, String event, String receivedSignature, byte[] payload) throws IOException {
+        if (!PUSH_EVENT.equalsIgnoreCase(event) && !PULL_REQUEST_EVENT.equalsIgnoreCase(event)) {
+            log.info("Ignoring github event {}", event);
+            return false;
         }
-
-        if (componentDTO == null) {
-            return;
+        RepositoryUrls repositoryUrls = GithubEventParser.repositoryUrls(payload);
+        if (repositoryUrls == null) {
+            log.error("[GH {} event] No repository in the payload", event);
+            return false;
+        }
+        String gitUrl = repositoryUrls.gitUrl();
+        if (receivedSignature == null || !receivedSignature.startsWith(SIGNATURE_PREFIX)) {
+            log.error("[GH {} event for {}] Signature missing", event, gitUrl);
+            throw WebhookSignatureNotValid.byRepository()
+                    .errorCode(-2)
+                    .repository(gitUrl)
+                    .build();
+        }
+        // only an unknown repository is acknowledged without storing the event, any other failure is returned to
+        // github so the delivery is retried
+        ComponentDTO componentDTO;
+        try {
+            componentDTO = componentService.findComponentByProjectUrl(urlsOf(repositoryUrls));
+        } catch (ComponentNotFoundByUrl e) {
+            log.info("[GH {} event for {}] No component for the repository", event, gitUrl);
+            return false;
         }
 
         // verify signature
-        if (
-                !verifySignature(componentDTO.componentToken(), payload, receivedSignature)
-        ) {
-            log.error("[GH push event for {}] Signature verification failed", githubPushEventPayload.repository().gitUrl());
+        if (!verifySignature(componentDTO.componentToken(), payload, receivedSignature)) {
+            log.error("[GH {} event for {}] Signature verification failed", event, gitUrl);
+            throw WebhookSignatureNotValid.byRepository()
+                    .errorCode(-2)
+                    .repository(gitUrl)
+                    .build();
         }
 
-        log.info("[GH push event for {}] Signature verification passed", githubPushEventPayload.repository().gitUrl());
+        String key = deliveryId == null || deliveryId.isBlank() ? "sha256:%s".formatted(sha256(payload)) : deliveryId;
+        try {
+            webhookDeliveryRepository.insert(
+                    WebhookDelivery
+                            .builder()
+                            .deliveryId(key)
+                            .event(event.toLowerCase())
+                            .payload(payload)
+                            .componentId(componentDTO.id())
+                            .build()
+            );
+        } catch (DuplicateKeyException e) {
+            log.info("[GH {} event for {}] Delivery {} already received", event, gitUrl, key);
+            return false;
+        }
+        log.info("[GH {} event for {}] Delivery {} stored in the inbox", event, gitUrl, key);
+        applicationEventPublisher.publishEvent(new WebhookReceivedEvent(key));
+        return true;
     }
 
     /**
-     * Manage the PR event from github
+     * Process a delivery of the inbox
      *
-     * @param receivedSignature the signature received from the webhook
-     * @param payload           the payload received from the webhook
-     * @throws JsonProcessingException
+     * @param webhookDelivery the delivery to process
+     * @throws IOException if the payload is not valid
      */
     @Transactional
-    public void managePREvent(String receivedSignature, String payload) throws JsonProcessingException {
-        ComponentDTO componentDTO = null;
-        GitHubPullRequestWebhookDTO githubPushEventPayload = objectMapper.readValue(payload, GitHubPullRequestWebhookDTO.class);
-        log.info("Received PR {} event for {}", githubPushEventPayload.action(), githubPushEventPayload.repository().gitUrl());
-        componentDTO = wrapCatch(
-                () -> componentService.findComponentByProjectUrl(
-                        List.of(
-                                githubPushEventPayload.repository().gitUrl(),
-                                githubPushEventPayload.repository().sshUrl(),
-                                githubPushEventPayload.repository().cloneUrl()
-                        )
-                ),
+    public void processDelivery(WebhookDelivery webhookDelivery) throws IOException {
+        switch (webhookDelivery.getEvent()) {
+            case PUSH_EVENT -> managePushEvent(GithubEventParser.parse(webhookDelivery.getPayload()));
+            case PULL_REQUEST_EVENT -> managePREvent(GithubEventParser.parse(webhookDelivery.getPayload()));
+            default -> log.info("Ignoring github event {}", webhookDelivery.getEvent());
+        }
+    }
+
+    /**
+     * Manage the push event from github
+     * <p>
+     * A push on a branch of the component triggers its build when at least one of the changed paths pass the path
+     * filter of the component. The deleted branches, the tags and the branches not registered in the component are
+     * ignored.
+     *
+     * @param eventFields the fields of the event, with the signature already verified
+     */
+    public void managePushEvent(EventFields eventFields) {
+        String gitUrl = eventFields.repository().gitUrl();
+        log.info("[GH push event for {}] Received push on {} at {}", gitUrl, eventFields.ref(), eventFields.after());
+        if (eventFields.deleted() || eventFields.ref() == null || !eventFields.ref().startsWith(BRANCH_REF_PREFIX)) {
+            log.info("[GH push event for {}] Ignoring push on {}, not a branch update", gitUrl, eventFields.ref());
+            return;
+        }
+        String branchName = eventFields.ref().substring(BRANCH_REF_PREFIX.length());
+        ComponentDTO componentDTO = wrapCatch(
+                () -> componentService.findComponentByProjectUrl(urlsOf(eventFields.repository())),
                 -1
         );
-        log.info("Component found: {}", componentDTO);
-        // verify signature
-        if (
-                !verifySignature(componentDTO.componentToken(), payload, receivedSignature)
-        ) {
-            log.error("[GH pr event {} for {}] Signature verification failed", githubPushEventPayload.action(), githubPushEventPayload.repository().gitUrl());
+        boolean branchFound = componentDTO.branches() != null && componentDTO.branches().stream()
+                .anyMatch(branch -> branch.branchName() != null && branch.branchName().equalsIgnoreCase(branchName));
+        if (!branchFound) {
+            log.info("[GH push event for {}] Ignoring push on branch {} not registered in the component {}", gitUrl, branchName, componentDTO.name());
+            return;
         }
+        if (!isBuildNeeded(componentDTO.buildPathFilter(), eventFields)) {
+            log.info("[GH push event for {}] Ignoring push on branch {}, no changed path need a build of {}", gitUrl, branchName, componentDTO.name());
+            return;
+        }
+        log.info("Starting build on branch {} at {} for push", branchName, eventFields.after());
+        Map<String, String> buildVariables = Map.of(
+                "ADBS_BUILD_TYPE", "container"
+        );
+        componentBuildService.triggerBuild(componentDTO.name(), branchName, buildVariables);
+    }
 
-        log.info("[GH pr event {} for {}] Signature verification passed", githubPushEventPayload.action(), githubPushEventPayload.repository().gitUrl());
-        switch (githubPushEventPayload.action()) {
+    /**
+     * Manage the PR event from github
+     *
+     * @param eventFields the fields of the event, with the signature already verified
+     */
+    @Transactional
+    public void managePREvent(EventFields eventFields) {
+        log.info("Received PR {} event for {}", eventFields.action(), eventFields.repository().gitUrl());
+        ComponentDTO componentDTO = wrapCatch(
+                () -> componentService.findComponentByProjectUrl(urlsOf(eventFields.repository())),
+                -1
+        );
+        log.info("Component found: {}", componentDTO.name());
+        switch (Objects.requireNonNullElse(eventFields.action(), "")) {
             case "opened":
             case "closed":
-                manageClosed(componentDTO, githubPushEventPayload);
+                manageClosed(componentDTO, eventFields);
                 break;
             case "reopened":
             case "synchronize":
-                manageSynchronize(componentDTO, githubPushEventPayload);
+                manageSynchronize(componentDTO, eventFields);
                 break;
             default:
-                log.info("Ignoring PR event {} for  {}", githubPushEventPayload.action(), githubPushEventPayload.action());
+                log.info("Ignoring PR event {} for  {}", eventFields.action(), eventFields.repository().gitUrl());
                 return;
         }
     }
@@ -120,16 +204,16 @@ public class GithubEventService {
      * Manage the closed event of the pull request from github
      * closing a pull request need to trigger the build on the base branch(where the branch is merged on)
      * @param componentDTO the component
-     * @param githubPushEventPayload the payload received from the webhook
+     * @param eventFields the fields of the event
      */
-    private void manageClosed(ComponentDTO componentDTO, GitHubPullRequestWebhookDTO githubPushEventPayload) {
+    private void manageClosed(ComponentDTO componentDTO, EventFields eventFields) {
         Map<String, String> buildVariables = Map.of(
                 "ADBS_BUILD_TYPE", "container"
         );
         // start build on base branch
-        log.info("Starting build on base branch {} for PR {}", githubPushEventPayload.pullRequest().base().ref(), githubPushEventPayload.pullRequest().title());
-        componentService.setBranchAsMerged(componentDTO.name(), githubPushEventPayload.pullRequest().head().ref());
-        componentBuildService.startBuild(componentDTO.name(), githubPushEventPayload.pullRequest().base().ref(), buildVariables);
+        log.info("Starting build on base branch {} for PR {}", eventFields.baseRef(), eventFields.title());
+        componentService.setBranchAsMerged(componentDTO.name(), eventFields.headRef());
+        componentBuildService.triggerBuild(componentDTO.name(), eventFields.baseRef(), buildVariables);
     }
 
     /**
@@ -137,31 +221,67 @@ public class GithubEventService {
      * the synchronization event need to trigger a build on the head branch
      *
      * @param componentDTO the component
-     * @param githubPushEventPayload the payload received from the webhook
+     * @param eventFields the fields of the event
      */
-    private void manageSynchronize(ComponentDTO componentDTO, GitHubPullRequestWebhookDTO githubPushEventPayload) {
-        log.info("Starting build on head branch {} for PR {}", githubPushEventPayload.pullRequest().head().ref(), githubPushEventPayload.pullRequest().title());
+    private void manageSynchronize(ComponentDTO componentDTO, EventFields eventFields) {
+        log.info("Starting build on head branch {} at {} for PR {}", eventFields.headRef(), eventFields.headSha(), eventFields.title());
         Map<String, String> buildVariables = Map.of(
                 "ADBS_BUILD_TYPE", "container"
         );
-        componentBuildService.startBuild(componentDTO.name(), githubPushEventPayload.pullRequest().head().ref(),buildVariables);
+        componentBuildService.triggerBuild(componentDTO.name(), eventFields.headRef(), buildVariables);
+    }
+
+    /**
+     * Check if the changes of a push need a build of the component
+     * <p>
+     * github lists at most {@value #MAX_LISTED_COMMITS} commits in the payload of a push webhook, when the list is
+     * truncated, or no change is listed at all, the component is built as the changed paths are not known.
+     *
+     * @param buildPathFilter the path filter of the component, null to build on every push
+     * @param eventFields     the fields of the push event
+     * @return true if the component need to be built
+     */
+    private static boolean isBuildNeeded(BuildPathFilterDTO buildPathFilter, EventFields eventFields) {
+        if (buildPathFilter == null) return true;
+        if (eventFields.commits() >= MAX_LISTED_COMMITS) return true;
+        // a new branch pushed without new commits lists only the head commit
+        Set<String> changedPaths = eventFields.commits() > 0 ? eventFields.changedPaths() : eventFields.headCommitPaths();
+        if (changedPaths == null || changedPaths.isEmpty()) return true;
+        return BuildPathFilter
+                .builder()
+                .include(Objects.requireNonNullElse(buildPathFilter.include(), List.of()))
+                .exclude(Objects.requireNonNullElse(buildPathFilter.exclude(), List.of()))
+                .build()
+                .isBuildNeeded(changedPaths);
+    }
+
+    /**
+     * Return the urls of the repository that are present in the payload
+     *
+     * @param repositoryUrls the urls of the repository
+     * @return the urls
+     */
+    private static List<String> urlsOf(RepositoryUrls repositoryUrls) {
+        return Stream.of(repositoryUrls.gitUrl(), repositoryUrls.sshUrl(), repositoryUrls.cloneUrl())
+                .filter(Objects::nonNull)
+                .toList();
     }
 
     /**
      * Verify the signature of the payload
      *
      * @param secret            the secret
-     * @param payloadBody       the payload body
+     * @param payloadBody       the raw payload body
      * @param receivedSignature the received signature
      * @return true if the signature is verified, false otherwise
      */
-    private boolean verifySignature(String secret, String payloadBody, String receivedSignature) {
+    private boolean verifySignature(String secret, byte[] payloadBody, String receivedSignature) {
         try {
             Mac mac = Mac.getInstance("HmacSHA256");
             SecretKeySpec secretKeySpec = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256");
             mac.init(secretKeySpec);
-            byte[] hash = mac.doFinal(payloadBody.getBytes(StandardCharsets.UTF_8));
-            String expectedSignature = "sha256=" + bytesToHex(hash);
+            byte[] hash = mac.doFinal(payloadBody);
+            String expectedSignature = SIGNATURE_PREFIX + bytesToHex(hash);
 
             return secureCompare(expectedSignature, receivedSignature);
         } catch (NoSuchAlgorithmException | InvalidKeyException e) {
@@ -188,6 +308,20 @@ public class GithubEventService {
         return result == 0;
     }
 
+    /**
+     * Compute the hash of a payload, used to deduplicate the deliveries without identifier
+     *
+     * @param payload the payload
+     * @return the hexadecimal hash
+     */
+    private static String sha256(byte[] payload) {
+        try {
+            return bytesToHex(MessageDigest.getInstance("SHA-256").digest(payload));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("Failed to hash the payload", e);
+        }
+    }
+
     /**
      * Convert a byte array to a hexadecimal string.
      *
@@ -0,0 +1,122 @@
+package edu.stanford.slac.core_build_system.service;
+
+import edu.stanford.slac.core_build_system.config.CoreBuildProperties;
+import edu.stanford.slac.core_build_system.model.BuildOS;
+import edu.stanford.slac.core_build_system.model.ComponentBranchBuild;
+import edu.stanford.slac.core_build_system.model.ResourceProfile;
+import edu.stanford.slac.core_build_system.model.ResourceUsage;
+import edu.stanford.slac.core_build_system.repository.ComponentBranchBuildRepository;
+import io.fabric8.kubernetes.api.model.Quantity;
+import lombok.AllArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import static edu.stanford.slac.ad.eed.baselib.exception.Utility.wrapCatch;
+
+/**
+ * Size the builder pods from the resources used by the previous builds of the same component and os
+ * <p>
+ * The requests are the 95th percentile of the observed peaks plus the headroom, so the scheduler packs the
+ * builds on what they usually need, and the limits are the highest observed peak plus the headroom, so a
+ * heavier build is not killed. A build killed for exceeding its memory limit counts as a build that needed
+ * twice that limit, so the next build grows instead of being killed again.
+ */
+@Log4j2
+@Service
+@AllArgsConstructor
+public class ResourceAutosizer {
+    private static final long MEBIBYTE = 1024 * 1024;
+    private static final double PERCENTILE = 0.95;
+    private final CoreBuildProperties coreBuildProperties;
+    private final ComponentBranchBuildRepository componentBranchBuildRepository;
+
+    /**
+     * Compute the resources for the next build of a component on an os
+     *
+     * @param componentId The identifier of the component
+     * @param buildOs     The os of the build
+     * @return the profile, empty if the autosizer is disabled or there is not enough history
+     */
+    public Optional<ResourceProfile> recommend(String componentId, BuildOS buildOs) {
+        if (!coreBuildProperties.isAutosizeEnabled()) return Optional.empty();
+        List<ComponentBranchBuild> history = wrapCatch(
+                () -> componentBranchBuildRepository.findRecentResourceUsage(componentId, buildOs, coreBuildProperties.getAutosizeHistorySize()),
+                -1
+        );
+        if (history.size() < Math.max(1, coreBuildProperties.getAutosizeMinSamples())) return Optional.empty();
+
+        List<Long> cpuPeaks = new ArrayList<>();
+        List<Long> memoryPeaks = new ArrayList<>();
+        for (ComponentBranchBuild build : history) {
+            ResourceUsage usage = build.getResourceUsage();
+            if (usage.getPeakCpuMillis() != null) cpuPeaks.add(usage.getPeakCpuMillis());
+            long memoryPeak = usage.getPeakMemoryBytes() == null ? 0 : usage.getPeakMemoryBytes();
+            if (usage.isOomKilled()) {
+                memoryPeak = Math.max(memoryPeak, memoryLimitBytes(build)) * 2;
+            }
+            if (memoryPeak > 0) memoryPeaks.add(memoryPeak);
+        }
+
+        ResourceProfile.ResourceProfileBuilder profile = ResourceProfile.builder();
+        if (!cpuPeaks.isEmpty()) {
+            long request = clamp(withHeadroom(percentile(cpuPeaks)), coreBuildProperties.getAutosizeMinCpuMillis(), coreBuildProperties.getAutosizeMaxCpuMillis());
+            long limit = clamp(withHeadroom(Collections.max(cpuPeaks)), request, coreBuildProperties.getAutosizeMaxCpuMillis());
+            profile.cpuRequest("%dm".formatted(request)).cpuLimit("%dm".formatted(limit));
+        }
+        if (!memoryPeaks.isEmpty()) {
+            long request = clamp(withHeadroom(percentile(memoryPeaks)), coreBuildProperties.getAutosizeMinMemoryBytes(), coreBuildProperties.getAutosizeMaxMemoryBytes());
+            long limit = clamp(withHeadroom(Collections.max(memoryPeaks)), request, coreBuildProperties.getAutosizeMaxMemoryBytes());
+            profile.memoryRequest(toMebibytes(request)).memoryLimit(toMebibytes(limit));
+        }
+        ResourceProfile recommended = profile.build();
+        log.debug("Resources for component {} on {} from {} previous builds: {}", componentId, buildOs, history.size(), recommended);
+        return Optional.of(recommended);
+    }
+
+    /**
+     * The nearest rank percentile of the values
+     *
+     * @param values The values
+     * @return the percentile
+     */
+    private static long percentile(List<Long> values) {
+        List<Long> sorted = values.stream().sorted().toList();
+        int rank = (int) Math.ceil(PERCENTILE * sorted.size());
+        return sorted.get(Math.max(0, rank - 1));
+    }
+
+    private long withHeadroom(long value) {
+        return (long) Math.ceil(value * (1 + coreBuildProperties.getAutosizeHeadroom()));
+    }
+
+    private static long clamp(long value, long min, long max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    private static String toMebibytes(long bytes) {
+        return "%dMi".formatted((bytes + MEBIBYTE - 1) / MEBIBYTE);
+    }
+
+    /**
+     * The memory limit the build run with
+     *
+     * @param build The build
+     * @return the limit in bytes
+     */
+    private long memoryLimitBytes(ComponentBranchBuild build) {
+        String memoryLimit = build.getResourceProfile() != null && build.getResourceProfile().getMemoryLimit() != null
+                ? build.getResourceProfile().getMemoryLimit()
+                : coreBuildProperties.getBuilderMemoryLimit();
+        try {
+            return Quantity.getAmountInBytes(new Quantity(memoryLimit)).longValue();
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid memory limit {} of build {}", memoryLimit, build.getId());
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package edu.stanford.slac.core_build_system.service;
+
+import edu.stanford.slac.ad.eed.baselib.exception.ControllerLogicException;
+import edu.stanford.slac.core_build_system.config.CoreBuildProperties;
+import edu.stanford.slac.core_build_system.model.SharedCheckout;
+import edu.stanford.slac.core_build_system.repository.SharedCheckoutRepository;
+import lombok.AllArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static edu.stanford.slac.ad.eed.baselib.exception.Utility.wrapCatch;
+
+/**
+ * Manage the source checkouts shared by the os builds of the same trigger
+ * <p>
+ * The checkout keeps the identifiers of the builds that use it as reference count, each build removes
+ * itself when it terminates and the last one deletes the checkout from the build file system.
+ */
+@Log4j2
+@Service
+@AllArgsConstructor
+public class SharedCheckoutService {
+    private final CoreBuildProperties coreBuildProperties;
+    private final SharedCheckoutRepository sharedCheckoutRepository;
+
+    /**
+     * Register the checkout shared by a set of builds
+     *
+     * @param id          The identifier of the checkout, referenced by the builds
+     * @param componentId The identifier of the component
+     * @param branchName  The name of the branch
+     * @param buildIds    The identifiers of the builds that use the checkout
+     */
+    public void register(String id, String componentId, String branchName, Collection<String> buildIds) {
+        register(id, componentId, branchName, null, buildIds);
+    }
+
+    /**
+     * Register the checkout shared by a set of builds, pinned to a commit
+     *
+     * @param id          The identifier of the checkout, referenced by the builds
+     * @param componentId The identifier of the component
+     * @param branchName  The name of the branch
+     * @param commitSha   The commit to check out, null to use the head of the branch at the first download
+     * @param buildIds    The identifiers of the builds that use the checkout
+     */
+    public void register(String id, String componentId, String branchName, String commitSha, Collection<String> buildIds) {
+        wrapCatch(
+                () -> sharedCheckoutRepository.save(
+                        SharedCheckout.builder()
+                                .id(id)
+                                .componentId(componentId)
+                                .branchName(branchName)
+                                .commitSha(commitSha)
+                                .buildIds(new HashSet<>(buildIds))
+                                .build()
+                ),
+                -1
+        );
+    }
+
+    /**
+     * Find a checkout by its identifier
+     *
+     * @param id The identifier of the checkout
+     * @return The checkout if it exists
+     */
+    public Optional<SharedCheckout> findById(String id) {
+        return wrapCatch(
+                () -> sharedCheckoutRepository.findById(id),
+                -1
+        );
+    }
+
+    /**
+     * Filter the checkouts that are still registered
+     *
+     * @param ids The identifiers of the checkouts
+     * @return The identifiers of the checkouts that exist
+     */
+    public Set<String> findExistingIds(Collection<String> ids) {
+        if (ids.isEmpty()) return Collections.emptySet();
+        return wrapCatch(
+                () -> sharedCheckoutRepository.findAllById(ids).stream()
+                        .map(SharedCheckout::getId)
+                        .collect(Collectors.toSet()),
+                -1
+        );
+    }
+
+    /**
+     * Pin the checkout to the commit downloaded by a build, if no other build has already pinned it
+     *
+     * @param id        The identifier of the checkout
+     * @param commitSha The commit downloaded by the build
+     * @param location  The location of the checkout relative to the build file system root
+     * @return The checkout with the pinned commit
+     */
+    public SharedCheckout pinCommit(String id, String commitSha, String location) {
+        return wrapCatch(
+                () -> sharedCheckoutRepository.pinCommit(id, commitSha, location)
+                        .orElseThrow(
+                                () -> ControllerLogicException.builder()
+                                        .errorCode(-1)
+                                        .errorMessage("The shared checkout %s does not exist".formatted(id))
+                                        .errorDomain("SharedCheckoutService::pinCommit")
+                                        .build()
+                        ),
+                -2
+        );
+    }
+
+    /**
+     * Release the checkout for a build and delete it when no build use it anymore
+     * <p>
+     * The release is idempotent, so it can be called every time the build is found terminated.
+     *
+     * @param id      The identifier of the checkout
+     * @param buildId The identifier of the build
+     */
+    public void release(String id, String buildId) {
+        Optional<SharedCheckout> checkout = wrapCatch(
+                () -> sharedCheckoutRepository.removeBuild(id, buildId),
+                -1
+        );
+        if (checkout.isEmpty() || !checkout.get().getBuildIds().isEmpty()) return;
+        if (!wrapCatch(() -> sharedCheckoutRepository.deleteIfUnused(id), -2)) return;
+        log.info("Deleting shared checkout {} at {}", id, checkout.get().getLocation());
+        if (checkout.get().getLocation() != null) {
+            deleteCheckoutDirectories(checkout.get().getLocation());
+        }
+    }
+
+    /**
+     * Delete the checkout and the leftovers of the interrupted downloads
+     *
+     * @param location The location of the checkout relative to the build file system root
+     */
+    private void deleteCheckoutDirectories(String location) {
+        Path checkoutPath = Paths.get(coreBuildProperties.getBuildFsRootDirectory(), location);
+        try {
+            FileSystemUtils.deleteRecursively(checkoutPath);
+            if (Files.notExists(checkoutPath.getParent())) return;
+            try (Stream<Path> siblings = Files.list(checkoutPath.getParent())) {
+                for (Path sibling : siblings.filter(path -> path.getFileName().toString().startsWith(checkoutPath.getFileName() + ".tmp-")).toList()) {
+                    FileSystemUtils.deleteRecursively(sibling);
+                }
+            }
+        } catch (IOException e) {
+            log.error("Error deleting the shared checkout {}", checkoutPath, e);
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package edu.stanford.slac.core_build_system.task;
+
+import edu.stanford.slac.core_build_system.config.CoreBuildProperties;
+import edu.stanford.slac.core_build_system.model.ResourceProfile;
+import edu.stanford.slac.core_build_system.repository.KubernetesRepository;
+import edu.stanford.slac.core_build_system.service.ComponentBuildService;
+import io.fabric8.kubernetes.api.model.Container;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.Quantity;
+import io.fabric8.kubernetes.api.model.ResourceQuota;
+import io.fabric8.kubernetes.api.model.ResourceRequirements;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admit the builds on the cluster only when their builder pod can be scheduled
+ * <p>
+ * A build with the sources ready is admitted if the resources it requests fit in the resource quotas of the
+ * build namespace and if there are less builder pods waiting to be scheduled than the configured maximum.
+ * The usage of the quotas is the highest between the one reported by kubernetes and the one of the builder
+ * pods in flight, the pods in the informer cache plus the pods admitted and not yet seen by the informer, so
+ * the builds admitted between two quota refreshes are counted. The builds not admitted stay QUEUED and are
+ * admitted when the capacity is released.
+ */
+@Log4j2
+@Component
+public class BuildAdmissionController {
+    private static final Duration RESERVATION_TIMEOUT = Duration.ofMinutes(1);
+    private static final String PODS = "pods";
+    private final CoreBuildProperties coreBuildProperties;
+    private final KubernetesRepository kubernetesRepository;
+    private final BuilderPodInformer builderPodInformer;
+    private final ComponentBuildService componentBuildService;
+    private final Map<String, Reservation> reservations = new HashMap<>();
+    private final AtomicLong waitingBuilds = new AtomicLong();
+    private final Counter admittedDecisions;
+    private final Counter waitingDecisions;
+    private volatile List<ResourceQuota> resourceQuotas = List.of();
+    private volatile boolean quotasAvailable = true;
+
+    public BuildAdmissionController(
+            CoreBuildProperties coreBuildProperties,
+            KubernetesRepository kubernetesRepository,
+            BuilderPodInformer builderPodInformer,
+            ComponentBuildService componentBuildService,
+            MeterRegistry meterRegistry) {
+        this.coreBuildProperties = coreBuildProperties;
+        this.kubernetesRepository = kubernetesRepository;
+        this.builderPodInformer = builderPodInformer;
+        this.componentBuildService = componentBuildService;
+        admittedDecisions = Counter.builder("cbs.admission.decisions")
+                .description("Number of admission decisions on the builds with the sources ready")
+                .tag("result", "admitted")
+                .register(meterRegistry);
+        waitingDecisions = Counter.builder("cbs.admission.decisions")
+                .description("Number of admission decisions on the builds with the sources ready")
+                .tag("result", "waiting")
+                .register(meterRegistry);
+        Gauge.builder("cbs.admission.admitted", this, BuildAdmissionController::admittedBuilds)
+                .description("Number of builder pods admitted on the cluster and not yet terminated")
+                .register(meterRegistry);
+        Gauge.builder("cbs.admission.waiting", waitingBuilds, AtomicLong::get)
+                .description("Number of builds waiting for the cluster capacity")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Reload the resource quotas of the build namespace and the number of waiting builds
+     */
+    @Scheduled(
+            initialDelayString = "${edu.stanford.slac.core-build-system.admission-refresh-interval-ms:5000}",
+            fixedDelayString = "${edu.stanford.slac.core-build-system.admission-refresh-interval-ms:5000}"
+    )
+    public void refresh() {
+        try {
+            resourceQuotas = kubernetesRepository.getResourceQuotas(coreBuildProperties.getK8sBuildNamespace());
+            if (!quotasAvailable) log.info("Resource quotas of the build namespace available");
+            quotasAvailable = true;
+        } catch (Exception e) {
+            // log only the first failure, the last quotas read are kept
+            if (quotasAvailable) log.warn("Cannot read the resource quotas of the build namespace: {}", e.getMessage());
+            quotasAvailable = false;
+        }
+        try {
+            waitingBuilds.set(componentBuildService.countQueuedBuilds());
+        } catch (Exception e) {
+            log.error("Error counting the queued builds", e);
+        }
+    }
+
+    /**
+     * Decide if the builder pod of a build can be created now, reserving its resources if it can
+     *
+     * @param buildId         The identifier of the build
+     * @param resourceProfile The resources of the build, null for the default resources
+     * @return true if the pod can be created, false if the build need to wait
+     */
+    public synchronized boolean admit(String buildId, ResourceProfile resourceProfile) {
+        if (!coreBuildProperties.isAdmissionEnabled()) return true;
+        Map<String, BigDecimal> request = quotaUsage(kubernetesRepository.builderResourceRequirements(resourceProfile));
+        List<Pod> inFlightPods = builderPodInformer.listBuilderPods().stream()
+                .filter(BuildAdmissionController::isInFlight)
+                .toList();
+        expireReservations(inFlightPods);
+        if (reservations.containsKey(buildId)) return true;
+
+        // the reserved pods have just been created, they are pending as well
+        long pendingPods = inFlightPods.stream().filter(pod -> "Pending".equals(pod.getStatus().getPhase())).count() + reservations.size();
+        if (coreBuildProperties.getAdmissionMaxPendingPods() > 0 && pendingPods >= coreBuildProperties.getAdmissionMaxPendingPods()) {
+            log.debug("[{}] Not admitted, {} builder pods are waiting to be scheduled", buildId, pendingPods);
+            waitingDecisions.increment();
+            return false;
+        }
+
+        Map<String, BigDecimal> inFlightUsage = new HashMap<>();
+        inFlightPods.forEach(pod -> podQuotaUsage(pod).forEach((resource, amount) -> inFlightUsage.merge(resource, amount, BigDecimal::add)));
+        reservations.values().forEach(reservation -> reservation.usage().forEach((resource, amount) -> inFlightUsage.merge(resource, amount, BigDecimal::add)));
+        for (ResourceQuota resourceQuota : resourceQuotas) {
+            if (resourceQuota.getSpec() == null || resourceQuota.getSpec().getHard() == null) continue;
+            Map<String, Quantity> used = resourceQuota.getStatus() == null || resourceQuota.getStatus().getUsed() == null
+                    ? Map.of()
+                    : resourceQuota.getStatus().getUsed();
+            for (Map.Entry<String, Quantity> hard : resourceQuota.getSpec().getHard().entrySet()) {
+                BigDecimal requested = request.get(hard.getKey());
+                if (requested == null) continue;
+                BigDecimal usage = inFlightUsage.getOrDefault(hard.getKey(), BigDecimal.ZERO);
+                if (used.containsKey(hard.getKey())) {
+                    usage = usage.max(Quantity.getAmountInBytes(used.get(hard.getKey())));
+                }
+                if (usage.add(requested).compareTo(Quantity.getAmountInBytes(hard.getValue())) > 0) {
+                    log.debug("[{}] Not admitted, quota {} exceeded on {}", buildId, resourceQuota.getMetadata().getName(), hard.getKey());
+                    waitingDecisions.increment();
+                    return false;
+                }
+            }
+        }
+        reservations.put(buildId, new Reservation(request, Instant.now()));
+        admittedDecisions.increment();
+        return true;
+    }
+
+    /**
+     * Release the resources reserved for a build whose pod has not been created
+     *
+     * @param buildId The identifier of the build
+     */
+    public synchronized void release(String buildId) {
+        reservations.remove(buildId);
+    }
+
+    /**
+     * Return the number of builder pods admitted and not yet terminated
+     *
+     * @return the number of pods
+     */
+    public synchronized long admittedBuilds() {
+        List<Pod> inFlightPods = builderPodInformer.listBuilderPods().stream()
+                .filter(BuildAdmissionController::isInFlight)
+                .toList();
+        expireReservations(inFlightPods);
+        return inFlightPods.size() + reservations.size();
+    }
+
+    /**
+     * Remove the reservations of the pods seen by the informer, they are counted with the pods in flight
+     *
+     * @param inFlightPods The builder pods not terminated
+     */
+    private void expireReservations(List<Pod> inFlightPods) {
+        Set<String> inFlightBuildIds = new HashSet<>();
+        inFlightPods.forEach(pod -> Optional.ofNullable(pod.getMetadata().getLabels())
+                .map(labels -> labels.get(KubernetesRepository.BUILD_ID_LABEL))
+                .ifPresent(inFlightBuildIds::add));
+        Instant expiration = Instant.now().minus(RESERVATION_TIMEOUT);
+        reservations.entrySet().removeIf(
+                entry -> inFlightBuildIds.contains(entry.getKey()) || entry.getValue().createdAt().isBefore(expiration)
+        );
+    }
+
+    private static boolean isInFlight(Pod pod) {
+        if (pod.getStatus() == null || pod.getStatus().getPhase() == null) return true;
+        return !"Succeeded".equals(pod.getStatus().getPhase()) && !"Failed".equals(pod.getStatus().getPhase());
+    }
+
+    private static Map<String, BigDecimal> podQuotaUsage(Pod pod) {
+        Map<String, BigDecimal> usage = new HashMap<>();
+        for (Container container : pod.getSpec().getContainers()) {
+            quotaUsage(container.getResources()).forEach((resource, amount) -> usage.merge(resource, amount, BigDecimal::add));
+        }
+        // the pod is counted once, not once per container
+        usage.put(PODS, BigDecimal.ONE);
+        usage.put("count/" + PODS, BigDecimal.ONE);
+        return usage;
+    }
+
+    /**
+     * Express the resources of a container with the names used by the resource quotas
+     *
+     * @param resourceRequirements The resources of the container
+     * @return the amount of each quota resource
+     */
+    private static Map<String, BigDecimal> quotaUsage(ResourceRequirements resourceRequirements) {
+        Map<String, BigDecimal> usage = new HashMap<>();
+        usage.put(PODS, BigDecimal.ONE);
+        usage.put("count/" + PODS, BigDecimal.ONE);
+        if (resourceRequirements == null) return usage;
+        Optional.ofNullable(resourceRequirements.getRequests()).orElse(Map.of()).forEach(
+                (resource, quantity) -> {
+                    BigDecimal amount = Quantity.getAmountInBytes(quantity);
+                    // a quota on the plain resource name limits the requests
+                    usage.put(resource, amount);
+                    usage.put("requests." + resource, amount);
+                }
+        );
+        Optional.ofNullable(resourceRequirements.getLimits()).orElse(Map.of()).forEach(
+                (resource, quantity) -> usage.put("limits." + resource, Quantity.getAmountInBytes(quantity))
+        );
+        return usage;
+    }
+
+    /**
+     * The resources reserved for an admitted build whose pod is not yet in the informer cache
+     *
+     * @param usage     The amount of each quota resource
+     * @param createdAt When the build has been admitted
+     */
+    private record Reservation(Map<String, BigDecimal> usage, Instant createdAt) {
+    }
+}
@@ -0,0 +1,209 @@
+package edu.stanford.slac.core_build_system.task;
+
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import edu.stanford.slac.core_build_system.config.CoreBuildProperties;
+import edu.stanford.slac.core_build_system.model.BuildStatus;
+import edu.stanford.slac.core_build_system.model.ComponentBranchBuild;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Wake up the dispatcher workers from the change stream of the builds
+ * <p>
+ * The new builds, the stop requests and the builds expedited by another instance, like the ones whose pod has
+ * terminated or whose sources are ready, are pushed to the workers of every instance as soon as they are written,
+ * so the dispatcher polls the builds only as a slow fallback. The stream is resumed from the last change received
+ * after an error and, when it is not available (a standalone mongo server), the dispatcher goes back to polling at
+ * the idle delay.
+ */
+@Log4j2
+@Component
+public class BuildChangeStreamListener {
+    private static final Duration RECONNECT_DELAY = Duration.ofSeconds(5);
+    private final CoreBuildProperties coreBuildProperties;
+    private final MongoTemplate mongoTemplate;
+    private final ThreadPoolTaskScheduler taskScheduler;
+    private final ApplicationEventPublisher applicationEventPublisher;
+    private final Counter wakeUps;
+    private volatile MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor;
+    private volatile BsonDocument resumeToken;
+    private volatile boolean listening = false;
+    private volatile boolean available = true;
+    private volatile boolean running = false;
+
+    public BuildChangeStreamListener(
+            CoreBuildProperties coreBuildProperties,
+            MongoTemplate mongoTemplate,
+            ThreadPoolTaskScheduler taskScheduler,
+            ApplicationEventPublisher applicationEventPublisher,
+            MeterRegistry meterRegistry) {
+        this.coreBuildProperties = coreBuildProperties;
+        this.mongoTemplate = mongoTemplate;
+        this.taskScheduler = taskScheduler;
+        this.applicationEventPublisher = applicationEventPublisher;
+        wakeUps = Counter.builder("cbs.dispatcher.change.stream.wakeups")
+                .description("Number of dispatcher wake-ups from the change stream of the builds")
+                .register(meterRegistry);
+        Gauge.builder("cbs.dispatcher.change.stream.listening", this, listener -> listener.isListening() ? 1 : 0)
+                .description("1 if the dispatcher is woken up by the change stream, 0 if it is polling the builds")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Start listening the changes of the builds
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!coreBuildProperties.isBuildChangeStreamEnabled() || running) return;
+        running = true;
+        Thread.ofPlatform().name("build-change-stream").daemon().start(this::listen);
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        closeCursor();
+    }
+
+    /**
+     * Check if the change stream is open, so the dispatcher can poll only as fallback
+     *
+     * @return true if the changes of the builds are received
+     */
+    public boolean isListening() {
+        return listening;
+    }
+
+    private void listen() {
+        while (running) {
+            try {
+                cursor = openCursor();
+                log.info("Listening the changes of the builds, the dispatcher polls only as fallback");
+                listening = true;
+                available = true;
+                while (running) {
+                    ChangeStreamDocument<Document> change = cursor.next();
+                    resumeToken = change.getResumeToken();
+                    onChange(change);
+                }
+            } catch (Exception e) {
+                if (!running) break;
+                // log only the first failure, the change stream is not available on a standalone server
+                if (available) log.warn("Change stream of the builds not available, the dispatcher polls the builds: {}", e.getMessage());
+                available = false;
+                listening = false;
+                closeCursor();
+                sleep(RECONNECT_DELAY);
+            }
+        }
+        listening = false;
+        closeCursor();
+    }
+
+    private MongoChangeStreamCursor<ChangeStreamDocument<Document>> openCursor() {
+        BsonDocument token = resumeToken;
+        if (token == null) return watch().cursor();
+        try {
+            return watch().resumeAfter(token).cursor();
+        } catch (Exception e) {
+            // the resume point is no longer in the oplog, the polling has picked up the missed changes
+            log.warn("Cannot resume the change stream of the builds: {}", e.getMessage());
+            resumeToken = null;
+            return watch().cursor();
+        }
+    }
+
+    private ChangeStreamIterable<Document> watch() {
+        return mongoTemplate.getCollection(mongoTemplate.getCollectionName(ComponentBranchBuild.class))
+                .watch(List.of(Aggregates.match(wakeUpFilter())));
+    }
+
+    /**
+     * Select the changes that make a build processable: the inserts, the stop requests and the expedited builds
+     * <p>
+     * The other updates, like the lock of a build or its release with a new status, are written by the workers
+     * themselves and need no wake-up.
+     *
+     * @return the filter
+     */
+    private static Bson wakeUpFilter() {
+        return Filters.or(
+                Filters.eq("operationType", OperationType.INSERT.getValue()),
+                Filters.and(
+                        Filters.eq("operationType", OperationType.REPLACE.getValue()),
+                        Filters.eq("fullDocument.buildStatus", BuildStatus.STOP_REQUESTED.name())
+                ),
+                Filters.and(
+                        Filters.eq("operationType", OperationType.UPDATE.getValue()),
+                        Filters.or(
+                                Filters.eq("updateDescription.updatedFields.buildStatus", BuildStatus.STOP_REQUESTED.name()),
+                                Filters.eq("updateDescription.updatedFields.lastProcessTime", Date.from(Instant.EPOCH))
+                        )
+                )
+        );
+    }
+
+    private void onChange(ChangeStreamDocument<Document> change) {
+        BsonValue id = change.getDocumentKey() == null ? null : change.getDocumentKey().get("_id");
+        String buildId = id == null ? null : id.isObjectId() ? id.asObjectId().getValue().toHexString() : id.toString();
+        String reason = "%s on the change stream".formatted(change.getOperationTypeString());
+        Date notBefore = change.getFullDocument() == null ? null : change.getFullDocument().getDate("notBefore");
+        if (notBefore != null && notBefore.toInstant().isAfter(Instant.now())) {
+            // the build is held by the trigger quiet window, wake up the workers when it is eligible
+            try {
+                taskScheduler.schedule(() -> wakeUp(buildId, "trigger quiet window elapsed"), notBefore.toInstant());
+            } catch (Exception e) {
+                log.debug("[{}] Wake-up not scheduled: {}", buildId, e.getMessage());
+            }
+            return;
+        }
+        wakeUp(buildId, reason);
+    }
+
+    private void wakeUp(String buildId, String reason) {
+        wakeUps.increment();
+        applicationEventPublisher.publishEvent(new BuildWakeUpEvent(buildId, reason));
+    }
+
+    private void closeCursor() {
+        MongoChangeStreamCursor<ChangeStreamDocument<Document>> currentCursor = cursor;
+        cursor = null;
+        if (currentCursor == null) return;
+        try {
+            currentCursor.close();
+        } catch (Exception e) {
+            log.debug("Error closing the change stream of the builds: {}", e.getMessage());
+        }
+    }
+
+    private static void sleep(Duration duration) {
+        try {
+            Thread.sleep(duration);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
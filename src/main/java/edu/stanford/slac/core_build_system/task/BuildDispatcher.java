@@ -0,0 +1,163 @@
+package edu.stanford.slac.core_build_system.task;
+
+import edu.stanford.slac.core_build_system.api.v1.dto.ComponentBranchBuildDTO;
+import edu.stanford.slac.core_build_system.config.CoreBuildProperties;
+import edu.stanford.slac.core_build_system.service.ComponentBuildService;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Dispatch the builds to a pool of workers
+ * <p>
+ * Each worker claim a build at time and advance it, continuing until there is no more build to process.
+ * The scheduled tick only restart the idle workers so the dispatcher back off only when the queue is empty.
+ * While the change stream of the builds wakes up the workers, the tick polls the builds only at the fallback delay.
+ */
+@Log4j2
+@Component
+public class BuildDispatcher {
+    private final CoreBuildProperties coreBuildProperties;
+    private final ComponentBuildService componentBuildService;
+    private final BuildChangeStreamListener buildChangeStreamListener;
+    private final ProcessBuildTask processBuildTask;
+    private final ThreadPoolTaskScheduler taskScheduler;
+    private final AtomicBoolean[] busyWorkers;
+    private final Timer[] workerTimers;
+    private final AtomicLong queueDepth = new AtomicLong();
+    private volatile boolean running = true;
+    private volatile long lastPollTime = 0;
+
+    public BuildDispatcher(
+            CoreBuildProperties coreBuildProperties,
+            ComponentBuildService componentBuildService,
+            BuildChangeStreamListener buildChangeStreamListener,
+            ProcessBuildTask processBuildTask,
+            ThreadPoolTaskScheduler taskScheduler,
+            MeterRegistry meterRegistry) {
+        this.coreBuildProperties = coreBuildProperties;
+        this.componentBuildService = componentBuildService;
+        this.buildChangeStreamListener = buildChangeStreamListener;
+        this.processBuildTask = processBuildTask;
+        this.taskScheduler = taskScheduler;
+        int workers = Math.max(1, coreBuildProperties.getDispatcherWorkers());
+        busyWorkers = new AtomicBoolean[workers];
+        workerTimers = new Timer[workers];
+        for (int i = 0; i < workers; i++) {
+            busyWorkers[i] = new AtomicBoolean(false);
+            workerTimers[i] = Timer.builder("cbs.dispatcher.build.process")
+                    .description("Time spent by a dispatcher worker to advance a build")
+                    .tag("worker", String.valueOf(i))
+                    .register(meterRegistry);
+        }
+        Gauge.builder("cbs.dispatcher.queue.depth", queueDepth, AtomicLong::get)
+                .description("Number of builds not in a terminal state")
+                .register(meterRegistry);
+        Gauge.builder("cbs.dispatcher.workers.active", this, BuildDispatcher::activeWorkers)
+                .description("Number of dispatcher workers that are draining the queue")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Periodic tick used as back off when all the workers are idle
+     */
+    @Scheduled(fixedDelayString = "${edu.stanford.slac.core-build-system.dispatcher-idle-delay-ms:2000}")
+    public void dispatch() {
+        long now = System.currentTimeMillis();
+        if (buildChangeStreamListener.isListening() && now - lastPollTime < coreBuildProperties.getDispatcherFallbackDelayMs()) {
+            return;
+        }
+        lastPollTime = now;
+        try {
+            queueDepth.set(componentBuildService.countBuildsToProcess());
+        } catch (Exception e) {
+            log.error("Error reading the build queue depth", e);
+        }
+        wakeUp();
+    }
+
+    /**
+     * Start a drain on every idle worker
+     */
+    public void wakeUp() {
+        if (!running) return;
+        for (int i = 0; i < busyWorkers.length; i++) {
+            if (!busyWorkers[i].compareAndSet(false, true)) continue;
+            int workerId = i;
+            try {
+                taskScheduler.execute(() -> drain(workerId));
+            } catch (TaskRejectedException | IllegalStateException e) {
+                // the scheduler is shutting down or not yet initialized
+                busyWorkers[i].set(false);
+                log.debug("Dispatcher worker {} not started: {}", workerId, e.getMessage());
+                return;
+            }
+        }
+    }
+
+    /**
+     * Wake up the workers when a build need to be processed immediately
+     *
+     * @param event the wake-up event
+     */
+    @EventListener
+    public void onWakeUp(BuildWakeUpEvent event) {
+        log.debug("Dispatcher woken up for build {}: {}", event.buildId(), event.reason());
+        wakeUp();
+    }
+
+    /**
+     * Return the number of workers that are currently draining the queue
+     *
+     * @return the number of busy workers
+     */
+    public int activeWorkers() {
+        int active = 0;
+        for (AtomicBoolean busy : busyWorkers) {
+            if (busy.get()) active++;
+        }
+        return active;
+    }
+
+    /**
+     * Stop the workers after the build they are currently processing
+     */
+    @PreDestroy
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * Claim and process builds until the queue is empty
+     *
+     * @param workerId the index of the worker
+     */
+    private void drain(int workerId) {
+        log.debug("Dispatcher worker {} started", workerId);
+        try {
+            while (running) {
+                Optional<ComponentBranchBuildDTO> buildToProcess = componentBuildService.getNextBuildToProcess();
+                if (buildToProcess.isEmpty()) {
+                    log.debug("Dispatcher worker {} found no build to process", workerId);
+                    break;
+                }
+                workerTimers[workerId].record(() -> processBuildTask.processBuild(buildToProcess.get()));
+            }
+        } catch (Exception e) {
+            log.error("Dispatcher worker {} failed", workerId, e);
+        } finally {
+            busyWorkers[workerId].set(false);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package edu.stanford.slac.core_build_system.task;
+
+import edu.stanford.slac.core_build_system.service.ComponentBuildService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keep alive the locks of the builds processed by the dispatcher workers of this instance
+ * <p>
+ * The lock of a build is a lease that expires if it is not renewed, so a build whose processing is longer than
+ * the lock timeout, a slow clone or pod creation, is not taken by another instance while this one is still working
+ * on it. Each lock has a fencing token and every update of the build is accepted only with the token of the current
+ * lock, so a worker that has lost its lease, after a long pause, cannot overwrite the work of the new owner.
+ */
+@Log4j2
+@Component
+public class BuildLeaseKeeper {
+    private final ComponentBuildService componentBuildService;
+    private final Map<String, Long> leases = new ConcurrentHashMap<>();
+    private final Counter lostLeases;
+
+    public BuildLeaseKeeper(ComponentBuildService componentBuildService, MeterRegistry meterRegistry) {
+        this.componentBuildService = componentBuildService;
+        lostLeases = Counter.builder("cbs.build.lease.lost")
+                .description("Number of build locks lost while the build was processed")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Start renewing the lock of a build
+     *
+     * @param buildId   The identifier of the build
+     * @param lockToken The fencing token of the lock
+     */
+    public void hold(String buildId, long lockToken) {
+        leases.put(buildId, lockToken);
+    }
+
+    /**
+     * Stop renewing the lock of a build, it has been released
+     *
+     * @param buildId The identifier of the build
+     */
+    public void drop(String buildId) {
+        leases.remove(buildId);
+    }
+
+    /**
+     * Check if the lock of a build is still held, renewing it
+     * <p>
+     * It is used before an action that cannot be fenced by the database, like the creation of a pod.
+     *
+     * @param buildId   The identifier of the build
+     * @param lockToken The fencing token of the lock
+     * @return true if the lock is still held
+     */
+    public boolean isHeld(String buildId, long lockToken) {
+        if (renew(buildId, lockToken)) return true;
+        leases.remove(buildId, lockToken);
+        return false;
+    }
+
+    /**
+     * Return the number of locks renewed by this instance
+     *
+     * @return the number of locks
+     */
+    public int heldLeases() {
+        return leases.size();
+    }
+
+    /**
+     * Renew all the locks held by this instance
+     */
+    @Scheduled(
+            initialDelayString = "${edu.stanford.slac.core-build-system.build-lock-heartbeat-ms:15000}",
+            fixedDelayString = "${edu.stanford.slac.core-build-system.build-lock-heartbeat-ms:15000}"
+    )
+    public void heartbeat() {
+        leases.forEach(
+                (buildId, lockToken) -> {
+                    if (!renew(buildId, lockToken)) {
+                        // the build has been taken by another worker, the token stops the updates of this one
+                        leases.remove(buildId, lockToken);
+                    }
+                }
+        );
+    }
+
+    private boolean renew(String buildId, long lockToken) {
+        try {
+            if (componentBuildService.renewLock(buildId, lockToken)) return true;
+            log.warn("[{}] Lock with token {} lost", buildId, lockToken);
+            lostLeases.increment();
+            return false;
+        } catch (Exception e) {
+            // keep the lease, the next heartbeat can succeed before the lock timeout
+            log.error("[{}] Error renewing the lock", buildId, e);
+            return true;
+        }
+    }
+}
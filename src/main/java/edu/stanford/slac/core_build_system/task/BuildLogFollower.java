@@ -0,0 +1,363 @@
+package edu.stanford.slac.core_build_system.task;
+
+import edu.stanford.slac.core_build_system.api.v1.dto.BuildStatusDTO;
+import edu.stanford.slac.core_build_system.api.v1.dto.ComponentBranchBuildDTO;
+import edu.stanford.slac.core_build_system.config.CoreBuildProperties;
+import edu.stanford.slac.core_build_system.model.LogEntry;
+import edu.stanford.slac.core_build_system.repository.BatchingLogWriter;
+import edu.stanford.slac.core_build_system.repository.KubernetesRepository;
+import edu.stanford.slac.core_build_system.repository.LogChunkRepository;
+import edu.stanford.slac.core_build_system.service.BuildLogAppendedEvent;
+import edu.stanford.slac.core_build_system.service.ComponentBuildService;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.client.dsl.LogWatch;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.*;
+
+/**
+ * Follow the log of the running builder pods and store it incrementally
+ * <p>
+ * Each running build has at most one log stream, the lines are stored in batches as soon as they are read and
+ * the timestamp of the last stored line is kept as cursor with the stored lines and, periodically, on the build, so
+ * a follower that is restarted, on this or another host, resume the log from where it was left without reading it
+ * again.
+ */
+@Log4j2
+@Component
+@RequiredArgsConstructor
+public class BuildLogFollower {
+    private static final int MAX_LINE_LENGTH = 16 * 1024;
+    private static final Duration CURSOR_UPDATE_INTERVAL = Duration.ofSeconds(1);
+    private static final Duration FOLLOWER_KEEP_ALIVE_INTERVAL = Duration.ofSeconds(30);
+    private static final Duration FOLLOWER_STALE_TIMEOUT = Duration.ofMinutes(2);
+    private static final Duration COMPLETION_TIMEOUT = Duration.ofMinutes(1);
+    private static final Duration RECONNECT_DELAY = Duration.ofSeconds(1);
+    private final CoreBuildProperties coreBuildProperties;
+    private final KubernetesRepository kubernetesRepository;
+    private final ComponentBuildService componentBuildService;
+    private final LogChunkRepository logChunkRepository;
+    private final BuilderPodInformer builderPodInformer;
+    private final ApplicationEventPublisher applicationEventPublisher;
+    private final ExecutorService followerExecutor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("log-follower-", 0).factory()
+    );
+    private final ScheduledExecutorService logFlushScheduler = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("log-flush").daemon().factory()
+    );
+    private final Map<String, FollowedLog> followedLogs = new ConcurrentHashMap<>();
+    private final String hostName = localHostName();
+
+    /**
+     * Start to follow the log of a build if nobody is already following it
+     *
+     * @param buildId the identifier of the build
+     * @param podName the name of the builder pod
+     */
+    public void follow(String buildId, String podName) {
+        FollowedLog followedLog = followedLogs.get(buildId);
+        if (followedLog != null && !followedLog.completion.isDone()) {
+            keepAlive(buildId, followedLog);
+            return;
+        }
+        Optional<ComponentBranchBuildDTO> claimedBuild = componentBuildService.claimLogFollower(
+                buildId,
+                hostName,
+                Instant.now().minus(FOLLOWER_STALE_TIMEOUT)
+        );
+        if (claimedBuild.isEmpty()) {
+            log.debug("[{}] Log is followed by another host", buildId);
+            return;
+        }
+        FollowedLog newFollowedLog = new FollowedLog();
+        followedLogs.put(buildId, newFollowedLog);
+        newFollowedLog.completion = CompletableFuture.runAsync(
+                () -> followLog(buildId, podName, claimedBuild.get().logCursor(), newFollowedLog),
+                followerExecutor
+        );
+        log.info("[{}] Following log of pod {}", buildId, podName);
+    }
+
+    /**
+     * Wait until the log of a terminated builder pod has been fully stored
+     * <p>
+     * When the log is not followed by this host the remaining part of the log is read from the stored cursor
+     *
+     * @param buildId the identifier of the build
+     * @param podName the name of the builder pod
+     */
+    public void complete(String buildId, String podName) {
+        FollowedLog followedLog = followedLogs.remove(buildId);
+        if (followedLog != null) {
+            try {
+                followedLog.completion.get(COMPLETION_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                log.error("[{}] Log follower not completed in {}", buildId, COMPLETION_TIMEOUT);
+                followedLog.stop();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                followedLog.stop();
+            } catch (ExecutionException e) {
+                log.error("[{}] Log follower failed", buildId, e.getCause());
+            }
+            return;
+        }
+        // nobody is following the log on this host, catch up from the stored cursor
+        componentBuildService.claimLogFollower(buildId, hostName, Instant.now().minus(FOLLOWER_STALE_TIMEOUT))
+                .ifPresentOrElse(
+                        build -> readLog(buildId, podName, build.logCursor(), new FollowedLog()),
+                        () -> log.info("[{}] Log is completed by another host", buildId)
+                );
+    }
+
+    /**
+     * Stop following the log of a build
+     *
+     * @param buildId the identifier of the build
+     */
+    public void stop(String buildId) {
+        FollowedLog followedLog = followedLogs.remove(buildId);
+        if (followedLog != null) {
+            followedLog.stop();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        followedLogs.values().forEach(FollowedLog::stop);
+        followedLogs.clear();
+        followerExecutor.shutdownNow();
+        logFlushScheduler.shutdownNow();
+    }
+
+    /**
+     * Follow the log until the pod is terminated, reconnecting from the cursor when the stream drop
+     *
+     * @param buildId     the identifier of the build
+     * @param podName     the name of the builder pod
+     * @param logCursor   the timestamp of the last stored line
+     * @param followedLog the state of the follower
+     */
+    private void followLog(String buildId, String podName, String logCursor, FollowedLog followedLog) {
+        String cursor = logCursor;
+        try {
+            while (!followedLog.stopped) {
+                cursor = readLog(buildId, podName, cursor, followedLog);
+                if (followedLog.stopped) break;
+                if (isTerminated(podName)) {
+                    // read the tail that could have been lost if the stream dropped while the container was exiting
+                    readLog(buildId, podName, cursor, followedLog);
+                    break;
+                }
+                log.info("[{}] Log stream closed while pod is running, resuming from {}", buildId, cursor);
+                Thread.sleep(RECONNECT_DELAY.toMillis());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("[{}] Error following log", buildId, e);
+        }
+        log.info("[{}] Stopped following log of pod {}", buildId, podName);
+    }
+
+    /**
+     * Read the log from the cursor storing every new line
+     *
+     * @param buildId     the identifier of the build
+     * @param podName     the name of the builder pod
+     * @param logCursor   the timestamp of the last stored line, null or empty to read from the beginning
+     * @param followedLog the state of the follower
+     * @return the timestamp of the last stored line
+     */
+    private String readLog(String buildId, String podName, String logCursor, FollowedLog followedLog) {
+        String cursor = logCursor == null || logCursor.isEmpty() ? null : logCursor;
+        String storedCursor = cursor;
+        Instant lastCursorUpdate = Instant.now();
+        try (
+                BatchingLogWriter logWriter = new BatchingLogWriter(
+                        logChunkRepository,
+                        buildId,
+                        coreBuildProperties.getLogBatchMaxLines(),
+                        coreBuildProperties.getLogBatchMaxBytes(),
+                        Duration.ofMillis(coreBuildProperties.getLogBatchMaxDelayMs()),
+                        logFlushScheduler
+                )
+        ) {
+            // the lines flushed after the last update of the build cursor are stored with their own cursor
+            cursor = laterCursor(cursor, logWriter.getStoredLogCursor());
+            Instant cursorInstant = cursor == null ? null : Instant.parse(cursor);
+            try (
+                    LogWatch logWatch = kubernetesRepository.watchLog(
+                            coreBuildProperties.getK8sBuildNamespace(),
+                            podName,
+                            cursorInstant == null ? null : cursorInstant.truncatedTo(ChronoUnit.SECONDS).toString()
+                    )
+            ) {
+                followedLog.logWatch = logWatch;
+                Reader reader = new BufferedReader(new InputStreamReader(logWatch.getOutput(), StandardCharsets.UTF_8));
+                StringBuilder line = new StringBuilder();
+                while (!followedLog.stopped && readLine(reader, line)) {
+                    Instant timestamp = extractTimestamp(line);
+                    if (timestamp != null && cursorInstant != null && !timestamp.isAfter(cursorInstant)) {
+                        // already stored by a previous stream
+                        continue;
+                    }
+                    if (timestamp != null) {
+                        cursorInstant = timestamp;
+                        cursor = timestamp.toString();
+                    }
+                    logWriter.add(
+                            LogEntry.builder()
+                                    .buildId(buildId)
+                                    .timestamp(LocalDateTime.ofInstant(timestamp == null ? Instant.now() : timestamp, ZoneId.systemDefault()))
+                                    .log(timestamp == null ? line.toString() : line.substring(line.indexOf(" ") + 1))
+                                    .build(),
+                            timestamp == null ? null : cursor
+                    );
+                    if (Duration.between(lastCursorUpdate, Instant.now()).compareTo(CURSOR_UPDATE_INTERVAL) > 0) {
+                        // the cursor never moves past the stored lines
+                        logWriter.flush();
+                        applicationEventPublisher.publishEvent(new BuildLogAppendedEvent(buildId));
+                        componentBuildService.updateLogCursor(buildId, hostName, cursor);
+                        storedCursor = cursor;
+                        lastCursorUpdate = Instant.now();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if (!followedLog.stopped) {
+                log.error("[{}] Error reading log", buildId, e);
+            }
+        } finally {
+            followedLog.logWatch = null;
+        }
+        // here the writer is closed and all its lines are stored
+        applicationEventPublisher.publishEvent(new BuildLogAppendedEvent(buildId));
+        if (cursor != null && !cursor.equals(storedCursor)) {
+            componentBuildService.updateLogCursor(buildId, hostName, cursor);
+        }
+        return cursor;
+    }
+
+    /**
+     * Return the later of two log cursors
+     *
+     * @param cursor      a cursor, null if not known
+     * @param otherCursor another cursor, null if not known
+     * @return the later cursor, null if both are not known
+     */
+    private static String laterCursor(String cursor, String otherCursor) {
+        if (cursor == null) return otherCursor;
+        if (otherCursor == null) return cursor;
+        return Instant.parse(otherCursor).isAfter(Instant.parse(cursor)) ? otherCursor : cursor;
+    }
+
+    /**
+     * Confirm that the follower of this host is still alive
+     *
+     * @param buildId     the identifier of the build
+     * @param followedLog the state of the follower
+     */
+    private void keepAlive(String buildId, FollowedLog followedLog) {
+        if (Duration.between(followedLog.lastKeepAlive, Instant.now()).compareTo(FOLLOWER_KEEP_ALIVE_INTERVAL) < 0) {
+            return;
+        }
+        componentBuildService.updateLogCursor(buildId, hostName, null);
+        followedLog.lastKeepAlive = Instant.now();
+    }
+
+    /**
+     * Check if the builder pod is terminated or has been removed
+     *
+     * @param podName the name of the builder pod
+     * @return true if the pod is not running anymore
+     */
+    private boolean isTerminated(String podName) {
+        Pod pod = builderPodInformer.findBuilderPod(podName)
+                .orElseGet(() -> kubernetesRepository.getPod(coreBuildProperties.getK8sBuildNamespace(), podName).get());
+        return pod == null || BuilderPodInformer.podBuildStatus(pod) != BuildStatusDTO.IN_PROGRESS;
+    }
+
+    /**
+     * Extract the kubernetes timestamp that prefix the log line
+     *
+     * @param line The log line
+     * @return The timestamp, null if the line has not a valid timestamp
+     */
+    private static Instant extractTimestamp(CharSequence line) {
+        int separator = line.toString().indexOf(' ');
+        if (separator <= 0) return null;
+        try {
+            return Instant.parse(line.subSequence(0, separator));
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Read a line keeping at most {@link #MAX_LINE_LENGTH} characters, the exceeding ones are discarded
+     *
+     * @param reader the reader
+     * @param line   the buffer where the line is read
+     * @return false when the end of the stream has been reached without reading anything
+     */
+    private static boolean readLine(Reader reader, StringBuilder line) throws IOException {
+        line.setLength(0);
+        boolean read = false;
+        int c;
+        while ((c = reader.read()) != -1) {
+            read = true;
+            if (c == '\n') return true;
+            if (c != '\r' && line.length() < MAX_LINE_LENGTH) {
+                line.append((char) c);
+            }
+        }
+        return read;
+    }
+
+    private static String localHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException("Cannot resolve the local host name", e);
+        }
+    }
+
+    /**
+     * The state of the log following of a build on this host
+     */
+    private static class FollowedLog {
+        private volatile CompletableFuture<Void> completion = CompletableFuture.completedFuture(null);
+        private volatile LogWatch logWatch;
+        private volatile boolean stopped = false;
+        private volatile Instant lastKeepAlive = Instant.now();
+
+        void stop() {
+            stopped = true;
+            LogWatch currentLogWatch = logWatch;
+            if (currentLogWatch != null) {
+                currentLogWatch.close();
+            }
+            completion.cancel(true);
+        }
+    }
+}
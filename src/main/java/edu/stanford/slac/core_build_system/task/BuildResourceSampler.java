@@ -0,0 +1,64 @@
+package edu.stanford.slac.core_build_system.task;
+
+import edu.stanford.slac.core_build_system.config.CoreBuildProperties;
+import edu.stanford.slac.core_build_system.repository.KubernetesRepository;
+import edu.stanford.slac.core_build_system.service.ComponentBuildService;
+import io.fabric8.kubernetes.api.model.Pod;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Sample the resources used by the running builder pods from the metrics server
+ * <p>
+ * Each build keeps the peak cpu and memory of its pod, the history is used by the autosizer to size the
+ * next builds of the same component. The metrics server is optional, without it the builds have no usage
+ * and keep the configured resources.
+ */
+@Log4j2
+@Component
+@RequiredArgsConstructor
+public class BuildResourceSampler {
+    private final CoreBuildProperties coreBuildProperties;
+    private final KubernetesRepository kubernetesRepository;
+    private final BuilderPodInformer builderPodInformer;
+    private final ComponentBuildService componentBuildService;
+    private volatile boolean metricsAvailable = true;
+
+    /**
+     * Record the current usage of every builder pod on its build
+     */
+    @Scheduled(
+            initialDelayString = "${edu.stanford.slac.core-build-system.resource-sample-interval-ms:15000}",
+            fixedDelayString = "${edu.stanford.slac.core-build-system.resource-sample-interval-ms:15000}"
+    )
+    public void sample() {
+        Map<String, KubernetesRepository.PodResourceUsage> podUsages;
+        try {
+            podUsages = kubernetesRepository.getPodResourceUsage(coreBuildProperties.getK8sBuildNamespace());
+            if (!metricsAvailable) log.info("Metrics server available, sampling the builder pods");
+            metricsAvailable = true;
+        } catch (Exception e) {
+            // log only the first failure, the metrics server can be missing on the cluster
+            if (metricsAvailable) log.warn("Cannot read the builder pod metrics: {}", e.getMessage());
+            metricsAvailable = false;
+            return;
+        }
+        podUsages.forEach(
+                (podName, usage) -> builderPodInformer.findBuilderPod(podName)
+                        .map(Pod::getMetadata)
+                        .filter(metadata -> metadata.getLabels() != null)
+                        .map(metadata -> metadata.getLabels().get(KubernetesRepository.BUILD_ID_LABEL))
+                        .ifPresent(buildId -> {
+                            try {
+                                componentBuildService.recordResourceUsage(buildId, usage.cpuMillis(), usage.memoryBytes());
+                            } catch (Exception e) {
+                                log.error("[{}] Error recording the resource usage", buildId, e);
+                            }
+                        })
+        );
+    }
+}
@@ -0,0 +1,10 @@
+package edu.stanford.slac.core_build_system.task;
+
+/**
+ * Published when a build need to be processed without waiting for the next dispatcher tick
+ *
+ * @param buildId the identifier of the build that need attention, null when not related to a single build
+ * @param reason  the reason of the wake-up, used for logging
+ */
+public record BuildWakeUpEvent(String buildId, String reason) {
+}
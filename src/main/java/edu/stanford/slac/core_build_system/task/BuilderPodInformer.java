@@ -0,0 +1,214 @@
+package edu.stanford.slac.core_build_system.task;
+
+import edu.stanford.slac.core_build_system.api.v1.dto.BuildStatusDTO;
+import edu.stanford.slac.core_build_system.config.CoreBuildProperties;
+import edu.stanford.slac.core_build_system.repository.KubernetesRepository;
+import edu.stanford.slac.core_build_system.service.ComponentBuildService;
+import io.fabric8.kubernetes.api.model.ContainerStateTerminated;
+import io.fabric8.kubernetes.api.model.ContainerStatus;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.client.informers.ResourceEventHandler;
+import io.fabric8.kubernetes.client.informers.SharedIndexInformer;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Optional;
+
+import static edu.stanford.slac.core_build_system.api.v1.dto.BuildStatusDTO.*;
+
+/**
+ * Keep an in memory view of the builder pods using a kubernetes informer
+ * <p>
+ * The pod termination events are pushed to the build record so the dispatcher advance the build
+ * as soon as the pod complete, and the pod status is read from the informer cache instead of
+ * asking the api server for each build.
+ */
+@Log4j2
+@Component
+@RequiredArgsConstructor
+public class BuilderPodInformer implements ResourceEventHandler<Pod> {
+    private final CoreBuildProperties coreBuildProperties;
+    private final KubernetesRepository kubernetesRepository;
+    private final ComponentBuildService componentBuildService;
+    private final ApplicationEventPublisher applicationEventPublisher;
+    private volatile SharedIndexInformer<Pod> informer;
+
+    /**
+     * Start the informer on the builder pods
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        try {
+            informer = kubernetesRepository.podInformer(
+                    coreBuildProperties.getK8sBuildNamespace(),
+                    KubernetesRepository.BUILD_ID_LABEL,
+                    this
+            );
+            informer.start().whenComplete(
+                    (v, e) -> {
+                        if (e != null) {
+                            log.error("Builder pod informer failed to start", e);
+                        } else {
+                            log.info("Builder pod informer started on namespace {}", coreBuildProperties.getK8sBuildNamespace());
+                        }
+                    }
+            );
+        } catch (Exception e) {
+            log.error("Error creating the builder pod informer", e);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (informer != null) {
+            informer.stop();
+        }
+    }
+
+    /**
+     * Find a builder pod in the informer cache
+     *
+     * @param podName the name of the pod
+     * @return the pod, empty if the cache is not synced or the pod is not present
+     */
+    public Optional<Pod> findBuilderPod(String podName) {
+        SharedIndexInformer<Pod> currentInformer = informer;
+        if (currentInformer == null || !currentInformer.hasSynced()) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(
+                currentInformer.getStore().getByKey("%s/%s".formatted(coreBuildProperties.getK8sBuildNamespace(), podName))
+        );
+    }
+
+    /**
+     * Get a builder pod from the informer cache, the api server is queried only when the pod is not present in
+     * the cache (informer not yet synced or pod event not yet received)
+     *
+     * @param podName the name of the pod
+     * @return the pod, empty if it does not exist
+     */
+    public Optional<Pod> getBuilderPod(String podName) {
+        Optional<Pod> cachedPod = findBuilderPod(podName);
+        if (cachedPod.isPresent()) return cachedPod;
+        log.info("Pod {} not found in the informer cache, fetching it", podName);
+        return Optional.ofNullable(
+                kubernetesRepository.getPod(coreBuildProperties.getK8sBuildNamespace(), podName).get()
+        );
+    }
+
+    /**
+     * List the builder pods in the informer cache
+     *
+     * @return the pods, empty if the cache is not synced
+     */
+    public List<Pod> listBuilderPods() {
+        SharedIndexInformer<Pod> currentInformer = informer;
+        if (currentInformer == null || !currentInformer.hasSynced()) {
+            return List.of();
+        }
+        return currentInformer.getStore().list();
+    }
+
+    @Override
+    public void onAdd(Pod pod) {
+        notifyIfTerminated(pod);
+    }
+
+    @Override
+    public void onUpdate(Pod oldPod, Pod newPod) {
+        if (podBuildStatus(oldPod) != IN_PROGRESS) return;
+        notifyIfTerminated(newPod);
+    }
+
+    @Override
+    public void onDelete(Pod pod, boolean deletedFinalStateUnknown) {
+        notifyBuild(pod, "builder pod deleted");
+    }
+
+    /**
+     * Compute the build status from the state of the builder pod container
+     *
+     * @param pod the builder pod
+     * @return the status of the build
+     */
+    static public BuildStatusDTO podBuildStatus(Pod pod) {
+        if (pod == null || pod.getStatus() == null) {
+            return IN_PROGRESS;
+        }
+        List<ContainerStatus> containerStatuses = pod.getStatus().getContainerStatuses();
+        if (containerStatuses == null || containerStatuses.size() != 1 || containerStatuses.getFirst().getState() == null) {
+            return IN_PROGRESS;
+        }
+        ContainerStateTerminated terminated = containerStatuses.getFirst().getState().getTerminated();
+        if (terminated == null) {
+            return IN_PROGRESS;
+        }
+        return "Completed".equalsIgnoreCase(terminated.getReason()) ? SUCCESS : FAILED;
+    }
+
+    /**
+     * Check if the builder container has been killed for exceeding its memory limit
+     *
+     * @param pod the builder pod
+     * @return true if the container has been oom killed
+     */
+    static public boolean isOomKilled(Pod pod) {
+        if (pod == null || pod.getStatus() == null || pod.getStatus().getContainerStatuses() == null) {
+            return false;
+        }
+        return pod.getStatus().getContainerStatuses().stream()
+                .map(ContainerStatus::getState)
+                .filter(state -> state != null && state.getTerminated() != null)
+                .anyMatch(state -> "OOMKilled".equalsIgnoreCase(state.getTerminated().getReason()));
+    }
+
+    private void notifyIfTerminated(Pod pod) {
+        if (podBuildStatus(pod) == IN_PROGRESS) return;
+        if (isOomKilled(pod)) {
+            recordOomKilled(pod);
+        }
+        notifyBuild(pod, "builder pod terminated");
+    }
+
+    /**
+     * Record on the build that the builder was killed for memory, so the next build get more memory
+     *
+     * @param pod the builder pod
+     */
+    private void recordOomKilled(Pod pod) {
+        String buildId = pod.getMetadata().getLabels() == null ? null : pod.getMetadata().getLabels().get(KubernetesRepository.BUILD_ID_LABEL);
+        if (buildId == null) return;
+        try {
+            componentBuildService.markOomKilled(buildId);
+            log.info("[{}] Builder pod killed for exceeding its memory limit", buildId);
+        } catch (Exception e) {
+            log.error("[{}] Error recording the oom kill of the builder pod", buildId, e);
+        }
+    }
+
+    /**
+     * Push the pod transition into the build so it is processed immediately
+     *
+     * @param pod    the builder pod
+     * @param reason the reason of the notification
+     */
+    private void notifyBuild(Pod pod, String reason) {
+        String buildId = pod.getMetadata().getLabels() == null ? null : pod.getMetadata().getLabels().get(KubernetesRepository.BUILD_ID_LABEL);
+        if (buildId == null) return;
+        try {
+            if (componentBuildService.expediteProcessing(buildId)) {
+                log.info("[{}] {}, build expedited", buildId, reason);
+                applicationEventPublisher.publishEvent(new BuildWakeUpEvent(buildId, reason));
+            }
+        } catch (Exception e) {
+            log.error("[{}] Error expediting build on pod event", buildId, e);
+        }
+    }
+}
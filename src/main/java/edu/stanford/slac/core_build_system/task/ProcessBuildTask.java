@@ -3,35 +3,20 @@ package edu.stanford.slac.core_build_system.task;
 import edu.stanford.slac.core_build_system.api.v1.dto.BuildStatusDTO;
 import edu.stanford.slac.core_build_system.api.v1.dto.ComponentBranchBuildDTO;
 import edu.stanford.slac.core_build_system.api.v1.dto.ComponentDTO;
-import edu.stanford.slac.core_build_system.api.v1.mapper.ComponentMapper;
+import edu.stanford.slac.core_build_system.api.v1.mapper.ComponentBranchBuildMapper;
 import edu.stanford.slac.core_build_system.config.CoreBuildProperties;
 import edu.stanford.slac.core_build_system.model.BuildInfo;
 import edu.stanford.slac.core_build_system.model.K8SPodBuilder;
-import edu.stanford.slac.core_build_system.model.LogEntry;
-import edu.stanford.slac.core_build_system.repository.GitServerRepository;
 import edu.stanford.slac.core_build_system.repository.KubernetesRepository;
-import edu.stanford.slac.core_build_system.repository.LogEntryRepository;
 import edu.stanford.slac.core_build_system.service.ComponentBuildService;
 import edu.stanford.slac.core_build_system.service.ComponentService;
-import io.fabric8.kubernetes.api.model.ContainerStatus;
+import edu.stanford.slac.core_build_system.service.SharedCheckoutService;
 import io.fabric8.kubernetes.api.model.Pod;
-import io.fabric8.kubernetes.client.dsl.LogWatch;
-import io.fabric8.kubernetes.client.dsl.PodResource;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.log4j.Log4j2;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.nio.file.DirectoryStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.text.ParseException;
-import java.time.LocalDateTime;
 import java.util.*;
 
 import static com.google.common.collect.ImmutableList.of;
@@ -42,29 +27,24 @@ import static edu.stanford.slac.core_build_system.api.v1.dto.BuildStatusDTO.*;
 @Component
 @RequiredArgsConstructor
 public class ProcessBuildTask {
-    private final ComponentMapper componentMapper;
+    private static final String BUILD_SCRIPT = "printenv; ls -la $ADBS_SOURCE;python3 /build/start_build.py";
+    // the writable layer is a copy of the shared sources, copy-on-write where the file system support it
+    private static final String COPY_SHARED_SOURCE = "(cp -a --reflink=auto $ADBS_SHARED_SOURCE/. $ADBS_SOURCE/ 2>/dev/null || cp -a $ADBS_SHARED_SOURCE/. $ADBS_SOURCE/) && ";
+    private static final Set<BuildStatusDTO> TERMINAL_STATUS = EnumSet.of(SUCCESS, FAILED, STOPPED);
     private final CoreBuildProperties coreBuildProperties;
+    private final ComponentBranchBuildMapper componentBranchBuildMapper;
     private final KubernetesRepository kubernetesRepository;
     private final ComponentService componentService;
     private final ComponentBuildService componentBuildService;
-    private final LogEntryRepository logEntryRepository;
-    private final GitServerRepository gitServerRepository;
+    private final BuilderPodInformer builderPodInformer;
+    private final BuildLogFollower buildLogFollower;
+    private final SharedCheckoutService sharedCheckoutService;
+    private final SourcePreparer sourcePreparer;
+    private final BuildAdmissionController buildAdmissionController;
+    private final BuildLeaseKeeper buildLeaseKeeper;
     private final Stack<Pod> loggingPod = new Stack<>();
 
 
-    @Scheduled(fixedDelay = 2000)  // Runs every 5 seconds
-    @Transactional
-    public void performTask() {
-        log.debug("Start processing build task");
-        Optional<ComponentBranchBuildDTO> documentToProcess = componentBuildService.getNextBuildToProcess();
-        if (documentToProcess.isEmpty()) {
-            log.debug("No build to process");
-            return;
-        }
-        // manage the build in the executor service
-        processBuild(documentToProcess.get());
-    }
-
     /**
      * Process the build
      *
@@ -79,38 +59,50 @@ public class ProcessBuildTask {
         BuildStatusDTO newStatus = PENDING;
         String logPrefix = "[%s-%s-%s-%s]".formatted(buildToProcess.componentId(), component.name(), buildToProcess.branchName(), buildToProcess.buildOs());
         log.info("{} Start processing", logPrefix);
+        // the lock is renewed while the build is processed
+        buildLeaseKeeper.hold(buildToProcess.id(), buildToProcess.lockToken());
         try {
             BuildStatusDTO buildStatus = buildToProcess.buildStatus();
             switch (buildStatus) {
                 case PENDING:
                     log.info("{} Build is pending", logPrefix);
-                    BuildInfo buildInfo = spinPodForBuild(logPrefix, component, buildToProcess);
-                    componentBuildService.updateBuildInfo(buildToProcess.id(), buildInfo);
-                    // spin-up the pod
-                    newStatus = IN_PROGRESS;
+                    // the sources are downloaded in background, the pod is created when they are ready
+                    if (sourcePreparer.prepare(component, buildToProcess)) {
+                        newStatus = PREPARING;
+                    }
+                    break;
+                case PREPARING: {
+                    newStatus = PREPARING;
+                    if (buildToProcess.preparationError() != null) {
+                        log.error("{} Sources preparation failed: {}", logPrefix, buildToProcess.preparationError());
+                        newStatus = FAILED;
+                    } else if (buildToProcess.buildInfo() != null && buildToProcess.buildInfo().scratchLocation() != null) {
+                        log.info("{} Sources are ready", logPrefix);
+                        newStatus = startIfAdmitted(logPrefix, component, buildToProcess);
+                    } else if (!sourcePreparer.isPreparing(buildToProcess.id())) {
+                        // take over the preparation if the host that was doing it is dead
+                        sourcePreparer.prepare(component, buildToProcess);
+                    } else {
+                        log.info("{} Sources are still being prepared", logPrefix);
+                    }
+                    break;
+                }
+                case QUEUED:
+                    log.info("{} Build is queued", logPrefix);
+                    newStatus = startIfAdmitted(logPrefix, component, buildToProcess);
                     break;
                 case IN_PROGRESS: {
                     log.info("{} Build is in progress", logPrefix);
                     BuildStatusDTO podStatus = getPodStatus(logPrefix, buildToProcess);
                     if (podStatus == IN_PROGRESS) {
                         newStatus = IN_PROGRESS;
-                        PodResource foundPod = kubernetesRepository.getPod(
-                                coreBuildProperties.getK8sBuildNamespace(),
-                                buildToProcess.buildInfo().builderName()
-                        );
-                        List<ContainerStatus> containerStatus = new ArrayList<>();
-                        String containerLog = "";
-                        try {
-                            containerStatus = foundPod.get().getStatus().getContainerStatuses();
-                            containerLog = foundPod.getLog();
-                        } catch (Exception e) {
-                            log.error("{} Error getting container status or log: {}", logPrefix, e);
-                        }
-                        log.info("{} Build is still in progress ->\n{}\n{}", logPrefix, containerStatus, containerLog);
+                        // restart the log follower if it was lost, it resumes from the stored cursor
+                        buildLogFollower.follow(buildToProcess.id(), buildToProcess.buildInfo().builderName());
+                        log.info("{} Build is still in progress", logPrefix);
                         return;
                     } else {
-                        // store the log before switching the status
-                        storeLog(logPrefix, buildToProcess);
+                        // wait for the remaining log to be stored before switching the status
+                        buildLogFollower.complete(buildToProcess.id(), buildToProcess.buildInfo().builderName());
                         newStatus = podStatus;
                         if (podStatus == BuildStatusDTO.SUCCESS) {
                             log.info("{} Build is completed", logPrefix);
@@ -128,13 +120,16 @@ public class ProcessBuildTask {
                     break;
                 case STOP_REQUESTED:  {
                     log.info("{} Stop requested", logPrefix);
+                    sourcePreparer.cancel(buildToProcess.id());
                     BuildStatusDTO podStatus = getPodStatus(logPrefix, buildToProcess);
                     if (podStatus == IN_PROGRESS) {
                         stopPod(logPrefix, buildToProcess);
+                        buildLogFollower.stop(buildToProcess.id());
                         newStatus = STOPPED;
                     } else if(podStatus == PENDING) {
                         newStatus = STOPPED;
                     }else {
+                        buildLogFollower.complete(buildToProcess.id(), buildToProcess.buildInfo().builderName());
                         newStatus = podStatus;
                     }
                 }
@@ -150,36 +145,86 @@ public class ProcessBuildTask {
             log.error("{} Error processing build", logPrefix, e);
         } finally {
             // release lock on build
-            boolean lockReleased = componentBuildService.releaseLock(buildToProcess.id(), newStatus);
+            buildLeaseKeeper.drop(buildToProcess.id());
+            boolean lockReleased = componentBuildService.releaseLock(buildToProcess.id(), buildToProcess.lockToken(), newStatus);
             if (lockReleased) {
                 log.info("{} Lock released", logPrefix);
             } else {
-                log.error("{} Lock not released", logPrefix);
+                log.error("{} Lock not released, it has been taken by another worker", logPrefix);
+            }
+            if (buildToProcess.sharedCheckoutId() != null && TERMINAL_STATUS.contains(newStatus)) {
+                releaseSharedCheckout(logPrefix, buildToProcess);
             }
         }
 
     }
 
+    /**
+     * Create the builder pod if the cluster has the capacity for it
+     * <p>
+     * A failure of the admission or of the pod creation leaves the build queued, it is admitted again at the next
+     * processing
+     *
+     * @param comp           The component to build
+     * @param buildToProcess The build, with the location of the prepared sources
+     * @return IN_PROGRESS if the pod has been created, QUEUED if the build need to wait or the pod cannot be created
+     */
+    private BuildStatusDTO startIfAdmitted(String logPrefix, ComponentDTO comp, ComponentBranchBuildDTO buildToProcess) {
+        try {
+            return createPodIfAdmitted(logPrefix, comp, buildToProcess);
+        } catch (Exception e) {
+            log.error("{} Error creating the builder pod, the build stays queued", logPrefix, e);
+            buildAdmissionController.release(buildToProcess.id());
+            return QUEUED;
+        }
+    }
+
+    private BuildStatusDTO createPodIfAdmitted(String logPrefix, ComponentDTO comp, ComponentBranchBuildDTO buildToProcess) throws Exception {
+        if (!buildAdmissionController.admit(buildToProcess.id(), componentBranchBuildMapper.toModel(buildToProcess.resourceProfile()))) {
+            log.info("{} Waiting for the cluster capacity", logPrefix);
+            return QUEUED;
+        }
+        if (!buildLeaseKeeper.isHeld(buildToProcess.id(), buildToProcess.lockToken())) {
+            log.warn("{} Lock lost, the pod is left to the new owner of the build", logPrefix);
+            buildAdmissionController.release(buildToProcess.id());
+            return QUEUED;
+        }
+        BuildInfo buildInfo = spinPodForBuild(logPrefix, comp, buildToProcess);
+        if (!componentBuildService.updateBuildInfo(buildToProcess.id(), buildToProcess.lockToken(), buildInfo)) {
+            // the lock has been lost while the pod was created, the new owner creates its own pod
+            log.warn("{} Lock lost, deleting the pod {}", logPrefix, buildInfo.getBuilderName());
+            wrapCatch(
+                    () -> kubernetesRepository.deletePod(coreBuildProperties.getK8sBuildNamespace(), buildInfo.getBuilderName()),
+                    -1
+            );
+            return QUEUED;
+        }
+        // start storing the log while the build is running
+        buildLogFollower.follow(buildToProcess.id(), buildInfo.getBuilderName());
+        return IN_PROGRESS;
+    }
+
     /**
      * Get the status of the pod
+     * <p>
+     * The pod is read from the informer cache, the api server is queried only when the pod is not
+     * present in the cache (informer not yet synced or pod event not yet received)
      *
      * @param buildToProcess The build to process
      * @return The status of the pod
      */
     private BuildStatusDTO getPodStatus(String logPrefix, ComponentBranchBuildDTO buildToProcess) {
-        if(buildToProcess.buildInfo() == null) {
+        if(buildToProcess.buildInfo() == null || buildToProcess.buildInfo().builderName() == null) {
+            // the pod has not been created yet
             return PENDING;
         }
         log.info("{} Getting pod status", logPrefix);
-        PodResource foundPod = kubernetesRepository.getPod(
-                coreBuildProperties.getK8sBuildNamespace(),
-                buildToProcess.buildInfo().builderName()
-        );
-        boolean terminated = foundPod.get().getStatus().getContainerStatuses().size() == 1 &&
-                !foundPod.get().getStatus().getContainerStatuses().isEmpty() &&
-                foundPod.get().getStatus().getContainerStatuses().getFirst().getState().getTerminated() != null;
-        boolean success = terminated && foundPod.get().getStatus().getContainerStatuses().getFirst().getState().getTerminated().getReason().compareToIgnoreCase("Completed") == 0;
-        return terminated && success ? BuildStatusDTO.SUCCESS : (terminated ? BuildStatusDTO.FAILED : IN_PROGRESS);
+        Pod foundPod = builderPodInformer.getBuilderPod(buildToProcess.buildInfo().builderName()).orElse(null);
+        if (foundPod == null) {
+            log.error("{} Pod {} not found", logPrefix, buildToProcess.buildInfo().builderName());
+            return BuildStatusDTO.FAILED;
+        }
+        return BuilderPodInformer.podBuildStatus(foundPod);
     }
 
     /**
@@ -197,88 +242,16 @@ public class ProcessBuildTask {
     }
 
     /**
-     * Get the container status of the pod
-     *
-     * @param buildToProcess The build to process
-     * @return The container status of the pod
-     */
-    private List<ContainerStatus> getPodContainerStatus(String logPrefix, ComponentBranchBuildDTO buildToProcess) {
-        log.info("{} Getting pod container status", logPrefix);
-        PodResource foundPod = kubernetesRepository.getPod(
-                coreBuildProperties.getK8sBuildNamespace(),
-                buildToProcess.buildInfo().builderName()
-        );
-        return foundPod.get().getStatus().getContainerStatuses();
-    }
-
-    /**
-     * Store the log of the build
-     *
-     * @param buildToProcess The build to process
-     */
-    private void storeLog(String logPrefix, ComponentBranchBuildDTO buildToProcess) {
-        log.info("{} Storing log for build {}", logPrefix, buildToProcess);
-        PodResource foundPod = kubernetesRepository.getPod(
-                coreBuildProperties.getK8sBuildNamespace(),
-                buildToProcess.buildInfo().builderName()
-        );
-
-        try (LogWatch logWatch = foundPod.watchLog()) {
-            BufferedReader reader = new BufferedReader(new InputStreamReader(logWatch.getOutput()));
-            String line;
-            while ((line = reader.readLine()) != null) {
-                LocalDateTime timestamp = extractTimestamp(line);
-                String logLine = removeTimestamp(line);
-                LogEntry entry = LogEntry.builder().buildId(buildToProcess.id()).timestamp(timestamp).log(logLine).build();
-                log.debug("{} Storing log entry: {}", logPrefix, entry);
-                logEntryRepository.save(entry);
-            }
-        } catch (IOException | ParseException e) {
-            log.error("{} Error storing log: {}", logPrefix, e);
-        }
-    }
-
-    /**
-     * Extract the timestamp from the log line
-     *
-     * @param logLine The log line
-     * @return The timestamp
-     */
-    private LocalDateTime extractTimestamp(String logLine) throws ParseException {
-//        Pattern pattern = Pattern.compile("^\\[(.*?)\\]");
-//        Matcher matcher = pattern.matcher(logLine);
-//        if (matcher.find()) {
-//            String timestampStr = matcher.group(1);
-//            // Adjust the date format to match your log's timestamp format
-//            DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
-//            return LocalDateTime.parse(timestampStr, formatter);
-//        } else {
-        return LocalDateTime.now();
-//        }
-    }
-
-    /**
-     * Remove the timestamp from the log line
-     *
-     * @param logLine The log line
-     * @return The log line without the timestamp
-     */
-    private static String removeTimestamp(String logLine) {
-        return logLine.replaceFirst("^\\[.*?\\]\\s*", "");
-    }
-
-    /**
-     * Spin up a pod for the build
+     * Spin up a pod for the build on the prepared sources
      *
      * @param comp                    The component to build
-     * @param componentBranchBuildDTO The branch to build
+     * @param componentBranchBuildDTO The branch to build, with the location of the prepared sources
      * @return The name of the pod
      */
     public BuildInfo spinPodForBuild(String logPrefix, ComponentDTO comp, ComponentBranchBuildDTO componentBranchBuildDTO) throws Exception {
-        // ensure scratch directory nd download  the source code
-        // it return the relative path from root scratch directory setting
-        log.info("{} Downloaded spin-up pod", logPrefix);
-        String scratchLocation = downloadRepository(logPrefix, comp, componentBranchBuildDTO);
+        // the locations are relative to the root scratch directory setting
+        String scratchLocation = componentBranchBuildDTO.buildInfo().scratchLocation();
+        String sharedLocation = componentBranchBuildDTO.buildInfo().sharedLocation();
         log.info("{} Spinning up pod for build", logPrefix);
 
         // we have branch
@@ -288,7 +261,7 @@ public class ProcessBuildTask {
                                 .namespace(coreBuildProperties.getK8sBuildNamespace())
                                 .dockerImage(componentBranchBuildDTO.buildImageUrl())
                                 .buildCommand(of("sh", "-c"))
-                                .buildArgs(of("printenv; ls -la $ADBS_SOURCE;python3 /build/start_build.py"))
+                                .buildArgs(of(sharedLocation == null ? BUILD_SCRIPT : COPY_SHARED_SOURCE + BUILD_SCRIPT))
                                 .builderName
                                         (
                                                 "%s-%s-%s-%s".formatted(
@@ -299,12 +272,16 @@ public class ProcessBuildTask {
 
                                         )
                                 .mountLocation("/mnt")
+                                .resourceProfile(componentBranchBuildMapper.toModel(componentBranchBuildDTO.resourceProfile()))
+                                .readOnlySubPaths(
+                                        sharedLocation == null ? null : of(parentLocation(sharedLocation).substring(1))
+                                )
                                 .label(
                                         Map.of(
-                                                "cbs-build-d", componentBranchBuildDTO.id()
+                                                KubernetesRepository.BUILD_ID_LABEL, componentBranchBuildDTO.id()
                                         )
                                 )
-                                .envVars(getVariables(comp, componentBranchBuildDTO, scratchLocation))
+                                .envVars(getVariables(comp, componentBranchBuildDTO, scratchLocation, sharedLocation))
                                 .build()
                 ),
                 -5
@@ -312,6 +289,7 @@ public class ProcessBuildTask {
         return BuildInfo.builder()
                 .builderName(newlyCretedPod.getMetadata().getName())
                 .scratchLocation(scratchLocation)
+                .sharedLocation(sharedLocation)
                 .build();
     }
 
@@ -321,9 +299,10 @@ public class ProcessBuildTask {
      * @param comp                    The component
      * @param componentBranchBuildDTO The branch to build
      * @param scratchLocation         The scratch location
+     * @param sharedLocation          The location of the shared read-only sources, null if the sources are in the scratch location
      * @return The variables for the build
      */
-    private static Map<String, String> getVariables(ComponentDTO comp, ComponentBranchBuildDTO componentBranchBuildDTO, String scratchLocation) {
+    private static Map<String, String> getVariables(ComponentDTO comp, ComponentBranchBuildDTO componentBranchBuildDTO, String scratchLocation, String sharedLocation) {
         Map<String, String> customVariables = Objects.requireNonNullElse
                 (
                         componentBranchBuildDTO.buildCustomVariables(),
@@ -336,65 +315,32 @@ public class ProcessBuildTask {
         customVariables.put("ADBS_LINUX_USER", "");
         customVariables.put("ADBS_GH_USER", "");
         customVariables.put("ADBS_SOURCE", "/mnt%s".formatted(scratchLocation));
+        if (sharedLocation != null) {
+            customVariables.put("ADBS_SHARED_SOURCE", "/mnt%s".formatted(sharedLocation));
+        }
         customVariables.put("ADBS_BUILD_COMMAND", (comp.buildInstructions() == null ? "" : comp.buildInstructions()));
         return customVariables;
     }
 
     /**
-     * Download the repository, using the real fs path
+     * Release the shared checkout for a terminated build
      *
      * @param logPrefix
-     * @param comp                    The component
-     * @param componentBranchBuildDTO The branch to build
-     * @throws Exception if there is an error
+     * @param componentBranchBuildDTO The build
      */
-    private String downloadRepository(String logPrefix, ComponentDTO comp, ComponentBranchBuildDTO componentBranchBuildDTO) throws Exception {
-        log.info("{} Composing scratch directory", logPrefix);
-        String scratchFSDirectory = coreBuildProperties.getBuildFsRootDirectory();
-        String scratchBuildFolderName = "%s/%s-%s-%s-%s/%s".formatted(
-                coreBuildProperties.getBuildScratchRootDirectory(),
-                comp.name(),
-                componentBranchBuildDTO.branchName(),
-                componentBranchBuildDTO.buildOs(),
-                componentBranchBuildDTO.id(),
-                comp.name());
-        String sourceBuildAbsolutePath = "%s/%s".formatted(
-                scratchFSDirectory,
-                scratchBuildFolderName);
-        Path path = Paths.get(sourceBuildAbsolutePath);
-        log.info("{} Using '{}' directory to build component", logPrefix, sourceBuildAbsolutePath);
-        if (Files.notExists(path)) {
-            log.info("{} Directory does not exist, creating: {}", logPrefix, path);
-            Files.createDirectories(path);
-        } else {
-            log.info("{} Directory exists, deleting contents: {}", logPrefix, path);
-            deleteDirectoryAndContents(path);
-            Files.createDirectories(path);
+    private void releaseSharedCheckout(String logPrefix, ComponentBranchBuildDTO componentBranchBuildDTO) {
+        try {
+            sharedCheckoutService.release(componentBranchBuildDTO.sharedCheckoutId(), componentBranchBuildDTO.id());
+        } catch (Exception e) {
+            log.error("{} Error releasing the shared checkout {}", logPrefix, componentBranchBuildDTO.sharedCheckoutId(), e);
         }
-        log.info("{} Downloading repository", logPrefix);
-        String repositoryPath = gitServerRepository.downLoadRepository(componentMapper.toModel(comp), componentBranchBuildDTO.branchName(), path.toString());
-        log.info("{} Repository downloaded to {}", logPrefix, repositoryPath);
-        return repositoryPath.substring(scratchFSDirectory.length());
     }
 
     /**
-     * Delete the contents of a directory
-     *
-     * @param path The path to the directory
-     * @throws IOException if there is an error
+     * Return the parent of a location
      */
-    private static void deleteDirectoryAndContents(Path path) throws IOException {
-        if (Files.exists(path)) {
-            try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(path)) {
-                for (Path entry : directoryStream) {
-                    if (Files.isDirectory(entry)) {
-                        deleteDirectoryAndContents(entry);
-                    } else {
-                        Files.delete(entry);
-                    }
-                }
-            }
-            Files.delete(path); // Delete the directory itself
-        }
+    private static String parentLocation(String location) {
+        return location.substring(0, location.lastIndexOf('/'));
     }
+
 }
@@ -0,0 +1,252 @@
+package edu.stanford.slac.core_build_system.task;
+
+import edu.stanford.slac.core_build_system.config.CoreBuildProperties;
+import edu.stanford.slac.core_build_system.service.ComponentBuildService;
+import edu.stanford.slac.core_build_system.service.SharedCheckoutService;
+import edu.stanford.slac.core_build_system.utility.FileTreeUtility;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.bson.types.ObjectId;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Reclaim the scratch space of the terminated builds
+ * <p>
+ * The scratch root contains a directory for each build, named after the build identifier, and the shared
+ * checkouts of the triggers, named after the checkout identifier. A directory whose build is terminated, or
+ * whose checkout is no longer registered, is deleted when it is older than the maximum age, when there are
+ * more terminated directories than the maximum count, or, the oldest first, while the scratch space is over
+ * its quota. The directories are measured and deleted by a pool of low priority threads, so the collection
+ * does not compete with the builds for the cpu.
+ */
+@Log4j2
+@Component
+public class ScratchGarbageCollector {
+    private static final String SHARED_DIRECTORY = "shared";
+    private static final String TEMPORARY_CHECKOUT_SEPARATOR = ".tmp-";
+    private final CoreBuildProperties coreBuildProperties;
+    private final ComponentBuildService componentBuildService;
+    private final SharedCheckoutService sharedCheckoutService;
+    private final ExecutorService gcExecutor;
+    private final Counter reclaimedBytes;
+    private final Counter deletedDirectories;
+    private final AtomicLong scratchUsageBytes = new AtomicLong();
+
+    public ScratchGarbageCollector(
+            CoreBuildProperties coreBuildProperties,
+            ComponentBuildService componentBuildService,
+            SharedCheckoutService sharedCheckoutService,
+            MeterRegistry meterRegistry) {
+        this.coreBuildProperties = coreBuildProperties;
+        this.componentBuildService = componentBuildService;
+        this.sharedCheckoutService = sharedCheckoutService;
+        this.gcExecutor = Executors.newFixedThreadPool(
+                Math.max(1, coreBuildProperties.getScratchGcWorkers()),
+                Thread.ofPlatform().name("scratch-gc-", 0).priority(Thread.MIN_PRIORITY).daemon().factory()
+        );
+        reclaimedBytes = Counter.builder("cbs.scratch.gc.reclaimed.bytes")
+                .description("Bytes of scratch space reclaimed from the terminated builds")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        deletedDirectories = Counter.builder("cbs.scratch.gc.deleted.directories")
+                .description("Number of scratch directories deleted")
+                .register(meterRegistry);
+        Gauge.builder("cbs.scratch.usage.bytes", scratchUsageBytes, AtomicLong::get)
+                .description("Bytes of scratch space used at the last collection")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Delete the scratch directories of the terminated builds that are out of the retention policy
+     */
+    @Scheduled(
+            initialDelayString = "${edu.stanford.slac.core-build-system.scratch-gc-interval-ms:600000}",
+            fixedDelayString = "${edu.stanford.slac.core-build-system.scratch-gc-interval-ms:600000}"
+    )
+    public void collect() {
+        Path scratchRoot = Paths.get(coreBuildProperties.getBuildFsRootDirectory(), coreBuildProperties.getBuildScratchRootDirectory());
+        if (Files.notExists(scratchRoot)) return;
+        List<ScratchDirectory> directories;
+        try {
+            directories = listDirectories(scratchRoot);
+        } catch (IOException e) {
+            log.error("Error reading the scratch directory {}", scratchRoot, e);
+            return;
+        }
+        List<ScratchUsage> usages = measure(directories);
+        long totalSize = usages.stream().mapToLong(ScratchUsage::size).sum();
+        scratchUsageBytes.set(totalSize);
+
+        // only the directories of the builds, or the checkouts, that nobody uses anymore can be deleted
+        Set<String> activeBuilds = componentBuildService.findActiveBuildIds(
+                ownerIds(directories, false)
+        );
+        Set<String> registeredCheckouts = sharedCheckoutService.findExistingIds(
+                ownerIds(directories, true)
+        );
+        List<ScratchUsage> terminated = usages.stream()
+                .filter(usage -> !(usage.directory().shared() ? registeredCheckouts : activeBuilds).contains(usage.directory().ownerId()))
+                .sorted(Comparator.comparing(ScratchUsage::lastModified))
+                .toList();
+
+        Instant expiration = Instant.now().minus(Duration.ofMillis(coreBuildProperties.getScratchGcMaxAgeMs()));
+        List<ScratchUsage> toDelete = new ArrayList<>();
+        for (int i = 0; i < terminated.size(); i++) {
+            ScratchUsage usage = terminated.get(i);
+            boolean expired = usage.lastModified().isBefore(expiration);
+            boolean overCount = terminated.size() - i > coreBuildProperties.getScratchGcMaxCount();
+            boolean overQuota = totalSize > coreBuildProperties.getScratchGcMaxSizeBytes();
+            if (!expired && !overCount && !overQuota) continue;
+            toDelete.add(usage);
+            totalSize -= usage.size();
+        }
+        if (toDelete.isEmpty()) return;
+        long reclaimed = delete(toDelete);
+        scratchUsageBytes.addAndGet(-reclaimed);
+        log.info("Scratch collection deleted {} directories reclaiming {} bytes", toDelete.size(), reclaimed);
+    }
+
+    @PreDestroy
+    public void stop() {
+        gcExecutor.shutdownNow();
+    }
+
+    /**
+     * List the build directories and the shared checkouts of the scratch root
+     * <p>
+     * The directories not named after a build or a checkout are not managed by the collector.
+     *
+     * @param scratchRoot The scratch root
+     * @return the managed directories
+     */
+    private List<ScratchDirectory> listDirectories(Path scratchRoot) throws IOException {
+        List<ScratchDirectory> directories = new ArrayList<>();
+        try (Stream<Path> paths = Files.list(scratchRoot)) {
+            paths.filter(Files::isDirectory)
+                    .filter(path -> !path.getFileName().toString().equals(SHARED_DIRECTORY))
+                    .map(path -> toScratchDirectory(path, false))
+                    .flatMap(Optional::stream)
+                    .forEach(directories::add);
+        }
+        Path sharedRoot = scratchRoot.resolve(SHARED_DIRECTORY);
+        if (Files.isDirectory(sharedRoot)) {
+            try (Stream<Path> paths = Files.list(sharedRoot)) {
+                paths.filter(Files::isDirectory)
+                        .map(path -> toScratchDirectory(path, true))
+                        .flatMap(Optional::stream)
+                        .forEach(directories::add);
+            }
+        }
+        return directories;
+    }
+
+    /**
+     * Measure the directories in parallel, the ones that disappear meanwhile are skipped
+     *
+     * @param directories The directories
+     * @return the usage of the directories
+     */
+    private List<ScratchUsage> measure(List<ScratchDirectory> directories) {
+        List<ScratchUsage> usages = new ArrayList<>();
+        for (Future<ScratchUsage> usage : invokeAll(directories.stream().map(directory -> (Callable<ScratchUsage>) () -> {
+            FileTreeUtility.TreeUsage treeUsage = FileTreeUtility.measure(directory.path());
+            return new ScratchUsage(directory, treeUsage.size(), treeUsage.lastModified());
+        }).toList())) {
+            try {
+                usages.add(usage.get());
+            } catch (ExecutionException e) {
+                log.debug("Skip scratch directory from the collection: {}", e.getCause().getMessage());
+            } catch (InterruptedException | CancellationException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return usages;
+    }
+
+    /**
+     * Delete the directories in parallel
+     *
+     * @param usages The directories to delete
+     * @return the number of bytes reclaimed
+     */
+    private long delete(List<ScratchUsage> usages) {
+        long reclaimed = 0;
+        for (Future<Long> deletion : invokeAll(usages.stream().map(usage -> (Callable<Long>) () -> {
+            long deletedBytes = FileTreeUtility.delete(usage.directory().path());
+            reclaimedBytes.increment(deletedBytes);
+            deletedDirectories.increment();
+            log.debug("Deleted scratch directory {} of {} bytes last modified at {}", usage.directory().path(), deletedBytes, usage.lastModified());
+            return deletedBytes;
+        }).toList())) {
+            try {
+                reclaimed += deletion.get();
+            } catch (ExecutionException e) {
+                log.error("Error deleting a scratch directory", e.getCause());
+            } catch (InterruptedException | CancellationException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return reclaimed;
+    }
+
+    private <T> List<Future<T>> invokeAll(List<Callable<T>> tasks) {
+        try {
+            return gcExecutor.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Find the owner of a scratch directory from its name
+     * <p>
+     * A build directory ends with the build identifier, a shared checkout with the checkout identifier
+     * followed, for an interrupted download, by the temporary suffix.
+     *
+     * @param path   The directory
+     * @param shared true if the directory is a shared checkout
+     * @return the directory, if it is managed by the collector
+     */
+    private static Optional<ScratchDirectory> toScratchDirectory(Path path, boolean shared) {
+        String name = path.getFileName().toString();
+        if (shared && name.contains(TEMPORARY_CHECKOUT_SEPARATOR)) {
+            name = name.substring(0, name.indexOf(TEMPORARY_CHECKOUT_SEPARATOR));
+        }
+        String ownerId = name.substring(name.lastIndexOf('-') + 1);
+        if (!ObjectId.isValid(ownerId)) return Optional.empty();
+        return Optional.of(new ScratchDirectory(path, ownerId, shared));
+    }
+
+    private static Set<String> ownerIds(List<ScratchDirectory> directories, boolean shared) {
+        return directories.stream()
+                .filter(directory -> directory.shared() == shared)
+                .map(ScratchDirectory::ownerId)
+                .collect(Collectors.toSet());
+    }
+
+    private record ScratchDirectory(Path path, String ownerId, boolean shared) {
+    }
+
+    private record ScratchUsage(ScratchDirectory directory, long size, Instant lastModified) {
+    }
+}
@@ -0,0 +1,425 @@
+package edu.stanford.slac.core_build_system.task;
+
+import edu.stanford.slac.core_build_system.api.v1.dto.ComponentBranchBuildDTO;
+import edu.stanford.slac.core_build_system.api.v1.dto.ComponentDTO;
+import edu.stanford.slac.core_build_system.api.v1.mapper.ComponentMapper;
+import edu.stanford.slac.core_build_system.config.CoreBuildProperties;
+import edu.stanford.slac.core_build_system.model.BuildInfo;
+import edu.stanford.slac.core_build_system.model.CloneStrategy;
+import edu.stanford.slac.core_build_system.model.SharedCheckout;
+import edu.stanford.slac.core_build_system.repository.GitMirrorRepository;
+import edu.stanford.slac.core_build_system.repository.GitServerRepository;
+import edu.stanford.slac.core_build_system.service.ComponentBuildService;
+import edu.stanford.slac.core_build_system.service.SharedCheckoutService;
+import edu.stanford.slac.core_build_system.utility.FileTreeUtility;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.ResetCommand;
+import org.eclipse.jgit.lib.Constants;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.*;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.*;
+
+/**
+ * Prepare the sources of the builds on a dedicated, bounded, pool of threads
+ * <p>
+ * The download of the sources can be slow, so it is not done by the dispatcher workers while they hold the
+ * lock of the build. A pending build is moved to the PREPARING status and its sources are downloaded in
+ * background, the builder pod is created by the dispatcher only when the checkout is ready. The host that
+ * prepare a build keeps it claimed with a periodic keep alive, so another host takes over the preparation
+ * only if this one is dead.
+ */
+@Log4j2
+@Component
+public class SourcePreparer {
+    private static final String FULL_CLONE_VARIABLE = "ADBS_FULL_CLONE";
+    private static final Duration PREPARATION_KEEP_ALIVE_INTERVAL = Duration.ofSeconds(30);
+    private static final Duration PREPARATION_STALE_TIMEOUT = Duration.ofMinutes(2);
+    private final ComponentMapper componentMapper;
+    private final CoreBuildProperties coreBuildProperties;
+    private final ComponentBuildService componentBuildService;
+    private final GitServerRepository gitServerRepository;
+    private final GitMirrorRepository gitMirrorRepository;
+    private final SharedCheckoutService sharedCheckoutService;
+    private final ApplicationEventPublisher applicationEventPublisher;
+    private final ThreadPoolExecutor prepareExecutor;
+    private final ScheduledExecutorService keepAliveScheduler = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("source-prepare-keep-alive").daemon().factory()
+    );
+    private final Map<String, Future<?>> preparations = new ConcurrentHashMap<>();
+    private final String hostName = localHostName();
+
+    public SourcePreparer(
+            ComponentMapper componentMapper,
+            CoreBuildProperties coreBuildProperties,
+            ComponentBuildService componentBuildService,
+            GitServerRepository gitServerRepository,
+            GitMirrorRepository gitMirrorRepository,
+            SharedCheckoutService sharedCheckoutService,
+            ApplicationEventPublisher applicationEventPublisher,
+            MeterRegistry meterRegistry) {
+        this.componentMapper = componentMapper;
+        this.coreBuildProperties = coreBuildProperties;
+        this.componentBuildService = componentBuildService;
+        this.gitServerRepository = gitServerRepository;
+        this.gitMirrorRepository = gitMirrorRepository;
+        this.sharedCheckoutService = sharedCheckoutService;
+        this.applicationEventPublisher = applicationEventPublisher;
+        int workers = Math.max(1, coreBuildProperties.getSourcePrepareWorkers());
+        prepareExecutor = new ThreadPoolExecutor(
+                workers,
+                workers,
+                60,
+                TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, coreBuildProperties.getSourcePrepareQueueCapacity())),
+                Thread.ofPlatform().name("source-prepare-", 0).daemon().factory()
+        );
+        prepareExecutor.allowCoreThreadTimeOut(true);
+        keepAliveScheduler.scheduleAtFixedRate(
+                this::keepAlive,
+                PREPARATION_KEEP_ALIVE_INTERVAL.toMillis(),
+                PREPARATION_KEEP_ALIVE_INTERVAL.toMillis(),
+                TimeUnit.MILLISECONDS
+        );
+        Gauge.builder("cbs.source.prepare.active", prepareExecutor, ThreadPoolExecutor::getActiveCount)
+                .description("Number of builds whose sources are being downloaded")
+                .register(meterRegistry);
+        Gauge.builder("cbs.source.prepare.queued", prepareExecutor, executor -> executor.getQueue().size())
+                .description("Number of builds waiting for a source preparation worker")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Start the preparation of the sources of a build, if no other host is preparing them
+     *
+     * @param comp                    The component
+     * @param componentBranchBuildDTO The build
+     * @return true if the preparation is running on this host
+     */
+    public boolean prepare(ComponentDTO comp, ComponentBranchBuildDTO componentBranchBuildDTO) {
+        String buildId = componentBranchBuildDTO.id();
+        if (isPreparing(buildId)) return true;
+        Optional<ComponentBranchBuildDTO> claimedBuild = componentBuildService.claimPreparation(
+                buildId,
+                hostName,
+                Instant.now().minus(PREPARATION_STALE_TIMEOUT)
+        );
+        if (claimedBuild.isEmpty()) {
+            log.debug("[{}] Sources are prepared by another host", buildId);
+            return false;
+        }
+        String logPrefix = "[%s-%s-%s-%s]".formatted(componentBranchBuildDTO.componentId(), comp.name(), componentBranchBuildDTO.branchName(), componentBranchBuildDTO.buildOs());
+        FutureTask<Void> preparation = new FutureTask<>(() -> runPreparation(logPrefix, comp, componentBranchBuildDTO), null);
+        preparations.put(buildId, preparation);
+        try {
+            prepareExecutor.execute(preparation);
+        } catch (RejectedExecutionException e) {
+            // the queue is full, the build stay pending and is retried at the next processing
+            preparations.remove(buildId, preparation);
+            log.warn("{} Source preparation queue is full", logPrefix);
+            return false;
+        }
+        log.info("{} Source preparation queued", logPrefix);
+        return true;
+    }
+
+    /**
+     * Check if the sources of a build are being prepared by this host
+     *
+     * @param buildId The identifier of the build
+     * @return true if the preparation is queued or running
+     */
+    public boolean isPreparing(String buildId) {
+        Future<?> preparation = preparations.get(buildId);
+        return preparation != null && !preparation.isDone();
+    }
+
+    /**
+     * Interrupt the preparation of the sources of a build
+     *
+     * @param buildId The identifier of the build
+     */
+    public void cancel(String buildId) {
+        Future<?> preparation = preparations.remove(buildId);
+        if (preparation != null && preparation.cancel(true)) {
+            log.info("[{}] Source preparation cancelled", buildId);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        keepAliveScheduler.shutdownNow();
+        prepareExecutor.shutdownNow();
+    }
+
+    /**
+     * Download the sources and store where they are on the build, or the error that prevented it
+     *
+     * @param logPrefix
+     * @param comp                    The component
+     * @param componentBranchBuildDTO The build
+     */
+    private void runPreparation(String logPrefix, ComponentDTO comp, ComponentBranchBuildDTO componentBranchBuildDTO) {
+        BuildInfo buildInfo = null;
+        String preparationError = null;
+        try {
+            try {
+                log.info("{} Preparing sources", logPrefix);
+                if (componentBranchBuildDTO.sharedCheckoutId() != null) {
+                    // the sources are downloaded once for all the os builds and each build has its own writable copy
+                    String sharedLocation = prepareSharedCheckout(logPrefix, comp, componentBranchBuildDTO);
+                    String scratchLocation = createScratchDirectory(logPrefix, comp, componentBranchBuildDTO).substring(coreBuildProperties.getBuildFsRootDirectory().length());
+                    buildInfo = BuildInfo.builder().scratchLocation(scratchLocation).sharedLocation(sharedLocation).build();
+                } else {
+                    buildInfo = BuildInfo.builder().scratchLocation(downloadRepository(logPrefix, comp, componentBranchBuildDTO)).build();
+                }
+                log.info("{} Sources ready in {}", logPrefix, buildInfo.getScratchLocation());
+            } catch (Exception e) {
+                if (Thread.currentThread().isInterrupted()) {
+                    log.info("{} Source preparation interrupted", logPrefix);
+                    return;
+                }
+                log.error("{} Error preparing sources", logPrefix, e);
+                preparationError = Optional.ofNullable(e.getMessage()).orElse(e.getClass().getSimpleName());
+            }
+            if (componentBuildService.updatePreparation(componentBranchBuildDTO.id(), hostName, buildInfo, preparationError)) {
+                // the pod can be created immediately
+                applicationEventPublisher.publishEvent(new BuildWakeUpEvent(componentBranchBuildDTO.id(), "sources prepared"));
+            } else {
+                log.warn("{} Source preparation taken over by another host", logPrefix);
+            }
+        } catch (Exception e) {
+            log.error("{} Error storing the source preparation", logPrefix, e);
+        } finally {
+            // removed only after the result is stored, so the dispatcher never restart a completed preparation
+            preparations.remove(componentBranchBuildDTO.id());
+        }
+    }
+
+    /**
+     * Confirm that this host is still preparing its builds
+     */
+    private void keepAlive() {
+        for (String buildId : preparations.keySet()) {
+            try {
+                componentBuildService.updatePreparation(buildId, hostName, null, null);
+            } catch (Exception e) {
+                log.error("[{}] Error updating the source preparation keep alive", buildId, e);
+            }
+        }
+    }
+
+    /**
+     * Download the repository, using the real fs path
+     *
+     * @param logPrefix
+     * @param comp                    The component
+     * @param componentBranchBuildDTO The branch to build
+     * @throws Exception if there is an error
+     */
+    private String downloadRepository(String logPrefix, ComponentDTO comp, ComponentBranchBuildDTO componentBranchBuildDTO) throws Exception {
+        Path path = Paths.get(createScratchDirectory(logPrefix, comp, componentBranchBuildDTO));
+        String repositoryPath = cloneRepository(logPrefix, comp, componentBranchBuildDTO, path);
+        return repositoryPath.substring(coreBuildProperties.getBuildFsRootDirectory().length());
+    }
+
+    /**
+     * Create the empty scratch directory of the build
+     *
+     * @param logPrefix
+     * @param comp                    The component
+     * @param componentBranchBuildDTO The branch to build
+     * @return the absolute path of the directory
+     * @throws IOException if there is an error
+     */
+    private String createScratchDirectory(String logPrefix, ComponentDTO comp, ComponentBranchBuildDTO componentBranchBuildDTO) throws IOException {
+        log.info("{} Composing scratch directory", logPrefix);
+        String scratchFSDirectory = coreBuildProperties.getBuildFsRootDirectory();
+        String scratchBuildFolderName = "%s/%s-%s-%s-%s/%s".formatted(
+                coreBuildProperties.getBuildScratchRootDirectory(),
+                comp.name(),
+                componentBranchBuildDTO.branchName(),
+                componentBranchBuildDTO.buildOs(),
+                componentBranchBuildDTO.id(),
+                comp.name());
+        String sourceBuildAbsolutePath = "%s/%s".formatted(
+                scratchFSDirectory,
+                scratchBuildFolderName);
+        Path path = Paths.get(sourceBuildAbsolutePath);
+        log.info("{} Using '{}' directory to build component", logPrefix, sourceBuildAbsolutePath);
+        if (Files.notExists(path)) {
+            log.info("{} Directory does not exist, creating: {}", logPrefix, path);
+            Files.createDirectories(path);
+        } else {
+            log.info("{} Directory exists, deleting contents: {}", logPrefix, path);
+            deleteDirectoryAndContents(path);
+            Files.createDirectories(path);
+        }
+        return sourceBuildAbsolutePath;
+    }
+
+    /**
+     * Clone the branch of the component in a directory, from the git mirror when it is enabled
+     *
+     * @param logPrefix
+     * @param comp                    The component
+     * @param componentBranchBuildDTO The branch to build
+     * @param path                    The directory where the repository is cloned
+     * @return the absolute path of the cloned repository
+     * @throws Exception if there is an error
+     */
+    private String cloneRepository(String logPrefix, ComponentDTO comp, ComponentBranchBuildDTO componentBranchBuildDTO, Path path) throws Exception {
+        var component = componentMapper.toModel(comp);
+        // the build can require the full history with the variable ADBS_FULL_CLONE=true
+        CloneStrategy cloneStrategy = isFullCloneRequested(componentBranchBuildDTO) ? null : component.getCloneStrategy();
+        log.info("{} Downloading repository with clone strategy {}", logPrefix, cloneStrategy);
+        String repositoryPath = null;
+        if (gitMirrorRepository.isEnabled()) {
+            try {
+                repositoryPath = gitMirrorRepository.downLoadRepository(component, componentBranchBuildDTO.branchName(), path.toString(), cloneStrategy);
+            } catch (Exception e) {
+                // the mirror is only a cache, the build can still clone from the git server
+                log.warn("{} Error cloning from the git mirror, cloning from the git server", logPrefix, e);
+                deleteDirectoryAndContents(path);
+                Files.createDirectories(path);
+            }
+        }
+        if (repositoryPath == null) {
+            repositoryPath = gitServerRepository.downLoadRepository(component, componentBranchBuildDTO.branchName(), path.toString(), cloneStrategy);
+        }
+        log.info("{} Repository downloaded to {}", logPrefix, repositoryPath);
+        return repositoryPath;
+    }
+
+    /**
+     * Prepare the read-only checkout shared by all the os builds of the same trigger
+     * <p>
+     * The first build that download the sources pins the checkout to its commit, the other builds reuse the
+     * checkout or, when they have downloaded it concurrently, move their copy to the pinned commit. The
+     * download happens in a temporary directory that is atomically renamed, so a build never sees a partial
+     * checkout.
+     *
+     * @param logPrefix
+     * @param comp                    The component
+     * @param componentBranchBuildDTO The build
+     * @return the location of the checkout relative to the build file system root
+     * @throws Exception if there is an error
+     */
+    private String prepareSharedCheckout(String logPrefix, ComponentDTO comp, ComponentBranchBuildDTO componentBranchBuildDTO) throws Exception {
+        String scratchFSDirectory = coreBuildProperties.getBuildFsRootDirectory();
+        SharedCheckout sharedCheckout = sharedCheckoutService.findById(componentBranchBuildDTO.sharedCheckoutId()).orElse(null);
+        if (sharedCheckout != null && sharedCheckout.getLocation() != null && Files.exists(Paths.get(scratchFSDirectory, sharedCheckout.getLocation(), comp.name()))) {
+            log.info("{} Using shared checkout {} at commit {}", logPrefix, sharedCheckout.getLocation(), sharedCheckout.getCommitSha());
+            return "%s/%s".formatted(sharedCheckout.getLocation(), comp.name());
+        }
+        String location = "/%s/shared/%s-%s-%s".formatted(
+                coreBuildProperties.getBuildScratchRootDirectory(),
+                comp.name(),
+                componentBranchBuildDTO.branchName(),
+                componentBranchBuildDTO.sharedCheckoutId());
+        Path downloadPath = Paths.get(scratchFSDirectory, "%s.tmp-%s".formatted(location, componentBranchBuildDTO.id()), comp.name());
+        deleteDirectoryAndContents(downloadPath.getParent());
+        Files.createDirectories(downloadPath);
+        String repositoryPath = cloneRepository(logPrefix, comp, componentBranchBuildDTO, downloadPath);
+        sharedCheckout = sharedCheckoutService.pinCommit(componentBranchBuildDTO.sharedCheckoutId(), headCommit(repositoryPath), location);
+        if (!moveToCommit(repositoryPath, sharedCheckout.getCommitSha())) {
+            // the pinned commit is not within the cloned history, fall back to the full clone
+            log.info("{} Commit {} not found in the clone, downloading the full repository", logPrefix, sharedCheckout.getCommitSha());
+            deleteDirectoryAndContents(downloadPath);
+            Files.createDirectories(downloadPath);
+            repositoryPath = cloneRepository(
+                    logPrefix,
+                    comp,
+                    componentBranchBuildDTO.toBuilder().buildCustomVariables(Map.of(FULL_CLONE_VARIABLE, "true")).build(),
+                    downloadPath
+            );
+            if (!moveToCommit(repositoryPath, sharedCheckout.getCommitSha())) {
+                throw new IOException("Commit %s not found in the repository of %s".formatted(sharedCheckout.getCommitSha(), comp.name()));
+            }
+        }
+        Path checkoutPath = Paths.get(scratchFSDirectory, sharedCheckout.getLocation());
+        try {
+            Files.createDirectories(checkoutPath.getParent());
+            Files.move(downloadPath.getParent(), checkoutPath, StandardCopyOption.ATOMIC_MOVE);
+            log.info("{} Shared checkout created at {} on commit {}", logPrefix, checkoutPath, sharedCheckout.getCommitSha());
+        } catch (IOException e) {
+            if (Files.notExists(checkoutPath.resolve(comp.name()))) throw e;
+            // another os build has published the checkout first
+            log.info("{} Shared checkout already created at {}", logPrefix, checkoutPath);
+            deleteDirectoryAndContents(downloadPath.getParent());
+        }
+        return "%s/%s".formatted(sharedCheckout.getLocation(), comp.name());
+    }
+
+    /**
+     * Return the commit checked out in a repository
+     *
+     * @param repositoryPath The path of the repository
+     * @return the commit sha
+     */
+    private static String headCommit(String repositoryPath) throws IOException {
+        try (Git git = Git.open(new File(repositoryPath))) {
+            return git.getRepository().resolve(Constants.HEAD).name();
+        }
+    }
+
+    /**
+     * Move the checked out branch to a commit
+     *
+     * @param repositoryPath The path of the repository
+     * @param commitSha      The commit
+     * @return false if the commit is not in the repository
+     */
+    private static boolean moveToCommit(String repositoryPath, String commitSha) throws IOException {
+        try (Git git = Git.open(new File(repositoryPath))) {
+            if (commitSha.equals(git.getRepository().resolve(Constants.HEAD).name())) return true;
+            git.reset().setMode(ResetCommand.ResetType.HARD).setRef(commitSha).call();
+            return true;
+        } catch (Exception e) {
+            log.debug("Commit {} not available in {}: {}", commitSha, repositoryPath, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Check if the build require the full clone of the repository
+     *
+     * @param componentBranchBuildDTO The build
+     * @return true if the variable ADBS_FULL_CLONE is true
+     */
+    private static boolean isFullCloneRequested(ComponentBranchBuildDTO componentBranchBuildDTO) {
+        return componentBranchBuildDTO.buildCustomVariables() != null
+                && Boolean.parseBoolean(componentBranchBuildDTO.buildCustomVariables().get(FULL_CLONE_VARIABLE));
+    }
+
+    /**
+     * Delete a directory and its contents
+     *
+     * @param path The path to the directory
+     * @throws IOException if there is an error
+     */
+    private static void deleteDirectoryAndContents(Path path) throws IOException {
+        FileTreeUtility.delete(path);
+    }
+
+    private static String localHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException("Cannot resolve the local host name", e);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package edu.stanford.slac.core_build_system.task;
+
+import edu.stanford.slac.core_build_system.config.CoreBuildProperties;
+import edu.stanford.slac.core_build_system.model.WebhookDelivery;
+import edu.stanford.slac.core_build_system.repository.WebhookDeliveryRepository;
+import edu.stanford.slac.core_build_system.service.GithubEventService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Drain the webhook inbox with a pool of workers
+ * <p>
+ * The deliveries are acknowledged to github as soon as they are stored, so the request latency does not depend on
+ * the work triggered by the event. Each worker locks the oldest pending delivery and processes it, until the inbox is
+ * empty; a failed delivery is retried with an exponential back off up to the maximum number of attempts. The
+ * workers are woken up by the deliveries received by this instance and by a periodic poll for the other ones.
+ */
+@Log4j2
+@Component
+public class WebhookInboxWorker {
+    private final CoreBuildProperties coreBuildProperties;
+    private final WebhookDeliveryRepository webhookDeliveryRepository;
+    private final GithubEventService githubEventService;
+    private final ThreadPoolTaskScheduler taskScheduler;
+    private final AtomicBoolean[] busyWorkers;
+    private final Timer processTimer;
+    private final Counter retriedDeliveries;
+    private final Counter failedDeliveries;
+    private volatile boolean running = true;
+
+    public WebhookInboxWorker(
+            CoreBuildProperties coreBuildProperties,
+            WebhookDeliveryRepository webhookDeliveryRepository,
+            GithubEventService githubEventService,
+            ThreadPoolTaskScheduler taskScheduler,
+            MeterRegistry meterRegistry) {
+        this.coreBuildProperties = coreBuildProperties;
+        this.webhookDeliveryRepository = webhookDeliveryRepository;
+        this.githubEventService = githubEventService;
+        this.taskScheduler = taskScheduler;
+        busyWorkers = new AtomicBoolean[Math.max(1, coreBuildProperties.getWebhookWorkers())];
+        for (int i = 0; i < busyWorkers.length; i++) {
+            busyWorkers[i] = new AtomicBoolean(false);
+        }
+        processTimer = Timer.builder("cbs.webhook.delivery.process")
+                .description("Time spent by an inbox worker to process a webhook delivery")
+                .register(meterRegistry);
+        retriedDeliveries = Counter.builder("cbs.webhook.delivery.retried")
+                .description("Number of webhook deliveries that failed and will be retried")
+                .register(meterRegistry);
+        failedDeliveries = Counter.builder("cbs.webhook.delivery.failed")
+                .description("Number of webhook deliveries that failed too many times")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Periodic poll of the deliveries received by the other instances and of the ones to retry
+     */
+    @Scheduled(fixedDelayString = "${edu.stanford.slac.core-build-system.webhook-inbox-poll-ms:1000}")
+    public void poll() {
+        wakeUp();
+    }
+
+    /**
+     * Wake up the workers when a delivery has been stored by this instance
+     *
+     * @param event the received event
+     */
+    @EventListener
+    public void onReceived(WebhookReceivedEvent event) {
+        log.debug("Inbox workers woken up for delivery {}", event.deliveryId());
+        wakeUp();
+    }
+
+    /**
+     * Start a drain on every idle worker
+     */
+    public void wakeUp() {
+        if (!running) return;
+        for (int i = 0; i < busyWorkers.length; i++) {
+            if (!busyWorkers[i].compareAndSet(false, true)) continue;
+            int workerId = i;
+            try {
+                taskScheduler.execute(() -> drain(workerId));
+            } catch (TaskRejectedException | IllegalStateException e) {
+                // the scheduler is shutting down or not yet initialized
+                busyWorkers[i].set(false);
+                log.debug("Inbox worker {} not started: {}", workerId, e.getMessage());
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stop the workers after the delivery they are currently processing
+     */
+    @PreDestroy
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * Lock and process deliveries until the inbox is empty
+     *
+     * @param workerId the index of the worker
+     */
+    private void drain(int workerId) {
+        try {
+            while (running) {
+                Instant lockTimeout = Instant.now().minusMillis(coreBuildProperties.getWebhookLockTimeoutMs());
+                Optional<WebhookDelivery> delivery = webhookDeliveryRepository.findAndLockNextDelivery(lockTimeout);
+                if (delivery.isEmpty()) break;
+                processTimer.record(() -> process(delivery.get()));
+            }
+        } catch (Exception e) {
+            log.error("Inbox worker {} failed", workerId, e);
+        } finally {
+            busyWorkers[workerId].set(false);
+        }
+    }
+
+    private void process(WebhookDelivery delivery) {
+        try {
+            githubEventService.processDelivery(delivery);
+            webhookDeliveryRepository.markProcessed(delivery.getId());
+        } catch (Exception e) {
+            int attempts = delivery.getAttempts() + 1;
+            if (attempts >= coreBuildProperties.getWebhookMaxAttempts()) {
+                log.error("[{}] Delivery failed after {} attempts", delivery.getDeliveryId(), attempts, e);
+                failedDeliveries.increment();
+                webhookDeliveryRepository.markFailed(delivery.getId(), e.getMessage(), null);
+                return;
+            }
+            long delay = coreBuildProperties.getWebhookRetryDelayMs() << Math.min(attempts - 1, 10);
+            log.warn("[{}] Delivery failed, retry in {} ms: {}", delivery.getDeliveryId(), delay, e.getMessage());
+            retriedDeliveries.increment();
+            webhookDeliveryRepository.markFailed(delivery.getId(), e.getMessage(), Instant.now().plusMillis(delay));
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package edu.stanford.slac.core_build_system.task;
+
+/**
+ * Published when a webhook delivery has been stored in the inbox, to process it without waiting for the next poll
+ *
+ * @param deliveryId the identifier of the delivery
+ */
+public record WebhookReceivedEvent(String deliveryId) {
+}
@@ -0,0 +1,94 @@
+package edu.stanford.slac.core_build_system.utility;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+
+/**
+ * Utility class to measure and delete directory trees walking them only once.
+ */
+public class FileTreeUtility {
+    /**
+     * Measure the size and the last modification of all the files of a tree
+     * <p>
+     * Files deleted during the walk are ignored, so a tree can be measured while it is in use.
+     *
+     * @param root The root of the tree
+     * @return the usage of the tree
+     * @throws IOException if the tree cannot be read
+     */
+    static public TreeUsage measure(Path root) throws IOException {
+        long[] size = {0};
+        Instant[] lastModified = {Files.getLastModifiedTime(root).toInstant()};
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                lastModified[0] = max(lastModified[0], attrs.lastModifiedTime().toInstant());
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                size[0] += attrs.size();
+                lastModified[0] = max(lastModified[0], attrs.lastModifiedTime().toInstant());
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+                if (exc instanceof NoSuchFileException) return FileVisitResult.CONTINUE;
+                throw exc;
+            }
+        });
+        return new TreeUsage(size[0], lastModified[0]);
+    }
+
+    /**
+     * Delete a tree, its files are deleted before the directories that contain them
+     * <p>
+     * Symbolic links are deleted and never followed, files already deleted by someone else are ignored.
+     *
+     * @param root The root of the tree
+     * @return the number of bytes of the deleted files
+     * @throws IOException if the tree cannot be deleted
+     */
+    static public long delete(Path root) throws IOException {
+        if (Files.notExists(root, LinkOption.NOFOLLOW_LINKS)) return 0;
+        long[] deletedBytes = {0};
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (Files.deleteIfExists(file)) deletedBytes[0] += attrs.size();
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+                if (exc instanceof NoSuchFileException) return FileVisitResult.CONTINUE;
+                throw exc;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                if (exc != null && !(exc instanceof NoSuchFileException)) throw exc;
+                Files.deleteIfExists(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return deletedBytes[0];
+    }
+
+    private static Instant max(Instant first, Instant second) {
+        return first.isAfter(second) ? first : second;
+    }
+
+    /**
+     * The usage of a directory tree
+     *
+     * @param size         The total size in bytes of the files
+     * @param lastModified The most recent modification of a file or a directory
+     */
+    public record TreeUsage(long size, Instant lastModified) {
+    }
+}
@@ -0,0 +1,240 @@
+package edu.stanford.slac.core_build_system.utility;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import lombok.Builder;
+
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Utility class to extract the fields used by the build system from the payload of a github event
+ * <p>
+ * The payloads of github are large and only a handful of their fields are used, so they are read with the streaming
+ * parser, skipping all the objects that are not needed, instead of binding the whole document.
+ */
+public class GithubEventParser {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    /**
+     * The urls of the repository that sent an event
+     *
+     * @param gitUrl   the git url
+     * @param sshUrl   the ssh url
+     * @param cloneUrl the https url
+     */
+    public record RepositoryUrls(String gitUrl, String sshUrl, String cloneUrl) {
+    }
+
+    /**
+     * The fields of a push or pull request event
+     *
+     * @param action          the action of the pull request event
+     * @param ref             the reference updated by the push event
+     * @param after           the commit at the head of the reference after the push event
+     * @param deleted         true if the push event has deleted the reference
+     * @param commits         the number of commits listed by the push event
+     * @param changedPaths    the paths added, modified or removed by the commits of the push event
+     * @param headCommitPaths the paths added, modified or removed by the head commit of the push event
+     * @param repository      the urls of the repository
+     * @param title           the title of the pull request
+     * @param headRef         the branch of the pull request
+     * @param headSha         the commit at the head of the branch of the pull request
+     * @param baseRef         the branch the pull request is merged into
+     */
+    @Builder(toBuilder = true)
+    public record EventFields(
+            String action,
+            String ref,
+            String after,
+            boolean deleted,
+            int commits,
+            Set<String> changedPaths,
+            Set<String> headCommitPaths,
+            RepositoryUrls repository,
+            String title,
+            String headRef,
+            String headSha,
+            String baseRef
+    ) {
+    }
+
+    /**
+     * Read only the urls of the repository, the parsing stops at the end of the repository object
+     *
+     * @param payload the payload of the event
+     * @return the urls of the repository, null if the payload has no repository
+     * @throws IOException if the payload is not valid
+     */
+    static public RepositoryUrls repositoryUrls(byte[] payload) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(payload)) {
+            expectObject(parser);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                if ("repository".equals(field) && parser.currentToken() == JsonToken.START_OBJECT) {
+                    return readRepository(parser);
+                }
+                parser.skipChildren();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Read the fields of a push or pull request event
+     *
+     * @param payload the payload of the event
+     * @return the fields of the event
+     * @throws IOException if the payload is not valid
+     */
+    static public EventFields parse(byte[] payload) throws IOException {
+        EventFields.EventFieldsBuilder fields = EventFields.builder();
+        Set<String> changedPaths = new LinkedHashSet<>();
+        Set<String> headCommitPaths = new LinkedHashSet<>();
+        try (JsonParser parser = JSON_FACTORY.createParser(payload)) {
+            expectObject(parser);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "action" -> fields.action(text(parser));
+                    case "ref" -> fields.ref(text(parser));
+                    case "after" -> fields.after(text(parser));
+                    case "deleted" -> fields.deleted(value == JsonToken.VALUE_TRUE);
+                    case "commits" -> {
+                        if (value == JsonToken.START_ARRAY) fields.commits(readCommits(parser, changedPaths));
+                        else parser.skipChildren();
+                    }
+                    case "head_commit" -> {
+                        if (value == JsonToken.START_OBJECT) readCommitPaths(parser, headCommitPaths);
+                        else parser.skipChildren();
+                    }
+                    case "repository" -> {
+                        if (value == JsonToken.START_OBJECT) fields.repository(readRepository(parser));
+                        else parser.skipChildren();
+                    }
+                    case "pull_request" -> {
+                        if (value == JsonToken.START_OBJECT) readPullRequest(parser, fields);
+                        else parser.skipChildren();
+                    }
+                    default -> parser.skipChildren();
+                }
+            }
+        }
+        return fields
+                .changedPaths(changedPaths)
+                .headCommitPaths(headCommitPaths)
+                .build();
+    }
+
+    /**
+     * Read the commits of a push event, collecting the paths they change
+     *
+     * @return the number of commits
+     */
+    private static int readCommits(JsonParser parser, Set<String> changedPaths) throws IOException {
+        int commits = 0;
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (parser.currentToken() == JsonToken.START_OBJECT) {
+                readCommitPaths(parser, changedPaths);
+                commits++;
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return commits;
+    }
+
+    private static void readCommitPaths(JsonParser parser, Set<String> changedPaths) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if (value == JsonToken.START_ARRAY && ("added".equals(field) || "modified".equals(field) || "removed".equals(field))) {
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    String path = text(parser);
+                    if (path != null) changedPaths.add(path);
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private static RepositoryUrls readRepository(JsonParser parser) throws IOException {
+        String gitUrl = null;
+        String sshUrl = null;
+        String cloneUrl = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            switch (field) {
+                case "git_url" -> gitUrl = text(parser);
+                case "ssh_url" -> sshUrl = text(parser);
+                case "clone_url" -> cloneUrl = text(parser);
+                default -> parser.skipChildren();
+            }
+        }
+        return new RepositoryUrls(gitUrl, sshUrl, cloneUrl);
+    }
+
+    private static void readPullRequest(JsonParser parser, EventFields.EventFieldsBuilder fields) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "title" -> fields.title(text(parser));
+                case "head" -> {
+                    if (value != JsonToken.START_OBJECT) {
+                        parser.skipChildren();
+                        continue;
+                    }
+                    String[] head = readBranch(parser);
+                    fields.headRef(head[0]).headSha(head[1]);
+                }
+                case "base" -> {
+                    if (value != JsonToken.START_OBJECT) {
+                        parser.skipChildren();
+                        continue;
+                    }
+                    fields.baseRef(readBranch(parser)[0]);
+                }
+                default -> parser.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * Read the reference and the commit of the head or the base of a pull request
+     *
+     * @return the reference and the commit
+     */
+    private static String[] readBranch(JsonParser parser) throws IOException {
+        String[] branch = new String[2];
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            switch (field) {
+                case "ref" -> branch[0] = text(parser);
+                case "sha" -> branch[1] = text(parser);
+                default -> parser.skipChildren();
+            }
+        }
+        return branch;
+    }
+
+    private static String text(JsonParser parser) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_STRING) return parser.getText();
+        // the objects and arrays are skipped, the other scalars are not expected
+        parser.skipChildren();
+        return null;
+    }
+
+    private static void expectObject(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new IOException("The payload of the event is not a json object");
+        }
+    }
+}
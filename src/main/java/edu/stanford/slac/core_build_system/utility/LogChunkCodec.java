@@ -0,0 +1,90 @@
+package edu.stanford.slac.core_build_system.utility;
+
+import edu.stanford.slac.core_build_system.model.LogChunk;
+import edu.stanford.slac.core_build_system.model.LogEntry;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Encode and decode the lines of a {@link LogChunk}
+ * <p>
+ * Each line is written as the timestamp (epoch second and nanosecond, -1 second when missing) followed
+ * by the utf-8 length and bytes of the text, the whole block is gzip compressed.
+ */
+public class LogChunkCodec {
+    private static final long NO_TIMESTAMP = -1;
+
+    /**
+     * Build the chunk for the given lines
+     *
+     * @param buildId    the identifier of the build
+     * @param chunkSeq   the sequence of the chunk
+     * @param firstLine  the number of the first line
+     * @param logEntries the lines of the chunk, at least one
+     * @return the chunk with the encoded lines
+     */
+    static public LogChunk encode(String buildId, int chunkSeq, long firstLine, List<LogEntry> logEntries) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        int rawSize = 0;
+        try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(compressed, 8192))) {
+            for (LogEntry logEntry : logEntries) {
+                byte[] text = logEntry.getLog() == null ? new byte[0] : logEntry.getLog().getBytes(StandardCharsets.UTF_8);
+                if (logEntry.getTimestamp() == null) {
+                    out.writeLong(NO_TIMESTAMP);
+                    out.writeInt(0);
+                } else {
+                    out.writeLong(logEntry.getTimestamp().toEpochSecond(ZoneOffset.UTC));
+                    out.writeInt(logEntry.getTimestamp().getNano());
+                }
+                out.writeInt(text.length);
+                out.write(text);
+                rawSize += text.length;
+            }
+        }
+        return LogChunk.builder()
+                .buildId(buildId)
+                .chunkSeq(chunkSeq)
+                .firstLine(firstLine)
+                .lastLine(firstLine + logEntries.size() - 1)
+                .lineCount(logEntries.size())
+                .firstTimestamp(logEntries.getFirst().getTimestamp())
+                .lastTimestamp(logEntries.getLast().getTimestamp())
+                .rawSize(rawSize)
+                .data(compressed.toByteArray())
+                .build();
+    }
+
+    /**
+     * Decode the lines of a chunk
+     *
+     * @param logChunk the chunk to decode
+     * @return the lines with their number within the build log
+     */
+    static public List<LogEntry> decode(LogChunk logChunk) throws IOException {
+        List<LogEntry> logEntries = new ArrayList<>(logChunk.getLineCount());
+        try (DataInputStream in = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(logChunk.getData()), 8192))) {
+            for (int i = 0; i < logChunk.getLineCount(); i++) {
+                long epochSecond = in.readLong();
+                int nano = in.readInt();
+                byte[] text = new byte[in.readInt()];
+                in.readFully(text);
+                logEntries.add(
+                        LogEntry.builder()
+                                .buildId(logChunk.getBuildId())
+                                .lineNumber(logChunk.getFirstLine() + i)
+                                .timestamp(epochSecond == NO_TIMESTAMP ? null : LocalDateTime.ofEpochSecond(epochSecond, nano, ZoneOffset.UTC))
+                                .log(new String(text, StandardCharsets.UTF_8))
+                                .build()
+                );
+            }
+        }
+        return logEntries;
+    }
+}
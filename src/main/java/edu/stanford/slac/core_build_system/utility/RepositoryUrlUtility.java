@@ -0,0 +1,64 @@
+package edu.stanford.slac.core_build_system.utility;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Utility class to reduce the urls of a git repository to a canonical key.
+ */
+public class RepositoryUrlUtility {
+    private static final Set<String> REPOSITORY_SCHEMES = Set.of("http", "https", "git", "ssh");
+    // the scp like syntax used by ssh, git@github.com:owner/repository.git
+    private static final Pattern SCP_URL = Pattern.compile("^[\\w.-]+@[\\w.-]+:(?!/)(.+)$");
+    private static final String GIT_SUFFIX = ".git";
+
+    /**
+     * Return the canonical key of a repository url
+     * <p>
+     * The https, git and ssh urls of the same repository, like the clone_url, git_url and ssh_url of a github event,
+     * are reduced to the same lower case owner/repository key. The urls that do not point to a hosted repository,
+     * like a local path or a web site, have no key.
+     *
+     * @param url The url of the repository
+     * @return the owner/repository key or null if the url is not the one of a hosted repository
+     */
+    static public String normalizedRepoKey(String url) {
+        if (url == null || url.isBlank()) return null;
+        String value = url.trim();
+        String path;
+        Matcher scpUrl = SCP_URL.matcher(value);
+        if (scpUrl.matches()) {
+            path = scpUrl.group(1);
+        } else {
+            URI uri;
+            try {
+                uri = new URI(value);
+            } catch (URISyntaxException e) {
+                return null;
+            }
+            if (uri.getScheme() == null || uri.getHost() == null) return null;
+            if (!REPOSITORY_SCHEMES.contains(uri.getScheme().toLowerCase(Locale.ROOT))) return null;
+            path = uri.getPath();
+        }
+        if (path == null) return null;
+        path = strip(path, '/');
+        if (path.toLowerCase(Locale.ROOT).endsWith(GIT_SUFFIX)) {
+            path = path.substring(0, path.length() - GIT_SUFFIX.length());
+        }
+        String[] segments = path.split("/");
+        if (segments.length != 2 || segments[0].isEmpty() || segments[1].isEmpty()) return null;
+        return "%s/%s".formatted(segments[0], segments[1]).toLowerCase(Locale.ROOT);
+    }
+
+    private static String strip(String value, char character) {
+        int begin = 0;
+        int end = value.length();
+        while (begin < end && value.charAt(begin) == character) begin++;
+        while (end > begin && value.charAt(end - 1) == character) end--;
+        return value.substring(begin, end);
+    }
+}
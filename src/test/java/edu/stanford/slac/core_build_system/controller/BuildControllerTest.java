@@ -5,11 +5,15 @@ import edu.stanford.slac.core_build_system.api.v1.dto.*;
 import edu.stanford.slac.core_build_system.config.CoreBuildProperties;
 import edu.stanford.slac.core_build_system.config.GitHubClient;
 import edu.stanford.slac.core_build_system.exception.BuildNotFound;
+import edu.stanford.slac.core_build_system.model.BuildStatus;
 import edu.stanford.slac.core_build_system.model.Component;
 import edu.stanford.slac.core_build_system.model.ComponentBranchBuild;
+import edu.stanford.slac.core_build_system.model.LogChunk;
 import edu.stanford.slac.core_build_system.model.LogEntry;
+import edu.stanford.slac.core_build_system.repository.BatchingLogWriter;
 import edu.stanford.slac.core_build_system.repository.GithubServerRepository;
 import edu.stanford.slac.core_build_system.repository.KubernetesRepository;
+import edu.stanford.slac.core_build_system.repository.LogChunkRepository;
 import edu.stanford.slac.core_build_system.service.ComponentBuildService;
 import edu.stanford.slac.core_build_system.service.ComponentService;
 import edu.stanford.slac.core_build_system.utility.GitServer;
@@ -32,8 +36,12 @@ import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ActiveProfiles;
+import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
+import java.time.Duration;
+import java.time.LocalDateTime;
 import java.util.*;
 
 import static java.util.concurrent.TimeUnit.SECONDS;
@@ -44,6 +52,8 @@ import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @AutoConfigureMockMvc
@@ -90,6 +100,8 @@ public class BuildControllerTest {
     private TestControllerHelperService testControllerHelperService;
     @Autowired
     private BuildController buildController;
+    @Autowired
+    private LogChunkRepository logChunkRepository;
 
     @BeforeAll
     public void setUp() throws Exception {
@@ -161,6 +173,7 @@ public class BuildControllerTest {
     public void cleanBuild() {
         mongoTemplate.remove(new Query(), ComponentBranchBuild.class);
         mongoTemplate.remove(new Query(), LogEntry.class);
+        mongoTemplate.remove(new Query(), LogChunk.class);
 
         // Reset the mock before each test
         taskScheduler.initialize();
@@ -316,4 +329,41 @@ public class BuildControllerTest {
                 }
         );
     }
+
+    @Test
+    public void testTailLogOfTerminatedBuild() throws Exception {
+        ComponentBranchBuild terminatedBuild = mongoTemplate.save(
+                ComponentBranchBuild
+                        .builder()
+                        .componentId(component.id())
+                        .branchName("branch1")
+                        .buildStatus(BuildStatus.SUCCESS)
+                        .build()
+        );
+        try (BatchingLogWriter logWriter = new BatchingLogWriter(logChunkRepository, terminatedBuild.getId(), 4, 1024 * 1024, Duration.ofMinutes(1), null)) {
+            for (int i = 0; i < 10; i++) {
+                logWriter.add(LogEntry.builder().buildId(terminatedBuild.getId()).timestamp(LocalDateTime.now()).log("line %d".formatted(i)).build());
+            }
+        }
+
+        MvcResult result = mockMvc.perform(
+                        get("/v1/build/{buildId}/log/tail", terminatedBuild.getId())
+                                .param("afterLine", "5")
+                                .accept(MediaType.TEXT_EVENT_STREAM)
+                )
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        // the lines after the offset are replayed and the stream is closed with the build status
+        await()
+                .atMost(10, SECONDS)
+                .until(() -> result.getResponse().getContentAsString().contains("event:end"));
+        String events = result.getResponse().getContentAsString();
+        assertThat(events).doesNotContain("line 5\"");
+        for (int i = 6; i < 10; i++) {
+            assertThat(events).contains("id:%d\n".formatted(i));
+            assertThat(events).contains("line %d\"".formatted(i));
+        }
+        assertThat(events).contains("data:SUCCESS");
+    }
 }
@@ -3,9 +3,13 @@ package edu.stanford.slac.core_build_system.controller;
 import edu.stanford.slac.core_build_system.api.v1.dto.*;
 import edu.stanford.slac.core_build_system.config.CoreBuildProperties;
 import edu.stanford.slac.core_build_system.config.GitHubClient;
+import edu.stanford.slac.core_build_system.exception.WebhookSignatureNotValid;
 import edu.stanford.slac.core_build_system.model.Component;
 import edu.stanford.slac.core_build_system.model.ComponentBranchBuild;
+import edu.stanford.slac.core_build_system.model.LogChunk;
 import edu.stanford.slac.core_build_system.model.LogEntry;
+import edu.stanford.slac.core_build_system.model.WebhookDelivery;
+import edu.stanford.slac.core_build_system.model.WebhookDeliveryStatus;
 import edu.stanford.slac.core_build_system.repository.KubernetesRepository;
 import edu.stanford.slac.core_build_system.service.ComponentService;
 import edu.stanford.slac.core_build_system.utility.GitServer;
@@ -22,6 +26,7 @@ import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMock
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 import org.springframework.test.annotation.DirtiesContext;
@@ -34,6 +39,7 @@ import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
 import static org.awaitility.Awaitility.await;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.when;
@@ -156,6 +162,8 @@ public class EventControllerTest {
     public void cleanBuild() {
         mongoTemplate.remove(new Query(), ComponentBranchBuild.class);
         mongoTemplate.remove(new Query(), LogEntry.class);
+        mongoTemplate.remove(new Query(), LogChunk.class);
+        mongoTemplate.remove(new Query(), WebhookDelivery.class);
         // Reset the mock before each test
         taskScheduler.initialize();
     }
@@ -175,7 +183,7 @@ public class EventControllerTest {
         // simulate github pr sync event
         var result = testControllerHelperService.eventControllerHandleSyncPREvent(
                 mockMvc,
-                status().isOk(),
+                status().isAccepted(),
                 component.componentToken(),
                 Map.of(
                         "pull_request.head.label", "branch1",
@@ -222,7 +230,7 @@ public class EventControllerTest {
         // simulate github pr sync event
         var result = testControllerHelperService.eventControllerHandleClosePREvent(
                 mockMvc,
-                status().isOk(),
+                status().isAccepted(),
                 component.componentToken(),
                 Map.of(
                         "pull_request.head.label", "branch1",
@@ -278,4 +286,66 @@ public class EventControllerTest {
         assertThat(componentFound.getPayload()).isNotNull();
         assertThat(componentFound.getPayload().branches()).extracting("branchName").contains("main");
     }
+
+    @Test
+    public void redeliveredEventIsProcessedOnce() throws Exception {
+        Map<String, Object> payloadValues = Map.of(
+                "pull_request.head.label", "branch2",
+                "pull_request.head.ref", "branch2",
+                "repository.git_url", component.url()
+        );
+        // the same delivery received twice, github retries when the answer is late
+        for (int i = 0; i < 2; i++) {
+            assertDoesNotThrow(
+                    () -> testControllerHelperService.eventControllerHandleSyncPREvent(
+                            mockMvc,
+                            status().isAccepted(),
+                            Optional.of("delivery-1"),
+                            component.componentToken(),
+                            payloadValues
+                    )
+            );
+        }
+        assertThat(mongoTemplate.count(new Query(Criteria.where("deliveryId").is("delivery-1")), WebhookDelivery.class)).isEqualTo(1);
+
+        // the inbox is drained by the workers
+        await()
+                .atMost(30, SECONDS)
+                .pollInterval(1, SECONDS)
+                .until(
+                        () -> mongoTemplate.count(
+                                new Query(Criteria.where("deliveryId").is("delivery-1").and("status").is(WebhookDeliveryStatus.PROCESSED)),
+                                WebhookDelivery.class
+                        ) == 1
+                );
+        var foundBuildsResult = assertDoesNotThrow(
+                () -> testControllerHelperService.buildControllerFindByComponentNameAndBranch(
+                        mockMvc,
+                        status().isOk(),
+                        component.name(),
+                        "branch2"
+                )
+        );
+        // one build for each os of the component
+        assertThat(foundBuildsResult.getPayload()).hasSize(component.buildOs().size());
+    }
+
+    @Test
+    public void eventWithWrongSignatureIsRejected() {
+        assertThrows(
+                WebhookSignatureNotValid.class,
+                () -> testControllerHelperService.eventControllerHandleSyncPREvent(
+                        mockMvc,
+                        status().isUnauthorized(),
+                        Optional.of("delivery-2"),
+                        "wrong-token",
+                        Map.of(
+                                "pull_request.head.label", "branch1",
+                                "pull_request.head.ref", "branch1",
+                                "repository.git_url", component.url()
+                        )
+                )
+        );
+        assertThat(mongoTemplate.count(new Query(), WebhookDelivery.class)).isZero();
+    }
 }
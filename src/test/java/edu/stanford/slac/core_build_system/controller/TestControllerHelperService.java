@@ -439,11 +439,22 @@ public class TestControllerHelperService {
             ResultMatcher resultMatcher,
             String componentToken,
             Map<String, Object> keyValueMap
+    ) throws Exception {
+        return eventControllerHandleSyncPREvent(mockMvc, resultMatcher, Optional.empty(), componentToken, keyValueMap);
+    }
+
+    public ApiResultResponse<String> eventControllerHandleSyncPREvent(
+            MockMvc mockMvc,
+            ResultMatcher resultMatcher,
+            Optional<String> deliveryId,
+            String componentToken,
+            Map<String, Object> keyValueMap
     ) throws Exception {
         String resolvedJson = loadAndResolveJson("pull-request-sync.json", keyValueMap);
         return eventControllerHandlePushEvent(
                 mockMvc,
                 resultMatcher,
+                deliveryId,
                 generateSignature(resolvedJson, componentToken),
                 "pull_request",
                 resolvedJson
@@ -529,12 +540,24 @@ public class TestControllerHelperService {
             String signature,
             String event,
             String payload
+    ) throws Exception {
+        return eventControllerHandlePushEvent(mockMvc, resultMatcher, Optional.empty(), signature, event, payload);
+    }
+
+    public ApiResultResponse<String> eventControllerHandlePushEvent(
+            MockMvc mockMvc,
+            ResultMatcher resultMatcher,
+            Optional<String> deliveryId,
+            String signature,
+            String event,
+            String payload
     ) throws Exception {
         var requestBuilder = post("/v1/event/gh/webhook")
                 .contentType(MediaType.APPLICATION_JSON)
                 .header("X-Hub-Signature-256", signature)
                 .header("X-GitHub-Event", event)
                 .content(payload);
+        deliveryId.ifPresent(id -> requestBuilder.header("X-GitHub-Delivery", id));
         return executeHttpRequest(
                 new TypeReference<>() {
                 },
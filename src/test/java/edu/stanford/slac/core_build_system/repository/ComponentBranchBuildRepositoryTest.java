@@ -1,6 +1,7 @@
 package edu.stanford.slac.core_build_system.repository;
 
 import edu.stanford.slac.core_build_system.config.GitHubClient;
+import edu.stanford.slac.core_build_system.model.BuildInfo;
 import edu.stanford.slac.core_build_system.model.BuildStatus;
 import edu.stanford.slac.core_build_system.model.ComponentBranchBuild;
 import org.junit.jupiter.api.BeforeEach;
@@ -18,6 +19,7 @@ import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ActiveProfiles;
 
 import java.time.Instant;
+import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
 import java.util.HashMap;
 import java.util.Map;
@@ -70,7 +72,7 @@ public class ComponentBranchBuildRepositoryTest {
 
 
         boolean deleteResult = assertDoesNotThrow(
-                () -> componentBranchBuildRepository.releaseLock(newBuild.getId(), BuildStatus.SUCCESS)
+                () -> componentBranchBuildRepository.releaseLock(newBuild.getId(), selectedDocument.get().getLockToken(), BuildStatus.SUCCESS)
         );
         assertThat(deleteResult).isTrue();
     }
@@ -211,4 +213,304 @@ public class ComponentBranchBuildRepositoryTest {
         );
         assertThat(emptyDocumentFetched).isEmpty();
     }
+
+    @Test
+    public void testRecentlyProcessedBuildAreSkipped() {
+        ComponentBranchBuild runningBuild = assertDoesNotThrow(
+                () -> componentBranchBuildRepository.save(
+                        ComponentBranchBuild
+                                .builder()
+                                .branchName("1")
+                                .buildStatus(BuildStatus.IN_PROGRESS)
+                                .build()
+                )
+        );
+
+        // the running build has just been processed so it is not selected
+        Optional<ComponentBranchBuild> emptyDocumentFetched = assertDoesNotThrow(
+                () -> componentBranchBuildRepository.findAndLockNextDocument(
+                        Instant.now().minus(5, ChronoUnit.MINUTES),
+                        Instant.now().minus(1, ChronoUnit.MINUTES)
+                )
+        );
+        assertThat(emptyDocumentFetched).isEmpty();
+
+        // a pending build is always selected
+        ComponentBranchBuild pendingBuild = assertDoesNotThrow(
+                () -> componentBranchBuildRepository.save(
+                        ComponentBranchBuild
+                                .builder()
+                                .branchName("2")
+                                .build()
+                )
+        );
+        Optional<ComponentBranchBuild> pendingDocumentFetched = assertDoesNotThrow(
+                () -> componentBranchBuildRepository.findAndLockNextDocument(
+                        Instant.now().minus(5, ChronoUnit.MINUTES),
+                        Instant.now().minus(1, ChronoUnit.MINUTES)
+                )
+        );
+        assertThat(pendingDocumentFetched).isPresent();
+        assertThat(pendingDocumentFetched.get().getId()).isEqualTo(pendingBuild.getId());
+
+        // once the delay is elapsed the running build is selected
+        Optional<ComponentBranchBuild> runningDocumentFetched = assertDoesNotThrow(
+                () -> componentBranchBuildRepository.findAndLockNextDocument(
+                        Instant.now().minus(5, ChronoUnit.MINUTES),
+                        Instant.now().plus(1, ChronoUnit.MINUTES)
+                )
+        );
+        assertThat(runningDocumentFetched).isPresent();
+        assertThat(runningDocumentFetched.get().getId()).isEqualTo(runningBuild.getId());
+    }
+
+    @Test
+    public void testLogFollowerClaimAndCursor() {
+        ComponentBranchBuild runningBuild = assertDoesNotThrow(
+                () -> componentBranchBuildRepository.save(
+                        ComponentBranchBuild
+                                .builder()
+                                .branchName("1")
+                                .buildStatus(BuildStatus.IN_PROGRESS)
+                                .build()
+                )
+        );
+
+        // the first host claim the log
+        Optional<ComponentBranchBuild> claimedByFirst = assertDoesNotThrow(
+                () -> componentBranchBuildRepository.claimLogFollower(
+                        runningBuild.getId(),
+                        "host-1",
+                        Instant.now().minus(1, ChronoUnit.MINUTES)
+                )
+        );
+        assertThat(claimedByFirst).isPresent();
+        assertThat(claimedByFirst.get().getLogFollowedBy()).isEqualTo("host-1");
+
+        // another host cannot claim a log that is actively followed
+        Optional<ComponentBranchBuild> claimedBySecond = assertDoesNotThrow(
+                () -> componentBranchBuildRepository.claimLogFollower(
+                        runningBuild.getId(),
+                        "host-2",
+                        Instant.now().minus(1, ChronoUnit.MINUTES)
+                )
+        );
+        assertThat(claimedBySecond).isEmpty();
+
+        // only the owner can move the cursor
+        assertThat(componentBranchBuildRepository.updateLogCursor(runningBuild.getId(), "host-2", "2024-01-01T00:00:01Z")).isFalse();
+        assertThat(componentBranchBuildRepository.updateLogCursor(runningBuild.getId(), "host-1", "2024-01-01T00:00:02Z")).isTrue();
+
+        // a stale follower is taken over and the cursor is returned to resume the log
+        Optional<ComponentBranchBuild> takenOverBySecond = assertDoesNotThrow(
+                () -> componentBranchBuildRepository.claimLogFollower(
+                        runningBuild.getId(),
+                        "host-2",
+                        Instant.now().plus(1, ChronoUnit.MINUTES)
+                )
+        );
+        assertThat(takenOverBySecond).isPresent();
+        assertThat(takenOverBySecond.get().getLogFollowedBy()).isEqualTo("host-2");
+        assertThat(takenOverBySecond.get().getLogCursor()).isEqualTo("2024-01-01T00:00:02Z");
+    }
+
+    @Test
+    public void testSourcePreparationClaimAndCompletion() {
+        ComponentBranchBuild pendingBuild = assertDoesNotThrow(
+                () -> componentBranchBuildRepository.save(
+                        ComponentBranchBuild
+                                .builder()
+                                .branchName("1")
+                                .buildStatus(BuildStatus.PREPARING)
+                                .build()
+                )
+        );
+
+        // the first host claim the preparation, another host cannot take it while it is alive
+        assertThat(
+                componentBranchBuildRepository.claimPreparation(pendingBuild.getId(), "host-1", Instant.now().minus(1, ChronoUnit.MINUTES))
+        ).isPresent();
+        assertThat(
+                componentBranchBuildRepository.claimPreparation(pendingBuild.getId(), "host-2", Instant.now().minus(1, ChronoUnit.MINUTES))
+        ).isEmpty();
+
+        // a dead host is taken over and cannot store its result anymore
+        assertThat(
+                componentBranchBuildRepository.claimPreparation(pendingBuild.getId(), "host-2", Instant.now().plus(1, ChronoUnit.MINUTES))
+        ).isPresent();
+        BuildInfo buildInfo = BuildInfo.builder().scratchLocation("/scratch/build").build();
+        assertThat(componentBranchBuildRepository.updatePreparation(pendingBuild.getId(), "host-1", buildInfo, null)).isFalse();
+        assertThat(componentBranchBuildRepository.updatePreparation(pendingBuild.getId(), "host-2", buildInfo, null)).isTrue();
+
+        // the completed preparation make the build the next to process
+        ComponentBranchBuild preparedBuild = componentBranchBuildRepository.findById(pendingBuild.getId()).orElseThrow();
+        assertThat(preparedBuild.getBuildInfo().getScratchLocation()).isEqualTo("/scratch/build");
+        assertThat(preparedBuild.getPreparationError()).isNull();
+        assertThat(preparedBuild.getLastProcessTime()).isNotNull();
+        Optional<ComponentBranchBuild> nextBuild = assertDoesNotThrow(
+                () -> componentBranchBuildRepository.findAndLockNextDocument(Instant.now().minus(1, ChronoUnit.MINUTES), Instant.now())
+        );
+        assertThat(nextBuild).isPresent();
+        assertThat(nextBuild.get().getId()).isEqualTo(pendingBuild.getId());
+    }
+
+    @Test
+    public void testLockIsFencedByToken() {
+        ComponentBranchBuild newBuild = componentBranchBuildRepository.save(ComponentBranchBuild.builder().build());
+        ComponentBranchBuild firstLock = assertDoesNotThrow(
+                () -> componentBranchBuildRepository.findAndLockNextDocument(Instant.now().minus(1, ChronoUnit.MINUTES))
+        ).orElseThrow();
+        assertThat(firstLock.getLockToken()).isNotNull();
+        assertThat(componentBranchBuildRepository.renewLock(newBuild.getId(), firstLock.getLockToken())).isTrue();
+        assertThat(componentBranchBuildRepository.renewLock(newBuild.getId(), firstLock.getLockToken() + 1)).isFalse();
+
+        // the renewed lock is not taken by another worker
+        assertThat(
+                assertDoesNotThrow(() -> componentBranchBuildRepository.findAndLockNextDocument(Instant.now().minus(1, ChronoUnit.MINUTES)))
+        ).isEmpty();
+
+        // the expired lock is taken with a greater token, the old owner cannot update the build anymore
+        ComponentBranchBuild secondLock = assertDoesNotThrow(
+                () -> componentBranchBuildRepository.findAndLockNextDocument(Instant.now().plus(1, ChronoUnit.MINUTES))
+        ).orElseThrow();
+        assertThat(secondLock.getLockToken()).isGreaterThan(firstLock.getLockToken());
+        BuildInfo buildInfo = BuildInfo.builder().builderName("builder-1").build();
+        assertThat(componentBranchBuildRepository.renewLock(newBuild.getId(), firstLock.getLockToken())).isFalse();
+        assertThat(componentBranchBuildRepository.updateBuildInfo(newBuild.getId(), firstLock.getLockToken(), buildInfo)).isFalse();
+        assertThat(componentBranchBuildRepository.releaseLock(newBuild.getId(), firstLock.getLockToken(), BuildStatus.FAILED)).isFalse();
+        assertThat(componentBranchBuildRepository.updateBuildInfo(newBuild.getId(), secondLock.getLockToken(), buildInfo)).isTrue();
+        assertThat(componentBranchBuildRepository.releaseLock(newBuild.getId(), secondLock.getLockToken(), BuildStatus.SUCCESS)).isTrue();
+
+        ComponentBranchBuild releasedBuild = componentBranchBuildRepository.findById(newBuild.getId()).orElseThrow();
+        assertThat(releasedBuild.getBuildStatus()).isEqualTo(BuildStatus.SUCCESS);
+        assertThat(releasedBuild.getBuildInfo().getBuilderName()).isEqualTo("builder-1");
+        // the token is kept on release, so the next lock of the build gets a greater one
+        assertThat(releasedBuild.getLockToken()).isEqualTo(secondLock.getLockToken());
+        assertThat(componentBranchBuildRepository.renewLock(newBuild.getId(), secondLock.getLockToken())).isFalse();
+    }
+
+    @Test
+    public void testExpiredLockOfRunningBuildIsTakenOver() {
+        ComponentBranchBuild runningBuild = componentBranchBuildRepository.save(
+                ComponentBranchBuild
+                        .builder()
+                        .branchName("1")
+                        .buildStatus(BuildStatus.IN_PROGRESS)
+                        .build()
+        );
+        ComponentBranchBuild firstLock = assertDoesNotThrow(
+                () -> componentBranchBuildRepository.findAndLockNextDocument(Instant.now().minus(1, ChronoUnit.MINUTES))
+        ).orElseThrow();
+        assertThat(firstLock.getId()).isEqualTo(runningBuild.getId());
+
+        // the lock renewed by a live owner is not taken
+        assertThat(componentBranchBuildRepository.renewLock(runningBuild.getId(), firstLock.getLockToken())).isTrue();
+        assertThat(
+                assertDoesNotThrow(() -> componentBranchBuildRepository.findAndLockNextDocument(Instant.now().minus(1, ChronoUnit.MINUTES)))
+        ).isEmpty();
+
+        // the owner dies without releasing the lock, the build is taken over when the lock expires
+        ComponentBranchBuild secondLock = assertDoesNotThrow(
+                () -> componentBranchBuildRepository.findAndLockNextDocument(Instant.now().plus(1, ChronoUnit.MINUTES))
+        ).orElseThrow();
+        assertThat(secondLock.getId()).isEqualTo(runningBuild.getId());
+        assertThat(secondLock.getBuildStatus()).isEqualTo(BuildStatus.IN_PROGRESS);
+        assertThat(secondLock.getLockToken()).isGreaterThan(firstLock.getLockToken());
+        assertThat(componentBranchBuildRepository.renewLock(runningBuild.getId(), firstLock.getLockToken())).isFalse();
+        assertThat(componentBranchBuildRepository.releaseLock(runningBuild.getId(), firstLock.getLockToken(), BuildStatus.FAILED)).isFalse();
+        assertThat(componentBranchBuildRepository.releaseLock(runningBuild.getId(), secondLock.getLockToken(), BuildStatus.SUCCESS)).isTrue();
+
+        // a completed build is never locked again
+        assertThat(
+                assertDoesNotThrow(() -> componentBranchBuildRepository.findAndLockNextDocument(Instant.now().plus(1, ChronoUnit.MINUTES)))
+        ).isEmpty();
+    }
+
+    @Test
+    public void testStopIsRequestedWithoutOverwritingTheBuild() {
+        ComponentBranchBuild runningBuild = componentBranchBuildRepository.save(
+                ComponentBranchBuild
+                        .builder()
+                        .branchName("1")
+                        .buildStatus(BuildStatus.IN_PROGRESS)
+                        .build()
+        );
+        // the log follower update the build after it has been read
+        assertThat(componentBranchBuildRepository.claimLogFollower(runningBuild.getId(), "host-1", Instant.now())).isPresent();
+        assertThat(componentBranchBuildRepository.updateLogCursor(runningBuild.getId(), "host-1", "2024-01-01T00:00:01Z")).isTrue();
+
+        assertThat(componentBranchBuildRepository.requestStop(runningBuild.getId())).isTrue();
+        // the stop is requested once
+        assertThat(componentBranchBuildRepository.requestStop(runningBuild.getId())).isFalse();
+        ComponentBranchBuild stoppingBuild = componentBranchBuildRepository.findById(runningBuild.getId()).orElseThrow();
+        assertThat(stoppingBuild.getBuildStatus()).isEqualTo(BuildStatus.STOP_REQUESTED);
+        assertThat(stoppingBuild.getLogCursor()).isEqualTo("2024-01-01T00:00:01Z");
+
+        // a terminated build is not stopped
+        ComponentBranchBuild completedBuild = componentBranchBuildRepository.save(
+                ComponentBranchBuild
+                        .builder()
+                        .branchName("2")
+                        .buildStatus(BuildStatus.SUCCESS)
+                        .build()
+        );
+        assertThat(componentBranchBuildRepository.requestStop(completedBuild.getId())).isFalse();
+    }
+
+    @Test
+    public void testStopRequestedWhileLockedIsKeptOnRelease() {
+        ComponentBranchBuild runningBuild = componentBranchBuildRepository.save(
+                ComponentBranchBuild
+                        .builder()
+                        .branchName("1")
+                        .buildStatus(BuildStatus.IN_PROGRESS)
+                        .build()
+        );
+        ComponentBranchBuild lockedBuild = assertDoesNotThrow(
+                () -> componentBranchBuildRepository.findAndLockNextDocument(Instant.now().minus(1, ChronoUnit.MINUTES))
+        ).orElseThrow();
+
+        // the stop is requested while the worker holds the lock
+        assertThat(componentBranchBuildRepository.requestStop(runningBuild.getId())).isTrue();
+        assertThat(componentBranchBuildRepository.releaseLock(runningBuild.getId(), lockedBuild.getLockToken(), BuildStatus.IN_PROGRESS)).isTrue();
+        ComponentBranchBuild releasedBuild = componentBranchBuildRepository.findById(runningBuild.getId()).orElseThrow();
+        assertThat(releasedBuild.getBuildStatus()).isEqualTo(BuildStatus.STOP_REQUESTED);
+        assertThat(componentBranchBuildRepository.renewLock(runningBuild.getId(), lockedBuild.getLockToken())).isFalse();
+
+        // the next worker stops the build
+        ComponentBranchBuild stoppingBuild = assertDoesNotThrow(
+                () -> componentBranchBuildRepository.findAndLockNextDocument(Instant.now().minus(1, ChronoUnit.MINUTES))
+        ).orElseThrow();
+        assertThat(stoppingBuild.getBuildStatus()).isEqualTo(BuildStatus.STOP_REQUESTED);
+        assertThat(componentBranchBuildRepository.releaseLock(runningBuild.getId(), stoppingBuild.getLockToken(), BuildStatus.STOPPED)).isTrue();
+        assertThat(componentBranchBuildRepository.findById(runningBuild.getId()).orElseThrow().getBuildStatus()).isEqualTo(BuildStatus.STOPPED);
+    }
+
+    @Test
+    public void testExpediteWhileLockedIsKeptOnRelease() {
+        ComponentBranchBuild runningBuild = componentBranchBuildRepository.save(
+                ComponentBranchBuild
+                        .builder()
+                        .branchName("1")
+                        .buildStatus(BuildStatus.IN_PROGRESS)
+                        .build()
+        );
+        ComponentBranchBuild lockedBuild = assertDoesNotThrow(
+                () -> componentBranchBuildRepository.findAndLockNextDocument(Instant.now().minus(1, ChronoUnit.MINUTES))
+        ).orElseThrow();
+
+        // the builder pod terminates while the worker holds the lock
+        assertThat(componentBranchBuildRepository.expediteProcessing(runningBuild.getId())).isTrue();
+        assertThat(componentBranchBuildRepository.releaseLock(runningBuild.getId(), lockedBuild.getLockToken(), BuildStatus.IN_PROGRESS)).isTrue();
+        assertThat(componentBranchBuildRepository.findById(runningBuild.getId()).orElseThrow().getLastProcessTime())
+                .isBefore(LocalDateTime.of(1971, 1, 1, 0, 0));
+
+        // without the expedite the build waits for the next processing
+        ComponentBranchBuild relockedBuild = assertDoesNotThrow(
+                () -> componentBranchBuildRepository.findAndLockNextDocument(Instant.now().minus(1, ChronoUnit.MINUTES))
+        ).orElseThrow();
+        assertThat(componentBranchBuildRepository.releaseLock(runningBuild.getId(), relockedBuild.getLockToken(), BuildStatus.IN_PROGRESS)).isTrue();
+        assertThat(componentBranchBuildRepository.findById(runningBuild.getId()).orElseThrow().getLastProcessTime())
+                .isAfter(LocalDateTime.of(1971, 1, 1, 0, 0));
+    }
 }
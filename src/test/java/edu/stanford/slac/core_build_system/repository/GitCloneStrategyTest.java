@@ -0,0 +1,144 @@
+package edu.stanford.slac.core_build_system.repository;
+
+import edu.stanford.slac.core_build_system.config.GitHubClient;
+import edu.stanford.slac.core_build_system.model.CloneStrategy;
+import edu.stanford.slac.core_build_system.model.Component;
+import edu.stanford.slac.core_build_system.utility.GitServer;
+import lombok.extern.log4j.Log4j2;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.ListBranchCommand;
+import org.eclipse.jgit.lib.Ref;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+
+@Log4j2
+@AutoConfigureMockMvc
+@SpringBootTest()
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@ExtendWith(MockitoExtension.class)
+@ActiveProfiles({"test"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class GitCloneStrategyTest {
+    private static final int HISTORY_COMMITS = 50;
+    @MockBean
+    private GitHubClient.GHInstancer ghInstancer;
+    @Autowired
+    private GitServerRepository gitServerRepository;
+    private Component component;
+
+    @BeforeAll
+    public void setUp() throws Exception {
+        String repositoryPath = GitServer.setupServer(List.of("branch1", "branch2"));
+        GitServer.appendHistory(HISTORY_COMMITS, 4096);
+        component = Component.builder().name("clone-test").url(repositoryPath).build();
+    }
+
+    @AfterAll
+    public void tearDown() {
+        GitServer.cleanup();
+    }
+
+    @Test
+    public void testShallowSingleBranchNoTagsClone() throws Exception {
+        Path clonePath = Files.createTempDirectory("clone-test");
+        try {
+            String clonedPath = assertDoesNotThrow(
+                    () -> gitServerRepository.downLoadRepository(
+                            component,
+                            "main",
+                            clonePath.toString(),
+                            CloneStrategy.builder().depth(1).singleBranch(true).noTags(true).build()
+                    )
+            );
+            try (Git git = Git.open(new File(clonedPath))) {
+                assertThat(git.log().call()).hasSize(1);
+                assertThat(git.tagList().call()).isEmpty();
+                assertThat(git.branchList().setListMode(ListBranchCommand.ListMode.REMOTE).call())
+                        .extracting(Ref::getName)
+                        .containsExactly("refs/remotes/origin/main");
+            }
+        } finally {
+            FileSystemUtils.deleteRecursively(clonePath);
+        }
+    }
+
+    @Test
+    public void testFullClone() throws Exception {
+        Path clonePath = Files.createTempDirectory("clone-test");
+        try {
+            String clonedPath = assertDoesNotThrow(
+                    () -> gitServerRepository.downLoadRepository(component, "main", clonePath.toString(), null)
+            );
+            try (Git git = Git.open(new File(clonedPath))) {
+                assertThat(git.log().call()).hasSize(HISTORY_COMMITS + 1);
+                assertThat(git.tagList().call()).hasSize(HISTORY_COMMITS / 10);
+                assertThat(git.branchList().setListMode(ListBranchCommand.ListMode.REMOTE).call()).hasSizeGreaterThan(1);
+            }
+        } finally {
+            FileSystemUtils.deleteRecursively(clonePath);
+        }
+    }
+
+    /**
+     * Compare time and size of the fetched objects of the full and the shallow clone
+     * <p>
+     * Excluded from the default test task, run it with './gradlew benchmark'
+     */
+    @Test
+    @Tag("benchmark")
+    public void benchmarkCloneStrategy() throws Exception {
+        GitServer.appendHistory(500, 64 * 1024);
+        long[] full = measureClone(null);
+        long[] shallow = measureClone(CloneStrategy.builder().depth(1).singleBranch(true).noTags(true).build());
+        log.info(
+                "Clone benchmark: full clone {} ms, {} bytes of objects; shallow clone {} ms, {} bytes of objects",
+                full[0],
+                full[1],
+                shallow[0],
+                shallow[1]
+        );
+        assertThat(shallow[1]).isLessThan(full[1]);
+    }
+
+    /**
+     * Clone the main branch and measure the time and the size of the git object database
+     *
+     * @param cloneStrategy the strategy to use
+     * @return the clone time in milliseconds and the size in bytes of the objects
+     */
+    private long[] measureClone(CloneStrategy cloneStrategy) throws Exception {
+        Path clonePath = Files.createTempDirectory("clone-benchmark");
+        try {
+            long start = System.nanoTime();
+            String clonedPath = gitServerRepository.downLoadRepository(component, "main", clonePath.toString(), cloneStrategy);
+            long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+            return new long[]{elapsedMs, sizeOf(Path.of(clonedPath, ".git", "objects"))};
+        } finally {
+            FileSystemUtils.deleteRecursively(clonePath);
+        }
+    }
+
+    private static long sizeOf(Path path) throws IOException {
+        try (Stream<Path> files = Files.walk(path)) {
+            return files.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+        }
+    }
+}
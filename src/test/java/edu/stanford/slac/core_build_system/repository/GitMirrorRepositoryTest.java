@@ -0,0 +1,144 @@
+package edu.stanford.slac.core_build_system.repository;
+
+import edu.stanford.slac.core_build_system.config.CoreBuildProperties;
+import edu.stanford.slac.core_build_system.config.GitHubClient;
+import edu.stanford.slac.core_build_system.model.Component;
+import edu.stanford.slac.core_build_system.utility.GitServer;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+
+@AutoConfigureMockMvc
+@SpringBootTest()
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@ExtendWith(MockitoExtension.class)
+@ActiveProfiles({"test"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class GitMirrorRepositoryTest {
+    @MockBean
+    private GitHubClient.GHInstancer ghInstancer;
+    @Autowired
+    private CoreBuildProperties coreBuildProperties;
+    @Autowired
+    private GitMirrorRepository gitMirrorRepository;
+    private Component component;
+    private Path mirrorRoot;
+    private Path scratchRoot;
+
+    @BeforeAll
+    public void setUp() throws Exception {
+        String repositoryPath = GitServer.setupServer(List.of("branch1", "branch2"));
+        component = Component.builder().name("mirror-test").url(repositoryPath).build();
+    }
+
+    @AfterAll
+    public void tearDown() {
+        GitServer.cleanup();
+    }
+
+    @BeforeEach
+    public void prepare() throws Exception {
+        mirrorRoot = Files.createTempDirectory("git-mirror");
+        scratchRoot = Files.createTempDirectory("git-mirror-scratch");
+        coreBuildProperties.setGitMirrorRootDirectory(mirrorRoot.toString());
+        coreBuildProperties.setGitMirrorMaxAgeMs(60 * 60 * 1000);
+        coreBuildProperties.setGitMirrorMaxSizeBytes(Long.MAX_VALUE);
+    }
+
+    @AfterEach
+    public void clean() throws Exception {
+        FileSystemUtils.deleteRecursively(mirrorRoot);
+        FileSystemUtils.deleteRecursively(scratchRoot);
+    }
+
+    @Test
+    public void testCloneFromMirrorAndIncrementalFetch() throws Exception {
+        String firstClone = assertDoesNotThrow(
+                () -> gitMirrorRepository.downLoadRepository(component, "branch1", scratchRoot.resolve("first").toString(), null)
+        );
+        assertThat(Files.exists(mirrorRoot.resolve("mirror-test.git").resolve(Constants.HEAD))).isTrue();
+        try (Git git = Git.open(new File(firstClone))) {
+            assertThat(git.getRepository().getBranch()).isEqualTo("branch1");
+            // the build see the component repository as origin, not the mirror
+            assertThat(
+                    git.getRepository().getConfig().getString(ConfigConstants.CONFIG_REMOTE_SECTION, Constants.DEFAULT_REMOTE_NAME, ConfigConstants.CONFIG_KEY_URL)
+            ).isEqualTo(component.getUrl());
+        }
+
+        // a new commit on the server is fetched into the existing mirror
+        GitServer.appendHistory(1, 16);
+        String secondClone = assertDoesNotThrow(
+                () -> gitMirrorRepository.downLoadRepository(component, "main", scratchRoot.resolve("second").toString(), null)
+        );
+        try (Git git = Git.open(new File(secondClone))) {
+            assertThat(git.log().call()).hasSize(2);
+        }
+    }
+
+    @Test
+    public void testConcurrentCloneOfSameComponent() throws Exception {
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> clones = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                String clonePath = scratchRoot.resolve("clone-" + i).toString();
+                clones.add(executorService.submit(() -> gitMirrorRepository.downLoadRepository(component, "branch2", clonePath, null)));
+            }
+            for (Future<String> clone : clones) {
+                String clonedPath = assertDoesNotThrow(() -> clone.get());
+                assertThat(Files.exists(Path.of(clonedPath, "branch2.txt"))).isTrue();
+            }
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testEvictionByAgeAndSize() {
+        assertDoesNotThrow(
+                () -> gitMirrorRepository.downLoadRepository(component, "main", scratchRoot.resolve("clone").toString(), null)
+        );
+        Path mirrorPath = mirrorRoot.resolve("mirror-test.git");
+
+        // recently used and within the quota
+        gitMirrorRepository.evict();
+        assertThat(Files.exists(mirrorPath)).isTrue();
+
+        // over the quota
+        coreBuildProperties.setGitMirrorMaxSizeBytes(1);
+        gitMirrorRepository.evict();
+        assertThat(Files.exists(mirrorPath)).isFalse();
+
+        // expired
+        coreBuildProperties.setGitMirrorMaxSizeBytes(Long.MAX_VALUE);
+        assertDoesNotThrow(
+                () -> gitMirrorRepository.downLoadRepository(component, "main", scratchRoot.resolve("clone-again").toString(), null)
+        );
+        assertThat(Files.exists(mirrorPath)).isTrue();
+        coreBuildProperties.setGitMirrorMaxAgeMs(-1);
+        gitMirrorRepository.evict();
+        assertThat(Files.exists(mirrorPath)).isFalse();
+    }
+}
@@ -2,10 +2,12 @@ package edu.stanford.slac.core_build_system.repository;
 
 import edu.stanford.slac.core_build_system.config.GitHubClient;
 import edu.stanford.slac.core_build_system.model.K8SPodBuilder;
+import edu.stanford.slac.core_build_system.model.ResourceProfile;
 import edu.stanford.slac.core_build_system.utility.KubernetesInit;
 import io.fabric8.kubernetes.api.model.PersistentVolume;
 import io.fabric8.kubernetes.api.model.PersistentVolumeClaim;
 import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.Quantity;
 import io.fabric8.kubernetes.client.KubernetesClient;
 import io.fabric8.kubernetes.client.KubernetesClientException;
 import io.fabric8.kubernetes.client.utils.Serialization;
@@ -28,6 +30,7 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import static java.util.concurrent.TimeUnit.SECONDS;
@@ -101,4 +104,39 @@ public class KubernetesRepositoryTest {
         var deletePodResult = assertDoesNotThrow(() -> repository.deletePod(buildNamespace,  newPod.getMetadata().getName()));
         assertThat(deletePodResult).isNotEmpty();
     }
+
+    @Test
+    public void createPodWithResourceProfile() {
+        Pod newPod = assertDoesNotThrow(() -> repository.spinUpBuildPod(
+                K8SPodBuilder.builder()
+                        .namespace(buildNamespace)
+                        .dockerImage("busybox")
+                        .builderName("%s-test-builder".formatted(UUID.randomUUID().toString()))
+                        .buildCommand(List.of("echo", "Hello, World!"))
+                        .mountLocation("/mnt")
+                        .resourceProfile(
+                                ResourceProfile.builder()
+                                        .cpuRequest("250m")
+                                        .memoryLimit("2Gi")
+                                        .ephemeralStorageLimit("1Gi")
+                                        .nodeSelector(Map.of("kubernetes.io/os", "linux"))
+                                        .build()
+                        )
+                        .build()
+                )
+        );
+        try {
+            var resources = newPod.getSpec().getContainers().getFirst().getResources();
+            // the values not in the profile use the default resources
+            assertThat(resources.getRequests().get("cpu")).isEqualTo(new Quantity("250m"));
+            assertThat(resources.getLimits().get("cpu")).isEqualTo(new Quantity("1"));
+            assertThat(resources.getRequests().get("memory")).isEqualTo(new Quantity("1Gi"));
+            assertThat(resources.getLimits().get("memory")).isEqualTo(new Quantity("2Gi"));
+            assertThat(resources.getLimits().get("ephemeral-storage")).isEqualTo(new Quantity("1Gi"));
+            assertThat(resources.getRequests()).doesNotContainKey("ephemeral-storage");
+            assertThat(newPod.getSpec().getNodeSelector()).containsEntry("kubernetes.io/os", "linux");
+        } finally {
+            assertDoesNotThrow(() -> repository.deletePod(buildNamespace, newPod.getMetadata().getName()));
+        }
+    }
 }
@@ -0,0 +1,221 @@
+package edu.stanford.slac.core_build_system.repository;
+
+import edu.stanford.slac.core_build_system.config.GitHubClient;
+import edu.stanford.slac.core_build_system.model.LogChunk;
+import edu.stanford.slac.core_build_system.model.LogEntry;
+import edu.stanford.slac.core_build_system.utility.LogChunkCodec;
+import lombok.extern.log4j.Log4j2;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+
+@Log4j2
+@AutoConfigureMockMvc
+@SpringBootTest()
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@ExtendWith(MockitoExtension.class)
+@ActiveProfiles({"test"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class LogChunkRepositoryTest {
+    @MockBean
+    private GitHubClient.GHInstancer ghInstancer;
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    @Autowired
+    private LogChunkRepository logChunkRepository;
+
+    @BeforeEach
+    public void clean() {
+        mongoTemplate.remove(new Query(), LogEntry.class);
+        mongoTemplate.remove(new Query(), LogChunk.class);
+    }
+
+    @Test
+    public void testChunkEncodeDecode() {
+        String buildId = new ObjectId().toString();
+        List<LogEntry> lines = List.of(
+                newEntry(buildId, 0),
+                LogEntry.builder().buildId(buildId).log("line without timestamp àè").build(),
+                newEntry(buildId, 2)
+        );
+        LogChunk chunk = assertDoesNotThrow(() -> LogChunkCodec.encode(buildId, 3, 100, lines));
+        assertThat(chunk.getLineCount()).isEqualTo(3);
+
+        List<LogEntry> decoded = assertDoesNotThrow(() -> LogChunkCodec.decode(chunk));
+        assertThat(decoded).hasSize(3);
+        for (int i = 0; i < lines.size(); i++) {
+            assertThat(decoded.get(i).getLineNumber()).isEqualTo(100 + i);
+            assertThat(decoded.get(i).getTimestamp()).isEqualTo(lines.get(i).getTimestamp());
+            assertThat(decoded.get(i).getLog()).isEqualTo(lines.get(i).getLog());
+        }
+    }
+
+    @Test
+    public void testBatchingWriterSealChunksAndFlushOnClose() {
+        String buildId = new ObjectId().toString();
+        BatchingLogWriter logWriter = new BatchingLogWriter(logChunkRepository, buildId, 10, 1024 * 1024, Duration.ofMinutes(1), null);
+        for (int i = 0; i < 25; i++) {
+            logWriter.add(newEntry(buildId, i));
+        }
+        // two chunk of ten lines are stored, the last five are still buffered
+        assertThat(readLines(buildId)).hasSize(20);
+
+        // closing the writer store the open chunk
+        assertDoesNotThrow(logWriter::close);
+        List<LogEntry> storedLines = readLines(buildId);
+        assertThat(storedLines).hasSize(25);
+        assertThat(logWriter.getWrittenLines()).isEqualTo(25);
+        assertThat(logChunkRepository.findByBuildIdOrderByChunkSeqAsc(buildId)).hasSize(3);
+
+        // a new writer continue the log after the last chunk
+        try (BatchingLogWriter resumedWriter = new BatchingLogWriter(logChunkRepository, buildId, 10, 1024 * 1024, Duration.ofMinutes(1), null)) {
+            resumedWriter.add(newEntry(buildId, 25));
+        }
+        storedLines = readLines(buildId);
+        assertThat(storedLines).hasSize(26);
+        for (int i = 0; i < storedLines.size(); i++) {
+            assertThat(storedLines.get(i).getLineNumber()).isEqualTo(i);
+        }
+    }
+
+    @Test
+    public void testBatchingWriterReplaceOpenChunkOnFlush() {
+        String buildId = new ObjectId().toString();
+        try (BatchingLogWriter logWriter = new BatchingLogWriter(logChunkRepository, buildId, 10, 1024 * 1024, Duration.ofMinutes(1), null)) {
+            logWriter.add(newEntry(buildId, 0));
+            logWriter.flush();
+            logWriter.add(newEntry(buildId, 1));
+            logWriter.flush();
+            // the open chunk is stored once and updated
+            assertThat(logChunkRepository.findByBuildIdOrderByChunkSeqAsc(buildId)).hasSize(1);
+            assertThat(readLines(buildId)).hasSize(2);
+        }
+    }
+
+    @Test
+    public void testBatchingWriterStoreTheCursorWithTheLines() {
+        String buildId = new ObjectId().toString();
+        try (BatchingLogWriter logWriter = new BatchingLogWriter(logChunkRepository, buildId, 2, 1024 * 1024, Duration.ofMinutes(1), null)) {
+            logWriter.add(newEntry(buildId, 0), "2024-01-01T00:00:00.000000001Z");
+            assertThat(logWriter.getStoredLogCursor()).isNull();
+            // the sealed chunk store the cursor of its last line
+            logWriter.add(newEntry(buildId, 1), "2024-01-01T00:00:00.000000002Z");
+            assertThat(logWriter.getStoredLogCursor()).isEqualTo("2024-01-01T00:00:00.000000002Z");
+            // a line without cursor keep the previous one
+            logWriter.add(newEntry(buildId, 2));
+            logWriter.flush();
+            assertThat(logWriter.getStoredLogCursor()).isEqualTo("2024-01-01T00:00:00.000000002Z");
+            logWriter.add(newEntry(buildId, 3), "2024-01-01T00:00:00.000000004Z");
+        }
+
+        // a new writer of the same build resume from the cursor of the last stored line
+        try (BatchingLogWriter logWriter = new BatchingLogWriter(logChunkRepository, buildId, 2, 1024 * 1024, Duration.ofMinutes(1), null)) {
+            assertThat(logWriter.getStoredLogCursor()).isEqualTo("2024-01-01T00:00:00.000000004Z");
+            assertThat(logWriter.getWrittenLines()).isEqualTo(4);
+        }
+    }
+
+    @Test
+    public void testBatchingWriterFlushOnBytes() {
+        String buildId = new ObjectId().toString();
+        try (BatchingLogWriter logWriter = new BatchingLogWriter(logChunkRepository, buildId, 1000, 1024, Duration.ofMinutes(1), null)) {
+            logWriter.add(LogEntry.builder().buildId(buildId).timestamp(LocalDateTime.now()).log("x".repeat(2048)).build());
+            assertThat(readLines(buildId)).hasSize(1);
+        }
+    }
+
+    @Test
+    public void testBatchingWriterFlushOnDelay() {
+        String buildId = new ObjectId().toString();
+        ScheduledExecutorService flushScheduler = Executors.newSingleThreadScheduledExecutor();
+        try (BatchingLogWriter logWriter = new BatchingLogWriter(logChunkRepository, buildId, 1000, 1024 * 1024, Duration.ofMillis(100), flushScheduler)) {
+            logWriter.add(newEntry(buildId, 0));
+            await()
+                    .atMost(Duration.ofSeconds(5))
+                    .until(() -> readLines(buildId).size() == 1);
+        } finally {
+            flushScheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Compare the line per second and the storage of one document per line against the chunk writer
+     * <p>
+     * Excluded from the default test task, run it with './gradlew benchmark'
+     */
+    @Test
+    @Tag("benchmark")
+    public void benchmarkLogIngestion() {
+        int lines = 20000;
+        String perLineBuildId = new ObjectId().toString();
+        long perLineStart = System.nanoTime();
+        for (int i = 0; i < lines; i++) {
+            mongoTemplate.insert(newEntry(perLineBuildId, i));
+        }
+        double perLineRate = lines / ((System.nanoTime() - perLineStart) / 1e9);
+
+        String chunkedBuildId = new ObjectId().toString();
+        long chunkedStart = System.nanoTime();
+        try (BatchingLogWriter logWriter = new BatchingLogWriter(logChunkRepository, chunkedBuildId, 2000, 1024 * 1024, Duration.ofSeconds(1), null)) {
+            for (int i = 0; i < lines; i++) {
+                logWriter.add(newEntry(chunkedBuildId, i));
+            }
+        }
+        double chunkedRate = lines / ((System.nanoTime() - chunkedStart) / 1e9);
+
+        Document perLineStats = mongoTemplate.executeCommand(new Document("collStats", mongoTemplate.getCollectionName(LogEntry.class)));
+        Document chunkedStats = mongoTemplate.executeCommand(new Document("collStats", mongoTemplate.getCollectionName(LogChunk.class)));
+        log.info(
+                "Log ingestion of {} lines: one document per line {} lines/s, {} bytes, {} index bytes; chunked {} lines/s, {} bytes, {} index bytes",
+                lines,
+                (long) perLineRate,
+                perLineStats.get("size"),
+                perLineStats.get("totalIndexSize"),
+                (long) chunkedRate,
+                chunkedStats.get("size"),
+                chunkedStats.get("totalIndexSize")
+        );
+        assertThat(readLines(chunkedBuildId)).hasSize(lines);
+        assertThat(chunkedRate).isGreaterThan(perLineRate);
+    }
+
+    private List<LogEntry> readLines(String buildId) {
+        List<LogEntry> lines = new ArrayList<>();
+        for (LogChunk chunk : logChunkRepository.findByBuildIdOrderByChunkSeqAsc(buildId)) {
+            lines.addAll(assertDoesNotThrow(() -> LogChunkCodec.decode(chunk)));
+        }
+        return lines;
+    }
+
+    private static LogEntry newEntry(String buildId, int line) {
+        return LogEntry.builder()
+                .buildId(buildId)
+                .timestamp(LocalDateTime.now())
+                .log("[%d] compiling src/module/file_%d.cpp -o build/file_%d.o -O2 -Wall".formatted(line, line, line))
+                .build();
+    }
+}
@@ -0,0 +1,161 @@
+package edu.stanford.slac.core_build_system.service;
+
+import edu.stanford.slac.core_build_system.api.v1.dto.BuildStatusDTO;
+import edu.stanford.slac.core_build_system.config.CoreBuildProperties;
+import edu.stanford.slac.core_build_system.config.GitHubClient;
+import edu.stanford.slac.core_build_system.model.BuildStatus;
+import edu.stanford.slac.core_build_system.model.Component;
+import edu.stanford.slac.core_build_system.model.ComponentBranchBuild;
+import edu.stanford.slac.core_build_system.repository.ComponentBranchBuildRepository;
+import edu.stanford.slac.core_build_system.repository.ComponentRepository;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Optional;
+
+import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
+
+@AutoConfigureMockMvc
+@SpringBootTest()
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@ExtendWith(MockitoExtension.class)
+@ActiveProfiles({"test"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class BuildSchedulingPolicyTest {
+    @MockBean
+    private GitHubClient.GHInstancer ghInstancer;
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    @Autowired
+    private CoreBuildProperties coreBuildProperties;
+    @Autowired
+    private ThreadPoolTaskScheduler taskScheduler;
+    @Autowired
+    private ComponentRepository componentRepository;
+    @Autowired
+    private ComponentBranchBuildRepository componentBranchBuildRepository;
+    @Autowired
+    private BuildSchedulingPolicy buildSchedulingPolicy;
+    @Autowired
+    private ComponentBuildService componentBuildService;
+    private Component componentA;
+    private Component componentB;
+
+    @BeforeAll
+    public void stopDispatcher() {
+        // the builds are claimed only by the test
+        taskScheduler.shutdown();
+    }
+
+    @AfterAll
+    public void restartDispatcher() {
+        taskScheduler.initialize();
+    }
+
+    @BeforeEach
+    public void clean() {
+        mongoTemplate.remove(new Query(), ComponentBranchBuild.class);
+        mongoTemplate.remove(new Query(), Component.class);
+        componentA = componentRepository.save(Component.builder().name("component-a").organization("organization-a").build());
+        componentB = componentRepository.save(Component.builder().name("component-b").organization("organization-b").build());
+        coreBuildProperties.setMaxConcurrentBuilds(0);
+        coreBuildProperties.setMaxConcurrentBuildsPerComponent(0);
+        coreBuildProperties.setMaxConcurrentBuildsPerOrganization(0);
+    }
+
+    @Test
+    public void testPriorityClasses() {
+        assertThat(buildSchedulingPolicy.priorityOf("main", true)).isEqualTo(300);
+        assertThat(buildSchedulingPolicy.priorityOf("release-1.0", false)).isEqualTo(200);
+        assertThat(buildSchedulingPolicy.priorityOf("feature-1", true)).isEqualTo(100);
+        assertThat(buildSchedulingPolicy.priorityOf("feature-1", false)).isEqualTo(0);
+    }
+
+    @Test
+    public void testComponentsShareTheQueue() {
+        // component a floods the queue before component b submit its build
+        ComponentBranchBuild a1 = saveBuild(componentA, BuildStatus.PENDING, 0);
+        ComponentBranchBuild a2 = saveBuild(componentA, BuildStatus.PENDING, 0);
+        ComponentBranchBuild a3 = saveBuild(componentA, BuildStatus.PENDING, 0);
+        ComponentBranchBuild b1 = saveBuild(componentB, BuildStatus.PENDING, 0);
+        assertThat(buildSchedulingPolicy.queuePosition(a1.getId())).contains(1);
+        assertThat(buildSchedulingPolicy.queuePosition(b1.getId())).contains(2);
+        assertThat(buildSchedulingPolicy.queuePosition(a2.getId())).contains(3);
+        assertThat(buildSchedulingPolicy.queuePosition(a3.getId())).contains(4);
+
+        // a build with higher priority goes first and counts in the share of its component
+        ComponentBranchBuild main = saveBuild(componentA, BuildStatus.PENDING, BuildSchedulingPolicy.MAIN_BRANCH_PRIORITY);
+        assertThat(buildSchedulingPolicy.queuePosition(main.getId())).contains(1);
+        assertThat(buildSchedulingPolicy.queuePosition(b1.getId())).contains(2);
+        assertThat(buildSchedulingPolicy.queuePosition(a1.getId())).contains(3);
+
+        // the started builds are not in the queue
+        Optional<ComponentBranchBuild> claimed = buildSchedulingPolicy.claimNextQueuedBuild(lockTimeout());
+        assertThat(claimed).isPresent().get().extracting(ComponentBranchBuild::getId).isEqualTo(main.getId());
+        assertThat(buildSchedulingPolicy.queuePosition(main.getId())).isEmpty();
+        assertThat(buildSchedulingPolicy.queuePosition(b1.getId())).contains(1);
+    }
+
+    @Test
+    public void testMaxConcurrentBuildsPerComponent() {
+        coreBuildProperties.setMaxConcurrentBuildsPerComponent(1);
+        saveBuild(componentA, BuildStatus.IN_PROGRESS, 0);
+        saveBuild(componentA, BuildStatus.PENDING, 0);
+        ComponentBranchBuild b1 = saveBuild(componentB, BuildStatus.PENDING, 0);
+        saveBuild(componentB, BuildStatus.PENDING, 0);
+
+        // component a is at its limit, the build of component b is started
+        Optional<ComponentBranchBuild> claimed = buildSchedulingPolicy.claimNextQueuedBuild(lockTimeout());
+        assertThat(claimed).isPresent().get().extracting(ComponentBranchBuild::getId).isEqualTo(b1.getId());
+        // now both the components are at their limit
+        assertThat(buildSchedulingPolicy.claimNextQueuedBuild(lockTimeout())).isEmpty();
+
+        // the global limit stop all the components
+        coreBuildProperties.setMaxConcurrentBuildsPerComponent(0);
+        coreBuildProperties.setMaxConcurrentBuilds(2);
+        assertThat(buildSchedulingPolicy.claimNextQueuedBuild(lockTimeout())).isEmpty();
+        coreBuildProperties.setMaxConcurrentBuilds(3);
+        assertThat(buildSchedulingPolicy.claimNextQueuedBuild(lockTimeout())).isPresent();
+    }
+
+    @Test
+    public void testQueuePositionIsReturnedOnlyByTheUserLookup() {
+        // nothing to start in an empty queue
+        assertThat(buildSchedulingPolicy.claimNextQueuedBuild(lockTimeout())).isEmpty();
+
+        ComponentBranchBuild a1 = saveBuild(componentA, BuildStatus.PENDING, 0);
+        ComponentBranchBuild b1 = saveBuild(componentB, BuildStatus.PENDING, BuildSchedulingPolicy.MANUAL_PRIORITY);
+        assertThat(componentBuildService.findBuildWithQueuePosition(a1.getId()).queuePosition()).isEqualTo(2);
+        assertThat(componentBuildService.findBuildWithQueuePosition(b1.getId()).queuePosition()).isEqualTo(1);
+        // the internal lookups do not compute the position
+        assertThat(componentBuildService.findBuildById(a1.getId()).queuePosition()).isNull();
+        assertThat(componentBuildService.findBuildStatusById(a1.getId())).isEqualTo(BuildStatusDTO.PENDING);
+    }
+
+    private Instant lockTimeout() {
+        return Instant.now().minus(1, ChronoUnit.MINUTES);
+    }
+
+    private ComponentBranchBuild saveBuild(Component component, BuildStatus buildStatus, int priority) {
+        return componentBranchBuildRepository.save(
+                ComponentBranchBuild.builder()
+                        .componentId(component.getId())
+                        .branchName("branch1")
+                        .buildStatus(buildStatus)
+                        .priority(priority)
+                        .build()
+        );
+    }
+}
@@ -7,6 +7,7 @@ import edu.stanford.slac.core_build_system.exception.BranchNotFound;
 import edu.stanford.slac.core_build_system.exception.BuildOSMissing;
 import edu.stanford.slac.core_build_system.model.Component;
 import edu.stanford.slac.core_build_system.model.ComponentBranchBuild;
+import edu.stanford.slac.core_build_system.model.LogChunk;
 import edu.stanford.slac.core_build_system.model.LogEntry;
 import edu.stanford.slac.core_build_system.repository.KubernetesRepository;
 import org.assertj.core.api.AssertionsForClassTypes;
@@ -66,6 +67,7 @@ public class ComponentBuildServiceFailTest {
         mongoTemplate.remove(new Query(), Component.class);
         mongoTemplate.remove(new Query(), ComponentBranchBuild.class);
         mongoTemplate.remove(new Query(), LogEntry.class);
+        mongoTemplate.remove(new Query(), LogChunk.class);
     }
 
 
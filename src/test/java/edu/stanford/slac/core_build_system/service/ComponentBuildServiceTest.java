@@ -4,13 +4,24 @@ import edu.stanford.slac.core_build_system.api.v1.dto.*;
 import edu.stanford.slac.core_build_system.config.CoreBuildProperties;
 import edu.stanford.slac.core_build_system.config.GitHubClient;
 import edu.stanford.slac.core_build_system.exception.BuildNotFound;
+import edu.stanford.slac.core_build_system.model.BuildImage;
+import edu.stanford.slac.core_build_system.model.BuildOS;
+import edu.stanford.slac.core_build_system.model.BuildStatus;
 import edu.stanford.slac.core_build_system.model.Component;
 import edu.stanford.slac.core_build_system.model.ComponentBranchBuild;
+import edu.stanford.slac.core_build_system.model.LogChunk;
 import edu.stanford.slac.core_build_system.model.LogEntry;
+import edu.stanford.slac.core_build_system.model.SharedCheckout;
+import edu.stanford.slac.core_build_system.repository.BatchingLogWriter;
+import edu.stanford.slac.core_build_system.repository.BuildImageRepository;
+import edu.stanford.slac.core_build_system.repository.ComponentBranchBuildRepository;
 import edu.stanford.slac.core_build_system.repository.GithubServerRepository;
 import edu.stanford.slac.core_build_system.repository.KubernetesRepository;
+import edu.stanford.slac.core_build_system.repository.LogChunkRepository;
 import edu.stanford.slac.core_build_system.utility.GitServer;
 import edu.stanford.slac.core_build_system.utility.KubernetesInit;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.types.ObjectId;
 import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
 import org.junit.jupiter.api.*;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -29,10 +40,18 @@ import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ActiveProfiles;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
@@ -81,6 +100,16 @@ public class ComponentBuildServiceTest {
     private CoreBuildProperties coreBuildProperties;
     @Autowired
     private ThreadPoolTaskScheduler taskScheduler;
+    @Autowired
+    private LogChunkRepository logChunkRepository;
+    @Autowired
+    private SharedCheckoutService sharedCheckoutService;
+    @Autowired
+    private BuildImageRepository buildImageRepository;
+    @Autowired
+    private ComponentBranchBuildRepository componentBranchBuildRepository;
+    @Autowired
+    private MeterRegistry meterRegistry;
 
     @BeforeAll
     public void setUp() throws Exception {
@@ -157,6 +186,8 @@ public class ComponentBuildServiceTest {
     public void cleanBuild() {
         mongoTemplate.remove(new Query(), ComponentBranchBuild.class);
         mongoTemplate.remove(new Query(), LogEntry.class);
+        mongoTemplate.remove(new Query(), LogChunk.class);
+        mongoTemplate.remove(new Query(), SharedCheckout.class);
         // Reset the mock before each test
         taskScheduler.initialize();
     }
@@ -213,6 +244,15 @@ public class ComponentBuildServiceTest {
                 }
         );
 
+        // all the os builds have used the same checkout, deleted when they have terminated
+        Set<String> sharedCheckoutIds = buildIds.stream()
+                .map(buildId -> componentBuildService.findBuildById(buildId).sharedCheckoutId())
+                .collect(Collectors.toSet());
+        assertThat(sharedCheckoutIds).hasSize(1);
+        await()
+                .atMost(10, SECONDS)
+                .until(() -> sharedCheckoutService.findById(sharedCheckoutIds.iterator().next()).isEmpty());
+
 
         // fetch the log
         buildIds.forEach(
@@ -333,4 +373,290 @@ public class ComponentBuildServiceTest {
                         }
                 );
     }
+
+    @Test
+    public void testTriggerBurstSupersedePendingBuilds() throws Exception {
+        Map<String, String> buildVariables = Map.of(
+                "ADBS_BUILD_TYPE", "container"
+        );
+        double supersededBefore = meterRegistry.counter("cbs.build.trigger.superseded").count();
+        // the first trigger of the burst is held by the quiet window
+        List<String> supersededBuildIds = assertDoesNotThrow(
+                () -> componentBuildService.triggerBuild(component.name(), "branch1", buildVariables)
+        );
+        assertThat(supersededBuildIds).hasSize(2);
+        String supersededCheckoutId = componentBuildService.findBuildById(supersededBuildIds.getFirst()).sharedCheckoutId();
+        supersededBuildIds.forEach(
+                buildId -> {
+                    ComponentBranchBuildDTO build = componentBuildService.findBuildById(buildId);
+                    assertThat(build.buildStatus()).isEqualTo(BuildStatusDTO.PENDING);
+                    assertThat(build.notBefore()).isAfter(Instant.now());
+                }
+        );
+
+        // the next trigger of the same branch cancel the held builds before any pod is created
+        List<String> latestBuildIds = assertDoesNotThrow(
+                () -> componentBuildService.triggerBuild(component.name(), "branch1", buildVariables)
+        );
+        supersededBuildIds.forEach(
+                buildId -> {
+                    ComponentBranchBuildDTO build = componentBuildService.findBuildById(buildId);
+                    assertThat(build.buildStatus()).isEqualTo(BuildStatusDTO.STOPPED);
+                    assertThat(build.buildInfo()).isNull();
+                }
+        );
+        assertThat(meterRegistry.counter("cbs.build.trigger.superseded").count() - supersededBefore).isEqualTo(2);
+        assertThat(sharedCheckoutService.findById(supersededCheckoutId)).isEmpty();
+
+        // only the last trigger is built, once the quiet window is over
+        await()
+                .atMost(120, SECONDS)
+                .pollDelay(2, SECONDS)
+                .pollInterval(2, SECONDS)
+                .until(
+                        () -> latestBuildIds.stream()
+                                .map(componentBuildService::findBuildById)
+                                .allMatch(build -> build.buildStatus() == BuildStatusDTO.SUCCESS || build.buildStatus() == BuildStatusDTO.FAILED)
+                );
+        supersededBuildIds.forEach(
+                buildId -> assertThat(componentBuildService.findBuildById(buildId).buildStatus()).isEqualTo(BuildStatusDTO.STOPPED)
+        );
+    }
+
+    @Test
+    public void testBuildCompletedFromCache() throws Exception {
+        Map<String, String> buildVariables = Map.of(
+                "ADBS_BUILD_TYPE", "container"
+        );
+        Component componentModel = mongoTemplate.findById(component.id(), Component.class);
+        String commitSha = githubServerRepository.resolveBranchHead(componentModel, "branch1");
+        assertThat(commitSha).isNotNull();
+
+        // a previous successful build of the same commit for each os, with its log
+        Map<String, String> cachedBuildIdByOs = new HashMap<>();
+        for (BuildImage buildImage : buildImageRepository.findAll()) {
+            if (!componentModel.getBuildOs().contains(buildImage.getOs())) continue;
+            ComponentBranchBuild cachedBuild = componentBranchBuildRepository.save(
+                    ComponentBranchBuild.builder()
+                            .componentId(component.id())
+                            .branchName("branch1")
+                            .buildOs(buildImage.getOs())
+                            .buildImageUrl(buildImage.getDockerImageUrl())
+                            .buildCustomVariables(buildVariables)
+                            .commitSha(commitSha)
+                            .cacheKey(ComponentBuildService.cacheKey(commitSha, buildImage.getOs(), buildImage.getDockerImageUrl(), componentModel.getBuildInstructions(), buildVariables))
+                            .buildStatus(BuildStatus.SUCCESS)
+                            .build()
+            );
+            try (BatchingLogWriter logWriter = new BatchingLogWriter(logChunkRepository, cachedBuild.getId(), 10, 1024 * 1024, Duration.ofMinutes(1), null)) {
+                logWriter.add(LogEntry.builder().buildId(cachedBuild.getId()).timestamp(LocalDateTime.now()).log("cached build").build());
+            }
+            cachedBuildIdByOs.put(buildImage.getOs().name(), cachedBuild.getId());
+        }
+        assertThat(cachedBuildIdByOs).hasSize(2);
+        double hitsBefore = meterRegistry.counter("cbs.build.cache", "result", "hit").count();
+
+        // the same commit, image and variables complete immediately referencing the previous build
+        List<String> buildIds = assertDoesNotThrow(
+                () -> componentBuildService.startBuild(component.name(), "branch1", buildVariables)
+        );
+        assertThat(buildIds).hasSize(2);
+        for (String buildId : buildIds) {
+            ComponentBranchBuildDTO build = componentBuildService.findBuildById(buildId);
+            assertThat(build.buildStatus()).isEqualTo(BuildStatusDTO.SUCCESS);
+            assertThat(build.commitSha()).isEqualTo(commitSha);
+            assertThat(build.cachedFromBuildId()).isEqualTo(cachedBuildIdByOs.get(build.buildOs().name()));
+            assertThat(componentBuildService.findLogForBuild(buildId)).extracting(LogEntryDTO::log).containsExactly("cached build");
+        }
+        assertThat(meterRegistry.counter("cbs.build.cache", "result", "hit").count() - hitsBefore).isEqualTo(2);
+        // the previous builds are not stopped by the new trigger
+        cachedBuildIdByOs.values().forEach(
+                id -> assertThat(componentBuildService.findBuildById(id).buildStatus()).isEqualTo(BuildStatusDTO.SUCCESS)
+        );
+
+        // the bypass execute the builds
+        List<String> bypassBuildIds = assertDoesNotThrow(
+                () -> componentBuildService.startBuild(component.name(), "branch1", buildVariables, true)
+        );
+        for (String buildId : bypassBuildIds) {
+            ComponentBranchBuildDTO build = componentBuildService.findBuildById(buildId);
+            assertThat(build.cachedFromBuildId()).isNull();
+            assertThat(build.sharedCheckoutId()).isNotNull();
+        }
+    }
+
+    @Test
+    public void testChangedBuildInstructionsMissTheCache() throws Exception {
+        Map<String, String> buildVariables = Map.of(
+                "ADBS_BUILD_TYPE", "container"
+        );
+        Component componentModel = mongoTemplate.findById(component.id(), Component.class);
+        String commitSha = githubServerRepository.resolveBranchHead(componentModel, "branch1");
+        assertThat(commitSha).isNotNull();
+
+        // a previous successful build of the same commit made with another build command
+        String previousInstructions = "%s && make install".formatted(componentModel.getBuildInstructions());
+        for (BuildImage buildImage : buildImageRepository.findAll()) {
+            if (!componentModel.getBuildOs().contains(buildImage.getOs())) continue;
+            componentBranchBuildRepository.save(
+                    ComponentBranchBuild.builder()
+                            .componentId(component.id())
+                            .branchName("branch1")
+                            .buildOs(buildImage.getOs())
+                            .buildImageUrl(buildImage.getDockerImageUrl())
+                            .buildCustomVariables(buildVariables)
+                            .commitSha(commitSha)
+                            .cacheKey(ComponentBuildService.cacheKey(commitSha, buildImage.getOs(), buildImage.getDockerImageUrl(), previousInstructions, buildVariables))
+                            .buildStatus(BuildStatus.SUCCESS)
+                            .build()
+            );
+        }
+        double missesBefore = meterRegistry.counter("cbs.build.cache", "result", "miss").count();
+
+        // the current build command is executed
+        List<String> buildIds = assertDoesNotThrow(
+                () -> componentBuildService.startBuild(component.name(), "branch1", buildVariables)
+        );
+        assertThat(buildIds).hasSize(2);
+        buildIds.forEach(
+                buildId -> assertThat(componentBuildService.findBuildById(buildId).cachedFromBuildId()).isNull()
+        );
+        assertThat(meterRegistry.counter("cbs.build.cache", "result", "miss").count() - missesBefore).isEqualTo(2);
+    }
+
+    @Test
+    public void testDeleteOfCachedBuilds() throws Exception {
+        Map<String, String> buildVariables = Map.of(
+                "ADBS_BUILD_TYPE", "container"
+        );
+        Component componentModel = mongoTemplate.findById(component.id(), Component.class);
+        String commitSha = githubServerRepository.resolveBranchHead(componentModel, "branch1");
+        assertThat(commitSha).isNotNull();
+        Map<BuildOS, String> cacheKeyByOs = new HashMap<>();
+        Map<BuildOS, String> originBuildIdByOs = new HashMap<>();
+        for (BuildImage buildImage : buildImageRepository.findAll()) {
+            if (!componentModel.getBuildOs().contains(buildImage.getOs())) continue;
+            String cacheKey = ComponentBuildService.cacheKey(commitSha, buildImage.getOs(), buildImage.getDockerImageUrl(), componentModel.getBuildInstructions(), buildVariables);
+            ComponentBranchBuild originBuild = componentBranchBuildRepository.save(
+                    ComponentBranchBuild.builder()
+                            .componentId(component.id())
+                            .branchName("branch1")
+                            .buildOs(buildImage.getOs())
+                            .buildImageUrl(buildImage.getDockerImageUrl())
+                            .buildCustomVariables(buildVariables)
+                            .commitSha(commitSha)
+                            .cacheKey(cacheKey)
+                            .buildStatus(BuildStatus.SUCCESS)
+                            .build()
+            );
+            cacheKeyByOs.put(buildImage.getOs(), cacheKey);
+            originBuildIdByOs.put(buildImage.getOs(), originBuild.getId());
+        }
+        Map<BuildOS, String> hitBuildIdByOs = assertDoesNotThrow(
+                () -> componentBuildService.startBuild(component.name(), "branch1", buildVariables)
+        ).stream().map(componentBuildService::findBuildById).collect(Collectors.toMap(ComponentBranchBuildDTO::buildOs, ComponentBranchBuildDTO::id));
+        assertThat(hitBuildIdByOs).containsOnlyKeys(BuildOS.ROCKY9, BuildOS.RHEL8);
+
+        // a build completed from the cache has no pod and is deleted without touching its origin
+        assertDoesNotThrow(() -> componentBuildService.deleteBuild(hitBuildIdByOs.get(BuildOS.ROCKY9)));
+        assertThat(componentBranchBuildRepository.existsById(hitBuildIdByOs.get(BuildOS.ROCKY9))).isFalse();
+        assertThat(componentBuildService.findBuildById(originBuildIdByOs.get(BuildOS.ROCKY9)).buildStatus()).isEqualTo(BuildStatusDTO.SUCCESS);
+
+        // the deleted origin is not referenced anymore by its cache hits
+        assertDoesNotThrow(() -> componentBuildService.deleteBuild(originBuildIdByOs.get(BuildOS.RHEL8)));
+        ComponentBranchBuildDTO orphanHit = componentBuildService.findBuildById(hitBuildIdByOs.get(BuildOS.RHEL8));
+        assertThat(orphanHit.cachedFromBuildId()).isNull();
+        assertThat(orphanHit.cacheKey()).isNull();
+
+        // a hit whose origin no longer exists, stored before the deletion cleared the references, is not used
+        componentBranchBuildRepository.deleteById(originBuildIdByOs.get(BuildOS.ROCKY9));
+        componentBranchBuildRepository.save(
+                ComponentBranchBuild.builder()
+                        .componentId(component.id())
+                        .branchName("branch1")
+                        .buildOs(BuildOS.ROCKY9)
+                        .commitSha(commitSha)
+                        .cacheKey(cacheKeyByOs.get(BuildOS.ROCKY9))
+                        .cachedFromBuildId(originBuildIdByOs.get(BuildOS.ROCKY9))
+                        .buildStatus(BuildStatus.SUCCESS)
+                        .build()
+        );
+        double missesBefore = meterRegistry.counter("cbs.build.cache", "result", "miss").count();
+        List<String> rebuiltIds = assertDoesNotThrow(
+                () -> componentBuildService.startBuild(component.name(), "branch1", buildVariables)
+        );
+        assertThat(rebuiltIds).hasSize(2);
+        rebuiltIds.forEach(
+                buildId -> assertThat(componentBuildService.findBuildById(buildId).cachedFromBuildId()).isNull()
+        );
+        assertThat(meterRegistry.counter("cbs.build.cache", "result", "miss").count() - missesBefore).isEqualTo(2);
+    }
+
+    @Test
+    public void testSharedCheckoutPinAndRelease() throws Exception {
+        String sharedCheckoutId = new ObjectId().toString();
+        sharedCheckoutService.register(sharedCheckoutId, component.id(), "branch1", List.of("build-1", "build-2"));
+
+        // the first build pins the commit, the second get the pinned one
+        SharedCheckout pinned = sharedCheckoutService.pinCommit(sharedCheckoutId, "sha-1", "/shared/checkout-a");
+        assertThat(pinned.getCommitSha()).isEqualTo("sha-1");
+        pinned = sharedCheckoutService.pinCommit(sharedCheckoutId, "sha-2", "/shared/checkout-b");
+        assertThat(pinned.getCommitSha()).isEqualTo("sha-1");
+        assertThat(pinned.getLocation()).isEqualTo("/shared/checkout-a");
+
+        Path checkoutPath = Path.of(coreBuildProperties.getBuildFsRootDirectory(), "shared", "checkout-a");
+        Files.createDirectories(checkoutPath.resolve("component-a"));
+
+        // the checkout is kept until the last build release it, also when a build release it twice
+        sharedCheckoutService.release(sharedCheckoutId, "build-1");
+        sharedCheckoutService.release(sharedCheckoutId, "build-1");
+        assertThat(sharedCheckoutService.findById(sharedCheckoutId)).isPresent();
+        assertThat(Files.exists(checkoutPath)).isTrue();
+
+        sharedCheckoutService.release(sharedCheckoutId, "build-2");
+        assertThat(sharedCheckoutService.findById(sharedCheckoutId)).isEmpty();
+        assertThat(Files.exists(checkoutPath)).isFalse();
+    }
+
+    @Test
+    public void testLogPaginationAndStreaming() {
+        String buildId = new ObjectId().toString();
+        try (BatchingLogWriter logWriter = new BatchingLogWriter(logChunkRepository, buildId, 10, 1024 * 1024, Duration.ofMinutes(1), null)) {
+            for (int i = 0; i < 35; i++) {
+                logWriter.add(LogEntry.builder().buildId(buildId).timestamp(LocalDateTime.now()).log("line %d".formatted(i)).build());
+            }
+        }
+
+        // whole log
+        List<LogEntryDTO> fullLog = assertDoesNotThrow(
+                () -> componentBuildService.findLogForBuild(buildId)
+        );
+        assertThat(fullLog).hasSize(35);
+
+        // read the log in pages that cross the chunk boundaries
+        List<LogEntryDTO> pagedLog = new ArrayList<>();
+        Long afterLine = null;
+        while (true) {
+            Long currentAfterLine = afterLine;
+            List<LogEntryDTO> page = assertDoesNotThrow(
+                    () -> componentBuildService.findLogForBuild(buildId, currentAfterLine, 7)
+            );
+            if (page.isEmpty()) break;
+            assertThat(page.size()).isLessThanOrEqualTo(7);
+            pagedLog.addAll(page);
+            afterLine = page.getLast().lineNumber();
+        }
+        assertThat(pagedLog).hasSize(35);
+        for (int i = 0; i < pagedLog.size(); i++) {
+            assertThat(pagedLog.get(i).lineNumber()).isEqualTo(i);
+            assertThat(pagedLog.get(i).log()).isEqualTo("line %d".formatted(i));
+        }
+
+        // stream from a line in the middle of a chunk
+        try (Stream<LogEntryDTO> logStream = componentBuildService.streamLogForBuild(buildId, 14L)) {
+            List<LogEntryDTO> streamedLog = logStream.toList();
+            assertThat(streamedLog).hasSize(20);
+            assertThat(streamedLog.getFirst().lineNumber()).isEqualTo(15);
+        }
+    }
 }
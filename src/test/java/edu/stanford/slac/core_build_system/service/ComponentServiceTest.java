@@ -5,8 +5,10 @@ import edu.stanford.slac.core_build_system.api.v1.dto.*;
 import edu.stanford.slac.core_build_system.config.GitHubClient;
 import edu.stanford.slac.core_build_system.exception.ComponentAlreadyExists;
 import edu.stanford.slac.core_build_system.exception.ComponentNotFound;
+import edu.stanford.slac.core_build_system.exception.ComponentRepositoryAlreadyUsed;
 import edu.stanford.slac.core_build_system.model.CommandTemplate;
 import edu.stanford.slac.core_build_system.model.Component;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -18,7 +20,9 @@ import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMock
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ActiveProfiles;
 
@@ -26,7 +30,9 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
+import static org.awaitility.Awaitility.await;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
@@ -45,6 +51,8 @@ public class ComponentServiceTest {
     ComponentService componentService;
     @Autowired
     CommandTemplateService commandTemplateService;
+    @Autowired
+    MeterRegistry meterRegistry;
 
     @BeforeEach
     public void cleanCollection() {
@@ -471,4 +479,150 @@ public class ComponentServiceTest {
         assertThat(branchAlreadyExists).isNotNull();
         assertThat(branchAlreadyExists.getErrorCode()).isEqualTo(-2);
     }
+
+    @Test
+    public void componentsAreCachedUntilTheyChange() {
+        var componentId = assertDoesNotThrow(
+                () -> componentService.create(
+                        NewComponentDTO
+                                .builder()
+                                .name("cached component")
+                                .description("cached component")
+                                .url("https://www.cached.org/")
+                                .build()
+                )
+        );
+        double hits = meterRegistry.get("cache.gets").tag("cache", "components").tag("result", "hit").functionCounter().count();
+        assertThat(componentService.findById(componentId).description()).isEqualTo("cached component");
+        assertThat(componentService.findById(componentId).description()).isEqualTo("cached component");
+        assertThat(meterRegistry.get("cache.gets").tag("cache", "components").tag("result", "hit").functionCounter().count()).isGreaterThan(hits);
+
+        // the update done by the service is seen immediately
+        assertDoesNotThrow(
+                () -> componentService.updateById(
+                        componentId,
+                        UpdateComponentDTO
+                                .builder()
+                                .name("cached component")
+                                .description("cached component updated")
+                                .url("https://www.cached.org/")
+                                .build()
+                )
+        );
+        assertThat(componentService.findById(componentId).description()).isEqualTo("cached component updated");
+
+        // the write of another instance is seen through the change stream
+        mongoTemplate.updateFirst(
+                new Query(Criteria.where("id").is(componentId)),
+                new Update().set("description", "updated by another instance"),
+                Component.class
+        );
+        await()
+                .atMost(10, SECONDS)
+                .until(() -> componentService.findById(componentId).description().equals("updated by another instance"));
+    }
+
+    @Test
+    public void componentsAreFoundByTheirRepositoryKey() {
+        var componentId = assertDoesNotThrow(
+                () -> componentService.create(
+                        NewComponentDTO
+                                .builder()
+                                .name("hosted component")
+                                .description("hosted component")
+                                .url("https://github.com/AD-Build-Test/Repository-Name")
+                                .build()
+                )
+        );
+        // the urls of a github event
+        assertThat(
+                componentService.findComponentByProjectUrl(
+                        List.of(
+                                "git://github.com/ad-build-test/repository-name.git",
+                                "git@github.com:ad-build-test/repository-name.git",
+                                "https://github.com/ad-build-test/repository-name.git"
+                        )
+                ).id()
+        ).isEqualTo(componentId);
+        assertThat(componentService.findComponentByProjectUrl(List.of("git@github.com:ad-build-test/repository-name.git")).id())
+                .isEqualTo(componentId);
+
+        // the same repository cannot be used by another component
+        var repositoryAlreadyUsed = assertThrows(
+                ComponentRepositoryAlreadyUsed.class,
+                () -> componentService.create(
+                        NewComponentDTO
+                                .builder()
+                                .name("another hosted component")
+                                .description("another hosted component")
+                                .url("git@github.com:ad-build-test/repository-name.git")
+                                .build()
+                )
+        );
+        assertThat(repositoryAlreadyUsed.getErrorCode()).isEqualTo(-1);
+
+        // the key follows the url of the component
+        assertDoesNotThrow(
+                () -> componentService.updateById(
+                        componentId,
+                        UpdateComponentDTO
+                                .builder()
+                                .name("hosted component")
+                                .description("hosted component")
+                                .url("https://github.com/ad-build-test/other-repository.git")
+                                .build()
+                )
+        );
+        assertThat(componentService.findComponentByProjectUrl(List.of("git://github.com/ad-build-test/other-repository.git")).id())
+                .isEqualTo(componentId);
+        assertThrows(
+                ControllerLogicException.class,
+                () -> componentService.findComponentByProjectUrl(List.of("git://github.com/ad-build-test/repository-name.git"))
+        );
+    }
+
+    @Test
+    public void invalidBuildPathFilterIsRejected() {
+        var invalidFilterOnCreate = assertThrows(
+                ControllerLogicException.class,
+                () -> componentService.create(
+                        NewComponentDTO
+                                .builder()
+                                .name("filtered component")
+                                .description("filtered component")
+                                .url("https://github.com/ad-build-test/filtered-repository")
+                                .buildPathFilter(BuildPathFilterDTO.builder().include(List.of("src/[main")).build())
+                                .build()
+                )
+        );
+        assertThat(invalidFilterOnCreate.getErrorCode()).isEqualTo(-3);
+
+        var componentId = assertDoesNotThrow(
+                () -> componentService.create(
+                        NewComponentDTO
+                                .builder()
+                                .name("filtered component")
+                                .description("filtered component")
+                                .url("https://github.com/ad-build-test/filtered-repository")
+                                .buildPathFilter(BuildPathFilterDTO.builder().include(List.of("src/**")).exclude(List.of("**.md")).build())
+                                .build()
+                )
+        );
+        var invalidFilterOnUpdate = assertThrows(
+                ControllerLogicException.class,
+                () -> componentService.updateById(
+                        componentId,
+                        UpdateComponentDTO
+                                .builder()
+                                .name("filtered component")
+                                .description("filtered component")
+                                .url("https://github.com/ad-build-test/filtered-repository")
+                                .buildPathFilter(BuildPathFilterDTO.builder().exclude(List.of("{docs,{site}}")).build())
+                                .build()
+                )
+        );
+        assertThat(invalidFilterOnUpdate.getErrorCode()).isEqualTo(-3);
+        // the stored filter is unchanged
+        assertThat(componentService.findById(componentId).buildPathFilter().exclude()).containsExactly("**.md");
+    }
 }
@@ -0,0 +1,266 @@
+package edu.stanford.slac.core_build_system.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import edu.stanford.slac.core_build_system.api.v1.dto.BranchDTO;
+import edu.stanford.slac.core_build_system.api.v1.dto.BuildOSDTO;
+import edu.stanford.slac.core_build_system.api.v1.dto.BuildPathFilterDTO;
+import edu.stanford.slac.core_build_system.api.v1.dto.GitHubPullRequestWebhookDTO;
+import edu.stanford.slac.core_build_system.api.v1.dto.GitHubPushWebhookDTO;
+import edu.stanford.slac.core_build_system.api.v1.dto.NewComponentDTO;
+import edu.stanford.slac.core_build_system.config.GitHubClient;
+import edu.stanford.slac.core_build_system.exception.WebhookSignatureNotValid;
+import edu.stanford.slac.core_build_system.model.Component;
+import edu.stanford.slac.core_build_system.model.ComponentBranchBuild;
+import edu.stanford.slac.core_build_system.model.WebhookDelivery;
+import edu.stanford.slac.core_build_system.utility.GithubEventParser;
+import edu.stanford.slac.core_build_system.utility.GithubEventParser.EventFields;
+import lombok.extern.log4j.Log4j2;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+@Log4j2
+@AutoConfigureMockMvc
+@SpringBootTest()
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@ExtendWith(MockitoExtension.class)
+@ActiveProfiles({"test"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class GithubEventServiceTest {
+    private static final List<String> PUSH_PAYLOADS = List.of(
+            "gh-push-main.json",
+            "pr-merged-commit.json",
+            "branch-deleted-after-merge.json",
+            "push-new-branch.json"
+    );
+    private static final List<String> PULL_REQUEST_PAYLOADS = List.of(
+            "pull-request-created.json",
+            "pull-request-sync.json",
+            "pull-request-close.json",
+            "push-update-new-branch.json"
+    );
+    @MockBean
+    GitHubClient.GHInstancer ghInstancer;
+    @Autowired
+    MongoTemplate mongoTemplate;
+    @Autowired
+    ObjectMapper objectMapper;
+    @Autowired
+    ThreadPoolTaskScheduler taskScheduler;
+    @Autowired
+    ComponentService componentService;
+    @Autowired
+    GithubEventService githubEventService;
+
+    @BeforeAll
+    public void stopInboxWorkers() {
+        // the deliveries are only stored, not processed
+        taskScheduler.shutdown();
+    }
+
+    @AfterAll
+    public void restartInboxWorkers() {
+        taskScheduler.initialize();
+    }
+
+    @BeforeEach
+    public void cleanCollection() {
+        mongoTemplate.remove(new Query(), Component.class);
+        mongoTemplate.remove(new Query(), WebhookDelivery.class);
+        mongoTemplate.remove(new Query(), ComponentBranchBuild.class);
+    }
+
+    @Test
+    public void streamingParserReadTheSameFieldsOfTheBinding() throws Exception {
+        for (String payloadFile : PUSH_PAYLOADS) {
+            byte[] payload = load(payloadFile);
+            GitHubPushWebhookDTO pushEvent = objectMapper.readValue(payload, GitHubPushWebhookDTO.class);
+            EventFields eventFields = GithubEventParser.parse(payload);
+            assertThat(eventFields.ref()).isEqualTo(pushEvent.ref());
+            assertThat(eventFields.after()).isEqualTo(pushEvent.after());
+            assertThat(eventFields.repository().gitUrl()).isEqualTo(pushEvent.repository().gitUrl());
+            assertThat(eventFields.repository().sshUrl()).isEqualTo(pushEvent.repository().sshUrl());
+            assertThat(eventFields.repository().cloneUrl()).isEqualTo(pushEvent.repository().cloneUrl());
+            assertThat(GithubEventParser.repositoryUrls(payload)).isEqualTo(eventFields.repository());
+        }
+        for (String payloadFile : PULL_REQUEST_PAYLOADS) {
+            byte[] payload = load(payloadFile);
+            GitHubPullRequestWebhookDTO prEvent = objectMapper.readValue(payload, GitHubPullRequestWebhookDTO.class);
+            EventFields eventFields = GithubEventParser.parse(payload);
+            assertThat(eventFields.action()).isEqualTo(prEvent.action());
+            assertThat(eventFields.title()).isEqualTo(prEvent.pullRequest().title());
+            assertThat(eventFields.headRef()).isEqualTo(prEvent.pullRequest().head().ref());
+            assertThat(eventFields.headSha()).isEqualTo(prEvent.pullRequest().head().sha());
+            assertThat(eventFields.baseRef()).isEqualTo(prEvent.pullRequest().base().ref());
+            // the urls of the repository of the head branch are not the ones of the event
+            assertThat(eventFields.repository().gitUrl()).isEqualTo(prEvent.repository().gitUrl());
+            assertThat(eventFields.repository().cloneUrl()).isEqualTo(prEvent.repository().cloneUrl());
+        }
+    }
+
+    @Test
+    public void signatureIsVerifiedBeforeStoringTheEvent() throws Exception {
+        // the event of a repository without component is acknowledged and not stored
+        byte[] unknownPayload = load("pull-request-sync.json");
+        assertThat(githubEventService.receiveEvent("delivery-unknown", "pull_request", sign(unknownPayload, "any-token"), unknownPayload)).isFalse();
+
+        String componentId = assertDoesNotThrow(
+                () -> componentService.create(
+                        NewComponentDTO
+                                .builder()
+                                .name("webhook component")
+                                .description("webhook component")
+                                .url("https://github.com/ad-build-test/repository-name")
+                                .build()
+                )
+        );
+        String componentToken = componentService.findById(componentId).componentToken();
+        byte[] payload = load("pull-request-sync.json");
+
+        // a forged event is rejected
+        assertThrows(
+                WebhookSignatureNotValid.class,
+                () -> githubEventService.receiveEvent("delivery-forged", "pull_request", sign(payload, "wrong-token"), payload)
+        );
+        assertThrows(
+                WebhookSignatureNotValid.class,
+                () -> githubEventService.receiveEvent("delivery-unsigned", "pull_request", null, payload)
+        );
+        assertThat(mongoTemplate.count(new Query(), WebhookDelivery.class)).isZero();
+
+        // the signed event is stored once
+        assertThat(githubEventService.receiveEvent("delivery-signed", "pull_request", sign(payload, componentToken), payload)).isTrue();
+        assertThat(githubEventService.receiveEvent("delivery-signed", "pull_request", sign(payload, componentToken), payload)).isFalse();
+        // without the delivery identifier the hash of the payload deduplicates the event
+        assertThat(githubEventService.receiveEvent(null, "pull_request", sign(payload, componentToken), payload)).isTrue();
+        assertThat(githubEventService.receiveEvent(null, "pull_request", sign(payload, componentToken), payload)).isFalse();
+        assertThat(mongoTemplate.count(new Query(), WebhookDelivery.class)).isEqualTo(2);
+    }
+
+    @Test
+    public void pushTriggersTheBuildOnlyForTheFilteredPaths() throws Exception {
+        String componentId = assertDoesNotThrow(
+                () -> componentService.create(
+                        NewComponentDTO
+                                .builder()
+                                .name("push component")
+                                .description("push component")
+                                .url("https://github.com/ad-build-test/repository-name")
+                                .buildOs(List.of(BuildOSDTO.ROCKY9))
+                                .buildPathFilter(
+                                        BuildPathFilterDTO
+                                                .builder()
+                                                .include(List.of("src/**", "Makefile"))
+                                                .exclude(List.of("**.md"))
+                                                .build()
+                                )
+                                .build()
+                )
+        );
+        assertDoesNotThrow(
+                () -> componentService.addNewBranch(
+                        "push-component",
+                        BranchDTO.builder().type("main").branchName("main").build()
+                )
+        );
+        Query componentBuilds = new Query(Criteria.where("componentId").is(componentId));
+
+        // the push on main changes only the readme
+        EventFields readmePush = GithubEventParser.parse(load("gh-push-main.json"));
+        assertThat(readmePush.changedPaths()).containsExactly("README.md");
+        githubEventService.managePushEvent(readmePush);
+        assertThat(mongoTemplate.count(componentBuilds, ComponentBranchBuild.class)).isZero();
+
+        // the excluded documentation in the included sources does not need a build
+        githubEventService.managePushEvent(readmePush.toBuilder().changedPaths(Set.of("src/README.md", "docs/index.html")).build());
+        assertThat(mongoTemplate.count(componentBuilds, ComponentBranchBuild.class)).isZero();
+
+        // a push of many commits that change only excluded paths does not need a build
+        githubEventService.managePushEvent(readmePush.toBuilder().commits(25).changedPaths(Set.of("README.md", "src/CHANGELOG.md")).build());
+        assertThat(mongoTemplate.count(componentBuilds, ComponentBranchBuild.class)).isZero();
+
+        // a deleted branch and a branch not registered in the component are not built
+        githubEventService.managePushEvent(GithubEventParser.parse(load("branch-deleted-after-merge.json")));
+        githubEventService.managePushEvent(readmePush.toBuilder().ref("refs/heads/unknown").changedPaths(Set.of("src/main.c")).build());
+        assertThat(mongoTemplate.count(componentBuilds, ComponentBranchBuild.class)).isZero();
+
+        // a change of the sources is built
+        githubEventService.managePushEvent(readmePush.toBuilder().changedPaths(Set.of("README.md", "src/module/main.c")).build());
+        assertThat(mongoTemplate.count(componentBuilds.addCriteria(Criteria.where("branchName").is("main")), ComponentBranchBuild.class)).isEqualTo(1);
+    }
+
+    /**
+     * Compare the binding of the full payload to the dto with the streaming extraction of the needed fields
+     * <p>
+     * Excluded from the default test task, run it with './gradlew benchmark'
+     */
+    @Test
+    @Tag("benchmark")
+    public void benchmarkEventParsing() throws Exception {
+        int iterations = 20000;
+        for (String payloadFile : PULL_REQUEST_PAYLOADS) {
+            byte[] payload = load(payloadFile);
+            // warm up both paths
+            for (int i = 0; i < iterations / 10; i++) {
+                objectMapper.readValue(payload, GitHubPullRequestWebhookDTO.class);
+                GithubEventParser.parse(payload);
+            }
+            long bindingStart = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                objectMapper.readValue(payload, GitHubPullRequestWebhookDTO.class);
+            }
+            double bindingRate = iterations / ((System.nanoTime() - bindingStart) / 1e9);
+            long streamingStart = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                GithubEventParser.parse(payload);
+            }
+            double streamingRate = iterations / ((System.nanoTime() - streamingStart) / 1e9);
+            long urlsStart = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                GithubEventParser.repositoryUrls(payload);
+            }
+            double urlsRate = iterations / ((System.nanoTime() - urlsStart) / 1e9);
+            log.info(
+                    "Parsing of {} ({} bytes): dto binding {} events/s, streaming {} events/s, repository urls only {} events/s",
+                    payloadFile,
+                    payload.length,
+                    (long) bindingRate,
+                    (long) streamingRate,
+                    (long) urlsRate
+            );
+            assertThat(streamingRate).isGreaterThan(bindingRate);
+        }
+    }
+
+    private static byte[] load(String payloadFile) throws Exception {
+        return new ClassPathResource(payloadFile).getContentAsByteArray();
+    }
+
+    private static String sign(byte[] payload, String secret) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        return "sha256=" + HexFormat.of().formatHex(mac.doFinal(payload));
+    }
+}
@@ -0,0 +1,123 @@
+package edu.stanford.slac.core_build_system.service;
+
+import edu.stanford.slac.core_build_system.config.CoreBuildProperties;
+import edu.stanford.slac.core_build_system.config.GitHubClient;
+import edu.stanford.slac.core_build_system.model.*;
+import edu.stanford.slac.core_build_system.repository.ComponentBranchBuildRepository;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.Optional;
+
+import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
+
+@AutoConfigureMockMvc
+@SpringBootTest()
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@ExtendWith(MockitoExtension.class)
+@ActiveProfiles({"test"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class ResourceAutosizerTest {
+    private static final long MEBIBYTE = 1024 * 1024;
+    @MockBean
+    private GitHubClient.GHInstancer ghInstancer;
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    @Autowired
+    private CoreBuildProperties coreBuildProperties;
+    @Autowired
+    private ComponentBranchBuildRepository componentBranchBuildRepository;
+    @Autowired
+    private ResourceAutosizer resourceAutosizer;
+    private final String componentId = new ObjectId().toString();
+
+    @BeforeEach
+    public void clean() {
+        mongoTemplate.remove(new Query(), ComponentBranchBuild.class);
+        coreBuildProperties.setAutosizeEnabled(true);
+        coreBuildProperties.setAutosizeMinSamples(3);
+        coreBuildProperties.setAutosizeHeadroom(0.2);
+    }
+
+    @Test
+    public void testPeakUsageIsRecordedOnRunningBuilds() {
+        ComponentBranchBuild build = componentBranchBuildRepository.save(
+                ComponentBranchBuild.builder().componentId(componentId).buildOs(BuildOS.RHEL8).buildStatus(BuildStatus.IN_PROGRESS).build()
+        );
+        assertThat(componentBranchBuildRepository.recordResourceUsage(build.getId(), 500, 300 * MEBIBYTE)).isTrue();
+        assertThat(componentBranchBuildRepository.recordResourceUsage(build.getId(), 1500, 200 * MEBIBYTE)).isTrue();
+
+        ResourceUsage usage = componentBranchBuildRepository.findById(build.getId()).orElseThrow().getResourceUsage();
+        assertThat(usage.getPeakCpuMillis()).isEqualTo(1500);
+        assertThat(usage.getPeakMemoryBytes()).isEqualTo(300 * MEBIBYTE);
+        assertThat(usage.getSamples()).isEqualTo(2);
+
+        // a terminated build is not sampled anymore
+        build = componentBranchBuildRepository.findById(build.getId()).orElseThrow();
+        build.setBuildStatus(BuildStatus.SUCCESS);
+        componentBranchBuildRepository.save(build);
+        assertThat(componentBranchBuildRepository.recordResourceUsage(build.getId(), 4000, 300 * MEBIBYTE)).isFalse();
+    }
+
+    @Test
+    public void testRecommendationFromHistory() {
+        // not enough history
+        saveTerminatedBuild(BuildOS.RHEL8, 1000, 1000 * MEBIBYTE, false);
+        saveTerminatedBuild(BuildOS.RHEL8, 1000, 1000 * MEBIBYTE, false);
+        assertThat(resourceAutosizer.recommend(componentId, BuildOS.RHEL8)).isEmpty();
+
+        // the request follow the p95, the limit the highest peak
+        for (int i = 0; i < 17; i++) {
+            saveTerminatedBuild(BuildOS.RHEL8, 1000, 1000 * MEBIBYTE, false);
+        }
+        saveTerminatedBuild(BuildOS.RHEL8, 2000, 2000 * MEBIBYTE, false);
+        // another os does not count
+        saveTerminatedBuild(BuildOS.ROCKY9, 8000, 8000 * MEBIBYTE, false);
+        Optional<ResourceProfile> profile = resourceAutosizer.recommend(componentId, BuildOS.RHEL8);
+        assertThat(profile).isPresent();
+        assertThat(profile.get().getCpuRequest()).isEqualTo("1200m");
+        assertThat(profile.get().getCpuLimit()).isEqualTo("2400m");
+        assertThat(profile.get().getMemoryRequest()).isEqualTo("1200Mi");
+        assertThat(profile.get().getMemoryLimit()).isEqualTo("2400Mi");
+
+        // an oom killed build doubles its memory limit
+        saveTerminatedBuild(BuildOS.RHEL8, 1000, 1000 * MEBIBYTE, true);
+        profile = resourceAutosizer.recommend(componentId, BuildOS.RHEL8);
+        assertThat(profile).isPresent();
+        assertThat(profile.get().getMemoryLimit()).isEqualTo("%dMi".formatted((long) Math.ceil(2 * 2048 * 1.2)));
+
+        coreBuildProperties.setAutosizeEnabled(false);
+        assertThat(resourceAutosizer.recommend(componentId, BuildOS.RHEL8)).isEmpty();
+    }
+
+    private void saveTerminatedBuild(BuildOS buildOs, long cpuMillis, long memoryBytes, boolean oomKilled) {
+        componentBranchBuildRepository.save(
+                ComponentBranchBuild.builder()
+                        .componentId(componentId)
+                        .buildOs(buildOs)
+                        .buildStatus(oomKilled ? BuildStatus.FAILED : BuildStatus.SUCCESS)
+                        .resourceProfile(ResourceProfile.builder().memoryLimit("2Gi").build())
+                        .resourceUsage(
+                                ResourceUsage.builder()
+                                        .peakCpuMillis(cpuMillis)
+                                        .peakMemoryBytes(memoryBytes)
+                                        .samples(1)
+                                        .oomKilled(oomKilled)
+                                        .build()
+                        )
+                        .build()
+        );
+    }
+}
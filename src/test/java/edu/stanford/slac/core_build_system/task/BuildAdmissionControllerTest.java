@@ -0,0 +1,91 @@
+package edu.stanford.slac.core_build_system.task;
+
+import edu.stanford.slac.core_build_system.config.CoreBuildProperties;
+import edu.stanford.slac.core_build_system.config.GitHubClient;
+import edu.stanford.slac.core_build_system.model.ResourceProfile;
+import edu.stanford.slac.core_build_system.repository.KubernetesRepository;
+import io.fabric8.kubernetes.api.model.Quantity;
+import io.fabric8.kubernetes.api.model.ResourceQuotaBuilder;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+
+import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+
+@AutoConfigureMockMvc
+@SpringBootTest()
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@ExtendWith(MockitoExtension.class)
+@ActiveProfiles({"test"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class BuildAdmissionControllerTest {
+    private static final String ADMISSION_NAMESPACE = "admission-test-ns";
+    private static final String QUOTA_NAME = "cbs-admission-test";
+    @MockBean
+    private GitHubClient.GHInstancer ghInstancer;
+    @Autowired
+    private KubernetesClient client;
+    @Autowired
+    private KubernetesRepository kubernetesRepository;
+    @Autowired
+    private CoreBuildProperties coreBuildProperties;
+    @Autowired
+    private MeterRegistry meterRegistry;
+    @Autowired
+    private BuildAdmissionController buildAdmissionController;
+
+    @BeforeAll
+    public void createQuota() {
+        coreBuildProperties.setK8sBuildNamespace(ADMISSION_NAMESPACE);
+        assertDoesNotThrow(() -> kubernetesRepository.ensureNamespace(ADMISSION_NAMESPACE));
+        client.resourceQuotas().inNamespace(ADMISSION_NAMESPACE).resource(
+                new ResourceQuotaBuilder()
+                        .withNewMetadata().withName(QUOTA_NAME).endMetadata()
+                        .withNewSpec().addToHard("requests.ephemeral-storage", new Quantity("3Gi")).endSpec()
+                        .build()
+        ).serverSideApply();
+    }
+
+    @AfterAll
+    public void deleteQuota() {
+        client.resourceQuotas().inNamespace(ADMISSION_NAMESPACE).withName(QUOTA_NAME).delete();
+    }
+
+    @Test
+    public void testBuildsWaitForTheQuota() {
+        coreBuildProperties.setAdmissionMaxPendingPods(0);
+        buildAdmissionController.refresh();
+        double waitingBefore = meterRegistry.counter("cbs.admission.decisions", "result", "waiting").count();
+
+        // the first build fits in the quota, the second no more
+        assertThat(buildAdmissionController.admit("build-1", ResourceProfile.builder().ephemeralStorageRequest("2Gi").build())).isTrue();
+        assertThat(buildAdmissionController.admit("build-2", ResourceProfile.builder().ephemeralStorageRequest("2Gi").build())).isFalse();
+        // a smaller build still fits
+        assertThat(buildAdmissionController.admit("build-3", ResourceProfile.builder().ephemeralStorageRequest("1Gi").build())).isTrue();
+        assertThat(meterRegistry.counter("cbs.admission.decisions", "result", "waiting").count() - waitingBefore).isEqualTo(1);
+        assertThat(buildAdmissionController.admittedBuilds()).isGreaterThanOrEqualTo(2);
+
+        // the released resources admit the waiting build
+        buildAdmissionController.release("build-1");
+        assertThat(buildAdmissionController.admit("build-2", ResourceProfile.builder().ephemeralStorageRequest("2Gi").build())).isTrue();
+
+        // the admitted pods not yet scheduled are pending, the limit block the next builds
+        coreBuildProperties.setAdmissionMaxPendingPods(2);
+        assertThat(buildAdmissionController.admit("build-4", null)).isFalse();
+        coreBuildProperties.setAdmissionEnabled(false);
+        assertThat(buildAdmissionController.admit("build-4", null)).isTrue();
+        coreBuildProperties.setAdmissionEnabled(true);
+    }
+}
@@ -0,0 +1,106 @@
+package edu.stanford.slac.core_build_system.task;
+
+import edu.stanford.slac.core_build_system.config.GitHubClient;
+import edu.stanford.slac.core_build_system.model.BuildStatus;
+import edu.stanford.slac.core_build_system.model.ComponentBranchBuild;
+import edu.stanford.slac.core_build_system.repository.ComponentBranchBuildRepository;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
+import static org.awaitility.Awaitility.await;
+
+@AutoConfigureMockMvc
+@SpringBootTest()
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@ExtendWith(MockitoExtension.class)
+@ActiveProfiles({"test"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class BuildChangeStreamListenerTest {
+    @MockBean
+    private GitHubClient.GHInstancer ghInstancer;
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    @Autowired
+    private ThreadPoolTaskScheduler taskScheduler;
+    @Autowired
+    private ComponentBranchBuildRepository componentBranchBuildRepository;
+    @Autowired
+    private BuildChangeStreamListener buildChangeStreamListener;
+    @Autowired
+    private WakeUpRecorder wakeUpRecorder;
+
+    @TestConfiguration
+    static class WakeUpRecorderConfig {
+        @Bean
+        public WakeUpRecorder wakeUpRecorder() {
+            return new WakeUpRecorder();
+        }
+    }
+
+    static class WakeUpRecorder {
+        private final List<BuildWakeUpEvent> events = new CopyOnWriteArrayList<>();
+
+        @EventListener
+        public void onWakeUp(BuildWakeUpEvent event) {
+            events.add(event);
+        }
+
+        boolean wokenUpFor(String buildId) {
+            return events.stream().anyMatch(event -> buildId.equals(event.buildId()));
+        }
+    }
+
+    @BeforeAll
+    public void stopDispatcher() {
+        // the builds are only observed, not processed
+        taskScheduler.shutdown();
+    }
+
+    @AfterAll
+    public void restartDispatcher() {
+        taskScheduler.initialize();
+    }
+
+    @BeforeEach
+    public void clean() {
+        mongoTemplate.remove(new Query(), ComponentBranchBuild.class);
+        await().atMost(30, SECONDS).until(buildChangeStreamListener::isListening);
+    }
+
+    @Test
+    public void testNewBuildWakeUpTheDispatcher() {
+        ComponentBranchBuild newBuild = componentBranchBuildRepository.save(ComponentBranchBuild.builder().branchName("main").build());
+        await().atMost(10, SECONDS).until(() -> wakeUpRecorder.wokenUpFor(newBuild.getId()));
+    }
+
+    @Test
+    public void testExpeditedBuildWakeUpTheDispatcher() {
+        ComponentBranchBuild preparingBuild = componentBranchBuildRepository.save(
+                ComponentBranchBuild.builder().branchName("main").buildStatus(BuildStatus.PREPARING).build()
+        );
+        await().atMost(10, SECONDS).until(() -> wakeUpRecorder.wokenUpFor(preparingBuild.getId()));
+        wakeUpRecorder.events.clear();
+
+        // the pod termination seen by another instance
+        assertThat(componentBranchBuildRepository.expediteProcessing(preparingBuild.getId())).isTrue();
+        await().atMost(10, SECONDS).until(() -> wakeUpRecorder.wokenUpFor(preparingBuild.getId()));
+    }
+}
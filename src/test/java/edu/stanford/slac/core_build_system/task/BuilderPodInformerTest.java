@@ -0,0 +1,220 @@
+package edu.stanford.slac.core_build_system.task;
+
+import edu.stanford.slac.core_build_system.api.v1.dto.BuildStatusDTO;
+import edu.stanford.slac.core_build_system.config.CoreBuildProperties;
+import edu.stanford.slac.core_build_system.config.GitHubClient;
+import edu.stanford.slac.core_build_system.model.BuildStatus;
+import edu.stanford.slac.core_build_system.model.ComponentBranchBuild;
+import edu.stanford.slac.core_build_system.model.K8SPodBuilder;
+import edu.stanford.slac.core_build_system.repository.ComponentBranchBuildRepository;
+import edu.stanford.slac.core_build_system.repository.KubernetesRepository;
+import edu.stanford.slac.core_build_system.utility.KubernetesInit;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodBuilder;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.event.ApplicationEvents;
+import org.springframework.test.context.event.RecordApplicationEvents;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+
+@AutoConfigureMockMvc
+@SpringBootTest()
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@ExtendWith(MockitoExtension.class)
+@ActiveProfiles({"test"})
+@RecordApplicationEvents
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class BuilderPodInformerTest {
+    @MockBean
+    private GitHubClient.GHInstancer ghInstancer;
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    @Autowired
+    private CoreBuildProperties coreBuildProperties;
+    @Autowired
+    private KubernetesRepository kubernetesRepository;
+    @Autowired
+    private ComponentBranchBuildRepository componentBranchBuildRepository;
+    @Autowired
+    private BuilderPodInformer builderPodInformer;
+    @Autowired
+    private ApplicationEvents applicationEvents;
+    @Autowired
+    private ThreadPoolTaskScheduler taskScheduler;
+
+    @BeforeAll
+    public void initResources() {
+        // the builds are not processed by the dispatcher during the test
+        taskScheduler.shutdown();
+        KubernetesInit.init(kubernetesRepository, coreBuildProperties.getK8sBuildNamespace());
+    }
+
+    @AfterAll
+    public void restartDispatcher() {
+        taskScheduler.initialize();
+    }
+
+    @BeforeEach
+    public void clean() {
+        mongoTemplate.remove(new Query(), ComponentBranchBuild.class);
+    }
+
+    @Test
+    public void testPodBuildStatus() {
+        // the pod without a terminated container is still building, whatever its phase
+        assertThat(BuilderPodInformer.podBuildStatus(null)).isEqualTo(BuildStatusDTO.IN_PROGRESS);
+        assertThat(BuilderPodInformer.podBuildStatus(new PodBuilder().withNewMetadata().withName("no-status").endMetadata().build()))
+                .isEqualTo(BuildStatusDTO.IN_PROGRESS);
+        assertThat(BuilderPodInformer.podBuildStatus(new PodBuilder().withNewStatus().withPhase("Pending").endStatus().build()))
+                .isEqualTo(BuildStatusDTO.IN_PROGRESS);
+        assertThat(BuilderPodInformer.podBuildStatus(runningPod("build-id"))).isEqualTo(BuildStatusDTO.IN_PROGRESS);
+
+        // the reason of the termination gives the result of the build
+        assertThat(BuilderPodInformer.podBuildStatus(terminatedPod("build-id", "Succeeded", "Completed", 0))).isEqualTo(BuildStatusDTO.SUCCESS);
+        assertThat(BuilderPodInformer.podBuildStatus(terminatedPod("build-id", "Failed", "Error", 1))).isEqualTo(BuildStatusDTO.FAILED);
+        Pod oomKilledPod = terminatedPod("build-id", "Failed", "OOMKilled", 137);
+        assertThat(BuilderPodInformer.podBuildStatus(oomKilledPod)).isEqualTo(BuildStatusDTO.FAILED);
+        assertThat(BuilderPodInformer.isOomKilled(oomKilledPod)).isTrue();
+        assertThat(BuilderPodInformer.isOomKilled(terminatedPod("build-id", "Failed", "Error", 1))).isFalse();
+    }
+
+    @Test
+    public void testPodTerminationExpeditesTheBuild() {
+        ComponentBranchBuild runningBuild = saveBuild(BuildStatus.IN_PROGRESS);
+        ComponentBranchBuild completedBuild = saveBuild(BuildStatus.SUCCESS);
+
+        // a pod update that does not terminate the container is ignored
+        builderPodInformer.onUpdate(runningPod(runningBuild.getId()), runningPod(runningBuild.getId()));
+        assertThat(componentBranchBuildRepository.findById(runningBuild.getId()).orElseThrow().getLastProcessTime())
+                .isAfter(LocalDateTime.of(1971, 1, 1, 0, 0));
+        assertThat(podTerminationEvents()).isEmpty();
+
+        // the termination for memory is recorded and the build is processed as soon as possible
+        builderPodInformer.onUpdate(runningPod(runningBuild.getId()), terminatedPod(runningBuild.getId(), "Failed", "OOMKilled", 137));
+        ComponentBranchBuild expeditedBuild = componentBranchBuildRepository.findById(runningBuild.getId()).orElseThrow();
+        assertThat(expeditedBuild.getLastProcessTime()).isBefore(LocalDateTime.of(1971, 1, 1, 0, 0));
+        assertThat(expeditedBuild.getResourceUsage().isOomKilled()).isTrue();
+        assertThat(podTerminationEvents()).extracting(BuildWakeUpEvent::buildId).containsExactly(runningBuild.getId());
+
+        // the updates of an already terminated pod and the pods of terminated builds do not wake up the dispatcher
+        builderPodInformer.onUpdate(
+                terminatedPod(runningBuild.getId(), "Failed", "OOMKilled", 137),
+                terminatedPod(runningBuild.getId(), "Failed", "OOMKilled", 137)
+        );
+        builderPodInformer.onUpdate(runningPod(completedBuild.getId()), terminatedPod(completedBuild.getId(), "Succeeded", "Completed", 0));
+        assertThat(podTerminationEvents()).hasSize(1);
+    }
+
+    @Test
+    public void testPodNotInTheCacheIsFetched() {
+        String namespace = coreBuildProperties.getK8sBuildNamespace();
+        // the informer watches only the pods labelled with the build
+        Pod labelledPod = assertDoesNotThrow(() -> kubernetesRepository.spinUpBuildPod(
+                K8SPodBuilder.builder()
+                        .namespace(namespace)
+                        .dockerImage("busybox")
+                        .builderName("%s-informer-builder".formatted(UUID.randomUUID().toString().substring(0, 8)))
+                        .buildCommand(List.of("echo", "Hello, World!"))
+                        .mountLocation("/mnt")
+                        .label(Map.of(KubernetesRepository.BUILD_ID_LABEL, "informer-build"))
+                        .build()
+        ));
+        Pod unlabelledPod = assertDoesNotThrow(() -> kubernetesRepository.spinUpBuildPod(
+                K8SPodBuilder.builder()
+                        .namespace(namespace)
+                        .dockerImage("busybox")
+                        .builderName("%s-fetched-builder".formatted(UUID.randomUUID().toString().substring(0, 8)))
+                        .buildCommand(List.of("echo", "Hello, World!"))
+                        .mountLocation("/mnt")
+                        .build()
+        ));
+        String labelledPodName = labelledPod.getMetadata().getName();
+        String unlabelledPodName = unlabelledPod.getMetadata().getName();
+
+        await()
+                .atMost(30, SECONDS)
+                .pollInterval(1, SECONDS)
+                .until(() -> builderPodInformer.findBuilderPod(labelledPodName).isPresent());
+        assertThat(builderPodInformer.getBuilderPod(labelledPodName)).isPresent();
+
+        // the pod missing in the cache is read from the api server
+        assertThat(builderPodInformer.findBuilderPod(unlabelledPodName)).isEmpty();
+        assertThat(builderPodInformer.getBuilderPod(unlabelledPodName)).isPresent().get()
+                .extracting(pod -> pod.getMetadata().getName()).isEqualTo(unlabelledPodName);
+        assertThat(builderPodInformer.getBuilderPod("missing-builder")).isEmpty();
+
+        assertDoesNotThrow(() -> kubernetesRepository.deletePod(namespace, labelledPodName));
+        assertDoesNotThrow(() -> kubernetesRepository.deletePod(namespace, unlabelledPodName));
+    }
+
+    private List<BuildWakeUpEvent> podTerminationEvents() {
+        // the change stream of the builds wakes up the dispatcher as well
+        return applicationEvents.stream(BuildWakeUpEvent.class)
+                .filter(event -> "builder pod terminated".equals(event.reason()))
+                .toList();
+    }
+
+    private ComponentBranchBuild saveBuild(BuildStatus buildStatus) {
+        return componentBranchBuildRepository.save(
+                ComponentBranchBuild.builder()
+                        .branchName("branch1")
+                        .buildStatus(buildStatus)
+                        .build()
+        );
+    }
+
+    private static Pod runningPod(String buildId) {
+        return new PodBuilder()
+                .withNewMetadata()
+                .withName("%s-builder".formatted(buildId))
+                .addToLabels(KubernetesRepository.BUILD_ID_LABEL, buildId)
+                .endMetadata()
+                .withNewStatus()
+                .withPhase("Running")
+                .addNewContainerStatus()
+                .withName("builder")
+                .withNewState().withNewRunning().endRunning().endState()
+                .endContainerStatus()
+                .endStatus()
+                .build();
+    }
+
+    private static Pod terminatedPod(String buildId, String phase, String reason, int exitCode) {
+        return new PodBuilder()
+                .withNewMetadata()
+                .withName("%s-builder".formatted(buildId))
+                .addToLabels(KubernetesRepository.BUILD_ID_LABEL, buildId)
+                .endMetadata()
+                .withNewStatus()
+                .withPhase(phase)
+                .addNewContainerStatus()
+                .withName("builder")
+                .withNewState().withNewTerminated().withReason(reason).withExitCode(exitCode).endTerminated().endState()
+                .endContainerStatus()
+                .endStatus()
+                .build();
+    }
+}
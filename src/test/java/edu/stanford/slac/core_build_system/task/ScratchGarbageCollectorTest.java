@@ -0,0 +1,167 @@
+package edu.stanford.slac.core_build_system.task;
+
+import edu.stanford.slac.core_build_system.config.CoreBuildProperties;
+import edu.stanford.slac.core_build_system.config.GitHubClient;
+import edu.stanford.slac.core_build_system.model.BuildStatus;
+import edu.stanford.slac.core_build_system.model.ComponentBranchBuild;
+import edu.stanford.slac.core_build_system.model.SharedCheckout;
+import edu.stanford.slac.core_build_system.repository.ComponentBranchBuildRepository;
+import edu.stanford.slac.core_build_system.repository.SharedCheckoutRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.AssertionsForInterfaceTypes.assertThat;
+
+@AutoConfigureMockMvc
+@SpringBootTest()
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+@ExtendWith(MockitoExtension.class)
+@ActiveProfiles({"test"})
+@DirtiesContext(classMode = DirtiesContext.ClassMode.AFTER_CLASS)
+public class ScratchGarbageCollectorTest {
+    @MockBean
+    private GitHubClient.GHInstancer ghInstancer;
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    @Autowired
+    private MeterRegistry meterRegistry;
+    @Autowired
+    private CoreBuildProperties coreBuildProperties;
+    @Autowired
+    private ComponentBranchBuildRepository componentBranchBuildRepository;
+    @Autowired
+    private SharedCheckoutRepository sharedCheckoutRepository;
+    @Autowired
+    private ScratchGarbageCollector scratchGarbageCollector;
+    private String originalFsRoot;
+    private Path fsRoot;
+    private Path scratchRoot;
+
+    @BeforeAll
+    public void saveConfiguration() {
+        originalFsRoot = coreBuildProperties.getBuildFsRootDirectory();
+    }
+
+    @AfterAll
+    public void restoreConfiguration() {
+        coreBuildProperties.setBuildFsRootDirectory(originalFsRoot);
+    }
+
+    @BeforeEach
+    public void prepare() throws IOException {
+        mongoTemplate.remove(new Query(), ComponentBranchBuild.class);
+        mongoTemplate.remove(new Query(), SharedCheckout.class);
+        fsRoot = Files.createTempDirectory("scratch-gc");
+        scratchRoot = fsRoot.resolve(coreBuildProperties.getBuildScratchRootDirectory());
+        coreBuildProperties.setBuildFsRootDirectory(fsRoot.toString());
+        coreBuildProperties.setScratchGcMaxAgeMs(24L * 60 * 60 * 1000);
+        coreBuildProperties.setScratchGcMaxCount(Integer.MAX_VALUE);
+        coreBuildProperties.setScratchGcMaxSizeBytes(Long.MAX_VALUE);
+    }
+
+    @AfterEach
+    public void clean() throws IOException {
+        FileSystemUtils.deleteRecursively(fsRoot);
+    }
+
+    @Test
+    public void testRetentionOfTerminatedBuilds() throws IOException {
+        Path oldestSuccess = buildDirectory(BuildStatus.SUCCESS, 3);
+        Path failed = buildDirectory(BuildStatus.FAILED, 2);
+        Path inProgress = buildDirectory(BuildStatus.IN_PROGRESS, 4);
+        Path deletedBuild = scratchDirectory("comp-main-ubuntu-%s".formatted(new ObjectId()), 1);
+        Path unmanaged = scratchDirectory("lost+found", 5);
+        double reclaimedBefore = meterRegistry.get("cbs.scratch.gc.reclaimed.bytes").counter().count();
+
+        // every terminated directory is within the retention policy
+        scratchGarbageCollector.collect();
+        assertExist(Set.of(oldestSuccess, failed, inProgress, deletedBuild, unmanaged));
+
+        // only two terminated directories are kept, the oldest is deleted
+        coreBuildProperties.setScratchGcMaxCount(2);
+        scratchGarbageCollector.collect();
+        assertThat(Files.exists(oldestSuccess)).isFalse();
+        assertExist(Set.of(failed, inProgress, deletedBuild, unmanaged));
+
+        // over the quota all the terminated directories are deleted, never the running build
+        coreBuildProperties.setScratchGcMaxSizeBytes(1);
+        scratchGarbageCollector.collect();
+        assertThat(Files.exists(failed)).isFalse();
+        assertThat(Files.exists(deletedBuild)).isFalse();
+        assertExist(Set.of(inProgress, unmanaged));
+
+        assertThat(meterRegistry.get("cbs.scratch.gc.reclaimed.bytes").counter().count() - reclaimedBefore)
+                .isEqualTo(3 * 1024);
+    }
+
+    @Test
+    public void testExpiredBuildsAndOrphanCheckouts() throws IOException {
+        Path expired = buildDirectory(BuildStatus.STOPPED, 2);
+        Path recent = buildDirectory(BuildStatus.SUCCESS, 0);
+        String registeredId = new ObjectId().toString();
+        sharedCheckoutRepository.save(SharedCheckout.builder().id(registeredId).buildIds(Set.of("build")).build());
+        Path registeredCheckout = scratchDirectory("shared/comp-main-%s".formatted(registeredId), 10);
+        Path orphanCheckout = scratchDirectory("shared/comp-main-%s".formatted(new ObjectId()), 10);
+        Path orphanDownload = scratchDirectory("shared/comp-main-%s.tmp-%s".formatted(new ObjectId(), new ObjectId()), 10);
+
+        coreBuildProperties.setScratchGcMaxAgeMs(24L * 60 * 60 * 1000);
+        scratchGarbageCollector.collect();
+        assertThat(Files.exists(expired)).isFalse();
+        assertThat(Files.exists(orphanCheckout)).isFalse();
+        assertThat(Files.exists(orphanDownload)).isFalse();
+        assertExist(Set.of(recent, registeredCheckout));
+    }
+
+    /**
+     * Create the scratch directory of a build with the given status
+     */
+    private Path buildDirectory(BuildStatus buildStatus, int ageInDays) throws IOException {
+        ComponentBranchBuild build = componentBranchBuildRepository.save(
+                ComponentBranchBuild.builder().branchName("main").buildStatus(buildStatus).build()
+        );
+        return scratchDirectory("comp-main-ubuntu-%s".formatted(build.getId()), ageInDays);
+    }
+
+    /**
+     * Create a scratch directory with a 1KiB file, last modified some days ago
+     */
+    private Path scratchDirectory(String name, int ageInDays) throws IOException {
+        Path directory = scratchRoot.resolve(name);
+        Files.createDirectories(directory.resolve("comp"));
+        Files.write(directory.resolve("comp").resolve("source.c"), new byte[1024]);
+        FileTime lastModified = FileTime.from(Instant.now().minus(ageInDays, ChronoUnit.DAYS));
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.toList()) {
+                Files.setLastModifiedTime(path, lastModified);
+            }
+        }
+        return directory;
+    }
+
+    private static void assertExist(Set<Path> paths) {
+        for (Path path : paths) {
+            assertThat(Files.exists(path)).isTrue();
+        }
+    }
+}
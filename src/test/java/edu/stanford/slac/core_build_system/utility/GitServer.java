@@ -11,6 +11,7 @@ import java.io.IOException;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.List;
+import java.util.Random;
 
 public class GitServer {
 
@@ -57,6 +58,29 @@ public class GitServer {
         git.checkout().setName("main").call();
     }
 
+    /**
+     * Add history to the main branch of the test repository, a tag is created every ten commits
+     *
+     * @param commits  the number of commits to add
+     * @param fileSize the size in bytes of the file changed by each commit
+     */
+    public static void appendHistory(int commits, int fileSize) throws Exception {
+        Random random = new Random(commits);
+        try (Git git = Git.open(tempDir)) {
+            git.checkout().setName("main").call();
+            for (int i = 0; i < commits; i++) {
+                byte[] content = new byte[fileSize];
+                random.nextBytes(content);
+                Files.write(tempDir.toPath().resolve("history-%d.bin".formatted(i % 10)), content);
+                git.add().addFilepattern(".").call();
+                git.commit().setMessage("History commit " + i).call();
+                if (i % 10 == 0) {
+                    git.tag().setName("history-" + i).call();
+                }
+            }
+        }
+    }
+
     public static void cleanup() {
         if (tempDir != null && tempDir.exists()) {
             deleteDirectory(tempDir);